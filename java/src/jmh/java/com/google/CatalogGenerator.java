@@ -0,0 +1,87 @@
+package com.google;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Random;
+
+/**
+ * Writes deterministic synthetic catalogs in the videos.txt format for benchmarks. Catalogs
+ * are cached in the temp directory by size, so each size is only generated once per machine.
+ */
+final class CatalogGenerator {
+
+  private static final String[] WORDS = {
+      "funny", "amazing", "cat", "dog", "video", "life", "at", "google", "about", "nothing",
+      "another", "best", "cooking", "travel", "music", "live", "tutorial", "java", "review",
+      "unboxing", "epic", "fails", "compilation", "how", "to", "make", "the", "ultimate",
+      "guide", "daily", "vlog", "news", "gaming", "speedrun", "cute", "puppies", "kittens",
+      "science", "space", "history", "football", "highlights", "workout", "yoga", "recipe",
+      "pasta", "coffee", "morning", "routine", "city", "walk", "tour", "drone", "footage"};
+
+  /** Number of distinct tags; tag popularity is skewed so a few tags are very common. */
+  static final int TAG_COUNT = 500;
+
+  private CatalogGenerator() {
+  }
+
+  /** Returns the path of a cached catalog with the given number of videos, generating it. */
+  static Path catalog(int videos) {
+    Path path = Paths.get(System.getProperty("java.io.tmpdir"), "yt-catalog-" + videos + ".txt");
+    if (Files.exists(path)) {
+      return path;
+    }
+    try {
+      Path partial = Files.createTempFile(path.getParent(), "yt-catalog-", ".partial");
+      write(partial, videos, 42);
+      Files.move(partial, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      return path;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /** Writes a catalog of the given number of videos generated from the seed. */
+  static void write(Path path, int videos, long seed) throws IOException {
+    Random random = new Random(seed);
+    try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+      StringBuilder line = new StringBuilder(128);
+      for (int i = 0; i < videos; i++) {
+        line.setLength(0);
+        int words = 2 + random.nextInt(5);
+        for (int w = 0; w < words; w++) {
+          String word = WORDS[random.nextInt(WORDS.length)];
+          if (w > 0) {
+            line.append(' ');
+          }
+          line.append(Character.toUpperCase(word.charAt(0))).append(word, 1, word.length());
+        }
+        line.append(' ').append(i).append(" | ").append(videoId(i)).append(" | ");
+        int tags = random.nextInt(4);
+        for (int t = 0; t < tags; t++) {
+          if (t > 0) {
+            line.append(" , ");
+          }
+          line.append(tag(random));
+        }
+        writer.append(line).append('\n');
+      }
+    }
+  }
+
+  /** Returns the id of the i-th generated video. */
+  static String videoId(int i) {
+    return "video_" + i + "_id";
+  }
+
+  /** Returns a tag drawn with a skewed (roughly Zipfian) popularity. */
+  private static String tag(Random random) {
+    double u = random.nextDouble();
+    return "#tag" + (int) (TAG_COUNT * u * u * u);
+  }
+}
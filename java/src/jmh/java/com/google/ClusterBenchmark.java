@@ -0,0 +1,71 @@
+package com.google;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the throughput of four concurrent sessions on a coordinator over 1 to 4 shard
+ * processes on this machine. Searches go to every shard and their terms vary, so the shards'
+ * search caches rarely answer; lookups go to one shard. The shards only run in parallel on as
+ * many cores as there are shard processes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class ClusterBenchmark {
+
+  @Param({"1000000"})
+  public int videos;
+
+  @Param({"1", "2", "4"})
+  public int shards;
+
+  private LocalCluster cluster;
+  private ClusterLibrary library;
+
+  @Setup(Level.Trial)
+  public void launch() throws IOException {
+    cluster = LocalCluster.launch(CatalogGenerator.catalog(videos), shards,
+        "-Xmx" + Math.max(1, 4 / shards) + "g");
+    library = cluster.connect(10_000);
+  }
+
+  @TearDown(Level.Trial)
+  public void stop() throws IOException {
+    library.close();
+    cluster.close();
+  }
+
+  @Benchmark
+  public List<Video> searchVideosScattered() {
+    //titles end with the video's number, so a number matches a few hundred videos
+    return library.searchVideosByTitle(
+        String.valueOf(1000 + ThreadLocalRandom.current().nextInt(9000)));
+  }
+
+  @Benchmark
+  public Video getVideoRouted() {
+    return library.getVideo(
+        CatalogGenerator.videoId(ThreadLocalRandom.current().nextInt(videos)));
+  }
+}
@@ -0,0 +1,60 @@
+package com.google;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures what {@link CommandMetrics} adds to command execution by running the same
+ * commands through a {@link CommandParser} with and without metrics. PLAY and STOP are the
+ * cheapest commands, so they bound the relative overhead from above.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class CommandMetricsBenchmark {
+
+  @Param({"1000000"})
+  public int videos;
+
+  @Param({"true", "false"})
+  public boolean metrics;
+
+  private VideoLibrary library;
+  private CommandParser parser;
+
+  @Setup(Level.Trial)
+  public void load() {
+    library = new VideoLibrary(CatalogGenerator.catalog(videos), null, new CatalogLoader(),
+        CatalogStore.Storage.HEAP);
+    VideoPlayer player = new VideoPlayer(library, new NullSink());
+    player.setAnswerReader(() -> null);
+    parser = new CommandParser(player, metrics ? new CommandMetrics() : null);
+  }
+
+  @Benchmark
+  public void playStop() {
+    parser.executeCommandLine(
+        "PLAY " + CatalogGenerator.videoId(ThreadLocalRandom.current().nextInt(videos)));
+    parser.executeCommandLine("STOP");
+  }
+
+  @Benchmark
+  public void searchVideosWithTag() {
+    parser.executeCommandLine("SEARCH_VIDEOS_WITH_TAG #tag250");
+  }
+}
@@ -0,0 +1,52 @@
+package com.google;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures parsing and dispatch in {@link CommandParser} on commands whose own work is
+ * negligible: malformed lines answered with a usage message, and STOP with nothing playing.
+ * Run with "-prof gc" to see the allocation per command.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandParserBenchmark {
+
+  private CommandParser parser;
+
+  @Setup(Level.Trial)
+  public void load() {
+    VideoPlayer player = new VideoPlayer(new VideoLibrary(), new NullSink());
+    player.setAnswerReader(() -> null);
+    parser = new CommandParser(player, null);
+  }
+
+  @Benchmark
+  public void unknownCommand() {
+    parser.executeCommandLine("PLAYY amazing_cats_video_id");
+  }
+
+  @Benchmark
+  public void missingArguments() {
+    parser.executeCommandLine("add_to_playlist my_playlist");
+  }
+
+  @Benchmark
+  public void stop() {
+    parser.executeCommandLine("stop");
+  }
+}
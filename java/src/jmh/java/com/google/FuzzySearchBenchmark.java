@@ -0,0 +1,75 @@
+package com.google;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Times fuzzy title searches for misspelled words, the 10 nearest and every match, against
+ * computing the edit distance to every title word, which is what the index avoids. "speedrum"
+ * and "kitens" are near words of one title in ten; "4424" is near ordinals in a few titles.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class FuzzySearchBenchmark {
+
+  @Param({"10000", "1000000"})
+  public int videos;
+
+  @Param({"speedrum", "kitens", "4424"})
+  public String word;
+
+  private VideoLibrary library;
+  private String[][] titleWords;
+
+  @Setup(Level.Trial)
+  public void load() throws IOException {
+    library = new VideoLibrary(CatalogGenerator.catalog(videos), null, new CatalogLoader(),
+        CatalogStore.Storage.HEAP);
+    library.searchVideosFuzzy(word, 10); //indexes the title words and their trigrams
+    titleWords = Files.lines(CatalogGenerator.catalog(videos))
+        .map(line -> line.substring(0, line.indexOf(" | ")).toLowerCase().split(" "))
+        .toArray(String[][]::new);
+  }
+
+  @Benchmark
+  public int top10() {
+    return library.searchVideosFuzzy(word, 10).size();
+  }
+
+  @Benchmark
+  public int all() {
+    return library.searchVideosFuzzy(word, Integer.MAX_VALUE).size();
+  }
+
+  @Benchmark
+  public int everyTitle() {
+    int max = FuzzySearch.maxDistance(word.length());
+    int found = 0;
+    for (String[] words : titleWords) {
+      for (String titleWord : words) {
+        if (FuzzySearch.editDistance(word, titleWord, max) <= max) {
+          found++;
+          break;
+        }
+      }
+    }
+    return found;
+  }
+}
@@ -0,0 +1,90 @@
+package com.google;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of many sessions issuing commands in parallel over one shared library. Run with
+ * different thread counts (-t 1, -t 4, ...) to see how throughput scales with cores.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@Threads(Threads.MAX)
+public class MultiSessionBenchmark {
+
+  /** The library shared by every session. */
+  @State(Scope.Benchmark)
+  public static class Shared {
+    @Param({"10000", "1000000"})
+    public int videos;
+
+    SessionManager sessions;
+    final AtomicInteger nextSession = new AtomicInteger();
+
+    @Setup
+    public void load() {
+      sessions = new SessionManager(new VideoLibrary(CatalogGenerator.catalog(videos)));
+    }
+  }
+
+  /** One session per benchmark thread. */
+  @State(Scope.Thread)
+  public static class Session {
+    VideoPlayer player;
+    int videos;
+
+    @Setup
+    public void open(Shared shared) {
+      player = shared.sessions.open("session" + shared.nextSession.incrementAndGet(),
+          NullSink::new);
+      player.setAnswerReader(() -> null);
+      player.createPlaylist("mine");
+      videos = shared.videos;
+    }
+  }
+
+  private static String randomId(Session session) {
+    return CatalogGenerator.videoId(ThreadLocalRandom.current().nextInt(session.videos));
+  }
+
+  @Benchmark
+  public void playAndShow(Session session) {
+    session.player.playVideo(randomId(session));
+    session.player.showPlaying();
+  }
+
+  @Benchmark
+  public void playlistAddRemove(Session session) {
+    String id = randomId(session);
+    session.player.addVideoToPlaylist("mine", id);
+    session.player.removeFromPlaylist("mine", id);
+  }
+
+  @Benchmark
+  public void flagAndAllow(Session session) {
+    String id = randomId(session);
+    session.player.flagVideo(id, "benchmark");
+    session.player.allowVideo(id);
+  }
+
+  @Benchmark
+  public void searchSelective(Session session) {
+    session.player.searchVideos("speedrun drone");
+  }
+}
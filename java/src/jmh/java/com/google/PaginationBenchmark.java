@@ -0,0 +1,64 @@
+package com.google;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Times a random page of 20 of all videos and of a broad title search continued from a
+ * random match, against listing every video. The search is not cached, so a page resumes the
+ * title order at the match and walks it until the page is full. Output goes to a
+ * {@link NullSink}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class PaginationBenchmark {
+
+  @Param({"10000", "1000000"})
+  public int videos;
+
+  private VideoLibrary library;
+  private VideoPlayer player;
+  private List<Video> catMatches;
+
+  @Setup(Level.Trial)
+  public void load() {
+    library = new VideoLibrary(CatalogGenerator.catalog(videos), null, new CatalogLoader(),
+        CatalogStore.Storage.HEAP);
+    player = new VideoPlayer(library, new NullSink());
+    player.setAnswerReader(() -> null);
+    catMatches = library.searchVideosByTitle("cat", null, -1, Integer.MAX_VALUE);
+  }
+
+  @Benchmark
+  public void showAllVideosPage() {
+    player.showAllVideos(1 + ThreadLocalRandom.current().nextInt(videos / 20), 20);
+  }
+
+  @Benchmark
+  public void searchVideosNextPage() {
+    Video after = catMatches.get(ThreadLocalRandom.current().nextInt(catMatches.size()));
+    player.searchVideos("cat", after.getTitle(), after.getOrdinal(), 20);
+  }
+
+  @Benchmark
+  public void showAllVideos() {
+    player.showAllVideos();
+  }
+}
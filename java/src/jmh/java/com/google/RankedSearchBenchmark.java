@@ -0,0 +1,55 @@
+package com.google;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares a top 10 ranked title search with the full title search, for a broad term ("cat",
+ * a word or inside "Compilation" in about one title in seven), a selective one ("4242") and
+ * one found only inside words ("ompil"). The full search runs without the cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class RankedSearchBenchmark {
+
+  @Param({"10000", "1000000"})
+  public int videos;
+
+  @Param({"cat", "4242", "ompil"})
+  public String term;
+
+  private VideoLibrary library;
+
+  @Setup(Level.Trial)
+  public void load() {
+    library = new VideoLibrary(CatalogGenerator.catalog(videos), null, new CatalogLoader(),
+        CatalogStore.Storage.HEAP);
+    library.setSearchCache(new SearchCache(0, 0));
+    library.searchVideosByTitle(term, 10); //indexes the title words
+  }
+
+  @Benchmark
+  public int top10() {
+    return library.searchVideosByTitle(term, 10).size();
+  }
+
+  @Benchmark
+  public int all() {
+    return library.searchVideosByTitle(term).size();
+  }
+}
@@ -0,0 +1,76 @@
+package com.google;
+
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Replays a skewed mix of 64 title searches and 64 tag searches, so that a few queries
+ * dominate as in real traffic, with the {@link SearchCache} on and with a cache that keeps
+ * nothing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class SearchCacheBenchmark {
+
+  private static final String[] WORDS = {"funny", "cat", "dog", "cooking", "travel", "music",
+      "java", "epic", "speedrun", "yoga", "drone", "coffee", "city", "space", "news", "vlog"};
+
+  @Param({"1000000"})
+  public int videos;
+
+  @Param({"true", "false"})
+  public boolean cache;
+
+  private VideoLibrary library;
+  private final String[] titleQueries = new String[64];
+  private final String[] tagQueries = new String[64];
+
+  @Setup(Level.Trial)
+  public void load() {
+    library = new VideoLibrary(CatalogGenerator.catalog(videos), null, new CatalogLoader(),
+        CatalogStore.Storage.HEAP);
+    if (!cache) {
+      library.setSearchCache(new SearchCache(0, 0));
+    }
+    Random random = new Random(7);
+    for (int i = 0; i < titleQueries.length; i++) {
+      titleQueries[i] = WORDS[random.nextInt(WORDS.length)] + " "
+          + WORDS[random.nextInt(WORDS.length)];
+      tagQueries[i] = "#tag" + random.nextInt(CatalogGenerator.TAG_COUNT) + " AND NOT #tag"
+          + random.nextInt(10);
+    }
+  }
+
+  /** Returns an index skewed towards 0: the minimum of two uniform picks. */
+  private static int skewed(int bound) {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    return Math.min(random.nextInt(bound), random.nextInt(bound));
+  }
+
+  @Benchmark
+  public int searchTitles() {
+    return library.searchVideosByTitle(titleQueries[skewed(titleQueries.length)]).size();
+  }
+
+  @Benchmark
+  public int searchTags() {
+    return library.searchVideosByTags(tagQueries[skewed(tagQueries.length)]).size();
+  }
+}
@@ -0,0 +1,63 @@
+package com.google;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Times title and tag searches and id lookups of a library split into shards, bypassing the
+ * {@link SearchCache} so every call searches. With one shard the searches run on the calling
+ * thread; with more they fan out on the common fork join pool, so compare shard counts on a
+ * machine with at least that many cores.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class ShardBenchmark {
+
+  @Param({"1000000"})
+  public int videos;
+
+  @Param({"1", "4"})
+  public int shards;
+
+  private VideoLibrary library;
+
+  @Setup(Level.Trial)
+  public void load() {
+    library = new VideoLibrary(CatalogGenerator.catalog(videos), null, new CatalogLoader(),
+        CatalogStore.Storage.HEAP, shards);
+    library.setSearchCache(new SearchCache(0, 0));
+  }
+
+  @Benchmark
+  public List<Video> searchVideosBroad() {
+    return library.searchVideosByTitle("cat");
+  }
+
+  @Benchmark
+  public List<Video> searchVideosWithTagExpression() {
+    return library.searchVideosByTags("#tag1 AND NOT #tag0");
+  }
+
+  @Benchmark
+  public Video getVideo() {
+    return library.getVideo(
+        CatalogGenerator.videoId(ThreadLocalRandom.current().nextInt(videos)));
+  }
+}
@@ -0,0 +1,49 @@
+package com.google;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Times ten suggestions for a partly typed id, a title prefix shared by many videos and a
+ * prefix nothing starts with. Run with {@code -prof gc} to see the allocation per call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class SuggestBenchmark {
+
+  @Param({"10000", "1000000"})
+  public int videos;
+
+  @Param({"video_123", "Funny C", "zz"})
+  public String prefix;
+
+  private CatalogVersion version;
+
+  @Setup(Level.Trial)
+  public void load() {
+    VideoLibrary library = new VideoLibrary(CatalogGenerator.catalog(videos), null,
+        new CatalogLoader(), CatalogStore.Storage.HEAP);
+    version = library.getCatalog();
+    version.suggest(prefix, 10, ordinal -> true); //sorts the ids and titles
+  }
+
+  @Benchmark
+  public int[] suggest() {
+    return version.suggest(prefix, 10, ordinal -> true);
+  }
+}
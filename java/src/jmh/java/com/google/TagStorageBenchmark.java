@@ -0,0 +1,130 @@
+package com.google;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares the dictionary-encoded tags of a library with the per-video string lists they
+ * replaced: the cost of matching one tag across the catalog, and the retained heap of each
+ * representation (reported by {@link #footprint} as the stringTagBytes and tagIdBytes
+ * counters).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class TagStorageBenchmark {
+
+  private static final String PROBE_TAG = "#tag7";
+
+  @Param({"10000", "1000000", "10000000"})
+  public int videos;
+
+  private VideoLibrary library;
+  private List<List<String>> stringTags;
+  private int probeId;
+
+  @Setup(Level.Trial)
+  public void load() {
+    library = new VideoLibrary(CatalogGenerator.catalog(videos));
+    stringTags = stringTags(library);
+    probeId = library.getTagDictionary().find(PROBE_TAG);
+  }
+
+  /** Rebuilds the former layout: an unmodifiable list of freshly parsed strings per video. */
+  private static List<List<String>> stringTags(VideoLibrary library) {
+    List<List<String>> tags = new ArrayList<>(library.size());
+    for (int ordinal = 0; ordinal < library.size(); ordinal++) {
+      List<String> copy = new ArrayList<>();
+      for (String tag : library.getVideo(ordinal).getTags()) {
+        copy.add(new String(tag.toCharArray()));
+      }
+      tags.add(Collections.unmodifiableList(copy));
+    }
+    return tags;
+  }
+
+  @Benchmark
+  public int matchTagIds() {
+    int matches = 0;
+    for (int ordinal = 0; ordinal < library.size(); ordinal++) {
+      if (library.getVideo(ordinal).hasTag(probeId)) {
+        matches++;
+      }
+    }
+    return matches;
+  }
+
+  @Benchmark
+  public int matchTagStrings() {
+    int matches = 0;
+    for (List<String> tags : stringTags) {
+      if (tags.contains(PROBE_TAG)) {
+        matches++;
+      }
+    }
+    return matches;
+  }
+
+  /** Heap retained by each tag representation of the whole catalog, in bytes. */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class Footprint {
+    public long stringTagBytes;
+    public long tagIdBytes;
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  public void footprint(Footprint footprint, Blackhole blackhole) {
+    long before = usedHeap();
+    List<List<String>> strings = stringTags(library);
+    footprint.stringTagBytes = usedHeap() - before;
+    blackhole.consume(strings);
+    strings = null;
+
+    before = usedHeap();
+    //the store keeps tag ids as one flat column plus the start of each video's run
+    CatalogStore store = library.getStore();
+    int[] starts = new int[store.size() + 1];
+    IntList ids = new IntList(store.size());
+    for (int ordinal = 0; ordinal < store.size(); ordinal++) {
+      starts[ordinal] = ids.size();
+      for (int i = 0, tags = store.tagCount(ordinal); i < tags; i++) {
+        ids.add(store.tagId(ordinal, i));
+      }
+    }
+    starts[store.size()] = ids.size();
+    int[] column = ids.toArray();
+    ids = null;
+    footprint.tagIdBytes = usedHeap() - before;
+    blackhole.consume(starts);
+    blackhole.consume(column);
+  }
+
+  private static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
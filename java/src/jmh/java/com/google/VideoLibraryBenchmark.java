@@ -0,0 +1,83 @@
+package com.google;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks loading a synthetic catalog into a {@link VideoLibrary}, from its text and from a
+ * binary snapshot of it, and reloading it after a thousand videos were appended.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class VideoLibraryBenchmark {
+
+  @Param({"10000", "1000000", "10000000"})
+  public int videos;
+
+  private Path catalog;
+  private Path snapshot;
+  private Path grown;
+  private VideoLibrary loaded;
+
+  @Setup(Level.Trial)
+  public void generate() throws IOException {
+    catalog = CatalogGenerator.catalog(videos);
+    snapshot = Files.createTempFile("yt-catalog-" + videos, ".snapshot");
+    new VideoLibrary(catalog).writeSnapshot(snapshot, catalog);
+    grown = Files.createTempFile("yt-catalog-" + videos, ".grown.txt");
+    Files.copy(catalog, grown, StandardCopyOption.REPLACE_EXISTING);
+    StringBuilder added = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      added.append("Added video ").append(i).append(" | added_").append(i)
+          .append(" | #added , #tag").append(i % 10).append('\n');
+    }
+    Files.writeString(grown, added, StandardOpenOption.APPEND);
+  }
+
+  @Setup(Level.Iteration)
+  public void loadLibrary() {
+    loaded = new VideoLibrary(catalog);
+  }
+
+  @TearDown(Level.Trial)
+  public void deleteSnapshot() throws IOException {
+    Files.deleteIfExists(snapshot);
+    Files.deleteIfExists(grown);
+  }
+
+  @Benchmark
+  public VideoLibrary load() {
+    return new VideoLibrary(catalog);
+  }
+
+  @Benchmark
+  public VideoLibrary loadSnapshot() {
+    return new VideoLibrary(catalog, snapshot);
+  }
+
+  @Benchmark
+  public VideoLibrary.Reload reloadSmallDiff() throws IOException {
+    return loaded.reload(grown);
+  }
+}
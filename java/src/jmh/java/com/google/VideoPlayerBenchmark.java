@@ -0,0 +1,100 @@
+package com.google;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the {@link VideoLibrary} lookups and {@link VideoPlayer} commands over synthetic
+ * catalogs, with the catalog columns on and off the heap. Output goes to a {@link NullSink} so
+ * only the command work is measured, and searches bypass the {@link SearchCache} (see
+ * SearchCacheBenchmark) so every call searches.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class VideoPlayerBenchmark {
+
+  @Param({"10000", "1000000", "10000000"})
+  public int videos;
+
+  @Param({"HEAP", "OFF_HEAP"})
+  public String storage;
+
+  private VideoLibrary library;
+  private VideoPlayer player;
+
+  @Setup(Level.Trial)
+  public void load() {
+    library = new VideoLibrary(CatalogGenerator.catalog(videos), null, new CatalogLoader(),
+        CatalogStore.Storage.valueOf(storage));
+    library.setSearchCache(new SearchCache(0, 0));
+    player = new VideoPlayer(library, new NullSink());
+    //search commands prompt for a video to play; answer every prompt with no
+    player.setAnswerReader(() -> null);
+    player.createPlaylist("bench");
+  }
+
+  private String randomId() {
+    return CatalogGenerator.videoId(ThreadLocalRandom.current().nextInt(videos));
+  }
+
+  @Benchmark
+  public Video getVideo() {
+    return library.getVideo(randomId());
+  }
+
+  @Benchmark
+  public int sortedVideos() {
+    List<Video> sorted = player.sortedVideos();
+    return sorted.size() + sorted.get(sorted.size() / 2).getTitle().length();
+  }
+
+  @Benchmark
+  public void searchVideosSelective() {
+    player.searchVideos("speedrun drone");
+  }
+
+  @Benchmark
+  public void searchVideosBroad() {
+    player.searchVideos("cat");
+  }
+
+  @Benchmark
+  public void searchVideosWithTag() {
+    player.searchVideosWithTag("#tag250");
+  }
+
+  @Benchmark
+  public void searchVideosWithTagExpression() {
+    player.searchVideosWithTag("#tag1 AND NOT #tag0");
+  }
+
+  @Benchmark
+  public void playRandomVideo() {
+    player.playRandomVideo();
+  }
+
+  @Benchmark
+  public void playlistAddShowRemove() {
+    String id = randomId();
+    player.addVideoToPlaylist("bench", id);
+    player.showPlaylist("bench");
+    player.removeFromPlaylist("bench", id);
+  }
+}
@@ -0,0 +1,151 @@
+package com.google;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Replays a file of commands, one per line, through a {@link CommandParser} without a console.
+ * Follow-up prompts are either answered by the next line of the script or skipped. Input is
+ * buffered and the player's output sink is flushed once per batch of commands; the run is
+ * summarised by command count, throughput and latency.
+ */
+final class BatchRunner {
+
+  /** Number of commands whose output is written to the player's sink in one flush. */
+  static final int FLUSH_EVERY = 1024;
+
+  private final VideoPlayer videoPlayer;
+  private final CommandParser parser;
+  private final boolean answerPrompts;
+
+  /**
+   * @param answerPrompts true to read prompt answers from the script, false to answer every
+   *     prompt with "no"
+   */
+  BatchRunner(VideoPlayer videoPlayer, boolean answerPrompts) {
+    this.videoPlayer = videoPlayer;
+    this.parser = new CommandParser(videoPlayer);
+    this.answerPrompts = answerPrompts;
+  }
+
+  /** Totals of a batch run. */
+  static final class Summary {
+    private final long commands;
+    private final long answers;
+    private final long elapsedNanos;
+    private final long commandNanos;
+    private final long maxNanos;
+
+    Summary(long commands, long answers, long elapsedNanos, long commandNanos, long maxNanos) {
+      this.commands = commands;
+      this.answers = answers;
+      this.elapsedNanos = elapsedNanos;
+      this.commandNanos = commandNanos;
+      this.maxNanos = maxNanos;
+    }
+
+    /** Returns the number of commands executed. */
+    long getCommands() {
+      return commands;
+    }
+
+    /** Returns the number of script lines consumed as prompt answers. */
+    long getAnswers() {
+      return answers;
+    }
+
+    /** Returns the wall clock time of the whole run, including reading the script. */
+    long getElapsedNanos() {
+      return elapsedNanos;
+    }
+
+    /** Returns the time spent executing commands. */
+    long getCommandNanos() {
+      return commandNanos;
+    }
+
+    /** Returns the latency of the slowest command. */
+    long getMaxNanos() {
+      return maxNanos;
+    }
+
+    /** Returns the number of commands executed per second of wall clock time. */
+    double getCommandsPerSecond() {
+      return elapsedNanos == 0 ? 0 : commands * 1_000_000_000d / elapsedNanos;
+    }
+
+    /** Returns the mean command latency in nanoseconds. */
+    double getMeanNanos() {
+      return commands == 0 ? 0 : (double) commandNanos / commands;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("Executed %d commands (%d prompt answers) in %.1f ms, "
+              + "%.0f commands/sec, latency mean %.1f us, max %.1f us, total %.1f ms",
+          commands, answers, elapsedNanos / 1_000_000d, getCommandsPerSecond(),
+          getMeanNanos() / 1_000d, maxNanos / 1_000d, commandNanos / 1_000_000d);
+    }
+  }
+
+  /** Runs the command file at the given path. */
+  Summary run(Path script) throws IOException {
+    try (BufferedReader reader = Files.newBufferedReader(script, StandardCharsets.UTF_8)) {
+      return run(reader);
+    }
+  }
+
+  /** Runs commands from the reader until it is exhausted or an EXIT command is read. */
+  Summary run(BufferedReader script) throws IOException {
+    long[] answers = new long[1];
+    videoPlayer.setAnswerReader(() -> {
+      if (!answerPrompts) {
+        return null;
+      }
+      try {
+        String answer = script.readLine();
+        if (answer != null) {
+          answers[0]++;
+        }
+        return answer;
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    });
+
+    OutputSink out = videoPlayer.getOutput();
+    long commands = 0;
+    long commandNanos = 0;
+    long maxNanos = 0;
+    long start = System.nanoTime();
+    try {
+      String line;
+      while ((line = script.readLine()) != null) {
+        if (line.isBlank()) {
+          continue;
+        }
+        if (line.strip().equalsIgnoreCase("exit")) {
+          break;
+        }
+        long before = System.nanoTime();
+        parser.executeCommandLine(line.strip());
+        long took = System.nanoTime() - before;
+        commands++;
+        commandNanos += took;
+        maxNanos = Math.max(maxNanos, took);
+        if (commands % FLUSH_EVERY == 0) {
+          out.flush();
+        }
+      }
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    } finally {
+      out.flush();
+    }
+    return new Summary(commands, answers[0], System.nanoTime() - start, commandNanos, maxNanos);
+  }
+}
@@ -0,0 +1,54 @@
+package com.google;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+
+/**
+ * Collects output in memory and hands it to the underlying writer in one call per
+ * {@link #flush()}, so a batch of commands costs one write instead of one per line. The
+ * buffer is also written out whenever it grows past its capacity.
+ */
+final class BufferedSink implements OutputSink {
+
+  static final int DEFAULT_CAPACITY = 1 << 16;
+
+  private final Writer target;
+  private final int capacity;
+  private final StringBuilder buffer;
+
+  BufferedSink(Writer target) {
+    this(target, DEFAULT_CAPACITY);
+  }
+
+  BufferedSink(Writer target, int capacity) {
+    this.target = target;
+    this.capacity = capacity;
+    this.buffer = new StringBuilder(capacity);
+  }
+
+  @Override
+  public void print(String text) {
+    buffer.append(text);
+    if (buffer.length() >= capacity) {
+      flush();
+    }
+  }
+
+  @Override
+  public void println(String line) {
+    print(line);
+    print(System.lineSeparator());
+  }
+
+  @Override
+  public void flush() {
+    try {
+      target.append(buffer);
+      target.flush();
+      buffer.setLength(0);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
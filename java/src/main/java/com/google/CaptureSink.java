@@ -0,0 +1,27 @@
+package com.google;
+
+/** Keeps all output in memory so tests can assert on exactly what was printed. */
+final class CaptureSink implements OutputSink {
+
+  private final StringBuilder output = new StringBuilder();
+
+  @Override
+  public void print(String text) {
+    output.append(text);
+  }
+
+  /** Returns everything printed since creation or the last {@link #clear()}. */
+  String getOutput() {
+    return output.toString();
+  }
+
+  /** Returns the printed output split into lines. */
+  String[] getLines() {
+    return getOutput().split("\\r?\\n");
+  }
+
+  /** Forgets everything printed so far. */
+  void clear() {
+    output.setLength(0);
+  }
+}
@@ -0,0 +1,338 @@
+package com.google;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Loads a videos.txt style catalog ("title | id | tag, tag") by memory-mapping the file,
+ * splitting it into line-aligned chunks and parsing the chunks in parallel.
+ */
+final class CatalogLoader {
+
+  /** Target size of a chunk parsed by a single task. */
+  static final int DEFAULT_CHUNK_SIZE = 8 << 20;
+
+  private static final byte FIELD_SEPARATOR = '|';
+  private static final byte TAG_SEPARATOR = ',';
+
+  private final ForkJoinPool pool;
+  private final int chunkSize;
+
+  CatalogLoader() {
+    this(ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE);
+  }
+
+  CatalogLoader(ForkJoinPool pool, int chunkSize) {
+    if (chunkSize <= 0) {
+      throw new IllegalArgumentException("chunkSize must be positive: " + chunkSize);
+    }
+    this.pool = pool;
+    this.chunkSize = chunkSize;
+  }
+
+  /** Result of a load: the parsed videos in file order, their tags and load statistics. */
+  static final class Result {
+    private final CatalogStore records;
+    private final TagDictionary tagDictionary;
+    private final Stats stats;
+
+    Result(CatalogStore records, TagDictionary tagDictionary, Stats stats) {
+      this.records = records;
+      this.tagDictionary = tagDictionary;
+      this.stats = stats;
+    }
+
+    /**
+     * Returns the parsed videos in file order, as heap columns; an id may appear more than
+     * once.
+     */
+    CatalogStore getRecords() {
+      return records;
+    }
+
+    /** Returns the dictionary the videos' tag ids refer to. */
+    TagDictionary getTagDictionary() {
+      return tagDictionary;
+    }
+
+    /** Returns the statistics of the load. */
+    Stats getStats() {
+      return stats;
+    }
+  }
+
+  /** Line counts and timing of a catalog load. */
+  static final class Stats {
+    private final long lines;
+    private final long malformedLines;
+    private final long bytes;
+    private final long nanos;
+
+    Stats(long lines, long malformedLines, long bytes, long nanos) {
+      this.lines = lines;
+      this.malformedLines = malformedLines;
+      this.bytes = bytes;
+      this.nanos = nanos;
+    }
+
+    /** Returns the number of non-blank lines read. */
+    long getLines() {
+      return lines;
+    }
+
+    /** Returns the number of lines skipped because they could not be parsed. */
+    long getMalformedLines() {
+      return malformedLines;
+    }
+
+    /** Returns the size of the catalog file in bytes. */
+    long getBytes() {
+      return bytes;
+    }
+
+    /** Returns the wall clock time of the load in nanoseconds. */
+    long getNanos() {
+      return nanos;
+    }
+
+    /** Returns the load throughput in lines per second. */
+    double getLinesPerSecond() {
+      return nanos == 0 ? 0 : lines * 1_000_000_000d / nanos;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("Loaded %d lines (%d malformed skipped) in %.1f ms, %.0f lines/sec",
+          lines, malformedLines, nanos / 1_000_000d, getLinesPerSecond());
+    }
+  }
+
+  /** Loads the catalog at the given path. */
+  Result load(Path path) throws IOException {
+    return load(path, new TagDictionary());
+  }
+
+  /**
+   * Loads the catalog at the given path, numbering its tags in an existing dictionary so the
+   * ids compare with those of videos already loaded with it.
+   */
+  Result load(Path path, TagDictionary tags) throws IOException {
+    long start = System.nanoTime();
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long size = channel.size();
+      List<long[]> chunks = split(channel, size);
+      List<Chunk> parsed = pool.invoke(new ParseTask(channel, tags, chunks, 0, chunks.size()));
+
+      long lines = 0;
+      long malformed = 0;
+      List<CatalogStore.Builder> parts = new ArrayList<>(parsed.size());
+      for (Chunk chunk : parsed) {
+        lines += chunk.lines;
+        malformed += chunk.malformed;
+        parts.add(chunk.records);
+      }
+      return new Result(CatalogStore.concat(parts), tags,
+          new Stats(lines, malformed, size, System.nanoTime() - start));
+    }
+  }
+
+  /** Splits the file into [start, end) ranges that begin and end on line boundaries. */
+  private List<long[]> split(FileChannel channel, long size) throws IOException {
+    List<long[]> chunks = new ArrayList<>();
+    long start = 0;
+    while (start < size) {
+      long end = start + chunkSize >= size ? size : nextLineStart(channel, start + chunkSize, size);
+      chunks.add(new long[] {start, end});
+      start = end;
+    }
+    return chunks;
+  }
+
+  /** Returns the position just after the first newline at or after pos, or size if none. */
+  private static long nextLineStart(FileChannel channel, long pos, long size) throws IOException {
+    ByteBuffer window = ByteBuffer.allocate(4096);
+    while (pos < size) {
+      window.clear();
+      int read = channel.read(window, pos);
+      if (read <= 0) {
+        break;
+      }
+      for (int i = 0; i < read; i++) {
+        if (window.get(i) == '\n') {
+          return pos + i + 1;
+        }
+      }
+      pos += read;
+    }
+    return size;
+  }
+
+  /** Parsed contents of one chunk. */
+  private static final class Chunk {
+    final CatalogStore.Builder records = new CatalogStore.Builder();
+    long lines;
+    long malformed;
+  }
+
+  /** Divides the chunk list in halves until a single chunk remains, then parses it. */
+  private static final class ParseTask extends RecursiveTask<List<Chunk>> {
+    private static final long serialVersionUID = 1L;
+
+    private final FileChannel channel;
+    private final TagDictionary tags;
+    private final List<long[]> chunks;
+    private final int from;
+    private final int to;
+
+    ParseTask(FileChannel channel, TagDictionary tags, List<long[]> chunks, int from, int to) {
+      this.channel = channel;
+      this.tags = tags;
+      this.chunks = chunks;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected List<Chunk> compute() {
+      if (to - from == 0) {
+        return Collections.emptyList();
+      }
+      if (to - from == 1) {
+        long[] range = chunks.get(from);
+        try {
+          MappedByteBuffer buffer =
+              channel.map(FileChannel.MapMode.READ_ONLY, range[0], range[1] - range[0]);
+          return Collections.singletonList(parse(buffer, tags));
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }
+      int mid = (from + to) >>> 1;
+      ParseTask left = new ParseTask(channel, tags, chunks, from, mid);
+      left.fork();
+      List<Chunk> right = new ParseTask(channel, tags, chunks, mid, to).compute();
+      List<Chunk> result = new ArrayList<>(left.join());
+      result.addAll(right);
+      return result;
+    }
+  }
+
+  /** Parses every line of a line-aligned buffer. */
+  private static Chunk parse(ByteBuffer buffer, TagDictionary tags) {
+    Chunk chunk = new Chunk();
+    byte[] scratch = new byte[256];
+    int limit = buffer.limit();
+    int lineStart = 0;
+    while (lineStart < limit) {
+      int lineEnd = lineStart;
+      while (lineEnd < limit && buffer.get(lineEnd) != '\n') {
+        lineEnd++;
+      }
+      int contentEnd = lineEnd;
+      if (contentEnd > lineStart && buffer.get(contentEnd - 1) == '\r') {
+        contentEnd--;
+      }
+      if (!isBlank(buffer, lineStart, contentEnd)) {
+        chunk.lines++;
+        if (!parseLine(buffer, lineStart, contentEnd, scratch, tags, chunk.records)) {
+          chunk.malformed++;
+        }
+      }
+      lineStart = lineEnd + 1;
+    }
+    return chunk;
+  }
+
+  /**
+   * Parses "title | id | tags" between from and to into records, returning false if it is
+   * malformed. Tags are interned in the dictionary.
+   */
+  private static boolean parseLine(ByteBuffer buffer, int from, int to, byte[] scratch,
+      TagDictionary tags, CatalogStore.Builder records) {
+    int firstBar = indexOf(buffer, FIELD_SEPARATOR, from, to);
+    if (firstBar < 0) {
+      return false;
+    }
+    int secondBar = indexOf(buffer, FIELD_SEPARATOR, firstBar + 1, to);
+    int idEnd = secondBar < 0 ? to : secondBar;
+
+    String title = decodeStripped(buffer, from, firstBar, scratch);
+    String id = decodeStripped(buffer, firstBar + 1, idEnd, scratch);
+    if (title.isEmpty() || id.isEmpty()) {
+      return false;
+    }
+    if (secondBar >= 0 && indexOf(buffer, FIELD_SEPARATOR, secondBar + 1, to) >= 0) {
+      return false; // more fields than title, id and tags
+    }
+    records.add(title, id);
+    if (secondBar >= 0) {
+      int tagStart = secondBar + 1;
+      while (tagStart <= to) {
+        int comma = indexOf(buffer, TAG_SEPARATOR, tagStart, to);
+        int tagEnd = comma < 0 ? to : comma;
+        String tag = decodeStripped(buffer, tagStart, tagEnd, scratch);
+        if (!tag.isEmpty()) {
+          records.addTag(tags.idOf(tag));
+        }
+        tagStart = tagEnd + 1;
+      }
+    }
+    return true;
+  }
+
+  private static int indexOf(ByteBuffer buffer, byte value, int from, int to) {
+    for (int i = from; i < to; i++) {
+      if (buffer.get(i) == value) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static boolean isBlank(ByteBuffer buffer, int from, int to) {
+    for (int i = from; i < to; i++) {
+      if (!isWhitespace(buffer.get(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isWhitespace(byte b) {
+    return b == ' ' || b == '\t' || b == '\r' || b == '\f' || b == 0x0B;
+  }
+
+  /** Decodes the UTF-8 bytes between from and to with surrounding ASCII whitespace removed. */
+  private static String decodeStripped(ByteBuffer buffer, int from, int to, byte[] scratch) {
+    while (from < to && isWhitespace(buffer.get(from))) {
+      from++;
+    }
+    while (to > from && isWhitespace(buffer.get(to - 1))) {
+      to--;
+    }
+    int length = to - from;
+    if (length == 0) {
+      return "";
+    }
+    byte[] bytes = length <= scratch.length ? scratch : new byte[length];
+    boolean ascii = true;
+    for (int i = 0; i < length; i++) {
+      byte b = buffer.get(from + i);
+      bytes[i] = b;
+      ascii &= b >= 0;
+    }
+    return new String(bytes, 0, length,
+        ascii ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,232 @@
+package com.google;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.IntFunction;
+
+/**
+ * The videos of a catalog segment split into shards by a hash of their id. Each shard has its
+ * own id table and trigram postings (see {@link IdIndex} and {@link TitleIndex}) and its own
+ * slice of the segment's title order, so a point lookup reads one shard while a search runs on
+ * every shard at once on the common fork join pool, each ordering its own matches, and the
+ * ordered runs are merged by their positions in title order.
+ *
+ * <p>Segments are split into at most one shard per {@link #MIN_SHARD_SIZE} videos, since a
+ * fan-out costs more than searching a small segment on one thread.
+ */
+final class CatalogShards {
+
+  static final int MAX_SHARDS = 64;
+  static final int MIN_SHARD_SIZE = 1024;
+  /** One shard per processor, so a search can keep every core busy. */
+  static final int DEFAULT_SHARDS =
+      Math.min(MAX_SHARDS, Runtime.getRuntime().availableProcessors());
+
+  private final int count;
+  /** The shard of every local ordinal, or null if there is one shard. */
+  private final byte[] shardOf;
+  /** The local ordinals of every shard in ascending order, or null if there is one. */
+  private final int[][] members;
+  /** The positions in title order of every shard's videos, ascending, or null if one. */
+  private final int[][] positions;
+
+  /**
+   * Splits the segment into the given number of shards, or fewer if it is small.
+   *
+   * @throws IllegalArgumentException if shards is not between 1 and {@link #MAX_SHARDS}
+   */
+  CatalogShards(CatalogStore store, TitleOrder order, int shards) {
+    this(countFor(store.size(), shards), split(store, countFor(store.size(), shards)), order);
+  }
+
+  /** Splits the videos given the shard of each, which is null if there is one shard. */
+  private CatalogShards(int count, byte[] shardOf, TitleOrder order) {
+    this.count = count;
+    this.shardOf = shardOf;
+    if (count == 1) {
+      this.members = null;
+      this.positions = null;
+      return;
+    }
+    int[] sizes = new int[count];
+    for (byte shard : shardOf) {
+      sizes[shard]++;
+    }
+    this.members = new int[count][];
+    this.positions = new int[count][];
+    for (int shard = 0; shard < count; shard++) {
+      members[shard] = new int[sizes[shard]];
+      positions[shard] = new int[sizes[shard]];
+    }
+    int[] filled = new int[count];
+    for (int ordinal = 0; ordinal < shardOf.length; ordinal++) {
+      members[shardOf[ordinal]][filled[shardOf[ordinal]]++] = ordinal;
+    }
+    filled = new int[count];
+    for (int position = 0; position < order.size(); position++) {
+      int shard = shardOf[order.ordinalAt(position)];
+      positions[shard][filled[shard]++] = position;
+    }
+  }
+
+  /**
+   * Returns the number of shards a segment of size videos is split into when asked for the
+   * given number.
+   *
+   * @throws IllegalArgumentException if shards is not between 1 and {@link #MAX_SHARDS}
+   */
+  static int countFor(int size, int shards) {
+    if (shards < 1 || shards > MAX_SHARDS) {
+      throw new IllegalArgumentException("Shards must be between 1 and " + MAX_SHARDS + ".");
+    }
+    return Math.max(1, Math.min(shards, size / MIN_SHARD_SIZE));
+  }
+
+  private static byte[] split(CatalogStore store, int count) {
+    if (count == 1) {
+      return null;
+    }
+    byte[] shardOf = new byte[store.size()];
+    for (int ordinal = 0; ordinal < shardOf.length; ordinal++) {
+      shardOf[ordinal] = (byte) shardOf(store.videoId(ordinal), count);
+    }
+    return shardOf;
+  }
+
+  /** Writes the split to a snapshot: the number of shards, then the shard of every video. */
+  void write(DataOutputStream out) throws IOException {
+    out.writeInt(count);
+    if (count > 1) {
+      out.write(shardOf);
+    }
+  }
+
+  /**
+   * Reads a split of the videos of the order written by {@link #write}, and moves past it.
+   */
+  static CatalogShards read(ByteBuffer buffer, TitleOrder order) {
+    int count = buffer.getInt();
+    if (count < 1 || count > MAX_SHARDS) {
+      throw new IllegalStateException("snapshot of " + count + " shards");
+    }
+    byte[] shardOf = null;
+    if (count > 1) {
+      shardOf = new byte[order.size()];
+      buffer.get(shardOf);
+      for (byte shard : shardOf) {
+        if (shard < 0 || shard >= count) {
+          throw new IllegalStateException("shard out of range: " + shard);
+        }
+      }
+    }
+    return new CatalogShards(count, shardOf, order);
+  }
+
+  /**
+   * Returns the shard of a video id among count shards. The low bits of the hash are mixed
+   * with the high ones, as {@link IdIndex} picks slots from the high bits of its own mix.
+   */
+  static int shardOf(String videoId, int count) {
+    int hash = videoId.hashCode();
+    return Math.floorMod(hash ^ (hash >>> 16), count);
+  }
+
+  /** Returns the number of shards. */
+  int count() {
+    return count;
+  }
+
+  /** Returns the shard of the video with the given local ordinal. */
+  int shardOf(int ordinal) {
+    return count == 1 ? 0 : shardOf[ordinal];
+  }
+
+  /** Returns the local ordinals of the shard in ascending order, or null for all of them. */
+  int[] members(int shard) {
+    return count == 1 ? null : members[shard];
+  }
+
+  /** Splits distinct local ordinals by shard, keeping their order within each shard. */
+  int[][] split(int[] ordinals) {
+    if (count == 1) {
+      return new int[][] {ordinals};
+    }
+    int[] sizes = new int[count];
+    for (int ordinal : ordinals) {
+      sizes[shardOf[ordinal]]++;
+    }
+    int[][] split = new int[count][];
+    for (int shard = 0; shard < count; shard++) {
+      split[shard] = new int[sizes[shard]];
+    }
+    int[] filled = new int[count];
+    for (int ordinal : ordinals) {
+      split[shardOf[ordinal]][filled[shardOf[ordinal]]++] = ordinal;
+    }
+    return split;
+  }
+
+  /**
+   * Returns distinct local ordinals in title order. ordinalsOf returns those of one shard;
+   * every shard computes and sorts its own on the fork join pool.
+   */
+  int[] inTitleOrder(IntFunction<int[]> ordinalsOf, TitleOrder order) {
+    if (count == 1) {
+      return order.sort(ordinalsOf.apply(0));
+    }
+    List<int[]> runs = fanOut(shard -> order.positions(ordinalsOf.apply(shard),
+        positions[shard]));
+    //merge pairwise, comparing positions rather than titles
+    while (runs.size() > 1) {
+      List<int[]> merged = new ArrayList<>((runs.size() + 1) / 2);
+      for (int i = 0; i + 1 < runs.size(); i += 2) {
+        merged.add(merge(runs.get(i), runs.get(i + 1)));
+      }
+      if (runs.size() % 2 == 1) {
+        merged.add(runs.get(runs.size() - 1));
+      }
+      runs = merged;
+    }
+    int[] sorted = runs.get(0);
+    for (int i = 0; i < sorted.length; i++) {
+      sorted[i] = order.ordinalAt(sorted[i]);
+    }
+    return sorted;
+  }
+
+  /** Returns the result of the task for every shard, run on the fork join pool. */
+  private <T> List<T> fanOut(IntFunction<T> task) {
+    List<ForkJoinTask<T>> tasks = new ArrayList<>(count);
+    for (int shard = 0; shard < count; shard++) {
+      int index = shard;
+      tasks.add(ForkJoinTask.adapt(() -> task.apply(index)));
+    }
+    ForkJoinTask.invokeAll(tasks);
+    List<T> results = new ArrayList<>(count);
+    for (ForkJoinTask<T> forked : tasks) {
+      results.add(forked.join());
+    }
+    return results;
+  }
+
+  private static int[] merge(int[] a, int[] b) {
+    int[] merged = new int[a.length + b.length];
+    int i = 0;
+    int j = 0;
+    int k = 0;
+    while (i < a.length && j < b.length) {
+      merged[k++] = a[i] < b[j] ? a[i++] : b[j++];
+    }
+    while (i < a.length) {
+      merged[k++] = a[i++];
+    }
+    while (j < b.length) {
+      merged[k++] = b[j++];
+    }
+    return merged;
+  }
+}
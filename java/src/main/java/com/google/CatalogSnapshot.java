@@ -0,0 +1,300 @@
+package com.google;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.CRC32C;
+
+/**
+ * A binary snapshot of a loaded library and its indexes, so the next start maps one file
+ * instead of parsing the text catalog and indexing it. The file is a fixed header followed by
+ * sections, each with its own CRC32C:
+ *
+ * <pre>
+ *   header:     magic, version, source size, source modified millis, video count, tag count,
+ *               then the offset, length and CRC32C of every section
+ *   dictionary  tagCount strings, in id order
+ *   rows        the {@link CatalogStore#write columns} of the videos
+ *   order       the {@link TitleOrder#write title order} and the {@link CatalogShards#write
+ *               shard} of every video
+ *   ids         the {@link IdIndex#write id table} of every shard
+ *   titles      the {@link TitleIndex#write trigram index}
+ *   tags        the {@link TagIndex#write tag postings}
+ *   flags       the number of flagged videos, then the ordinal and reason of each
+ * </pre>
+ *
+ * Only the small sections read at load (the dictionary, the order and the flags) are checked
+ * then. The rows and the indexes are read in place from the mapping and each is checked when
+ * first used (see {@link SnapshotSection}), so a load costs little more than mapping the file.
+ * The size and modification time of the text catalog are recorded so a snapshot that no
+ * longer matches it is ignored, as is one split into a different number of shards.
+ */
+final class CatalogSnapshot {
+
+  static final int MAGIC = 0x5954534E; //"YTSN"
+  static final int VERSION = 2;
+  static final int DICTIONARY = 0;
+  static final int ROWS = 1;
+  static final int ORDER = 2;
+  static final int IDS = 3;
+  static final int TITLES = 4;
+  static final int TAGS = 5;
+  static final int FLAGS = 6;
+  private static final List<String> SECTIONS =
+      List.of("dictionary", "rows", "order", "ids", "titles", "tags", "flags");
+  /** Where the offset, length and checksum of the first section are, 8 bytes each. */
+  static final int TABLE_OFFSET = 4 + 4 + 8 + 8 + 4 + 4;
+  static final int HEADER_BYTES = TABLE_OFFSET + SECTIONS.size() * 24;
+
+  /** Writes the body of one section. */
+  private interface SectionWriter {
+    void write(DataOutputStream out) throws IOException;
+  }
+
+  private final CatalogStore store;
+  private final TagDictionary tagDictionary;
+  private final FlagColumn flags;
+  private final TitleOrder titleOrder;
+  private final CatalogShards shards;
+  private final IdIndex[] ids;
+  private final TitleIndex titles;
+  private final TagIndex tags;
+  private final CatalogLoader.Stats stats;
+
+  private CatalogSnapshot(CatalogStore store, TagDictionary tagDictionary, FlagColumn flags,
+      TitleOrder titleOrder, CatalogShards shards, IdIndex[] ids, TitleIndex titles,
+      TagIndex tags, CatalogLoader.Stats stats) {
+    this.store = store;
+    this.tagDictionary = tagDictionary;
+    this.flags = flags;
+    this.titleOrder = titleOrder;
+    this.shards = shards;
+    this.ids = ids;
+    this.titles = titles;
+    this.tags = tags;
+    this.stats = stats;
+  }
+
+  /** Returns the catalog columns. */
+  CatalogStore getStore() {
+    return store;
+  }
+
+  /** Returns the restored flags. */
+  FlagColumn getFlags() {
+    return flags;
+  }
+
+  /** Returns the dictionary the videos' tag ids refer to. */
+  TagDictionary getTagDictionary() {
+    return tagDictionary;
+  }
+
+  /** Returns the title order of the videos. */
+  TitleOrder getTitleOrder() {
+    return titleOrder;
+  }
+
+  /** Returns the split of the videos into shards. */
+  CatalogShards getShards() {
+    return shards;
+  }
+
+  /** Returns the id table of every shard. */
+  IdIndex[] getIds() {
+    return ids;
+  }
+
+  /** Returns the trigram index of the titles. */
+  TitleIndex getTitles() {
+    return titles;
+  }
+
+  /** Returns the tag postings. */
+  TagIndex getTags() {
+    return tags;
+  }
+
+  /** Returns the statistics of reading the snapshot. */
+  CatalogLoader.Stats getStats() {
+    return stats;
+  }
+
+  /**
+   * Writes a snapshot of a catalog and its indexes for the catalog file it was loaded from.
+   * The file is written next to the target and moved into place, so a reader never sees a
+   * partial snapshot.
+   */
+  static void write(Path snapshot, Path catalog, CatalogStore store, TagDictionary dictionary,
+      TitleOrder titleOrder, CatalogShards shards, IdIndex[] ids, TitleIndex titles,
+      TagIndex tags, FlagColumn flags) throws IOException {
+    int videoCount = store.size();
+    int tagCount = dictionary.size();
+    List<SectionWriter> writers = List.of(
+        out -> {
+          for (int tagId = 0; tagId < tagCount; tagId++) {
+            SnapshotSection.writeString(out, dictionary.nameOf(tagId));
+          }
+        },
+        store::write,
+        out -> {
+          titleOrder.write(out);
+          shards.write(out);
+        },
+        out -> {
+          for (IdIndex shard : ids) {
+            shard.write(out);
+          }
+        },
+        titles::write,
+        tags::write,
+        out -> writeFlags(out, flags, videoCount));
+    Path parent = snapshot.toAbsolutePath().getParent();
+    Path temp = Files.createTempFile(parent, snapshot.getFileName().toString(), ".tmp");
+    try {
+      try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC).putInt(VERSION)
+            .putLong(Files.size(catalog))
+            .putLong(Files.getLastModifiedTime(catalog).toMillis())
+            .putInt(videoCount).putInt(tagCount);
+        channel.position(HEADER_BYTES);
+        for (SectionWriter writer : writers) {
+          long offset = channel.position();
+          CRC32C checksum = new CRC32C();
+          DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+              new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16), checksum));
+          writer.write(out);
+          out.flush();
+          header.putLong(offset).putLong(channel.position() - offset)
+              .putLong(checksum.getValue());
+        }
+        if (channel.position() > Integer.MAX_VALUE) { //must fit one mapped buffer
+          throw new IOException("catalog too large for a snapshot");
+        }
+        channel.write(header.flip(), 0);
+      }
+      Files.move(temp, snapshot, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  /** Reads each reason once, so a flag racing the write cannot split the count and a reason. */
+  private static void writeFlags(DataOutputStream out, FlagColumn flags, int videoCount)
+      throws IOException {
+    IntList flagged = new IntList();
+    List<String> reasons = new ArrayList<>();
+    for (int ordinal = 0; ordinal < videoCount; ordinal++) {
+      String reason = flags.isFlagged(ordinal) ? flags.reason(ordinal) : null;
+      if (reason != null) {
+        flagged.add(ordinal);
+        reasons.add(reason);
+      }
+    }
+    out.writeInt(flagged.size());
+    for (int i = 0; i < flagged.size(); i++) {
+      out.writeInt(flagged.get(i));
+      SnapshotSection.writeString(out, reasons.get(i));
+    }
+  }
+
+  /**
+   * Maps the snapshot if it exists, is intact and still matches the catalog file and the
+   * number of shards; returns null otherwise, in which case the caller should load the text
+   * catalog instead.
+   */
+  static CatalogSnapshot readIfFresh(Path snapshot, Path catalog, CatalogStore.Storage storage,
+      int shards) throws IOException {
+    long start = System.nanoTime();
+    try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size < HEADER_BYTES || size > Integer.MAX_VALUE) {
+        return null;
+      }
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION
+          || buffer.getLong() != Files.size(catalog)
+          || buffer.getLong() != Files.getLastModifiedTime(catalog).toMillis()) {
+        return null;
+      }
+      int videoCount = buffer.getInt();
+      int tagCount = buffer.getInt();
+      SnapshotSection[] sections = new SnapshotSection[SECTIONS.size()];
+      for (int i = 0; i < sections.length; i++) {
+        long offset = buffer.getLong();
+        long length = buffer.getLong();
+        long checksum = buffer.getLong();
+        if (offset < HEADER_BYTES || length < 0 || offset + length > size) {
+          return null;
+        }
+        sections[i] = new SnapshotSection(SECTIONS.get(i),
+            buffer.duplicate().position((int) offset).limit((int) (offset + length)).slice(),
+            checksum);
+      }
+      try {
+        ByteBuffer order = sections[ORDER].checked();
+        TitleOrder titleOrder = TitleOrder.read(order);
+        CatalogShards split = CatalogShards.read(order, titleOrder);
+        if (titleOrder.size() != videoCount
+            || split.count() != CatalogShards.countFor(videoCount, shards)) {
+          return null;
+        }
+        TagDictionary dictionary = readDictionary(sections[DICTIONARY].checked(), tagCount);
+        FlagColumn flags = readFlags(sections[FLAGS].checked(), videoCount);
+        CatalogStore store = CatalogStore.read(sections[ROWS], storage);
+        if (store.size() != videoCount) {
+          return null;
+        }
+        IdIndex[] ids = new IdIndex[split.count()];
+        ByteBuffer idTables = sections[IDS].buffer();
+        for (int shard = 0; shard < ids.length; shard++) {
+          ids[shard] = IdIndex.read(sections[IDS], idTables);
+        }
+        return new CatalogSnapshot(store, dictionary, flags, titleOrder, split, ids,
+            TitleIndex.read(sections[TITLES], split),
+            TagIndex.read(sections[TAGS], OrdinalBitmap.range(videoCount)),
+            new CatalogLoader.Stats(videoCount, 0, size, System.nanoTime() - start));
+      } catch (RuntimeException e) { //a checksummed file can still come from a buggy writer
+        return null;
+      }
+    } catch (NoSuchFileException e) {
+      return null;
+    }
+  }
+
+  private static TagDictionary readDictionary(ByteBuffer buffer, int tagCount) {
+    TagDictionary dictionary = new TagDictionary();
+    for (int i = 0; i < tagCount; i++) {
+      if (dictionary.idOf(SnapshotSection.readString(buffer)) != i) {
+        throw new IllegalStateException("duplicate tag in snapshot dictionary");
+      }
+    }
+    return dictionary;
+  }
+
+  private static FlagColumn readFlags(ByteBuffer buffer, int videoCount) {
+    FlagColumn flags = new FlagColumn(videoCount);
+    for (int i = buffer.getInt(); i > 0; i--) {
+      int ordinal = buffer.getInt();
+      if (ordinal < 0 || ordinal >= videoCount) {
+        throw new IllegalStateException("flagged ordinal out of range: " + ordinal);
+      }
+      flags.flag(ordinal, SnapshotSection.readString(buffer));
+    }
+    return flags;
+  }
+}
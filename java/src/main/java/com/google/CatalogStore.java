@@ -0,0 +1,570 @@
+package com.google;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntFunction;
+
+/**
+ * Columnar storage of a catalog: titles, ids and tag ids in parallel columns indexed by dense
+ * ordinal, with the tags of ordinal i at positions [tagStart(i), tagStart(i + 1)) of the tag
+ * column. Columns live on the heap as plain arrays or, with {@link Storage#OFF_HEAP}, in
+ * direct buffers the garbage collector never scans. Scans read the columns sequentially
+ * instead of chasing a pointer per video. A store can also {@link #chain} other stores, so a
+ * catalog can grow by appending rows without copying the ones it has, and leave out the rows
+ * of some ordinals, so a catalog can drop removed rows without renumbering the others.
+ */
+final class CatalogStore {
+
+  /** Where the columns of a store are kept. */
+  enum Storage {
+    /** Plain arrays on the Java heap. */
+    HEAP {
+      @Override
+      StringColumn strings(String[] values) {
+        return new HeapStrings(values);
+      }
+
+      @Override
+      IntColumn ints(int[] values) {
+        return new HeapInts(values);
+      }
+    },
+    /** UTF-8 bytes and ints in direct buffers; strings are decoded on every read. */
+    OFF_HEAP {
+      @Override
+      StringColumn strings(String[] values) {
+        return new OffHeapStrings(values);
+      }
+
+      @Override
+      IntColumn ints(int[] values) {
+        return new OffHeapInts(values);
+      }
+    };
+
+    /** Returns a column holding the given strings. */
+    abstract StringColumn strings(String[] values);
+
+    /** Returns a column holding the given ints. */
+    abstract IntColumn ints(int[] values);
+  }
+
+  static final CatalogStore EMPTY = new Builder().build(Storage.HEAP);
+
+  private final Storage storage;
+  private final StringColumn titles;
+  private final StringColumn videoIds;
+  private final IntColumn tagStarts;
+  private final IntColumn tagIds;
+  /** The chained stores and the first ordinal of each, or null for a store of columns. */
+  private final CatalogStore[] parts;
+  private final int[] partStarts;
+  /** The ordinals of the rows of each chained store, or null if they are consecutive. */
+  private final SegmentOrdinals[] partOrdinals;
+  private final int size;
+
+  private CatalogStore(Storage storage, String[] titles, String[] videoIds, int[] tagStarts,
+      int[] tagIds) {
+    this(storage, storage.strings(titles), storage.strings(videoIds), storage.ints(tagStarts),
+        storage.ints(tagIds));
+  }
+
+  private CatalogStore(Storage storage, StringColumn titles, StringColumn videoIds,
+      IntColumn tagStarts, IntColumn tagIds) {
+    this.storage = storage;
+    this.titles = titles;
+    this.videoIds = videoIds;
+    this.tagStarts = tagStarts;
+    this.tagIds = tagIds;
+    this.parts = null;
+    this.partStarts = null;
+    this.partOrdinals = null;
+    this.size = titles.size();
+  }
+
+  /**
+   * Writes the rows as snapshot columns: the titles, the ids, the tag starts and the tag ids,
+   * see {@link #writeStrings}.
+   */
+  void write(DataOutputStream out) throws IOException {
+    writeStrings(out, size, this::title);
+    writeStrings(out, size, this::videoId);
+    out.writeInt(size + 1);
+    int tags = 0;
+    for (int ordinal = 0; ordinal < size; ordinal++) {
+      out.writeInt(tags);
+      tags += tagCount(ordinal);
+    }
+    out.writeInt(tags); //the end of the last video's tags
+    out.writeInt(tags); //the length of the tag id column
+    for (int ordinal = 0; ordinal < size; ordinal++) {
+      for (int i = 0, count = tagCount(ordinal); i < count; i++) {
+        out.writeInt(tagId(ordinal, i));
+      }
+    }
+  }
+
+  /**
+   * Returns a store reading the columns written by {@link #write} in place, checking the
+   * section on first read; stores derived from it use the given storage.
+   */
+  static CatalogStore read(SnapshotSection section, Storage storage) {
+    ByteBuffer buffer = section.buffer();
+    StringColumn titles = readStrings(section, buffer);
+    StringColumn videoIds = readStrings(section, buffer);
+    IntColumn tagStarts = readInts(section, buffer);
+    IntColumn tagIds = readInts(section, buffer);
+    if (videoIds.size() != titles.size() || tagStarts.size() != titles.size() + 1) {
+      throw new IllegalStateException("snapshot columns of different lengths");
+    }
+    return new CatalogStore(storage, titles, videoIds, tagStarts, tagIds);
+  }
+
+  /**
+   * Writes count strings as a snapshot column: the count, the total length of their UTF-8
+   * bytes, the count + 1 offsets of the strings in those bytes, then the bytes.
+   */
+  static void writeStrings(DataOutputStream out, int count, IntFunction<String> values)
+      throws IOException {
+    byte[][] bytes = new byte[count][];
+    long total = 0;
+    for (int i = 0; i < count; i++) {
+      bytes[i] = values.apply(i).getBytes(StandardCharsets.UTF_8);
+      total += bytes[i].length;
+    }
+    if (total > Integer.MAX_VALUE) {
+      throw new IOException("string column larger than 2 GB");
+    }
+    out.writeInt(count);
+    out.writeInt((int) total);
+    int offset = 0;
+    for (byte[] value : bytes) {
+      out.writeInt(offset);
+      offset += value.length;
+    }
+    out.writeInt(offset);
+    for (byte[] value : bytes) {
+      out.write(value);
+    }
+  }
+
+  /** Returns a view of a column written by {@link #writeStrings}, and moves past it. */
+  static StringColumn readStrings(SnapshotSection section, ByteBuffer buffer) {
+    int count = buffer.getInt();
+    int length = buffer.getInt();
+    IntBuffer offsets = SnapshotSection.takeInts(buffer, count + 1);
+    return new CheckedStrings(section,
+        new OffHeapStrings(SnapshotSection.take(buffer, length), offsets));
+  }
+
+  private static IntColumn readInts(SnapshotSection section, ByteBuffer buffer) {
+    return new CheckedInts(section,
+        new OffHeapInts(SnapshotSection.takeInts(buffer, buffer.getInt())));
+  }
+
+  private CatalogStore(CatalogStore[] parts, int[] partStarts, SegmentOrdinals[] partOrdinals,
+      int size) {
+    this.storage = parts[0].storage;
+    this.titles = null;
+    this.videoIds = null;
+    this.tagStarts = null;
+    this.tagIds = null;
+    this.parts = parts;
+    this.partStarts = partStarts;
+    this.partOrdinals = partOrdinals;
+    this.size = size;
+  }
+
+  /**
+   * Returns a store whose ordinals run through the given stores one after another, reading
+   * their columns in place.
+   */
+  static CatalogStore chain(List<CatalogStore> stores) {
+    if (stores.size() == 1) {
+      return stores.get(0);
+    }
+    CatalogStore[] parts = stores.toArray(new CatalogStore[0]);
+    int[] starts = new int[parts.length];
+    int size = 0;
+    for (int i = 0; i < parts.length; i++) {
+      starts[i] = size;
+      size += parts[i].size();
+    }
+    return new CatalogStore(parts, starts, null, size);
+  }
+
+  /**
+   * Returns a store whose ordinals are those of the given ascending, disjoint segments, read
+   * from the store of each in place; ordinals a segment covers but has no row for cannot be
+   * read. Its size is the end of the last segment.
+   */
+  static CatalogStore chain(List<CatalogStore> stores, List<SegmentOrdinals> ordinals) {
+    if (stores.size() == 1 && ordinals.get(0).isDense() && ordinals.get(0).start() == 0) {
+      return stores.get(0);
+    }
+    CatalogStore[] parts = stores.toArray(new CatalogStore[0]);
+    SegmentOrdinals[] segments = ordinals.toArray(new SegmentOrdinals[0]);
+    int[] starts = new int[parts.length];
+    for (int i = 0; i < parts.length; i++) {
+      starts[i] = segments[i].start();
+    }
+    return new CatalogStore(parts, starts, segments, segments[segments.length - 1].end());
+  }
+
+  /**
+   * Returns the ordinal within the chained store of the ordinal.
+   *
+   * @throws IllegalArgumentException if that store has no row for it
+   */
+  private int local(int part, int ordinal) {
+    if (partOrdinals == null) {
+      return ordinal - partStarts[part];
+    }
+    int local = partOrdinals[part].local(ordinal);
+    if (local < 0) {
+      throw new IllegalArgumentException("No row for ordinal " + ordinal + ".");
+    }
+    return local;
+  }
+
+  /** Returns the index of the chained store holding the ordinal. */
+  private int partOf(int ordinal) {
+    int index = Arrays.binarySearch(partStarts, ordinal);
+    //an empty part shares its start with the next one, so move past it
+    if (index >= 0) {
+      while (index + 1 < partStarts.length && partStarts[index + 1] == ordinal) {
+        index++;
+      }
+      return index;
+    }
+    return -index - 2;
+  }
+
+  /** Returns where the columns are kept. */
+  Storage getStorage() {
+    return storage;
+  }
+
+  /** Returns the number of videos. */
+  int size() {
+    return size;
+  }
+
+  String title(int ordinal) {
+    if (parts != null) {
+      int part = partOf(ordinal);
+      return parts[part].title(local(part, ordinal));
+    }
+    return titles.get(ordinal);
+  }
+
+  String videoId(int ordinal) {
+    if (parts != null) {
+      int part = partOf(ordinal);
+      return parts[part].videoId(local(part, ordinal));
+    }
+    return videoIds.get(ordinal);
+  }
+
+  int tagCount(int ordinal) {
+    if (parts != null) {
+      int part = partOf(ordinal);
+      return parts[part].tagCount(local(part, ordinal));
+    }
+    return tagStarts.get(ordinal + 1) - tagStarts.get(ordinal);
+  }
+
+  /** Returns the dictionary id of the index-th tag of the video. */
+  int tagId(int ordinal, int index) {
+    if (parts != null) {
+      int part = partOf(ordinal);
+      return parts[part].tagId(local(part, ordinal), index);
+    }
+    return tagIds.get(tagStarts.get(ordinal) + index);
+  }
+
+  /** Returns whether the video carries the tag with the given dictionary id. */
+  boolean hasTag(int ordinal, int tagId) {
+    if (parts != null) {
+      int part = partOf(ordinal);
+      return parts[part].hasTag(local(part, ordinal), tagId);
+    }
+    for (int i = tagStarts.get(ordinal), end = tagStarts.get(ordinal + 1); i < end; i++) {
+      if (tagIds.get(i) == tagId) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns a store of the first count videos listed in ordinals, in that order, kept in the
+   * given storage. The result always holds its own columns, so selecting every video of a
+   * chained store flattens it.
+   */
+  CatalogStore select(int[] ordinals, int count, Storage storage) {
+    if (parts == null && storage == this.storage && count == size()) {
+      boolean identity = true;
+      for (int i = 0; i < count && identity; i++) {
+        identity = ordinals[i] == i;
+      }
+      if (identity) {
+        return this;
+      }
+    }
+    Builder builder = new Builder(count);
+    for (int i = 0; i < count; i++) {
+      int ordinal = ordinals[i];
+      builder.add(title(ordinal), videoId(ordinal));
+      for (int j = 0, tags = tagCount(ordinal); j < tags; j++) {
+        builder.addTag(tagId(ordinal, j));
+      }
+    }
+    return builder.build(storage);
+  }
+
+  /** Returns a heap store of the given parts one after another. */
+  static CatalogStore concat(List<Builder> parts) {
+    if (parts.size() == 1) {
+      return parts.get(0).build(Storage.HEAP);
+    }
+    Builder all = new Builder();
+    for (Builder part : parts) {
+      all.addAll(part);
+    }
+    return all.build(Storage.HEAP);
+  }
+
+  /** Appends videos one at a time: {@link #add} a video, then {@link #addTag} its tags. */
+  static final class Builder {
+    private final List<String> titles;
+    private final List<String> videoIds;
+    private final IntList tagStarts;
+    private final IntList tagIds = new IntList();
+
+    Builder() {
+      this(16);
+    }
+
+    Builder(int capacity) {
+      titles = new ArrayList<>(capacity);
+      videoIds = new ArrayList<>(capacity);
+      tagStarts = new IntList(capacity + 1);
+      tagStarts.add(0);
+    }
+
+    /** Returns the number of videos added. */
+    int size() {
+      return titles.size();
+    }
+
+    void add(String title, String videoId) {
+      if (!titles.isEmpty()) {
+        tagStarts.add(tagIds.size()); //closes the tags of the previous video
+      }
+      titles.add(title);
+      videoIds.add(videoId);
+    }
+
+    /** Adds a tag to the video added last. */
+    void addTag(int tagId) {
+      tagIds.add(tagId);
+    }
+
+    private void addAll(Builder other) {
+      for (int i = 0; i < other.size(); i++) {
+        add(other.titles.get(i), other.videoIds.get(i));
+        int end = i + 1 < other.size() ? other.tagStarts.get(i + 1) : other.tagIds.size();
+        for (int j = other.tagStarts.get(i); j < end; j++) {
+          addTag(other.tagIds.get(j));
+        }
+      }
+    }
+
+    CatalogStore build(Storage storage) {
+      int[] starts = new int[titles.size() + 1];
+      for (int i = 0; i < titles.size(); i++) {
+        starts[i] = tagStarts.get(i);
+      }
+      starts[titles.size()] = tagIds.size();
+      return new CatalogStore(storage, titles.toArray(new String[0]),
+          videoIds.toArray(new String[0]), starts, tagIds.toArray());
+    }
+  }
+
+  private static final class HeapStrings implements StringColumn {
+    private final String[] values;
+
+    HeapStrings(String[] values) {
+      this.values = values;
+    }
+
+    @Override
+    public int size() {
+      return values.length;
+    }
+
+    @Override
+    public String get(int index) {
+      return values[index];
+    }
+  }
+
+  private static final class HeapInts implements IntColumn {
+    private final int[] values;
+
+    HeapInts(int[] values) {
+      this.values = values;
+    }
+
+    @Override
+    public int size() {
+      return values.length;
+    }
+
+    @Override
+    public int get(int index) {
+      return values[index];
+    }
+  }
+
+  /** The UTF-8 bytes of all strings back to back, with the offset of each in an int buffer. */
+  private static final class OffHeapStrings implements StringColumn {
+    private final ByteBuffer bytes;
+    private final IntBuffer offsets;
+
+    /** Reads the strings of existing buffers, such as those of a mapped file. */
+    OffHeapStrings(ByteBuffer bytes, IntBuffer offsets) {
+      this.bytes = bytes;
+      this.offsets = offsets;
+    }
+
+    OffHeapStrings(String[] values) {
+      long total = 0;
+      for (String value : values) {
+        total += utf8Length(value);
+      }
+      if (total > Integer.MAX_VALUE) {
+        throw new IllegalStateException("off-heap string column larger than 2 GB");
+      }
+      bytes = ByteBuffer.allocateDirect((int) total);
+      offsets = allocateInts(values.length + 1);
+      for (int i = 0; i < values.length; i++) {
+        offsets.put(i, bytes.position());
+        bytes.put(values[i].getBytes(StandardCharsets.UTF_8));
+      }
+      offsets.put(values.length, bytes.position());
+    }
+
+    @Override
+    public int size() {
+      return offsets.capacity() - 1;
+    }
+
+    @Override
+    public String get(int index) {
+      int start = offsets.get(index);
+      byte[] value = new byte[offsets.get(index + 1) - start];
+      for (int i = 0; i < value.length; i++) { //absolute reads keep the buffer thread safe
+        value[i] = bytes.get(start + i);
+      }
+      return new String(value, StandardCharsets.UTF_8);
+    }
+
+    private static long utf8Length(String value) {
+      long length = 0;
+      for (int i = 0; i < value.length(); i++) {
+        char c = value.charAt(i);
+        if (c < 0x80) {
+          length++;
+        } else if (c < 0x800) {
+          length += 2;
+        } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+            && Character.isLowSurrogate(value.charAt(i + 1))) {
+          length += 4;
+          i++;
+        } else {
+          length += 3; //a lone surrogate becomes a one byte '?', so this only over-allocates
+        }
+      }
+      return length;
+    }
+  }
+
+  private static final class OffHeapInts implements IntColumn {
+    private final IntBuffer values;
+
+    OffHeapInts(int[] values) {
+      this.values = allocateInts(values.length);
+      this.values.put(values);
+    }
+
+    OffHeapInts(IntBuffer values) {
+      this.values = values;
+    }
+
+    @Override
+    public int size() {
+      return values.capacity();
+    }
+
+    @Override
+    public int get(int index) {
+      return values.get(index);
+    }
+  }
+
+  /** A column of a snapshot section, which is checked before the first value is read. */
+  private static final class CheckedStrings implements StringColumn {
+    private final SnapshotSection section;
+    private final StringColumn column;
+
+    CheckedStrings(SnapshotSection section, StringColumn column) {
+      this.section = section;
+      this.column = column;
+    }
+
+    @Override
+    public int size() {
+      return column.size();
+    }
+
+    @Override
+    public String get(int index) {
+      section.check();
+      return column.get(index);
+    }
+  }
+
+  private static final class CheckedInts implements IntColumn {
+    private final SnapshotSection section;
+    private final IntColumn column;
+
+    CheckedInts(SnapshotSection section, IntColumn column) {
+      this.section = section;
+      this.column = column;
+    }
+
+    @Override
+    public int size() {
+      return column.size();
+    }
+
+    @Override
+    public int get(int index) {
+      section.check();
+      return column.get(index);
+    }
+  }
+
+  private static IntBuffer allocateInts(int count) {
+    return ByteBuffer.allocateDirect(count * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+  }
+}
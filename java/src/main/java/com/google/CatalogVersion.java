@@ -0,0 +1,662 @@
+package com.google;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+/**
+ * One immutable version of a library's catalog: the rows of its videos, in one or more
+ * segments of ascending ordinals with their own indexes, and the ordinals removed since their
+ * segment was built. A reload {@link #apply applies} a diff by appending a segment of the
+ * added and changed videos and removing the ordinals they replace; the number of videos and
+ * the set of rows are carried over from the previous version, so its cost follows the size of
+ * the diff. A segment at least as large as the one before it is merged into it, as in a binary
+ * counter, which keeps the number of segments logarithmic at an amortized cost per row. A
+ * merge leaves out the rows of removed videos, so they take no room once merged.
+ *
+ * <p>Every segment is split into {@link CatalogShards} by a hash of the video ids: an id is
+ * looked up in one shard, and title searches and sorts run on all shards of a segment at once.
+ *
+ * <p>Rows are never rewritten and ordinals never reused: an ordinal reads the same video in
+ * every version that has its row, so a view reading the store of an older version stays valid
+ * and readers never see a partly applied diff.
+ */
+final class CatalogVersion {
+
+  /** Videos with the given ordinals, and indexes over their local ordinals. */
+  private static final class Segment {
+    final SegmentOrdinals ordinals;
+    final CatalogStore store;
+    final CatalogShards shards;
+    /** The ids of every shard. */
+    final IdIndex[] ids;
+    final TitleIndex titles;
+    final TagIndex tags;
+    final TitleOrder order;
+    /** Words of the titles for ranked searches, indexed on first use. */
+    private volatile TitleWords words;
+    /** Ids and titles in sorted order for suggestions, sorted on first use. */
+    private volatile PrefixIndex prefixes;
+
+    /**
+     * Indexes the first segment, whose ids are already indexed; a sharded one indexes them
+     * again per shard.
+     */
+    static Segment first(CatalogStore store, IdIndex ids, TitleOrder order,
+        TagDictionary dictionary, int shards) {
+      CatalogShards split = new CatalogShards(store, order, shards);
+      return new Segment(new SegmentOrdinals(0, store.size()), store, split,
+          split.count() == 1 ? new IdIndex[] {ids} : indexIds(store, split), order, dictionary);
+    }
+
+    /** Returns the first segment over a catalog restored with its indexes from a snapshot. */
+    static Segment restore(CatalogSnapshot snapshot) {
+      CatalogStore store = snapshot.getStore();
+      return new Segment(new SegmentOrdinals(0, store.size()), store, snapshot.getShards(),
+          snapshot.getIds(), snapshot.getTitleOrder(), snapshot.getTitles(),
+          snapshot.getTags());
+    }
+
+    /** Indexes a segment whose rows have the given ordinals. */
+    static Segment build(SegmentOrdinals ordinals, CatalogStore store, TagDictionary dictionary,
+        int shards) {
+      TitleOrder order = new TitleOrder(store);
+      CatalogShards split = new CatalogShards(store, order, shards);
+      return new Segment(ordinals, store, split, indexIds(store, split), order, dictionary);
+    }
+
+    private Segment(SegmentOrdinals ordinals, CatalogStore store, CatalogShards shards,
+        IdIndex[] ids, TitleOrder order, TagDictionary dictionary) {
+      this(ordinals, store, shards, ids, order, new TitleIndex(store, shards),
+          new TagIndex(store, ordinals, dictionary));
+    }
+
+    private Segment(SegmentOrdinals ordinals, CatalogStore store, CatalogShards shards,
+        IdIndex[] ids, TitleOrder order, TitleIndex titles, TagIndex tags) {
+      this.ordinals = ordinals;
+      this.store = store;
+      this.shards = shards;
+      this.ids = ids;
+      this.titles = titles;
+      this.tags = tags;
+      this.order = order;
+    }
+
+    /** Indexes the ids of every shard. */
+    private static IdIndex[] indexIds(CatalogStore store, CatalogShards shards) {
+      IdIndex[] ids = new IdIndex[shards.count()];
+      for (int shard = 0; shard < ids.length; shard++) {
+        int[] members = shards.members(shard);
+        ids[shard] = new IdIndex(members == null ? store.size() : members.length);
+      }
+      for (int ordinal = 0; ordinal < store.size(); ordinal++) {
+        ids[shards.shardOf(ordinal)].add(store.videoId(ordinal), ordinal);
+      }
+      return ids;
+    }
+
+    /** Returns the catalog ordinal of the row with the given local ordinal. */
+    int ordinal(int local) {
+      return ordinals.ordinal(local);
+    }
+
+    /**
+     * Returns the position in title order of the first video after the given title and
+     * ordinal, or 0 if the title is null.
+     */
+    int positionAfter(String title, int ordinal) {
+      return title == null ? 0
+          : order.positionAfter(store::title, title, ordinals.floor(ordinal));
+    }
+
+    /** Returns the local ordinal of the id, looked up in its shard only, or -1. */
+    int find(String videoId) {
+      IdIndex shard = ids[ids.length == 1 ? 0 : CatalogShards.shardOf(videoId, ids.length)];
+      return shard.find(videoId, store::videoId);
+    }
+
+    /** Returns distinct local ordinals in title order, each shard sorting its own. */
+    int[] sort(int[] ordinals) {
+      int[][] split = shards.split(ordinals);
+      return shards.inTitleOrder(shard -> split[shard], order);
+    }
+
+    TitleWords words() {
+      TitleWords result = words;
+      if (result == null) {
+        synchronized (this) {
+          result = words;
+          if (result == null) {
+            words = result = new TitleWords(titles);
+          }
+        }
+      }
+      return result;
+    }
+
+    PrefixIndex prefixes() {
+      PrefixIndex result = prefixes;
+      if (result == null) {
+        synchronized (this) {
+          result = prefixes;
+          if (result == null) {
+            prefixes = result = new PrefixIndex(store);
+          }
+        }
+      }
+      return result;
+    }
+  }
+
+  private final long number;
+  private final List<Segment> segments;
+  private final CatalogStore store;
+  private final TagDictionary tagDictionary;
+  private final OrdinalBitmap removed;
+  /** The ordinals with a row, removed ones included. */
+  private final OrdinalBitmap rows;
+  private final int size;
+  private final TagIndex tagIndex;
+  private final int shards;
+  /** Live ordinals in title order, merged from the segments on first use. */
+  private volatile int[] titleOrder;
+
+  /** Creates the first version over a loaded catalog whose ids are already indexed. */
+  CatalogVersion(CatalogStore store, IdIndex ids, TagDictionary tagDictionary,
+      TitleOrder titleOrder) {
+    this(store, ids, tagDictionary, titleOrder, 1);
+  }
+
+  /**
+   * Creates the first version as above, splitting segments into the given number of shards.
+   *
+   * @throws IllegalArgumentException if shards is not between 1 and
+   *     {@link CatalogShards#MAX_SHARDS}
+   */
+  CatalogVersion(CatalogStore store, IdIndex ids, TagDictionary tagDictionary,
+      TitleOrder titleOrder, int shards) {
+    this(1, List.of(Segment.first(store, ids, titleOrder, tagDictionary, shards)),
+        tagDictionary, OrdinalBitmap.EMPTY, OrdinalBitmap.range(store.size()), store.size(),
+        shards);
+  }
+
+  /**
+   * Creates the first version over a catalog restored from a snapshot, keeping the indexes
+   * read from it; later segments are split into the given number of shards.
+   */
+  CatalogVersion(CatalogSnapshot snapshot, int shards) {
+    this(1, List.of(Segment.restore(snapshot)), snapshot.getTagDictionary(),
+        OrdinalBitmap.EMPTY, OrdinalBitmap.range(snapshot.getStore().size()),
+        snapshot.getStore().size(), shards);
+  }
+
+  /**
+   * Creates a version of the segments, whose rows are the given rows, size of them not
+   * removed.
+   */
+  private CatalogVersion(long number, List<Segment> segments, TagDictionary tagDictionary,
+      OrdinalBitmap removed, OrdinalBitmap rows, int size, int shards) {
+    this.number = number;
+    this.shards = shards;
+    this.segments = segments;
+    this.tagDictionary = tagDictionary;
+    this.removed = removed;
+    this.rows = rows;
+    this.size = size;
+    List<CatalogStore> stores = new ArrayList<>(segments.size());
+    List<SegmentOrdinals> ordinals = new ArrayList<>(segments.size());
+    List<TagIndex> tags = new ArrayList<>(segments.size());
+    for (Segment segment : segments) {
+      stores.add(segment.store);
+      ordinals.add(segment.ordinals);
+      tags.add(segment.tags);
+    }
+    this.store = CatalogStore.chain(stores, ordinals);
+    this.tagIndex = segments.size() == 1 ? segments.get(0).tags : TagIndex.union(tags, rows);
+  }
+
+  /** Returns the number of this version, counting up from 1 with every applied diff. */
+  long getNumber() {
+    return number;
+  }
+
+  /** Returns whether the version is one segment of consecutive ordinals, none removed. */
+  boolean isCompact() {
+    return segments.size() == 1 && removed.isEmpty() && segments.get(0).ordinals.isDense();
+  }
+
+  /**
+   * Returns this version if it is compact, and otherwise a first version of its videos
+   * renumbered densely in the order of their ordinals, as {@link #liveOrdinals} lists them.
+   */
+  CatalogVersion compact() {
+    if (isCompact()) {
+      return this;
+    }
+    int[] live = liveOrdinals();
+    int[] byTitle = sort(live);
+    for (int i = 0; i < byTitle.length; i++) {
+      byTitle[i] = Arrays.binarySearch(live, byTitle[i]);
+    }
+    CatalogStore dense = store.select(live, live.length, store.getStorage());
+    IdIndex ids = new IdIndex(dense.size());
+    for (int ordinal = 0; ordinal < dense.size(); ordinal++) {
+      ids.add(dense.videoId(ordinal), ordinal);
+    }
+    return new CatalogVersion(dense, ids, tagDictionary, new TitleOrder(byTitle), shards);
+  }
+
+  /**
+   * Writes a snapshot of this version and its indexes, see {@link CatalogSnapshot}.
+   *
+   * @throws IllegalStateException if the version is not {@link #isCompact compact}
+   */
+  void writeSnapshot(Path snapshot, Path catalog, FlagColumn flags) throws IOException {
+    if (!isCompact()) {
+      throw new IllegalStateException("Only a compact catalog version can be written.");
+    }
+    Segment segment = segments.get(0);
+    CatalogSnapshot.write(snapshot, catalog, segment.store, tagDictionary, segment.order,
+        segment.shards, segment.ids, segment.titles, segment.tags, flags);
+  }
+
+  /**
+   * Returns the rows of the videos, including removed ones not yet merged away; its size is
+   * one past the highest ordinal ever used.
+   */
+  CatalogStore getStore() {
+    return store;
+  }
+
+  TagDictionary getTagDictionary() {
+    return tagDictionary;
+  }
+
+  /** Returns the number of videos in this version. */
+  int size() {
+    return size;
+  }
+
+  /** Returns the number of segments, for tests. */
+  int segmentCount() {
+    return segments.size();
+  }
+
+  /** Returns the number of shards of the oldest segment, for tests. */
+  int shardCount() {
+    return segments.get(0).shards.count();
+  }
+
+  /** Returns whether the ordinal is a video of this version. */
+  boolean isLive(int ordinal) {
+    return rows.contains(ordinal) && !removed.contains(ordinal);
+  }
+
+  /** Returns the ordinals of this version's videos in ascending order. */
+  int[] liveOrdinals() {
+    return (removed.isEmpty() ? rows : rows.andNot(removed)).toArray();
+  }
+
+  /** Returns the ordinal of the video with the given id, or -1 if it is not in this version. */
+  int find(String videoId) {
+    //an id is live in at most one segment, and a newer segment holds the newer row
+    for (int i = segments.size() - 1; i >= 0; i--) {
+      Segment segment = segments.get(i);
+      int local = segment.find(videoId);
+      if (local >= 0) {
+        int ordinal = segment.ordinal(local);
+        return removed.contains(ordinal) ? -1 : ordinal;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the ordinals, in ascending order, of the videos whose title contains the search
+   * term, ignoring case.
+   */
+  int[] searchTitles(String searchTerm) {
+    if (segments.size() == 1 && removed.isEmpty() && segments.get(0).ordinals.isDense()) {
+      return segments.get(0).titles.search(searchTerm);
+    }
+    IntList matches = new IntList();
+    for (Segment segment : segments) {
+      for (int local : segment.titles.search(searchTerm)) {
+        int ordinal = segment.ordinal(local);
+        if (!removed.contains(ordinal)) {
+          matches.add(ordinal);
+        }
+      }
+    }
+    return matches.toArray();
+  }
+
+  /**
+   * Returns the ordinals of the videos whose title contains the search term, ignoring case, in
+   * title order. The shards of a segment each search and order their own titles at once.
+   */
+  int[] searchTitlesInTitleOrder(String searchTerm) {
+    int[] sorted = new int[0];
+    for (Segment segment : segments) {
+      int[] run = segment.shards.inTitleOrder(shard -> segment.titles.search(searchTerm, shard),
+          segment.order);
+      int live = 0;
+      for (int local : run) {
+        int ordinal = segment.ordinal(local);
+        if (!removed.contains(ordinal)) {
+          run[live++] = ordinal;
+        }
+      }
+      if (live > 0) {
+        sorted = merge(sorted, live == run.length ? run : Arrays.copyOf(run, live));
+      }
+    }
+    return sorted;
+  }
+
+  /**
+   * Returns the ordinals of the at most k accepted videos whose title best matches the search
+   * term, best first, as ranked by {@link RankedSearch}.
+   */
+  int[] rankTitles(String searchTerm, int k, IntPredicate accept) {
+    OrdinalBitmap tagged = tagIndex.videosWithTag("#" + searchTerm);
+    RankedSearch search = new RankedSearch(searchTerm, k, tagged,
+        ordinal -> !removed.contains(ordinal) && accept.test(ordinal));
+    for (Segment segment : segments) {
+      search.searchSegment(segment.ordinals, segment.titles, segment.words());
+    }
+    return search.result();
+  }
+
+  /**
+   * Returns the ordinals of the at most k accepted videos with a title word nearest the search
+   * word, best first, as ranked by {@link FuzzySearch}.
+   *
+   * @throws IllegalArgumentException if the search term is not a single word
+   */
+  int[] fuzzyTitles(String searchTerm, int k, IntPredicate accept) {
+    FuzzySearch search = new FuzzySearch(searchTerm, k,
+        ordinal -> !removed.contains(ordinal) && accept.test(ordinal));
+    for (Segment segment : segments) {
+      search.searchSegment(segment.ordinals, segment.words());
+    }
+    return search.result();
+  }
+
+  /**
+   * Returns the ordinals of at most n accepted videos whose id or title starts with the prefix,
+   * ignoring case: those matching by id in id order, then the others in title order.
+   */
+  int[] suggest(String prefix, int n, IntPredicate accept) {
+    int[] found = new int[Math.min(n, size)];
+    int count = suggest(PrefixIndex.IDS, prefix, found, 0, accept);
+    count = suggest(PrefixIndex.TITLES, prefix, found, count, accept);
+    return count == found.length ? found : Arrays.copyOf(found, count);
+  }
+
+  /** Appends the matches of one order of every segment, merged by key, from found[count]. */
+  private int suggest(int by, String prefix, int[] found, int count, IntPredicate accept) {
+    int[] positions = new int[segments.size()];
+    for (int s = 0; s < positions.length; s++) {
+      positions[s] = segments.get(s).prefixes().first(by, prefix);
+    }
+    while (count < found.length) {
+      //the segment whose next key is lowest; on equal keys the earlier one, as ordinals rise
+      int next = -1;
+      String nextKey = null;
+      for (int s = 0; s < positions.length; s++) {
+        PrefixIndex index = segments.get(s).prefixes();
+        if (positions[s] < index.size()) {
+          String key = index.keyAt(by, positions[s]);
+          if (PrefixIndex.startsWithIgnoreCase(key, prefix)
+              && (next < 0 || PrefixIndex.compareIgnoreCase(key, nextKey) < 0)) {
+            next = s;
+            nextKey = key;
+          }
+        }
+      }
+      if (next < 0) {
+        break;
+      }
+      Segment segment = segments.get(next);
+      int local = segment.prefixes().ordinalAt(by, positions[next]++);
+      int ordinal = segment.ordinal(local);
+      //a video matching by id was listed with the ids already
+      if ((by == PrefixIndex.IDS
+          || !PrefixIndex.startsWithIgnoreCase(segment.store.videoId(local), prefix))
+          && !removed.contains(ordinal) && accept.test(ordinal)) {
+        found[count++] = ordinal;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Returns the ordinals matching a tag expression.
+   *
+   * @throws IllegalArgumentException if the expression is malformed
+   */
+  OrdinalBitmap searchTags(String tagExpression) {
+    OrdinalBitmap matches = TagQuery.evaluate(tagExpression, tagIndex);
+    return removed.isEmpty() ? matches : matches.andNot(removed);
+  }
+
+  /**
+   * Returns the given distinct ordinals in title order. Each segment orders its own ordinals
+   * by rank, one shard per task, and the runs are merged by title.
+   */
+  int[] sort(int[] ordinals) {
+    if (segments.size() == 1 && segments.get(0).ordinals.isDense()) {
+      return segments.get(0).sort(ordinals);
+    }
+    int[] sorted = new int[0];
+    for (Segment segment : segments) {
+      IntList local = new IntList();
+      for (int ordinal : ordinals) {
+        int row = segment.ordinals.local(ordinal);
+        if (row >= 0) {
+          local.add(row);
+        }
+      }
+      if (local.size() > 0) {
+        int[] run = segment.sort(local.toArray());
+        for (int i = 0; i < run.length; i++) {
+          run[i] = segment.ordinal(run[i]);
+        }
+        sorted = merge(sorted, run);
+      }
+    }
+    return sorted;
+  }
+
+  /**
+   * Returns the position in the ordinals, which are in title order, of the first one that
+   * comes after the given title and ordinal in title order. The ordinal may be of an older
+   * version.
+   */
+  int positionAfter(int[] inTitleOrder, String title, int ordinal) {
+    int low = 0;
+    int high = inTitleOrder.length;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      int order = store.title(inTitleOrder[middle]).compareTo(title);
+      if (order < 0 || (order == 0 && inTitleOrder[middle] <= ordinal)) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Returns, in title order, the ordinals of the first limit accepted videos whose title
+   * contains the search term, ignoring case, that come after the given title and ordinal, or
+   * from the first if the title is null. Each segment resumes its own title order there: a
+   * term with many candidates walks it until limit match, a rarer one keeps the lowest limit
+   * of its matches by position, so a page never sorts every match.
+   */
+  int[] pageTitles(String searchTerm, String afterTitle, int after, int limit,
+      IntPredicate accept) {
+    String term = searchTerm.toLowerCase();
+    int[] page = new int[0];
+    for (Segment segment : segments) {
+      IntPredicate live = local -> !removed.contains(segment.ordinal(local))
+          && accept.test(segment.ordinal(local));
+      int from = segment.positionAfter(afterTitle, after);
+      int[] run;
+      if (segment.titles.estimate(term) > segment.store.size() / TitleOrder.DENSE_DIVISOR) {
+        run = segment.order.walk(from, limit,
+            local -> segment.titles.lowerTitle(local).contains(term) && live.test(local));
+      } else {
+        run = segment.order.first(from, limit, found -> {
+          for (int shard = 0; shard < segment.shards.count(); shard++) {
+            for (int local : segment.titles.search(term, shard)) {
+              if (live.test(local)) {
+                found.accept(local);
+              }
+            }
+          }
+        });
+      }
+      page = mergePage(page, run, segment, limit);
+    }
+    return page;
+  }
+
+  /**
+   * Returns, in title order, the ordinals of the first limit accepted videos matching a tag
+   * expression after the given title and ordinal, as {@link #pageTitles} does for a title.
+   *
+   * @throws IllegalArgumentException if the expression is malformed
+   */
+  int[] pageTags(String tagExpression, String afterTitle, int after, int limit,
+      IntPredicate accept) {
+    OrdinalBitmap matches = searchTags(tagExpression);
+    boolean dense = matches.cardinality() > store.size() / TitleOrder.DENSE_DIVISOR;
+    int[] page = new int[0];
+    for (Segment segment : segments) {
+      int from = segment.positionAfter(afterTitle, after);
+      int[] run = dense
+          ? segment.order.walk(from, limit, local -> matches.contains(segment.ordinal(local))
+              && accept.test(segment.ordinal(local)))
+          : segment.order.first(from, limit, found -> matches.forEach(segment.ordinals.start(),
+              segment.ordinals.end(), ordinal -> {
+                if (accept.test(ordinal)) {
+                  found.accept(segment.ordinals.local(ordinal));
+                }
+              }));
+      page = mergePage(page, run, segment, limit);
+    }
+    return page;
+  }
+
+  /** Merges the local ordinals of a segment into a page, keeping the first limit. */
+  private int[] mergePage(int[] page, int[] run, Segment segment, int limit) {
+    if (run.length == 0) {
+      return page;
+    }
+    for (int i = 0; i < run.length; i++) {
+      run[i] = segment.ordinal(run[i]);
+    }
+    int[] merged = merge(page, run);
+    return merged.length > limit ? Arrays.copyOf(merged, limit) : merged;
+  }
+
+  /** Merges two runs in title order, ties broken by ordinal as in {@link TitleOrder}. */
+  private int[] merge(int[] a, int[] b) {
+    if (a.length == 0) {
+      return b;
+    }
+    int[] merged = new int[a.length + b.length];
+    int i = 0;
+    int j = 0;
+    int k = 0;
+    String titleA = store.title(a[0]);
+    String titleB = store.title(b[0]);
+    while (i < a.length && j < b.length) {
+      int order = titleA.compareTo(titleB);
+      if (order < 0 || (order == 0 && a[i] < b[j])) {
+        merged[k++] = a[i++];
+        titleA = i < a.length ? store.title(a[i]) : null;
+      } else {
+        merged[k++] = b[j++];
+        titleB = j < b.length ? store.title(b[j]) : null;
+      }
+    }
+    while (i < a.length) {
+      merged[k++] = a[i++];
+    }
+    while (j < b.length) {
+      merged[k++] = b[j++];
+    }
+    return merged;
+  }
+
+  /** Returns the ordinal of the video at the given position in title order. */
+  int ordinalAtTitle(int position) {
+    if (segments.size() == 1 && removed.isEmpty()) {
+      return segments.get(0).ordinal(segments.get(0).order.ordinalAt(position));
+    }
+    int[] order = titleOrder;
+    if (order == null) {
+      titleOrder = order = sort(liveOrdinals());
+    }
+    return order[position];
+  }
+
+  /**
+   * Returns the next version: the given rows appended as new videos after every existing
+   * ordinal, and the given ascending ordinals, all of videos of this version, removed. Merged
+   * segments leave out the rows of removed videos, whose ordinals are then no longer rows.
+   */
+  CatalogVersion apply(CatalogStore added, int[] dropped, int droppedCount) {
+    OrdinalBitmap nextRemoved = droppedCount == 0 ? removed
+        : removed.or(OrdinalBitmap.of(dropped, droppedCount));
+    OrdinalBitmap nextRows = rows;
+    List<Segment> next = new ArrayList<>(segments);
+    if (added.size() > 0) {
+      int[] all = new int[added.size()];
+      for (int i = 0; i < all.length; i++) {
+        all[i] = i;
+      }
+      SegmentOrdinals ordinals = new SegmentOrdinals(store.size(), added.size());
+      next.add(Segment.build(ordinals, added.select(all, all.length, store.getStorage()),
+          tagDictionary, shards));
+      nextRows = nextRows.or(ordinals.toBitmap());
+    }
+    while (next.size() > 1
+        && next.get(next.size() - 1).store.size() >= next.get(next.size() - 2).store.size()) {
+      Segment newer = next.remove(next.size() - 1);
+      Segment older = next.remove(next.size() - 1);
+      OrdinalBitmap reclaimed = nextRemoved.isEmpty() ? OrdinalBitmap.EMPTY : nextRemoved.and(
+          OrdinalBitmap.range(older.ordinals.start(), newer.ordinals.end()));
+      //the rows kept, numbered as in the two stores chained
+      IntList kept = new IntList(older.store.size() + newer.store.size());
+      IntList ordinals = new IntList(older.store.size() + newer.store.size());
+      for (Segment segment : List.of(older, newer)) {
+        int offset = segment == older ? 0 : older.store.size();
+        for (int local = 0; local < segment.store.size(); local++) {
+          int ordinal = segment.ordinal(local);
+          if (reclaimed.isEmpty() || !reclaimed.contains(ordinal)) {
+            kept.add(offset + local);
+            ordinals.add(ordinal);
+          }
+        }
+      }
+      CatalogStore both = CatalogStore.chain(List.of(older.store, newer.store));
+      next.add(Segment.build(new SegmentOrdinals(older.ordinals.start(), newer.ordinals.end(),
+          ordinals.toArray()), both.select(kept.values(), kept.size(), store.getStorage()),
+          tagDictionary, shards));
+      if (!reclaimed.isEmpty()) {
+        nextRemoved = nextRemoved.andNot(reclaimed);
+        nextRows = nextRows.andNot(reclaimed);
+      }
+    }
+    return new CatalogVersion(number + 1, List.copyOf(next), tagDictionary, nextRemoved,
+        nextRows, size + added.size() - droppedCount, shards);
+  }
+}
@@ -0,0 +1,84 @@
+package com.google;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches a catalog file and {@link VideoLibrary#reload reloads} its library whenever the
+ * file is written or replaced. Events that arrive in quick succession, such as an editor
+ * writing a file in several steps, are coalesced into one reload. Replacing the file with an
+ * atomic move avoids ever reading a half-written catalog.
+ */
+final class CatalogWatcher implements Closeable {
+
+  /** How long the directory must be quiet before the catalog is read. */
+  static final long SETTLE_MILLIS = 100;
+
+  private final VideoLibrary library;
+  private final Path catalog;
+  private final WatchService watchService;
+  private final Thread thread;
+
+  /** Starts watching the catalog file of the library on a daemon thread. */
+  CatalogWatcher(VideoLibrary library, Path catalog) throws IOException {
+    this.library = library;
+    this.catalog = catalog.toAbsolutePath();
+    Path directory = this.catalog.getParent();
+    this.watchService = directory.getFileSystem().newWatchService();
+    directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+        StandardWatchEventKinds.ENTRY_MODIFY);
+    this.thread = new Thread(this::watch, "catalog-watcher");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  private void watch() {
+    try {
+      while (true) {
+        boolean touched = drain(watchService.take());
+        WatchKey more;
+        while ((more = watchService.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+          touched |= drain(more);
+        }
+        if (touched && Files.exists(catalog)) {
+          try {
+            System.err.println(library.reload(catalog));
+          } catch (IOException | RuntimeException e) {
+            System.err.println("Couldn't reload " + catalog + ": " + e.getMessage());
+          }
+        }
+      }
+    } catch (InterruptedException | ClosedWatchServiceException e) {
+      //closed
+    }
+  }
+
+  /** Consumes the events of a key and returns whether any of them may concern the catalog. */
+  private boolean drain(WatchKey key) {
+    boolean touched = false;
+    for (WatchEvent<?> event : key.pollEvents()) {
+      touched |= event.kind() == StandardWatchEventKinds.OVERFLOW
+          || catalog.getFileName().equals(event.context());
+    }
+    key.reset();
+    return touched;
+  }
+
+  @Override
+  public void close() throws IOException {
+    watchService.close();
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,444 @@
+package com.google;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A library whose catalog is split across {@link ShardServer} processes by a hash of the video
+ * ids, as a {@link CatalogShards shard} of one process is. It is the coordinator of the
+ * cluster: a {@link VideoPlayer} over it serves the usual commands. Lookups and flags are
+ * routed to the shard owning the id; searches, listings and counts are sent to every shard at
+ * once and their answers merged in the order the command shows them.
+ *
+ * <p>Every shard gets the same timeout. A shard that cannot be reached or does not answer in
+ * time is left out and the command shows what the others answered, followed by a warning
+ * naming the missing shards (see {@link #takeWarning}). Fuzzy searches and paged results are
+ * not supported across shards; they fail with a message for the user, as a malformed search
+ * does. The coordinator keeps no catalog of its own, so it caches no searches either.
+ */
+final class ClusterLibrary implements Library, Closeable {
+
+  static final int DEFAULT_TIMEOUT_MILLIS = 1000;
+
+  /** How many times a random pick counts the unflagged videos before it gives up. */
+  static final int RANDOM_ATTEMPTS = 3;
+
+  private static final String UNSUPPORTED = "Not supported by a cluster of shards.";
+  /** Orders listings by title, then by id, since ordinals are local to each shard. */
+  private static final Comparator<Video> BY_TITLE =
+      Comparator.comparing(Video::getTitle).thenComparing(Video::getVideoId);
+
+  /** A video read from a shard's answer, whose tag ids are those of the coordinator. */
+  private static final class RemoteVideo extends Video {
+    private final TagDictionary tagDictionary;
+    private final String[] fields;
+
+    RemoteVideo(TagDictionary tagDictionary, String[] fields) {
+      this.tagDictionary = tagDictionary;
+      this.fields = fields;
+    }
+
+    @Override
+    String getVideoId() {
+      return fields[0];
+    }
+
+    @Override
+    String getTitle() {
+      return fields[1];
+    }
+
+    @Override
+    boolean getFlagStatus() {
+      return fields[2].equals("1");
+    }
+
+    @Override
+    String getFlagReason() {
+      return fields[3];
+    }
+
+    @Override
+    List<String> getTags() {
+      return Arrays.asList(fields).subList(4, fields.length);
+    }
+
+    @Override
+    boolean hasTag(int tagId) {
+      return tagId >= 0 && tagId < tagDictionary.size()
+          && getTags().contains(tagDictionary.nameOf(tagId));
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      return other instanceof RemoteVideo
+          && ((RemoteVideo) other).getVideoId().equals(getVideoId());
+    }
+
+    @Override
+    public int hashCode() {
+      return getVideoId().hashCode();
+    }
+  }
+
+  private final List<ShardClient> shards;
+  private final int timeoutMillis;
+  /** The ids of the tags of the videos the shards answered with, assigned as they arrive. */
+  private final TagDictionary tagDictionary = new TagDictionary();
+  private final ExecutorService requests = CommandServer.newConnectionExecutor();
+  /** The shards that failed this thread's requests since its last {@link #takeWarning}. */
+  private final ThreadLocal<StringBuilder> failures = new ThreadLocal<>();
+
+  /** Connects to the shards at the given addresses, in shard order. */
+  ClusterLibrary(List<InetSocketAddress> shards, int timeoutMillis) {
+    if (shards.isEmpty() || shards.size() > CatalogShards.MAX_SHARDS) {
+      throw new IllegalArgumentException(
+          "A cluster needs between 1 and " + CatalogShards.MAX_SHARDS + " shards.");
+    }
+    List<ShardClient> clients = new ArrayList<>(shards.size());
+    for (InetSocketAddress address : shards) {
+      clients.add(new ShardClient(address, timeoutMillis));
+    }
+    this.shards = List.copyOf(clients);
+    this.timeoutMillis = timeoutMillis;
+  }
+
+  /** Returns the number of shards of the cluster. */
+  int shardCount() {
+    return shards.size();
+  }
+
+  /** Returns the dictionary the tag ids of this library's videos refer to. */
+  TagDictionary getTagDictionary() {
+    return tagDictionary;
+  }
+
+  /** Sends the request to the shard owning the id; null if it failed. */
+  private ShardClient.Reply route(String videoId, String... request) {
+    int shard = CatalogShards.shardOf(videoId, shards.size());
+    try {
+      return shards.get(shard).call(request);
+    } catch (IOException e) {
+      fail(shard, e);
+      return null;
+    }
+  }
+
+  /**
+   * Sends the request to every shard at once and returns the answers of those that answered
+   * within the timeout.
+   *
+   * @throws IllegalArgumentException if a shard rejected the request
+   */
+  private List<ShardClient.Reply> scatter(String... request) {
+    List<ShardClient.Reply> replies = new ArrayList<>(shards.size());
+    for (ShardClient.Reply reply : gather(request)) {
+      if (reply != null) {
+        replies.add(reply);
+      }
+    }
+    return replies;
+  }
+
+  /**
+   * Sends the request to every shard at once and returns the answers by shard, null for those
+   * that failed or did not answer within the timeout, all waiting for the same deadline.
+   *
+   * @throws IllegalArgumentException if a shard rejected the request
+   */
+  private ShardClient.Reply[] gather(String... request) {
+    List<ShardClient.Call> calls = new ArrayList<>(shards.size());
+    List<Future<ShardClient.Reply>> answers = new ArrayList<>(shards.size());
+    for (ShardClient shard : shards) {
+      ShardClient.Call call = shard.prepare(request);
+      calls.add(call);
+      answers.add(requests.submit(call));
+    }
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    ShardClient.Reply[] replies = new ShardClient.Reply[shards.size()];
+    for (int shard = 0; shard < replies.length; shard++) {
+      try {
+        replies[shard] = answers.get(shard).get(Math.max(0, deadline - System.nanoTime()),
+            TimeUnit.NANOSECONDS);
+      } catch (TimeoutException e) {
+        //interrupting would not stop a read from a socket, closing it does
+        calls.get(shard).abort();
+        fail(shard, new IOException("no answer within " + timeoutMillis + " ms"));
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof IllegalArgumentException) {
+          calls.forEach(ShardClient.Call::abort);
+          throw (IllegalArgumentException) e.getCause();
+        }
+        fail(shard, e.getCause());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        calls.get(shard).abort();
+        fail(shard, e);
+      }
+    }
+    return replies;
+  }
+
+  private void fail(int shard, Throwable cause) {
+    StringBuilder warning = failures.get();
+    if (warning == null) {
+      failures.set(warning = new StringBuilder("Results are partial, shards did not answer:"));
+    }
+    warning.append("\n  ").append(describe(shard, cause));
+  }
+
+  /** Names the shard and what went wrong with it. */
+  private String describe(int shard, Throwable cause) {
+    InetSocketAddress address = shards.get(shard).getAddress();
+    return "shard " + shard + " (" + address.getHostString() + ':' + address.getPort() + "): "
+        + (cause.getMessage() != null ? cause.getMessage() : cause.getClass().getSimpleName());
+  }
+
+  /** Returns and clears the shards that failed this thread's requests, or null if none. */
+  @Override
+  public String takeWarning() {
+    StringBuilder warning = failures.get();
+    failures.remove();
+    return warning == null ? null : warning.toString();
+  }
+
+  private List<Video> videosOf(ShardClient.Reply reply) {
+    List<Video> videos = new ArrayList<>(reply.getVideos().size());
+    for (String[] fields : reply.getVideos()) {
+      videos.add(remote(fields));
+    }
+    return videos;
+  }
+
+  private Video remote(String[] fields) {
+    for (int i = 4; i < fields.length; i++) {
+      tagDictionary.idOf(fields[i]);
+    }
+    return new RemoteVideo(tagDictionary, fields);
+  }
+
+  /** Returns the videos of all replies in title order. */
+  private List<Video> inTitleOrder(List<ShardClient.Reply> replies) {
+    List<Video> videos = new ArrayList<>();
+    for (ShardClient.Reply reply : replies) {
+      videos.addAll(videosOf(reply));
+    }
+    videos.sort(BY_TITLE);
+    return videos;
+  }
+
+  @Override
+  public Video getVideo(String videoId) {
+    ShardClient.Reply reply = route(videoId, "FIND", videoId);
+    return reply == null || reply.getVideos().isEmpty() ? null
+        : remote(reply.getVideos().get(0));
+  }
+
+  /** Returns all videos of the shards that answered, in title order. */
+  @Override
+  public List<Video> getVideosByTitle() {
+    return inTitleOrder(scatter("ALL"));
+  }
+
+  @Override
+  public int size() {
+    int size = 0;
+    for (ShardClient.Reply reply : scatter("COUNT")) {
+      size += Integer.parseInt(reply.getValue());
+    }
+    return size;
+  }
+
+  /** Returns the number of unflagged videos of the shards that answered. */
+  int unflaggedCount() {
+    int count = 0;
+    for (ShardClient.Reply reply : scatter("PLAYABLE")) {
+      count += Integer.parseInt(reply.getValue());
+    }
+    return count;
+  }
+
+  /**
+   * Picks a shard with a chance proportional to its unflagged videos, then one of them; every
+   * unflagged video of the shards that answered is equally likely. A video flagged between
+   * the count and the pick, or a shard failing the pick, starts the count over, up to
+   * {@link #RANDOM_ATTEMPTS} times.
+   */
+  @Override
+  public Video randomUnflaggedVideo() {
+    for (int attempt = 0; attempt < RANDOM_ATTEMPTS; attempt++) {
+      ShardClient.Reply[] replies = gather("PLAYABLE");
+      int[] counts = new int[replies.length];
+      int total = 0;
+      for (int shard = 0; shard < counts.length; shard++) {
+        counts[shard] = replies[shard] == null ? 0 : Integer.parseInt(replies[shard].getValue());
+        total += counts[shard];
+      }
+      if (total == 0) {
+        return null;
+      }
+      int index = ThreadLocalRandom.current().nextInt(total);
+      int shard = 0;
+      while (index >= counts[shard]) {
+        index -= counts[shard++];
+      }
+      Video video = playableAt(shard, index);
+      if (video != null) {
+        return video;
+      }
+    }
+    return null;
+  }
+
+  /** Returns the index-th unflagged video of the shard, or null if it failed. */
+  private Video playableAt(int shard, int index) {
+    try {
+      ShardClient.Reply reply = shards.get(shard).call("PLAYABLE_AT", String.valueOf(index));
+      //flagged since it was counted
+      return reply.getVideos().isEmpty() ? null : remote(reply.getVideos().get(0));
+    } catch (IOException e) {
+      fail(shard, e);
+      return null;
+    }
+  }
+
+  /**
+   * Returns the index-th unflagged video, counting the unflagged videos of each shard in
+   * shard order, or null if there are not that many or the shard holding it failed.
+   */
+  Video unflaggedVideo(int index) {
+    ShardClient.Reply[] replies = gather("PLAYABLE");
+    for (int shard = 0; shard < replies.length && index >= 0; shard++) {
+      int count = replies[shard] == null ? 0 : Integer.parseInt(replies[shard].getValue());
+      if (index < count) {
+        return playableAt(shard, index);
+      }
+      index -= count;
+    }
+    return null;
+  }
+
+  @Override
+  public List<Video> searchVideosByTitle(String searchTerm) {
+    return inTitleOrder(scatter("SEARCH", searchTerm));
+  }
+
+  /**
+   * Asks every shard for its best k and keeps the best k of those, rescored with
+   * {@link RankedSearch#score}; ties go to the lower id, since ordinals are local to a shard.
+   */
+  @Override
+  public List<Video> searchVideosByTitle(String searchTerm, int k) {
+    String term = searchTerm.toLowerCase();
+    List<Video> candidates = new ArrayList<>();
+    for (ShardClient.Reply reply : scatter("TOP", String.valueOf(k), searchTerm)) {
+      candidates.addAll(videosOf(reply));
+    }
+    candidates.sort(Comparator.comparingInt((Video video) -> -RankedSearch.score(
+        video.getTitle().toLowerCase(), term, video.getTags().stream()
+            .anyMatch(tag -> tag.equalsIgnoreCase("#" + term))))
+        .thenComparing(Video::getVideoId));
+    return candidates.size() > k ? candidates.subList(0, k) : candidates;
+  }
+
+  @Override
+  public List<Video> searchVideosByTitle(String searchTerm, String afterTitle, int after,
+      int limit) {
+    throw new IllegalArgumentException(UNSUPPORTED);
+  }
+
+  @Override
+  public List<Video> searchVideosFuzzy(String searchTerm, int k) {
+    throw new IllegalArgumentException(UNSUPPORTED);
+  }
+
+  /**
+   * Asks every shard for n suggestions and keeps the first n of those: matches by id in id
+   * order, then the others in title order, ignoring case.
+   */
+  @Override
+  public List<Video> suggest(String prefix, int n) {
+    List<Video> byId = new ArrayList<>();
+    List<Video> byTitle = new ArrayList<>();
+    for (ShardClient.Reply reply : scatter("SUGGEST", String.valueOf(n), prefix)) {
+      for (Video video : videosOf(reply)) {
+        (PrefixIndex.startsWithIgnoreCase(video.getVideoId(), prefix) ? byId : byTitle)
+            .add(video);
+      }
+    }
+    byId.sort((a, b) -> PrefixIndex.compareIgnoreCase(a.getVideoId(), b.getVideoId()));
+    byTitle.sort((a, b) -> {
+      int order = PrefixIndex.compareIgnoreCase(a.getTitle(), b.getTitle());
+      return order != 0 ? order : a.getVideoId().compareTo(b.getVideoId());
+    });
+    byId.addAll(byTitle);
+    return byId.size() > n ? byId.subList(0, n) : byId;
+  }
+
+  /** @throws IllegalArgumentException if the expression is malformed */
+  @Override
+  public List<Video> searchVideosByTags(String tagExpression) {
+    return inTitleOrder(scatter("TAGS", tagExpression));
+  }
+
+  @Override
+  public List<Video> searchVideosByTags(String tagExpression, String afterTitle, int after,
+      int limit) {
+    throw new IllegalArgumentException(UNSUPPORTED);
+  }
+
+  /**
+   * Flags the video on its shard; false if it was flagged already.
+   *
+   * @throws IllegalStateException if the shard failed, naming it
+   */
+  @Override
+  public boolean flagVideo(Video video, String reason) {
+    return setFlag("FLAG", video.getVideoId(), reason);
+  }
+
+  /**
+   * Removes the flag on the video's shard; false if it had none.
+   *
+   * @throws IllegalStateException if the shard failed, naming it
+   */
+  @Override
+  public boolean allowVideo(Video video) {
+    return setFlag("ALLOW", video.getVideoId());
+  }
+
+  /** Sends a flag change to the shard of the video id, the second word of the request. */
+  private boolean setFlag(String... request) {
+    int shard = CatalogShards.shardOf(request[1], shards.size());
+    try {
+      return shards.get(shard).call(request).getValue().equals("1");
+    } catch (IOException e) {
+      throw new IllegalStateException("The flag was not changed, " + describe(shard, e));
+    }
+  }
+
+  @Override
+  public SearchCache.Stats getSearchCacheStats() {
+    return null;
+  }
+
+  /** Closes the connections to the shards; the shards keep running. */
+  @Override
+  public void close() throws IOException {
+    requests.shutdownNow();
+    for (ShardClient shard : shards) {
+      shard.close();
+    }
+  }
+}
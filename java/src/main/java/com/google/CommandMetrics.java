@@ -0,0 +1,184 @@
+package com.google;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Invocation and error counts, latency histograms and output size histograms per command
+ * type, shared by every session that records into it. Recording takes no lock: counters are
+ * striped {@link LongAdder}s and histograms are {@link Histogram}s over atomic arrays; only
+ * the first invocation of a command type synchronizes, to create its stats. The stats can be
+ * printed with the METRICS command and {@link #export exported} as one MXBean per command.
+ */
+final class CommandMetrics {
+
+  static final String OBJECT_NAME_PREFIX = "com.google:type=CommandMetrics,command=";
+
+  /** Stats of one command type. */
+  static final class Stats implements CommandStatsMXBean {
+    private final String command;
+    private final LongAdder errors = new LongAdder();
+    private final Histogram latency = new Histogram();
+    private final Histogram outputLines = new Histogram();
+
+    Stats(String command) {
+      this.command = command;
+    }
+
+    void record(long nanos, long lines, boolean error) {
+      latency.record(nanos);
+      outputLines.record(lines);
+      if (error) {
+        errors.increment();
+      }
+    }
+
+    @Override
+    public String getCommand() {
+      return command;
+    }
+
+    @Override
+    public long getInvocations() {
+      return latency.count();
+    }
+
+    @Override
+    public long getErrors() {
+      return errors.sum();
+    }
+
+    @Override
+    public double getMeanLatencyNanos() {
+      return latency.mean();
+    }
+
+    @Override
+    public long getLatencyP50Nanos() {
+      return latency.percentile(50);
+    }
+
+    @Override
+    public long getLatencyP99Nanos() {
+      return latency.percentile(99);
+    }
+
+    @Override
+    public long getLatencyP999Nanos() {
+      return latency.percentile(99.9);
+    }
+
+    @Override
+    public long getLatencyMaxNanos() {
+      return latency.max();
+    }
+
+    @Override
+    public double getMeanOutputLines() {
+      return outputLines.mean();
+    }
+
+    @Override
+    public long getOutputLinesP99() {
+      return outputLines.percentile(99);
+    }
+
+    @Override
+    public long getOutputLinesMax() {
+      return outputLines.max();
+    }
+  }
+
+  private final ConcurrentMap<String, Stats> commands = new ConcurrentHashMap<>();
+  private MBeanServer server;
+
+  /** Records one execution of the command, which took nanos and printed lines of output. */
+  void record(String command, long nanos, long lines, boolean error) {
+    Stats stats = commands.get(command);
+    if (stats == null) {
+      stats = create(command);
+    }
+    stats.record(nanos, lines, error);
+  }
+
+  /** Returns the stats of the command, or null if it has not been recorded. */
+  Stats get(String command) {
+    return commands.get(command);
+  }
+
+  /** Returns the stats of every recorded command, by command name. */
+  List<Stats> getAll() {
+    List<Stats> all = new ArrayList<>(commands.values());
+    all.sort(Comparator.comparing(Stats::getCommand));
+    return all;
+  }
+
+  private synchronized Stats create(String command) {
+    Stats stats = commands.get(command);
+    if (stats == null) {
+      stats = new Stats(command);
+      commands.put(command, stats);
+      register(stats);
+    }
+    return stats;
+  }
+
+  /**
+   * Registers an MXBean for every command recorded so far and every command recorded from
+   * now on with the server, under {@link #OBJECT_NAME_PREFIX} and the command name.
+   */
+  synchronized void export(MBeanServer server) {
+    this.server = server;
+    for (Stats stats : commands.values()) {
+      register(stats);
+    }
+  }
+
+  /** Exports to the platform MBean server, where JConsole and similar tools look. */
+  void exportToPlatform() {
+    export(ManagementFactory.getPlatformMBeanServer());
+  }
+
+  private void register(Stats stats) {
+    if (server == null) {
+      return;
+    }
+    try {
+      server.registerMBean(stats, new ObjectName(OBJECT_NAME_PREFIX + stats.getCommand()));
+    } catch (InstanceAlreadyExistsException e) {
+      //another library's metrics already own the name; keep recording locally
+    } catch (JMException e) {
+      throw new IllegalStateException("Couldn't export metrics of " + stats.getCommand(), e);
+    }
+  }
+
+  /** Returns a table of the stats of every recorded command, latencies in microseconds. */
+  String report() {
+    List<Stats> all = getAll();
+    if (all.isEmpty()) {
+      return "No commands have been run yet.";
+    }
+    StringBuilder text = new StringBuilder("Command metrics (latency in microseconds):")
+        .append(System.lineSeparator());
+    text.append(String.format("    %-22s %9s %7s %9s %9s %9s %9s %9s %6s %6s%n", "COMMAND",
+        "CALLS", "ERRORS", "MEAN", "P50", "P99", "P99.9", "MAX", "LINES", "L_P99"));
+    for (Stats stats : all) {
+      text.append(String.format("    %-22s %9d %7d %9.1f %9.1f %9.1f %9.1f %9.1f %6.1f %6d%n",
+          stats.getCommand(), stats.getInvocations(), stats.getErrors(),
+          stats.getMeanLatencyNanos() / 1_000d, stats.getLatencyP50Nanos() / 1_000d,
+          stats.getLatencyP99Nanos() / 1_000d, stats.getLatencyP999Nanos() / 1_000d,
+          stats.getLatencyMaxNanos() / 1_000d, stats.getMeanOutputLines(),
+          stats.getOutputLinesP99()));
+    }
+    return text.substring(0, text.length() - System.lineSeparator().length());
+  }
+}
@@ -3,158 +3,305 @@ package com.google;
 import java.util.List;
 
 /**
- * A class used to parse and execute a user Command.
+ * A class used to parse and execute a user Command. Lines are split by a reusable
+ * {@link CommandTokenizer} and the command is found in a precomputed table without changing
+ * the case of the input; each table entry states how many arguments its command needs, so a
+ * malformed command is answered with its usage without allocating or throwing. A parser is
+ * used by one thread at a time.
  */
 class CommandParser {
 
+  /** Name under which commands that are not recognised are recorded. */
+  static final String UNKNOWN_COMMAND = "UNKNOWN";
+  /** Number of suggestions SUGGEST lists without TOP. */
+  static final int SUGGESTIONS = 10;
+  /** Number of videos on a page when PAGE is given without SIZE. */
+  static final int PAGE_SIZE = 20;
+
+  private static final String TAG_USAGE =
+      "Please enter SEARCH_VIDEOS_WITH_TAG command followed by a video tag.";
+  private static final String INVALID_COMMAND =
+      "Please enter a valid command, type HELP for a list of available commands.";
+
+  /** Runs a command whose arguments are tokens 1 and up of the tokenizer. */
+  private interface Handler {
+    void run(CommandParser parser, CommandTokenizer tokens);
+  }
+
+  /** An entry of the command table. */
+  private static final class Command {
+    final String name;
+    final int hash;
+    final int arguments;
+    final String usage;
+    final Handler handler;
+
+    /**
+     * @param arguments number of arguments the command needs at least; extra ones are ignored
+     * @param usage what to print when arguments are missing
+     */
+    Command(String name, int arguments, String usage, Handler handler) {
+      this.name = name;
+      this.hash = CommandTokenizer.hashIgnoreCase(name);
+      this.arguments = arguments;
+      this.usage = usage;
+      this.handler = handler;
+    }
+  }
+
+  /** The commands in an open addressing table indexed by their case-insensitive hash. */
+  private static final Command[] TABLE = table(
+      new Command("NUMBER_OF_VIDEOS", 0, null, (p, t) -> p.videoPlayer.numberOfVideos()),
+      new Command("SHOW_ALL_VIDEOS", 0, null, (p, t) -> {
+            int page = p.option(t, 1, "PAGE", "page number");
+            int size = page != 0 ? p.option(t, 1, "SIZE", "number of videos") : 0;
+            if (page < 0 && size < 0) {
+              p.videoPlayer.showAllVideos();
+            } else if (page != 0 && size != 0) {
+              p.videoPlayer.showAllVideos(Math.max(page, 1), size < 0 ? PAGE_SIZE : size);
+            }
+          }),
+      new Command("PLAY", 1, "Please enter PLAY command followed by video_id.",
+          (p, t) -> p.videoPlayer.playVideo(t.token(1))),
+      new Command("PLAY_RANDOM", 0, null, (p, t) -> p.videoPlayer.playRandomVideo()),
+      new Command("STOP", 0, null, (p, t) -> p.videoPlayer.stopVideo()),
+      new Command("PAUSE", 0, null, (p, t) -> p.videoPlayer.pauseVideo()),
+      new Command("CONTINUE", 0, null, (p, t) -> p.videoPlayer.continueVideo()),
+      new Command("SHOW_PLAYING", 0, null, (p, t) -> p.videoPlayer.showPlaying()),
+      new Command("CREATE_PLAYLIST", 1,
+          "Please enter CREATE_PLAYLIST command followed by a playlist name.",
+          (p, t) -> p.videoPlayer.createPlaylist(t.token(1))),
+      new Command("ADD_TO_PLAYLIST", 2, "Please enter ADD_TO_PLAYLIST command followed by a "
+          + "playlist name and video_id to add.",
+          (p, t) -> p.videoPlayer.addVideoToPlaylist(t.token(1), t.token(2))),
+      new Command("REMOVE_FROM_PLAYLIST", 2, "Please enter REMOVE_FROM_PLAYLIST command "
+          + "followed by a playlist name and video_id to remove.",
+          (p, t) -> p.videoPlayer.removeFromPlaylist(t.token(1), t.token(2))),
+      new Command("CLEAR_PLAYLIST", 1,
+          "Please enter CLEAR_PLAYLIST command followed by a playlist name.",
+          (p, t) -> p.videoPlayer.clearPlaylist(t.token(1))),
+      new Command("DELETE_PLAYLIST", 1,
+          "Please enter DELETE_PLAYLIST command followed by a playlist name.",
+          (p, t) -> p.videoPlayer.deletePlaylist(t.token(1))),
+      new Command("SHOW_PLAYLIST", 1,
+          "Please enter SHOW_PLAYLIST command followed by a playlist name.",
+          (p, t) -> {
+            int page = p.option(t, 2, "PAGE", "page number");
+            int size = page != 0 ? p.option(t, 2, "SIZE", "number of videos") : 0;
+            if (page < 0 && size < 0) {
+              p.videoPlayer.showPlaylist(t.token(1));
+            } else if (page != 0 && size != 0) {
+              p.videoPlayer.showPlaylist(t.token(1), Math.max(page, 1),
+                  size < 0 ? PAGE_SIZE : size);
+            }
+          }),
+      new Command("SHOW_ALL_PLAYLISTS", 0, null, (p, t) -> p.videoPlayer.showAllPlaylists()),
+      new Command("SEARCH_VIDEOS", 1,
+          "Please enter SEARCH_VIDEOS command followed by a search term.",
+          (p, t) -> {
+            int top = p.top(t);
+            if (top > 0) {
+              p.videoPlayer.searchVideos(t.token(1), top);
+              return;
+            }
+            int size = top < 0 ? p.option(t, 2, "SIZE", "number of results") : 0;
+            if (size > 0) {
+              p.videoPlayer.searchVideos(t.token(1), null, -1, size);
+            } else if (size < 0) {
+              p.videoPlayer.searchVideos(t.token(1));
+            }
+          }),
+      new Command("SEARCH_VIDEOS_FUZZY", 1,
+          "Please enter SEARCH_VIDEOS_FUZZY command followed by a search word.",
+          (p, t) -> {
+            int top = p.top(t);
+            if (top != 0) {
+              p.videoPlayer.searchVideosFuzzy(t.token(1), top < 0 ? Integer.MAX_VALUE : top);
+            }
+          }),
+      new Command("SUGGEST", 1, "Please enter SUGGEST command followed by the start of a "
+          + "video id or title.", (p, t) -> {
+            int top = p.top(t);
+            if (top != 0) {
+              p.videoPlayer.suggest(t.token(1), top < 0 ? SUGGESTIONS : top);
+            }
+          }),
+      //the rest of the line is a tag expression such as "#cat AND NOT #animal"
+      new Command("SEARCH_VIDEOS_WITH_TAG", 1, TAG_USAGE,
+          (p, t) -> {
+            //SIZE can only follow the expression
+            int end = t.count() > 3 && t.equalsIgnoreCase(t.count() - 2, "SIZE")
+                ? t.count() - 2 : t.count();
+            if (bareTags(t, 1, end)) {
+              p.out.println(TAG_USAGE);
+              return;
+            }
+            int size = p.option(t, end, "SIZE", "number of results");
+            if (size < 0) {
+              p.videoPlayer.searchVideosWithTag(t.rest(1));
+            } else if (size > 0) {
+              p.videoPlayer.searchVideosWithTag(t.rest(1, end), null, -1, size);
+            }
+          }),
+      new Command("NEXT", 1, "Please enter NEXT command followed by a continuation token.",
+          (p, t) -> p.videoPlayer.next(t.token(1))),
+      new Command("FLAG_VIDEO", 1, "Please enter FLAG_VIDEO command followed by a"
+          + "video_id and an optional flag reason.", (p, t) -> {
+            if (t.count() > 2) {
+              p.videoPlayer.flagVideo(t.token(1), t.token(2));
+            } else {
+              p.videoPlayer.flagVideo(t.token(1));
+            }
+          }),
+      new Command("ALLOW_VIDEO", 1, "Please enter ALLOW_VIDEO command followed by a video_id.",
+          (p, t) -> p.videoPlayer.allowVideo(t.token(1))),
+      new Command("METRICS", 0, null, (p, t) -> {
+            p.out.println(p.metrics == null
+                ? "Metrics are not being recorded." : p.metrics.report());
+            SearchCache.Stats cache = p.videoPlayer.getVideoLibrary().getSearchCacheStats();
+            if (cache != null) {
+              p.out.println(cache.toString());
+            }
+          }),
+      new Command("HELP", 0, null, (p, t) -> p.getHelp()));
+
+  private static Command[] table(Command... commands) {
+    Command[] table = new Command[Integer.highestOneBit(commands.length * 4)];
+    for (Command command : commands) {
+      int slot = command.hash & (table.length - 1);
+      while (table[slot] != null) {
+        slot = (slot + 1) & (table.length - 1);
+      }
+      table[slot] = command;
+    }
+    return table;
+  }
+
   private final VideoPlayer videoPlayer;
+  private final OutputSink out;
+  private final CommandMetrics metrics;
+  private final CommandTokenizer tokens = new CommandTokenizer();
 
+  /** Creates a parser whose commands are recorded in metrics of its own. */
   CommandParser(VideoPlayer videoPlayer) {
+    this(videoPlayer, new CommandMetrics());
+  }
+
+  /**
+   * Creates a parser recording every command in the given metrics, which may be shared with
+   * other sessions; null records nothing.
+   */
+  CommandParser(VideoPlayer videoPlayer, CommandMetrics metrics) {
     this.videoPlayer = videoPlayer;
+    this.out = videoPlayer.getOutput();
+    this.metrics = metrics;
   }
 
   /**
-   * Executes the given user command.
+   * Splits a raw input line on whitespace and executes it as a user command, recording its
+   * latency, output size and whether it was rejected as malformed in the metrics.
+   */
+  public void executeCommandLine(String line) {
+    tokens.tokenize(line);
+    Command command = lookup();
+    if (metrics == null) {
+      execute(command);
+    } else {
+      long lines = videoPlayer.getOutputLines();
+      long start = System.nanoTime();
+      boolean valid = false;
+      try {
+        valid = execute(command);
+      } finally {
+        metrics.record(command == null ? UNKNOWN_COMMAND : command.name,
+            System.nanoTime() - start, videoPlayer.getOutputLines() - lines, !valid);
+      }
+    }
+    //e.g. shards of a cluster that did not answer in time
+    String warning = videoPlayer.getVideoLibrary().takeWarning();
+    if (warning != null) {
+      out.println(warning);
+    }
+  }
+
+  /**
+   * Executes the given user command, already split into words.
    */
   public void executeCommand(List<String> command) {
-    if (command.isEmpty()) {
-      System.out.println(
-          "Please enter a valid command, " +
-              "type HELP for a list of available commands.");
-      return;
+    executeCommandLine(String.join(" ", command));
+  }
+
+  /**
+   * Returns the number of results asked for by "TOP k" after a search term, -1 if there is
+   * none, or 0 after telling the user if k is not a positive number.
+   */
+  private int top(CommandTokenizer t) {
+    return option(t, 2, "TOP", "number of results");
+  }
+
+  /**
+   * Returns the number following the named option among the tokens from the from-th on, -1 if
+   * the option is not there, or 0 after telling the user if it is not followed by a positive
+   * number; what names the number in that message.
+   */
+  /**
+   * Returns whether the tokens from the from-th to before the to-th are several tags with no
+   * operator or parenthesis among them, which is a usage error rather than an expression.
+   */
+  private static boolean bareTags(CommandTokenizer t, int from, int to) {
+    if (to - from < 2) {
+      return false;
+    }
+    for (int i = from; i < to; i++) {
+      if (t.equalsIgnoreCase(i, "AND") || t.equalsIgnoreCase(i, "OR")
+          || t.equalsIgnoreCase(i, "NOT") || t.token(i).indexOf('(') >= 0
+          || t.token(i).indexOf(')') >= 0) {
+        return false;
+      }
     }
+    return true;
+  }
 
-    switch (command.get(0).toUpperCase()) {
-      case "NUMBER_OF_VIDEOS":
-        this.videoPlayer.numberOfVideos();
-        break;
-      case "SHOW_ALL_VIDEOS":
-        this.videoPlayer.showAllVideos();
-        break;
-      case "PLAY":
-        try {
-          this.videoPlayer.playVideo(command.get(1));
-        } catch (ArrayIndexOutOfBoundsException e) {
-          System.out.println("Please enter PLAY command followed by video_id.");
-        }
-        break;
-      case "PLAY_RANDOM":
-        this.videoPlayer.playRandomVideo();
-        break;
-      case "STOP":
-        this.videoPlayer.stopVideo();
-        break;
-      case "PAUSE":
-        this.videoPlayer.pauseVideo();
-        break;
-      case "CONTINUE":
-        this.videoPlayer.continueVideo();
-        break;
-      case "SHOW_PLAYING":
-        this.videoPlayer.showPlaying();
-        break;
-      case "CREATE_PLAYLIST":
-        try {
-          this.videoPlayer.createPlaylist(command.get(1));
-        } catch (ArrayIndexOutOfBoundsException e) {
-          System.out.println(
-              "Please enter CREATE_PLAYLIST command followed by a " +
-                  "playlist name.");
-        }
-        break;
-      case "ADD_TO_PLAYLIST":
-        try {
-          this.videoPlayer.addVideoToPlaylist(command.get(1), command.get(2));
-        } catch (ArrayIndexOutOfBoundsException e) {
-          System.out.println(
-              "Please enter ADD_TO_PLAYLIST command followed by a "
-                  + "playlist name and video_id to add.");
-        }
-        break;
-      case "REMOVE_FROM_PLAYLIST":
-        try {
-          this.videoPlayer.removeFromPlaylist(command.get(1), command.get(2));
-        } catch (ArrayIndexOutOfBoundsException e) {
-          System.out.println(
-              "Please enter REMOVE_FROM_PLAYLIST command followed by a "
-                  + "playlist name and video_id to remove.");
-        }
-        break;
-      case "CLEAR_PLAYLIST":
-        try {
-          this.videoPlayer.clearPlaylist(command.get(1));
-        } catch (ArrayIndexOutOfBoundsException e) {
-          System.out.println(
-              "Please enter CLEAR_PLAYLIST command followed by a "
-                  + "playlist name.");
-        }
-        break;
-      case "DELETE_PLAYLIST":
-        try {
-          this.videoPlayer.deletePlaylist(command.get(1));
-        } catch (ArrayIndexOutOfBoundsException e) {
-          System.out.println(
-              "Please enter DELETE_PLAYLIST command followed by a " +
-                  "playlist name.");
+  private int option(CommandTokenizer t, int from, String name, String what) {
+    for (int i = from; i < t.count(); i++) {
+      if (t.equalsIgnoreCase(i, name)) {
+        int value = i + 1 < t.count() ? t.intValue(i + 1) : 0;
+        if (value <= 0) {
+          out.println("Please enter a positive " + what + " after " + name + ".");
+          return 0;
         }
-        break;
-      case "SHOW_PLAYLIST":
-        try {
-          this.videoPlayer.showPlaylist(command.get(1));
-        } catch (ArrayIndexOutOfBoundsException e) {
-          System.out.println("Please enter SHOW_PLAYLIST command followed by a " +
-              "playlist name.");
-        }
-        break;
-      case "SHOW_ALL_PLAYLISTS":
-        this.videoPlayer.showAllPlaylists();
-        break;
-      case "SEARCH_VIDEOS":
-        try {
-          this.videoPlayer.searchVideos(command.get(1));
-        } catch (ArrayIndexOutOfBoundsException e) {
-          System.out.println("Please enter SEARCH_VIDEOS command followed by a " +
-              "search term.");
-        }
-        break;
-      case "SEARCH_VIDEOS_WITH_TAG":
-        try {
-          this.videoPlayer.searchVideosWithTag(command.get(1));
-        } catch (ArrayIndexOutOfBoundsException e) {
-          System.out.println(
-              "Please enter SEARCH_VIDEOS_WITH_TAG command followed by a " +
-                  "video tag.");
-        }
-        break;
-      case "FLAG_VIDEO":
-        try {
-          this.videoPlayer.flagVideo(command.get(1), command.get(2));
-        } catch (ArrayIndexOutOfBoundsException e) {
-          try {
-            this.videoPlayer.flagVideo(command.get(1));
-          } catch (ArrayIndexOutOfBoundsException f) {
-            System.out.println("Please enter FLAG_VIDEO command followed by a" +
-                "video_id and an optional flag reason.");
-          }
-        }
-        break;
-      case "ALLOW_VIDEO":
-        try {
-          this.videoPlayer.allowVideo(command.get(1));
-        } catch (ArrayIndexOutOfBoundsException e) {
-          System.out.println("Please enter ALLOW_VIDEO command followed by a " +
-              "video_id.");
-        }
-        break;
-      case "HELP":
-        this.getHelp();
-        break;
-      default:
-        System.out.println(
-            "Please enter a valid command, type HELP for a list of "
-            + "available commands.");
-        break;
+        return value;
+      }
+    }
+    return -1;
+  }
+
+  /** Returns the table entry of the first token, or null if it is not a command. */
+  private Command lookup() {
+    if (tokens.count() == 0) {
+      return null;
+    }
+    int slot = tokens.hashIgnoreCase(0) & (TABLE.length - 1);
+    for (Command command; (command = TABLE[slot]) != null; slot = (slot + 1) & (TABLE.length - 1)) {
+      if (tokens.equalsIgnoreCase(0, command.name)) {
+        return command;
+      }
+    }
+    return null;
+  }
+
+  /** Runs the command and returns false if it was not recognised or lacked arguments. */
+  private boolean execute(Command command) {
+    if (command == null) {
+      out.println(INVALID_COMMAND);
+      return false;
+    }
+    if (tokens.count() <= command.arguments) {
+      out.println(command.usage);
+      return false;
     }
+    command.handler.run(this, tokens);
+    return true;
   }
 
   /**
@@ -165,6 +312,7 @@ class CommandParser {
         "Available commands:\n"
             + "    NUMBER_OF_VIDEOS - Shows how many videos are in the library.\n"
             + "    SHOW_ALL_VIDEOS - Lists all videos from the library.\n"
+            + "        Add PAGE <n> and/or SIZE <m> to list only the n-th page of m videos (20 by default).\n"
             + "    PLAY <video_id> - Plays specified video.\n"
             + "    PLAY_RANDOM - Plays a random video from the library.\n"
             + "    STOP - Stop the current video.\n"
@@ -176,14 +324,22 @@ class CommandParser {
             + "    REMOVE_FROM_PLAYLIST <playlist_name> <video_id> - Removes the specified video from the specified playlist\n"
             + "    CLEAR_PLAYLIST <playlist_name> - Removes all the videos from the playlist.\n"
             + "    DELETE_PLAYLIST <playlist_name> - Deletes the playlist.\n"
-            + "    SHOW_PLAYLIST <playlist_name> - List all the videos in this playlist.\n"
+            + "    SHOW_PLAYLIST <playlist_name> - List all the videos in this playlist. PAGE and SIZE work as above.\n"
             + "    SHOW_ALL_PLAYLISTS - Display all the available playlists.\n"
             + "    SEARCH_VIDEOS <search_term> - Display all the videos whose titles contain the search_term.\n"
+            + "        Add TOP <k> to display only the k best matches, best first, or SIZE <m> to display m at a time.\n"
+            + "    SUGGEST <prefix> [TOP <k>] - Display the videos whose ids or titles start with the prefix, 10 unless TOP is given.\n"
+            + "    SEARCH_VIDEOS_FUZZY <word> [TOP <k>] - Display the videos whose titles have a word within a typo or two of the given one, nearest first.\n"
             + "    SEARCH_VIDEOS_WITH_TAG <tag_name> -Display all videos whose tags contains the provided tag.\n"
+            + "        Tags can be combined with AND, OR, NOT and parentheses, e.g. #cat AND NOT #animal;\n"
+            + "        several tags must be joined with AND or OR.\n"
+            + "        Add SIZE <m> at the end to display m at a time.\n"
+            + "    NEXT <token> - Display the next results of a search made with SIZE.\n"
             + "    FLAG_VIDEO <video_id> <flag_reason> - Mark a video as flagged.\n"
             + "    ALLOW_VIDEO <video_id> - Removes a flag from a video.\n"
+            + "    METRICS - Displays call counts, latency percentiles and output sizes per command.\n"
             + "    HELP - Displays help.\n"
             + "    EXIT - Terminates the program execution.\n";
-    System.out.println(helpText);
+    out.println(helpText);
   }
 }
@@ -0,0 +1,489 @@
+package com.google;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A TCP front end for {@link CommandParser}. Every connection gets its own session from a
+ * {@link SessionManager}. One selector thread accepts connections and reads from the idle
+ * ones, and a connection is handed to a worker thread only once a whole command line has
+ * arrived, so idle connections hold no thread. The workers are a fixed number of threads
+ * (by default {@link #DEFAULT_WORKERS}); lines beyond them wait in a queue. A worker stays
+ * with its connection while the client is slow to take the output or answers a follow-up
+ * question. The protocol is the console transcript: a
+ * greeting and a "YT> " prompt, then one command per line, each answered by its output and the
+ * next prompt. Follow-up questions are answered by the next line, and EXIT closes the
+ * connection.
+ */
+final class CommandServer implements Closeable {
+
+  static final String GREETING = "Hello and welcome to YouTube, what would you like to do? "
+      + "Enter HELP for list of available commands or EXIT to terminate.";
+  static final String PROMPT = "YT> ";
+  static final String GOODBYE = "YouTube has now terminated its execution. "
+      + "Thank you and goodbye!";
+
+  /** Longest accepted command line; longer lines close the connection. */
+  static final int MAX_LINE_BYTES = 64 * 1024;
+  /** Worker threads per processor, since a worker may wait on a slow client. */
+  static final int DEFAULT_WORKERS = 2 * Runtime.getRuntime().availableProcessors();
+
+  private final SessionManager sessions;
+  private final ServerSocketChannel serverChannel;
+  private final Selector selector;
+  private final ExecutorService workers;
+  private final AtomicLong nextSession = new AtomicLong();
+  /** Accepted connections not closed yet. */
+  private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+  /** Connections whose worker is done and which wait for their next line again. */
+  private final Queue<Connection> resumed = new ConcurrentLinkedQueue<>();
+  private final Thread selectorThread;
+
+  /** Binds the server with the default number of workers. */
+  CommandServer(SessionManager sessions, InetSocketAddress address) throws IOException {
+    this(sessions, address, DEFAULT_WORKERS);
+  }
+
+  /**
+   * Binds the server to run commands on at most the given number of worker threads; call
+   * {@link #start()} to begin accepting connections.
+   */
+  CommandServer(SessionManager sessions, InetSocketAddress address, int workers)
+      throws IOException {
+    if (workers < 1) {
+      throw new IllegalArgumentException("A server needs at least one worker.");
+    }
+    this.sessions = sessions;
+    this.serverChannel = ServerSocketChannel.open();
+    this.serverChannel.bind(address, 1024);
+    this.serverChannel.configureBlocking(false);
+    this.selector = Selector.open();
+    this.serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(workers, workers, 60, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<>(), task -> {
+          Thread thread = new Thread(task, "command-server-worker");
+          thread.setDaemon(true);
+          return thread;
+        });
+    pool.allowCoreThreadTimeOut(true);
+    this.workers = pool;
+    this.selectorThread = new Thread(this::selectLoop, "command-server-selector");
+    this.selectorThread.setDaemon(true);
+  }
+
+  /**
+   * Returns an executor of cached daemon threads, which holds a thread only while one of its
+   * tasks runs, for the few long-lived connections between a coordinator and its shards.
+   */
+  static ExecutorService newConnectionExecutor() {
+    return Executors.newCachedThreadPool(task -> {
+      Thread thread = new Thread(task, "command-server-connection");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /** Starts accepting connections in the background. */
+  void start() {
+    selectorThread.start();
+  }
+
+  /** Returns the port the server is bound to. */
+  int getPort() {
+    try {
+      return ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /** Returns the number of accepted connections still open. */
+  int getOpenConnections() {
+    int open = 0;
+    for (Connection connection : connections) {
+      if (connection.channel.isOpen()) {
+        open++;
+      }
+    }
+    return open;
+  }
+
+  private void selectLoop() {
+    try {
+      while (selector.isOpen()) {
+        selector.select();
+        Connection connection;
+        while ((connection = resumed.poll()) != null) {
+          connection.listen();
+        }
+        for (SelectionKey key : selector.selectedKeys()) {
+          try {
+            if (key.isAcceptable()) {
+              accept();
+            } else if (key.isReadable()) {
+              ((Connection) key.attachment()).read(key);
+            }
+          } catch (CancelledKeyException e) {
+            //the connection was closed meanwhile
+          }
+        }
+        selector.selectedKeys().clear();
+      }
+    } catch (ClosedSelectorException e) {
+      //the server was closed
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private void accept() {
+    SocketChannel channel;
+    try {
+      channel = serverChannel.accept();
+      if (channel == null) {
+        return;
+      }
+    } catch (IOException e) {
+      return; //a failed accept only affects that client, keep serving the others
+    }
+    Connection connection = new Connection(channel);
+    connections.add(connection);
+    try {
+      channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+      channel.configureBlocking(false);
+      connection.key = channel.register(selector, 0, connection);
+    } catch (IOException e) {
+      connection.close();
+      return;
+    }
+    workers.execute(connection::open);
+  }
+
+  /** Stops accepting, closes all connections and releases the port. */
+  @Override
+  public void close() throws IOException {
+    serverChannel.close();
+    selector.close();
+    for (Connection connection : connections) {
+      connection.close();
+    }
+    workers.shutdownNow();
+    try {
+      workers.awaitTermination(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * One client's session. The selector thread reads from it while it waits for a line; from
+   * the moment a line is handed to a worker until the worker resumes it, only that worker
+   * reads from it, so its reader and sink are never used by two threads at once.
+   */
+  private final class Connection {
+    private final SocketChannel channel;
+    private final String sessionId = "connection-" + nextSession.incrementAndGet();
+    private final ChannelWaiter waiter;
+    private final ChannelSink out;
+    private final ChannelLineReader in;
+    private SelectionKey key;
+    private CommandParser parser;
+
+    Connection(SocketChannel channel) {
+      this.channel = channel;
+      this.waiter = new ChannelWaiter(channel);
+      this.out = new ChannelSink(channel, waiter);
+      this.in = new ChannelLineReader(channel, waiter);
+    }
+
+    /** Opens the session and greets the client, on a worker. */
+    void open() {
+      VideoPlayer player = sessions.open(sessionId, () -> out);
+      player.setAnswerReader(() -> {
+        out.flush();//the client has to see the question before it answers
+        return in.readLine();
+      });
+      parser = new CommandParser(player, sessions.getMetrics());
+      out.println(GREETING);
+      out.print(PROMPT);
+      finish(true);
+    }
+
+    /** Reads what has arrived, on the selector thread, and hands a whole line to a worker. */
+    void read(SelectionKey key) {
+      String line;
+      try {
+        in.fill();
+        line = in.nextLine();
+      } catch (IOException e) {
+        close();
+        return;
+      }
+      if (line != null || in.isEndOfStream()) {
+        key.interestOps(0);
+        workers.execute(() -> serve(line));
+      }
+    }
+
+    /** Runs the line and any whole lines after it, on a worker. */
+    private void serve(String first) {
+      try {
+        for (String line = first; line != null; line = in.nextLine()) {
+          if (line.strip().equalsIgnoreCase("exit")) {
+            out.println(GOODBYE);
+            finish(false);
+            return;
+          }
+          parser.executeCommandLine(line);
+          out.print(PROMPT);
+        }
+      } catch (UncheckedIOException e) { //the client went away while answering a question
+        close();
+        return;
+      } catch (RuntimeException e) { //a failed command must not leave the connection parked
+        out.println("Cannot run the command: " + e.getMessage());
+        out.print(PROMPT);
+      }
+      finish(!in.isEndOfStream());
+    }
+
+    /** Sends the output, then waits for the next line or closes the connection. */
+    private void finish(boolean resume) {
+      try {
+        out.flush();
+      } catch (UncheckedIOException e) {
+        resume = false; //the client went away
+      }
+      if (resume) {
+        resumed.add(this);
+        selector.wakeup();
+      } else {
+        close();
+      }
+    }
+
+    /** Waits for the next line again, on the selector thread. */
+    void listen() {
+      try {
+        key.interestOps(SelectionKey.OP_READ);
+      } catch (CancelledKeyException e) {
+        //closed meanwhile
+      }
+    }
+
+    void close() {
+      try {
+        sessions.close(sessionId);
+      } catch (UncheckedIOException e) {
+        //the client went away before the rest of its output
+      }
+      try {
+        channel.close();
+        waiter.close();
+      } catch (IOException e) {
+        //nothing left to release
+      }
+      connections.remove(this);
+    }
+  }
+
+  /**
+   * Collects a command's output as encoded buffers and sends them with one gathering write
+   * per flush.
+   */
+  static final class ChannelSink implements OutputSink {
+    private final SocketChannel channel;
+    private final ChannelWaiter waiter;
+    private final List<ByteBuffer> pending = new ArrayList<>();
+
+    ChannelSink(SocketChannel channel) {
+      this(channel, new ChannelWaiter(channel));
+    }
+
+    /** Creates a sink that waits on the waiter while a non-blocking channel is full. */
+    ChannelSink(SocketChannel channel, ChannelWaiter waiter) {
+      this.channel = channel;
+      this.waiter = waiter;
+    }
+
+    @Override
+    public void print(String text) {
+      pending.add(StandardCharsets.UTF_8.encode(text));
+    }
+
+    @Override
+    public void flush() {
+      if (pending.isEmpty() || !channel.isOpen()) {
+        pending.clear();
+        return;
+      }
+      ByteBuffer[] buffers = pending.toArray(new ByteBuffer[0]);
+      pending.clear();
+      try {
+        long remaining = 0;
+        for (ByteBuffer buffer : buffers) {
+          remaining += buffer.remaining();
+        }
+        while (remaining > 0) {
+          long written = channel.write(buffers);
+          if (written == 0) { //a non-blocking channel whose send buffer is full
+            waiter.await(SelectionKey.OP_WRITE);
+          }
+          remaining -= written;
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+  /**
+   * Reads UTF-8 lines from a channel without a per-read allocation. On a blocking channel
+   * {@link #readLine} waits for each line; on a non-blocking one the owner can instead
+   * {@link #fill} when the channel is readable and take the lines that are whole.
+   */
+  static final class ChannelLineReader {
+    private final SocketChannel channel;
+    private final ChannelWaiter waiter;
+    private ByteBuffer buffer = ByteBuffer.allocate(1024);
+    /** How many bytes after the position are known to hold no line terminator. */
+    private int scanned;
+    private boolean endOfStream;
+
+    ChannelLineReader(SocketChannel channel) {
+      this(channel, new ChannelWaiter(channel));
+    }
+
+    /** Creates a reader that waits on the waiter while a non-blocking channel has no line. */
+    ChannelLineReader(SocketChannel channel, ChannelWaiter waiter) {
+      this.channel = channel;
+      this.waiter = waiter;
+      buffer.flip();
+    }
+
+    /** Returns the next line without its terminator, or null at end of stream. */
+    String readLine() {
+      try {
+        String line;
+        while ((line = nextLine()) == null && !endOfStream) {
+          if (fill() == 0 && !channel.isBlocking()) {
+            waiter.await(SelectionKey.OP_READ);
+          }
+        }
+        return line;
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    /**
+     * Returns the next line that has arrived whole, or null if there is none yet. At end of
+     * stream a last line without a terminator still counts.
+     */
+    String nextLine() {
+      for (int i = buffer.position() + scanned; i < buffer.limit(); i++) {
+        if (buffer.get(i) == '\n') {
+          int end = i > buffer.position() && buffer.get(i - 1) == '\r' ? i - 1 : i;
+          String line = new String(buffer.array(), buffer.position(),
+              end - buffer.position(), StandardCharsets.UTF_8);
+          buffer.position(i + 1);
+          scanned = 0;
+          return line;
+        }
+      }
+      scanned = buffer.remaining();
+      if (endOfStream && buffer.hasRemaining()) {
+        scanned = 0;
+        return StandardCharsets.UTF_8.decode(buffer).toString();
+      }
+      return null;
+    }
+
+    /** Returns whether the client has closed its side of the connection. */
+    boolean isEndOfStream() {
+      return endOfStream;
+    }
+
+    /**
+     * Reads what the channel has, which on a non-blocking channel may be nothing, and returns
+     * the number of bytes read, or -1 at end of stream.
+     *
+     * @throws IOException if a line grows past {@link #MAX_LINE_BYTES} or the read fails
+     */
+    int fill() throws IOException {
+      buffer.compact();
+      if (!buffer.hasRemaining()) {
+        if (buffer.capacity() >= MAX_LINE_BYTES) {
+          throw new IOException("command line longer than " + MAX_LINE_BYTES + " bytes");
+        }
+        ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+        buffer.flip();
+        larger.put(buffer);
+        buffer = larger;
+      }
+      int read = channel.read(buffer);
+      if (read < 0) {
+        endOfStream = true;
+      }
+      buffer.flip();
+      return read;
+    }
+  }
+
+  /**
+   * Lets the thread serving a non-blocking channel wait until it is readable or writable, on
+   * a selector of the channel's own so the server's selector is left alone. The selector is
+   * opened the first time the channel stalls and reused after that.
+   */
+  static final class ChannelWaiter implements Closeable {
+    private final SocketChannel channel;
+    private Selector selector;
+    private SelectionKey key;
+
+    ChannelWaiter(SocketChannel channel) {
+      this.channel = channel;
+    }
+
+    /** Waits until the channel is ready for the operation. */
+    void await(int operation) throws IOException {
+      if (selector == null) {
+        selector = Selector.open();
+        key = channel.register(selector, operation);
+      } else {
+        key.interestOps(operation);
+      }
+      selector.select();
+      selector.selectedKeys().clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (selector != null) {
+        selector.close();
+      }
+    }
+  }
+}
@@ -0,0 +1,30 @@
+package com.google;
+
+/**
+ * JMX view of the {@link CommandMetrics} of one command. Latencies are in nanoseconds and
+ * output sizes in lines; percentiles are accurate to about 3%.
+ */
+public interface CommandStatsMXBean {
+
+  String getCommand();
+
+  long getInvocations();
+
+  long getErrors();
+
+  double getMeanLatencyNanos();
+
+  long getLatencyP50Nanos();
+
+  long getLatencyP99Nanos();
+
+  long getLatencyP999Nanos();
+
+  long getLatencyMaxNanos();
+
+  double getMeanOutputLines();
+
+  long getOutputLinesP99();
+
+  long getOutputLinesMax();
+}
@@ -0,0 +1,126 @@
+package com.google;
+
+import java.util.Arrays;
+
+/**
+ * Splits command lines into whitespace separated tokens, reusing one char buffer and one
+ * array of token bounds for every line. Tokens are only turned into strings when asked for,
+ * so recognising a command and counting its arguments allocates nothing. Whitespace is what
+ * {@code \s} matches in a regular expression. A tokenizer holds the last line's tokens and is
+ * used by one thread at a time.
+ */
+final class CommandTokenizer {
+
+  private char[] chars = new char[256];
+  private int[] starts = new int[8];
+  private int[] ends = new int[8];
+  private int count;
+
+  /** Replaces the current tokens with those of the line. */
+  void tokenize(String line) {
+    int length = line.length();
+    if (length > chars.length) {
+      chars = new char[Math.max(length, chars.length * 2)];
+    }
+    line.getChars(0, length, chars, 0);
+    count = 0;
+    int i = 0;
+    while (true) {
+      while (i < length && isWhitespace(chars[i])) {
+        i++;
+      }
+      if (i == length) {
+        return;
+      }
+      if (count == starts.length) {
+        starts = Arrays.copyOf(starts, count * 2);
+        ends = Arrays.copyOf(ends, count * 2);
+      }
+      starts[count] = i;
+      while (i < length && !isWhitespace(chars[i])) {
+        i++;
+      }
+      ends[count++] = i;
+    }
+  }
+
+  private static boolean isWhitespace(char c) {
+    return c == ' ' || (c >= '\t' && c <= '\r');
+  }
+
+  /** Returns the number of tokens. */
+  int count() {
+    return count;
+  }
+
+  /** Returns the index-th token. */
+  String token(int index) {
+    return new String(chars, starts[index], ends[index] - starts[index]);
+  }
+
+  /** Returns the tokens from the index-th on, joined by single spaces. */
+  String rest(int index) {
+    return rest(index, count);
+  }
+
+  /** Returns the tokens from the index-th up to the end-th, joined by single spaces. */
+  String rest(int index, int end) {
+    StringBuilder text = new StringBuilder(ends[end - 1] - starts[index]);
+    for (int i = index; i < end; i++) {
+      if (i > index) {
+        text.append(' ');
+      }
+      text.append(chars, starts[i], ends[i] - starts[i]);
+    }
+    return text.toString();
+  }
+
+  /** Returns the hash of the index-th token with ASCII letters in upper case. */
+  int hashIgnoreCase(int index) {
+    int hash = 0;
+    for (int i = starts[index]; i < ends[index]; i++) {
+      hash = 31 * hash + toUpperCase(chars[i]);
+    }
+    return hash;
+  }
+
+  /** Returns the index-th token as a non-negative int, or -1 if it is not one. */
+  int intValue(int index) {
+    int value = 0;
+    for (int i = starts[index]; i < ends[index]; i++) {
+      int digit = chars[i] - '0';
+      if (digit < 0 || digit > 9 || value > (Integer.MAX_VALUE - digit) / 10) {
+        return -1;
+      }
+      value = value * 10 + digit;
+    }
+    return value;
+  }
+
+  /** Returns whether the index-th token is the upper case ASCII name, ignoring case. */
+  boolean equalsIgnoreCase(int index, String name) {
+    int start = starts[index];
+    if (ends[index] - start != name.length()) {
+      return false;
+    }
+    for (int i = 0; i < name.length(); i++) {
+      if (toUpperCase(chars[start + i]) != name.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Returns the hash that {@link #hashIgnoreCase} gives a token spelling the name. */
+  static int hashIgnoreCase(String name) {
+    int hash = 0;
+    for (int i = 0; i < name.length(); i++) {
+      hash = 31 * hash + toUpperCase(name.charAt(i));
+    }
+    return hash;
+  }
+
+  private static char toUpperCase(char c) {
+    return c >= 'a' && c <= 'z' ? (char) (c - ('a' - 'A')) : c;
+  }
+}
@@ -0,0 +1,20 @@
+package com.google;
+
+/** Writes straight to the current System.out, unbuffered. */
+final class ConsoleSink implements OutputSink {
+
+  @Override
+  public void print(String text) {
+    System.out.print(text);
+  }
+
+  @Override
+  public void println(String line) {
+    System.out.println(line);
+  }
+
+  @Override
+  public void flush() {
+    System.out.flush();
+  }
+}
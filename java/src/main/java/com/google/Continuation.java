@@ -0,0 +1,111 @@
+package com.google;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Base64;
+
+/**
+ * Where a paged search left off, handed to the user as an opaque token for NEXT. It holds the
+ * query and the title and ordinal of the last video shown rather than a position: ordinals are
+ * stable across catalog versions and the title is its place in title order, so the next page
+ * starts after that video even if the catalog was reloaded, or the video removed, in between.
+ * Tokens carry no server state and never expire.
+ */
+final class Continuation {
+
+  static final int TITLE = 0;
+  static final int TAGS = 1;
+
+  private static final int FORMAT = 2;
+  private static final String INVALID = "Invalid continuation token.";
+
+  private final int kind;
+  private final String query;
+  private final String afterTitle;
+  private final int after;
+  private final int size;
+
+  /**
+   * @param kind {@link #TITLE} or {@link #TAGS}
+   * @param afterTitle the title of the last video shown
+   * @param after the ordinal of the last video shown
+   * @param size the number of videos per page
+   */
+  Continuation(int kind, String query, String afterTitle, int after, int size) {
+    this.kind = kind;
+    this.query = query;
+    this.afterTitle = afterTitle;
+    this.after = after;
+    this.size = size;
+  }
+
+  int getKind() {
+    return kind;
+  }
+
+  /** Returns the search term or tag expression. */
+  String getQuery() {
+    return query;
+  }
+
+  String getAfterTitle() {
+    return afterTitle;
+  }
+
+  int getAfter() {
+    return after;
+  }
+
+  int getSize() {
+    return size;
+  }
+
+  /** Returns the token: the fields in binary, in URL safe Base64 so it has no spaces. */
+  String encode() {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      out.writeByte(FORMAT);
+      out.writeByte(kind);
+      out.writeInt(after);
+      out.writeInt(size);
+      out.writeUTF(query);
+      out.writeUTF(afterTitle);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.toByteArray());
+  }
+
+  /**
+   * Reads a token written by {@link #encode}.
+   *
+   * @throws IllegalArgumentException if the token was not
+   */
+  static Continuation decode(String token) {
+    byte[] bytes;
+    try {
+      bytes = Base64.getUrlDecoder().decode(token);
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException(INVALID, e);
+    }
+    try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+      int format = in.readByte();
+      int kind = in.readByte();
+      int after = in.readInt();
+      int size = in.readInt();
+      String query = in.readUTF();
+      String afterTitle = in.readUTF();
+      if (format != FORMAT || (kind != TITLE && kind != TAGS) || after < 0 || size <= 0
+          || in.available() > 0) {
+        throw new IllegalArgumentException(INVALID);
+      }
+      return new Continuation(kind, query, afterTitle, after, size);
+    } catch (IOException e) {
+      throw new IllegalArgumentException(INVALID, e);
+    }
+  }
+}
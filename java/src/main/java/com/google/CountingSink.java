@@ -0,0 +1,45 @@
+package com.google;
+
+/**
+ * Passes output through to another sink while counting the lines written, so the size of a
+ * command's output can be measured without buffering it.
+ */
+final class CountingSink implements OutputSink {
+
+  private final OutputSink target;
+  private long lines;
+
+  CountingSink(OutputSink target) {
+    this.target = target;
+  }
+
+  @Override
+  public void print(String text) {
+    lines += newlines(text);
+    target.print(text);
+  }
+
+  @Override
+  public void println(String line) {
+    lines += newlines(line) + 1;
+    target.println(line);
+  }
+
+  @Override
+  public void flush() {
+    target.flush();
+  }
+
+  /** Returns the number of lines written so far. */
+  long getLines() {
+    return lines;
+  }
+
+  private static int newlines(String text) {
+    int count = 0;
+    for (int i = text.indexOf('\n'); i >= 0; i = text.indexOf('\n', i + 1)) {
+      count++;
+    }
+    return count;
+  }
+}
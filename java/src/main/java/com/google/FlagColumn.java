@@ -0,0 +1,100 @@
+package com.google;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The flag state of a catalog: one bit per ordinal for scans, and the reasons of the (few)
+ * flagged videos. A reason is claimed atomically in the map, which decides races between
+ * sessions; the bit is then brought in line with it without locking. The bits are kept in
+ * groups of 65536 ordinals, the groups of {@link OrdinalBitmap}, so a search can drop flagged
+ * videos a word at a time. Growing only adds groups, so it never races a flag or allow.
+ */
+final class FlagColumn {
+
+  private static final int GROUP_WORDS = 1 << 10;
+
+  private volatile AtomicLongArray[] groups;
+  private final ConcurrentMap<Integer, String> reasons = new ConcurrentHashMap<>();
+
+  FlagColumn(int size) {
+    this.groups = new AtomicLongArray[0];
+    ensureCapacity(size);
+  }
+
+  /** Returns whether the video is flagged. */
+  boolean isFlagged(int ordinal) {
+    AtomicLongArray[] groups = this.groups;
+    int group = ordinal >>> 16;
+    return group < groups.length
+        && (groups[group].get((ordinal >>> 6) & (GROUP_WORDS - 1)) & (1L << ordinal)) != 0;
+  }
+
+  /** Makes room for at least size ordinals. */
+  synchronized void ensureCapacity(int size) {
+    AtomicLongArray[] groups = this.groups;
+    int needed = (size + (1 << 16) - 1) >>> 16;
+    if (needed <= groups.length) {
+      return;
+    }
+    AtomicLongArray[] grown = Arrays.copyOf(groups, needed);
+    for (int group = groups.length; group < needed; group++) {
+      grown[group] = new AtomicLongArray(GROUP_WORDS);
+    }
+    this.groups = grown;
+  }
+
+  /**
+   * Returns the ordinals of the set that are not flagged, reading the bits as they are now one
+   * word at a time; nothing is copied or locked.
+   */
+  OrdinalBitmap unflagged(OrdinalBitmap set) {
+    AtomicLongArray[] groups = this.groups;
+    return set.andNot(key -> key < groups.length ? groups[key] : null);
+  }
+
+  /** Returns the flag reason of the video, or null if it is not flagged. */
+  String reason(int ordinal) {
+    return reasons.get(ordinal);
+  }
+
+  /** Atomically flags the video; returns false if it was already flagged. */
+  boolean flag(int ordinal, String reason) {
+    if (reasons.putIfAbsent(ordinal, reason) != null) {
+      return false;
+    }
+    syncBit(ordinal);
+    return true;
+  }
+
+  /** Atomically removes the flag; returns false if the video was not flagged. */
+  boolean allow(int ordinal) {
+    if (reasons.remove(ordinal) == null) {
+      return false;
+    }
+    syncBit(ordinal);
+    return true;
+  }
+
+  /**
+   * Copies the presence of a reason into the bit. A racing flag or allow is seen by the
+   * re-check, so the bit always ends up matching the final state of the map.
+   */
+  private void syncBit(int ordinal) {
+    AtomicLongArray bits = groups[ordinal >>> 16];
+    int word = (ordinal >>> 6) & (GROUP_WORDS - 1);
+    long mask = 1L << ordinal;
+    boolean flagged;
+    do {
+      flagged = reasons.containsKey(ordinal);
+      long current;
+      long next;
+      do {
+        current = bits.get(word);
+        next = flagged ? current | mask : current & ~mask;
+      } while (current != next && !bits.compareAndSet(word, current, next));
+    } while (flagged != reasons.containsKey(ordinal));
+  }
+}
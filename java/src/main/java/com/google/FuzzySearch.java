@@ -0,0 +1,174 @@
+package com.google;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.IntPredicate;
+
+/**
+ * One typo tolerant title search: finds the videos with a title word within a small edit
+ * distance of a search word and keeps the best k. Matches rank by edit distance, then by how
+ * early in the title the word is, then by ordinal.
+ *
+ * <p>Edit distance is only computed against candidate words of a segment's {@link TitleWords}:
+ * d edits change at most 3d of the padded word's trigrams, so a word within distance d shares
+ * one of any 3d + 1 of them. The rarest 3d + 1 are looked up. The occurrences of the words
+ * found are then read nearest first, as in {@link RankedSearch}, stopping once none can enter.
+ */
+final class FuzzySearch {
+
+  private final String word;
+  private final int maxDistance;
+  private final int k;
+  private final IntPredicate accept;
+  private final Set<Integer> seen = new HashSet<>();
+  /** Keys of the kept matches, the worst at the head; see {@link #key}. */
+  private final PriorityQueue<Long> best = new PriorityQueue<>(Collections.reverseOrder());
+
+  /**
+   * @param accept which ordinals may be returned, such as unflagged ones
+   * @throws IllegalArgumentException if the search term is not a single word
+   */
+  FuzzySearch(String searchTerm, int k, IntPredicate accept) {
+    this.word = searchTerm.toLowerCase();
+    if (word.isEmpty() || !word.chars().allMatch(c -> TitleWords.isWordChar((char) c))) {
+      throw new IllegalArgumentException("Please enter a single word of letters and digits.");
+    }
+    this.maxDistance = maxDistance(word.length());
+    this.k = k;
+    this.accept = accept;
+  }
+
+  /** Returns the edit distance allowed for a word of the given length. */
+  static int maxDistance(int length) {
+    return length <= 2 ? 0 : length <= 5 ? 1 : 2;
+  }
+
+  /**
+   * Returns the ranking key of a match, lower being better: the distance, the position in the
+   * title and the ordinal of the segment's row.
+   */
+  private static long key(int distance, long posting, SegmentOrdinals segment) {
+    return (long) distance << 48 | (posting & 0xFFFF_FFFF_0000_0000L)
+        | segment.ordinal(TitleWords.ordinalOf(posting));
+  }
+
+  /** Adds the matches of a segment whose rows have the given ordinals. */
+  void searchSegment(SegmentOrdinals segment, TitleWords words) {
+    IntList[] byDistance = similarWords(words);
+    for (int distance = 0; distance <= maxDistance; distance++) {
+      IntList found = byDistance[distance];
+      //each cursor is {word index, next occurrence}, ordered by that occurrence
+      PriorityQueue<int[]> cursors = new PriorityQueue<>((a, b) ->
+          Long.compare(words.postings(a[0])[a[1]], words.postings(b[0])[b[1]]));
+      for (int i = 0; i < found.size(); i++) {
+        cursors.add(new int[] {found.get(i), 0});
+      }
+      int[] cursor;
+      while ((cursor = cursors.poll()) != null) {
+        long[] postings = words.postings(cursor[0]);
+        long key = key(distance, postings[cursor[1]], segment);
+        if (best.size() == k && key > best.peek()) {
+          return; //later occurrences and distances only rank lower
+        }
+        int ordinal = (int) key;
+        if (seen.add(ordinal) && accept.test(ordinal)) {
+          best.add(key);
+          if (best.size() > k) {
+            best.poll();
+          }
+        }
+        if (++cursor[1] < postings.length) {
+          cursors.add(cursor);
+        }
+      }
+    }
+  }
+
+  /** Returns the indexes of the segment's words within the allowed distance, by distance. */
+  private IntList[] similarWords(TitleWords words) {
+    IntList[] byDistance = new IntList[maxDistance + 1];
+    for (int d = 0; d <= maxDistance; d++) {
+      byDistance[d] = new IntList();
+    }
+    if (maxDistance == 0) {
+      int index = words.indexOf(word);
+      if (index >= 0) {
+        byDistance[0].add(index);
+      }
+      return byDistance;
+    }
+    String padded = TitleWords.padded(word);
+    int[][] lists = new int[padded.length() - 2][];
+    for (int i = 0; i < lists.length; i++) {
+      lists[i] = words.wordsWithTrigram(TitleIndex.trigram(padded, i));
+    }
+    Arrays.sort(lists, (a, b) -> Integer.compare(a.length, b.length));
+    IntList candidates = new IntList();
+    for (int i = 0; i <= 3 * maxDistance; i++) {
+      for (int candidate : lists[i]) {
+        candidates.add(candidate);
+      }
+    }
+    int[] sorted = candidates.toArray();
+    Arrays.sort(sorted);
+    for (int i = 0; i < sorted.length; i++) {
+      if (i > 0 && sorted[i] == sorted[i - 1]) {
+        continue;
+      }
+      int distance = editDistance(word, words.word(sorted[i]), maxDistance);
+      if (distance <= maxDistance) {
+        byDistance[distance].add(sorted[i]);
+      }
+    }
+    return byDistance;
+  }
+
+  /**
+   * Returns the Levenshtein distance between the two strings, or max + 1 if it is more than
+   * max.
+   */
+  static int editDistance(String a, String b, int max) {
+    if (Math.abs(a.length() - b.length()) > max) {
+      return max + 1;
+    }
+    int[] previous = new int[b.length() + 1];
+    int[] current = new int[b.length() + 1];
+    for (int j = 0; j <= b.length(); j++) {
+      previous[j] = j;
+    }
+    for (int i = 1; i <= a.length(); i++) {
+      current[0] = i;
+      int rowMin = i;
+      for (int j = 1; j <= b.length(); j++) {
+        int substitution = previous[j - 1] + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1);
+        current[j] = Math.min(substitution, Math.min(previous[j], current[j - 1]) + 1);
+        rowMin = Math.min(rowMin, current[j]);
+      }
+      if (rowMin > max) {
+        return max + 1;
+      }
+      int[] swap = previous;
+      previous = current;
+      current = swap;
+    }
+    return Math.min(previous[b.length()], max + 1);
+  }
+
+  /** Returns the ordinals kept, best first. */
+  int[] result() {
+    long[] keys = new long[best.size()];
+    int i = 0;
+    for (long key : best) {
+      keys[i++] = key;
+    }
+    Arrays.sort(keys);
+    int[] ordinals = new int[keys.length];
+    for (i = 0; i < keys.length; i++) {
+      ordinals[i] = (int) keys[i];
+    }
+    return ordinals;
+  }
+}
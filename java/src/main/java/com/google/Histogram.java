@@ -0,0 +1,102 @@
+package com.google;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of non-negative longs with log-linear buckets, in the style of
+ * HdrHistogram: values below 2^SUB_BUCKET_BITS get a bucket each, and every higher power of
+ * two is split into 2^SUB_BUCKET_BITS equal buckets, so a reported value is within about 3% of
+ * the recorded one whatever its magnitude. Recording is a single atomic increment of one
+ * bucket; the count, mean and maximum are derived from the buckets when read, from a racy but
+ * per-bucket consistent view.
+ */
+final class Histogram {
+
+  static final int SUB_BUCKET_BITS = 5;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+  /** Records one value; negative values count as 0. */
+  void record(long value) {
+    counts.getAndIncrement(bucketOf(Math.max(value, 0)));
+  }
+
+  /** Returns the number of recorded values. */
+  long count() {
+    long total = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      total += counts.get(i);
+    }
+    return total;
+  }
+
+  /** Returns the largest recorded value, to bucket precision, or 0 if there is none. */
+  long max() {
+    for (int i = BUCKETS - 1; i >= 0; i--) {
+      if (counts.get(i) != 0) {
+        return highestValueOf(i);
+      }
+    }
+    return 0;
+  }
+
+  /** Returns the mean of the recorded values, to bucket precision, or 0 if there is none. */
+  double mean() {
+    long total = 0;
+    double sum = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      long n = counts.get(i);
+      if (n != 0) {
+        total += n;
+        sum += n * ((double) lowestValueOf(i) + highestValueOf(i)) / 2;
+      }
+    }
+    return total == 0 ? 0 : sum / total;
+  }
+
+  /**
+   * Returns the value at the given percentile (0 to 100): the highest value of the bucket that
+   * holds it. Returns 0 if nothing was recorded.
+   */
+  long percentile(double percentile) {
+    long[] snapshot = new long[BUCKETS];
+    long total = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      total += snapshot[i] = counts.get(i);
+    }
+    if (total == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(total * Math.min(percentile, 100) / 100));
+    long seen = 0;
+    int bucket = 0;
+    while ((seen += snapshot[bucket]) < rank) {
+      bucket++;
+    }
+    return highestValueOf(bucket);
+  }
+
+  static int bucketOf(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int shift = exponent - SUB_BUCKET_BITS;
+    return ((shift + 1) << SUB_BUCKET_BITS) + (int) ((value >>> shift) - SUB_BUCKETS);
+  }
+
+  static long lowestValueOf(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int shift = (bucket >>> SUB_BUCKET_BITS) - 1;
+    return (long) ((bucket & (SUB_BUCKETS - 1)) + SUB_BUCKETS) << shift;
+  }
+
+  static long highestValueOf(int bucket) {
+    return bucket < SUB_BUCKETS ? bucket
+        : lowestValueOf(bucket) + (1L << ((bucket >>> SUB_BUCKET_BITS) - 1)) - 1;
+  }
+}
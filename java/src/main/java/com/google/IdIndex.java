@@ -0,0 +1,97 @@
+package com.google;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.function.IntFunction;
+
+/**
+ * An open-addressing hash table from video id to ordinal that stores only ints: the hash of
+ * each id and its ordinal. Ids themselves stay in the catalog columns and are only read to
+ * confirm a hash match, so the table costs a few bytes per video instead of a map entry. A
+ * table can also be read in place from a {@link SnapshotSection}.
+ */
+final class IdIndex {
+
+  private final SnapshotSection section;
+  private final IntBuffer hashes;
+  /** Ordinal plus one in each slot; zero marks an empty slot. */
+  private final IntBuffer slots;
+  private final int mask;
+  private final int shift;
+
+  /** Creates a table for up to the given number of ids, kept at most half full. */
+  IdIndex(int capacity) {
+    this(SnapshotSection.NONE, IntBuffer.allocate(tableSize(capacity)),
+        IntBuffer.allocate(tableSize(capacity)));
+  }
+
+  private IdIndex(SnapshotSection section, IntBuffer hashes, IntBuffer slots) {
+    int size = hashes.capacity();
+    if (Integer.bitCount(size) != 1 || slots.capacity() != size) {
+      throw new IllegalStateException("id table of size " + size);
+    }
+    this.section = section;
+    this.hashes = hashes;
+    this.slots = slots;
+    this.mask = size - 1;
+    this.shift = Integer.numberOfLeadingZeros(size) + 1;
+  }
+
+  private static int tableSize(int capacity) {
+    return Integer.highestOneBit(Math.max(capacity, 8) * 2 - 1) << 1;
+  }
+
+  /**
+   * Returns the ordinal of the id, or -1 if it is absent. idOf returns the id stored for an
+   * ordinal.
+   */
+  int find(String id, IntFunction<String> idOf) {
+    section.check();
+    int hash = id.hashCode();
+    for (int slot = start(hash); slots.get(slot) != 0; slot = (slot + 1) & mask) {
+      if (hashes.get(slot) == hash && idOf.apply(slots.get(slot) - 1).equals(id)) {
+        return slots.get(slot) - 1;
+      }
+    }
+    return -1;
+  }
+
+  /** Adds an id that is not in the table yet. */
+  void add(String id, int ordinal) {
+    int hash = id.hashCode();
+    int slot = start(hash);
+    while (slots.get(slot) != 0) {
+      slot = (slot + 1) & mask;
+    }
+    hashes.put(slot, hash);
+    slots.put(slot, ordinal + 1);
+  }
+
+  /** Writes the table to a snapshot: its size, the hashes, then the slots. */
+  void write(DataOutputStream out) throws IOException {
+    out.writeInt(hashes.capacity());
+    for (int i = 0; i < hashes.capacity(); i++) {
+      out.writeInt(hashes.get(i));
+    }
+    for (int i = 0; i < slots.capacity(); i++) {
+      out.writeInt(slots.get(i));
+    }
+  }
+
+  /**
+   * Returns a read-only table over one written by {@link #write} in the section, and moves
+   * past it. The section is checked on the first lookup.
+   */
+  static IdIndex read(SnapshotSection section, ByteBuffer buffer) {
+    int size = buffer.getInt();
+    IntBuffer hashes = SnapshotSection.takeInts(buffer, size);
+    return new IdIndex(section, hashes, SnapshotSection.takeInts(buffer, size));
+  }
+
+  /** Picks the first slot from the top bits of a Fibonacci hash, which spreads similar ids. */
+  private int start(int hash) {
+    return (hash * 0x9E3779B9) >>> shift;
+  }
+}
@@ -0,0 +1,11 @@
+package com.google;
+
+/** A read-only column of ints indexed by position, on or off the Java heap. */
+interface IntColumn {
+
+  /** Returns the number of values. */
+  int size();
+
+  /** Returns the value at the given index. */
+  int get(int index);
+}
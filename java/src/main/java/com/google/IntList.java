@@ -0,0 +1,47 @@
+package com.google;
+
+import java.util.Arrays;
+
+/** A minimal growable array of primitive ints used while building indexes. */
+final class IntList {
+
+  private int[] values;
+  private int size;
+
+  IntList() {
+    this(4);
+  }
+
+  IntList(int capacity) {
+    this.values = new int[Math.max(capacity, 1)];
+  }
+
+  void add(int value) {
+    if (size == values.length) {
+      values = Arrays.copyOf(values, size * 2);
+    }
+    values[size++] = value;
+  }
+
+  int get(int index) {
+    return values[index];
+  }
+
+  int size() {
+    return size;
+  }
+
+  /** Returns the last value, which must exist. */
+  int last() {
+    return values[size - 1];
+  }
+
+  /** Returns the backing array, valid up to {@link #size()}. */
+  int[] values() {
+    return values;
+  }
+
+  int[] toArray() {
+    return Arrays.copyOf(values, size);
+  }
+}
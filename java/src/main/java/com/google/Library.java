@@ -0,0 +1,96 @@
+package com.google;
+
+import java.util.List;
+
+/**
+ * The catalog a {@link VideoPlayer} plays from and its {@link CommandParser} reports on: a
+ * {@link VideoLibrary} in this process, or a {@link ClusterLibrary} over shard processes.
+ * Searches leave flagged videos out. An operation a library cannot do throws an
+ * {@link IllegalArgumentException} whose message is shown to the user as is, like a malformed
+ * search.
+ */
+interface Library {
+
+  /** Returns the video with the given id, or null if there is none. */
+  Video getVideo(String videoId);
+
+  /** Returns the number of videos in the library. */
+  int size();
+
+  /** Returns all videos, flagged or not, in title order. */
+  List<Video> getVideosByTitle();
+
+  /** Returns an unflagged video chosen uniformly at random, or null if there is none. */
+  Video randomUnflaggedVideo();
+
+  /** Returns the videos whose title contains the search term, ignoring case, in title order. */
+  List<Video> searchVideosByTitle(String searchTerm);
+
+  /** Returns the at most k videos whose title best matches the search term, best first. */
+  List<Video> searchVideosByTitle(String searchTerm, int k);
+
+  /**
+   * Returns at most limit videos whose title contains the search term, in title order,
+   * starting after the video with the given title and ordinal, or from the first if the title
+   * is null.
+   *
+   * @throws IllegalArgumentException if no video ever had that ordinal
+   */
+  List<Video> searchVideosByTitle(String searchTerm, String afterTitle, int after, int limit);
+
+  /**
+   * Returns the at most k videos with a title word within a few edits of the search word,
+   * nearest first.
+   *
+   * @throws IllegalArgumentException if the search term is not a single word
+   */
+  List<Video> searchVideosFuzzy(String searchTerm, int k);
+
+  /**
+   * Returns at most n videos whose id or title starts with the prefix, ignoring case: matches
+   * by id first, in id order, then matches by title, in title order.
+   */
+  List<Video> suggest(String prefix, int n);
+
+  /**
+   * Returns the videos matching a tag expression such as {@code #cat AND NOT #animal}, in
+   * title order.
+   *
+   * @throws IllegalArgumentException if the expression is malformed
+   */
+  List<Video> searchVideosByTags(String tagExpression);
+
+  /**
+   * Returns at most limit videos matching a tag expression, in title order, starting after
+   * the video with the given title and ordinal, or from the first if the title is null.
+   *
+   * @throws IllegalArgumentException if the expression is malformed or no video ever had that
+   *     ordinal
+   */
+  List<Video> searchVideosByTags(String tagExpression, String afterTitle, int after,
+      int limit);
+
+  /**
+   * Flags the video with the given reason; returns false if it was already flagged.
+   *
+   * @throws IllegalStateException if the flag could not be changed, e.g. the process holding
+   *     the video did not answer
+   */
+  boolean flagVideo(Video video, String reason);
+
+  /**
+   * Removes the flag from the video; returns false if it was not flagged.
+   *
+   * @throws IllegalStateException if the flag could not be changed
+   */
+  boolean allowVideo(Video video);
+
+  /**
+   * Returns and clears the warning, if any, about the results this thread got since the last
+   * call, such as shards that did not answer.
+   */
+  String takeWarning();
+
+  /** Returns the statistics of the cache of search results, or null if there is no cache. */
+  SearchCache.Stats getSearchCacheStats();
+}
@@ -0,0 +1,99 @@
+package com.google;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A cluster of {@link ShardServer}s on localhost, for tests and benchmarks: either all in this
+ * process or one process per shard, each started as "Run --shard". Every shard listens on a
+ * free port; {@link #connect} returns a coordinator over them.
+ */
+final class LocalCluster implements Closeable {
+
+  private final List<InetSocketAddress> addresses = new ArrayList<>();
+  private final List<Closeable> shards = new ArrayList<>();
+
+  private LocalCluster() {
+  }
+
+  /** Starts count shards of the catalog in this process, writing their slices to directory. */
+  static LocalCluster start(Path catalog, int count, Path directory) throws IOException {
+    LocalCluster cluster = new LocalCluster();
+    try {
+      for (int shard = 0; shard < count; shard++) {
+        Path slice = directory.resolve("shard-" + shard + "-of-" + count + ".txt");
+        ShardServer.slice(catalog, shard, count, slice);
+        ShardServer server = new ShardServer(new VideoLibrary(slice),
+            new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        cluster.shards.add(server);
+        server.start();
+        cluster.addresses.add(
+            new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort()));
+      }
+    } catch (IOException | RuntimeException e) {
+      cluster.close();
+      throw e;
+    }
+    return cluster;
+  }
+
+  /**
+   * Starts count shard processes of the catalog with this process's class path, each with the
+   * given JVM options, and waits until they all listen.
+   */
+  static LocalCluster launch(Path catalog, int count, String... jvmOptions) throws IOException {
+    LocalCluster cluster = new LocalCluster();
+    try {
+      String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+      for (int shard = 0; shard < count; shard++) {
+        List<String> command = new ArrayList<>(List.of(java));
+        command.addAll(List.of(jvmOptions));
+        command.addAll(List.of("-cp", System.getProperty("java.class.path"),
+            Run.class.getName(), "--shard", String.valueOf(shard), String.valueOf(count), "0",
+            catalog.toString()));
+        Process process = new ProcessBuilder(command)
+            .redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        cluster.shards.add(process::destroy);
+        //the shard prints its port once it is serving
+        String line = new BufferedReader(new InputStreamReader(process.getInputStream(),
+            StandardCharsets.UTF_8)).readLine();
+        if (line == null || !line.startsWith(Run.SHARD_SERVING)) {
+          throw new IOException("Shard " + shard + " did not start: " + line);
+        }
+        cluster.addresses.add(new InetSocketAddress(InetAddress.getLoopbackAddress(),
+            Integer.parseInt(line.substring(line.lastIndexOf(' ') + 1))));
+      }
+    } catch (IOException | RuntimeException e) {
+      cluster.close();
+      throw e;
+    }
+    return cluster;
+  }
+
+  /** Returns the addresses of the shards, in shard order. */
+  List<InetSocketAddress> getAddresses() {
+    return addresses;
+  }
+
+  /** Returns a coordinator over the shards with the given timeout per shard. */
+  ClusterLibrary connect(int timeoutMillis) {
+    return new ClusterLibrary(addresses, timeoutMillis);
+  }
+
+  /** Stops every shard. */
+  @Override
+  public void close() throws IOException {
+    for (Closeable shard : shards) {
+      shard.close();
+    }
+  }
+}
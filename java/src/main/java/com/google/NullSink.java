@@ -0,0 +1,13 @@
+package com.google;
+
+/** Discards all output, for benchmarking the commands without the cost of printing. */
+final class NullSink implements OutputSink {
+
+  @Override
+  public void print(String text) {
+  }
+
+  @Override
+  public void println(String line) {
+  }
+}
@@ -0,0 +1,515 @@
+package com.google;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+
+/**
+ * An immutable compressed set of video ordinals.
+ *
+ * <p>Ordinals are grouped by their high 16 bits. Each group is stored either as a sorted
+ * {@code char[]} of low bits while it holds at most 4096 ordinals, or as a 65536 bit
+ * {@code long[]} once it is denser than that, so sparse and dense sets both stay small and
+ * set operations work a whole group at a time.
+ */
+final class OrdinalBitmap {
+
+  static final OrdinalBitmap EMPTY = new OrdinalBitmap(new char[0], new Object[0]);
+
+  /** Largest group kept as a sorted array; beyond this a bitmap is smaller. */
+  private static final int ARRAY_MAX = 4096;
+  private static final int BITMAP_WORDS = 1 << 10;
+
+  private final char[] keys;
+  private final Object[] containers;
+
+  private OrdinalBitmap(char[] keys, Object[] containers) {
+    this.keys = keys;
+    this.containers = containers;
+  }
+
+  /** Returns a bitmap of the given ordinals, which must be ascending and distinct. */
+  static OrdinalBitmap of(int... ordinals) {
+    return of(ordinals, ordinals.length);
+  }
+
+  /** Returns a bitmap of the first length ordinals, which must be ascending and distinct. */
+  static OrdinalBitmap of(int[] ordinals, int length) {
+    Builder builder = new Builder();
+    int from = 0;
+    while (from < length) {
+      int key = ordinals[from] >>> 16;
+      int to = from;
+      while (to < length && ordinals[to] >>> 16 == key) {
+        to++;
+      }
+      char[] lows = new char[to - from];
+      for (int i = from; i < to; i++) {
+        lows[i - from] = (char) ordinals[i];
+      }
+      builder.add(key, to - from <= ARRAY_MAX ? lows : toBits(lows));
+      from = to;
+    }
+    return builder.build();
+  }
+
+  /** Returns a bitmap of every ordinal in [0, size). */
+  static OrdinalBitmap range(int size) {
+    return range(0, size);
+  }
+
+  /** Returns a bitmap of every ordinal in [from, to). */
+  static OrdinalBitmap range(int from, int to) {
+    Builder builder = new Builder();
+    for (int key = from >>> 16; from < to && key <= (to - 1) >>> 16; key++) {
+      int low = Math.max(from, key << 16) & 0xFFFF;
+      int high = Math.min(to - (key << 16), 1 << 16);
+      long[] bits = new long[BITMAP_WORDS];
+      for (int word = low >>> 6; word << 6 < high; word++) {
+        long mask = -1L;
+        if (word == low >>> 6) {
+          mask &= -1L << low;
+        }
+        if (word == (high - 1) >>> 6 && (high & 63) != 0) {
+          mask &= (1L << high) - 1;
+        }
+        bits[word] = mask;
+      }
+      builder.add(key, compact(bits));
+    }
+    return builder.build();
+  }
+
+  /** Returns true if the ordinal is in the set. */
+  boolean contains(int ordinal) {
+    int index = Arrays.binarySearch(keys, (char) (ordinal >>> 16));
+    return index >= 0 && containerContains(containers[index], (char) ordinal);
+  }
+
+  /** Returns the number of ordinals in the set. */
+  int cardinality() {
+    int cardinality = 0;
+    for (Object container : containers) {
+      cardinality += cardinality(container);
+    }
+    return cardinality;
+  }
+
+  /** Returns true if the set holds no ordinals. */
+  boolean isEmpty() {
+    return keys.length == 0;
+  }
+
+  /** Returns the ordinals of the set in ascending order. */
+  int[] toArray() {
+    int[] result = new int[cardinality()];
+    int size = 0;
+    for (int i = 0; i < keys.length; i++) {
+      int high = keys[i] << 16;
+      Object container = containers[i];
+      if (container instanceof char[]) {
+        for (char low : (char[]) container) {
+          result[size++] = high | low;
+        }
+      } else {
+        long[] bits = (long[]) container;
+        for (int word = 0; word < bits.length; word++) {
+          long value = bits[word];
+          while (value != 0) {
+            result[size++] = high | (word << 6) | Long.numberOfTrailingZeros(value);
+            value &= value - 1;
+          }
+        }
+      }
+    }
+    return result;
+  }
+
+  /** Passes the ordinals of the set in [from, to) to the action in ascending order. */
+  void forEach(int from, int to, IntConsumer action) {
+    for (int i = 0; i < keys.length; i++) {
+      int high = keys[i] << 16;
+      if (high + (1 << 16) <= from || high >= to) {
+        continue;
+      }
+      Object container = containers[i];
+      if (container instanceof char[]) {
+        for (char low : (char[]) container) {
+          int ordinal = high | low;
+          if (ordinal >= from && ordinal < to) {
+            action.accept(ordinal);
+          }
+        }
+      } else {
+        long[] bits = (long[]) container;
+        for (int word = 0; word < bits.length; word++) {
+          long value = bits[word];
+          while (value != 0) {
+            int ordinal = high | (word << 6) | Long.numberOfTrailingZeros(value);
+            if (ordinal >= from && ordinal < to) {
+              action.accept(ordinal);
+            }
+            value &= value - 1;
+          }
+        }
+      }
+    }
+  }
+
+  /** Returns the intersection of this set and other. */
+  OrdinalBitmap and(OrdinalBitmap other) {
+    Builder builder = new Builder();
+    int i = 0;
+    int j = 0;
+    while (i < keys.length && j < other.keys.length) {
+      if (keys[i] < other.keys[j]) {
+        i++;
+      } else if (keys[i] > other.keys[j]) {
+        j++;
+      } else {
+        builder.add(keys[i], and(containers[i], other.containers[j]));
+        i++;
+        j++;
+      }
+    }
+    return builder.build();
+  }
+
+  /** Returns the union of this set and other. */
+  OrdinalBitmap or(OrdinalBitmap other) {
+    Builder builder = new Builder();
+    int i = 0;
+    int j = 0;
+    while (i < keys.length || j < other.keys.length) {
+      if (j == other.keys.length || (i < keys.length && keys[i] < other.keys[j])) {
+        builder.add(keys[i], containers[i]);
+        i++;
+      } else if (i == keys.length || keys[i] > other.keys[j]) {
+        builder.add(other.keys[j], other.containers[j]);
+        j++;
+      } else {
+        builder.add(keys[i], or(containers[i], other.containers[j]));
+        i++;
+        j++;
+      }
+    }
+    return builder.build();
+  }
+
+  /** Returns the ordinals of this set that are not in other. */
+  OrdinalBitmap andNot(OrdinalBitmap other) {
+    Builder builder = new Builder();
+    int j = 0;
+    for (int i = 0; i < keys.length; i++) {
+      while (j < other.keys.length && other.keys[j] < keys[i]) {
+        j++;
+      }
+      if (j < other.keys.length && other.keys[j] == keys[i]) {
+        builder.add(keys[i], andNot(containers[i], other.containers[j]));
+      } else {
+        builder.add(keys[i], containers[i]);
+      }
+    }
+    return builder.build();
+  }
+
+  /**
+   * Returns the ordinals of this set whose bit is clear in the 65536 bit group of the same key,
+   * read one word at a time as it is now; a null group clears nothing.
+   */
+  OrdinalBitmap andNot(IntFunction<AtomicLongArray> groups) {
+    Builder builder = new Builder();
+    for (int i = 0; i < keys.length; i++) {
+      AtomicLongArray bits = groups.apply(keys[i]);
+      if (bits == null) {
+        builder.add(keys[i], containers[i]);
+      } else if (containers[i] instanceof char[]) {
+        char[] array = (char[]) containers[i];
+        char[] result = new char[array.length];
+        int size = 0;
+        for (char low : array) {
+          if ((bits.get(low >>> 6) & (1L << low)) == 0) {
+            result[size++] = low;
+          }
+        }
+        builder.add(keys[i], size == array.length ? array
+            : size == 0 ? null : Arrays.copyOf(result, size));
+      } else {
+        long[] words = (long[]) containers[i];
+        long[] result = new long[BITMAP_WORDS];
+        boolean changed = false;
+        for (int word = 0; word < BITMAP_WORDS; word++) {
+          long clear = words[word] == 0 ? 0 : bits.get(word) & words[word];
+          result[word] = words[word] & ~clear;
+          changed |= clear != 0;
+        }
+        builder.add(keys[i], changed ? compact(result) : words);
+      }
+    }
+    return builder.build();
+  }
+
+  /** Returns this set with the ordinal added. */
+  OrdinalBitmap with(int ordinal) {
+    return contains(ordinal) ? this : or(of(ordinal));
+  }
+
+  /** Returns this set with the ordinal removed. */
+  OrdinalBitmap without(int ordinal) {
+    return contains(ordinal) ? andNot(of(ordinal)) : this;
+  }
+
+  /**
+   * Writes the set to a snapshot: the number of groups, then the key of each, the length of
+   * its array or -1 for bits, and its chars or longs.
+   */
+  void write(DataOutputStream out) throws IOException {
+    out.writeInt(keys.length);
+    for (int i = 0; i < keys.length; i++) {
+      out.writeChar(keys[i]);
+      if (containers[i] instanceof char[]) {
+        char[] lows = (char[]) containers[i];
+        out.writeInt(lows.length);
+        for (char low : lows) {
+          out.writeChar(low);
+        }
+      } else {
+        out.writeInt(-1);
+        for (long word : (long[]) containers[i]) {
+          out.writeLong(word);
+        }
+      }
+    }
+  }
+
+  /** Reads a set written by {@link #write} and moves past it. */
+  static OrdinalBitmap read(ByteBuffer buffer) {
+    Builder builder = new Builder();
+    for (int i = buffer.getInt(); i > 0; i--) {
+      char key = buffer.getChar();
+      int length = buffer.getInt();
+      if (length < 0) {
+        long[] bits = new long[BITMAP_WORDS];
+        SnapshotSection.takeLongs(buffer, BITMAP_WORDS).get(bits);
+        builder.add(key, bits);
+      } else {
+        char[] lows = new char[length];
+        SnapshotSection.take(buffer, length * 2).asCharBuffer().get(lows);
+        builder.add(key, lows);
+      }
+    }
+    return builder.build();
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return o instanceof OrdinalBitmap && Arrays.equals(toArray(), ((OrdinalBitmap) o).toArray());
+  }
+
+  @Override
+  public int hashCode() {
+    return Arrays.hashCode(toArray());
+  }
+
+  @Override
+  public String toString() {
+    return Arrays.toString(toArray());
+  }
+
+  private static boolean containerContains(Object container, char low) {
+    if (container instanceof char[]) {
+      return Arrays.binarySearch((char[]) container, low) >= 0;
+    }
+    return (((long[]) container)[low >>> 6] & (1L << low)) != 0;
+  }
+
+  private static int cardinality(Object container) {
+    if (container instanceof char[]) {
+      return ((char[]) container).length;
+    }
+    int cardinality = 0;
+    for (long word : (long[]) container) {
+      cardinality += Long.bitCount(word);
+    }
+    return cardinality;
+  }
+
+  private static Object and(Object a, Object b) {
+    if (a instanceof char[] && b instanceof char[]) {
+      char[] x = (char[]) a;
+      char[] y = (char[]) b;
+      char[] result = new char[Math.min(x.length, y.length)];
+      int size = 0;
+      int i = 0;
+      int j = 0;
+      while (i < x.length && j < y.length) {
+        if (x[i] < y[j]) {
+          i++;
+        } else if (x[i] > y[j]) {
+          j++;
+        } else {
+          result[size++] = x[i];
+          i++;
+          j++;
+        }
+      }
+      return size == 0 ? null : Arrays.copyOf(result, size);
+    }
+    if (a instanceof char[] || b instanceof char[]) {
+      char[] array = (char[]) (a instanceof char[] ? a : b);
+      long[] bits = (long[]) (a instanceof char[] ? b : a);
+      return filter(array, bits, true);
+    }
+    long[] x = (long[]) a;
+    long[] y = (long[]) b;
+    long[] result = new long[BITMAP_WORDS];
+    for (int i = 0; i < BITMAP_WORDS; i++) {
+      result[i] = x[i] & y[i];
+    }
+    return compact(result);
+  }
+
+  private static Object or(Object a, Object b) {
+    if (a instanceof char[] && b instanceof char[]) {
+      char[] x = (char[]) a;
+      char[] y = (char[]) b;
+      char[] result = new char[x.length + y.length];
+      int size = 0;
+      int i = 0;
+      int j = 0;
+      while (i < x.length || j < y.length) {
+        if (j == y.length || (i < x.length && x[i] < y[j])) {
+          result[size++] = x[i++];
+        } else if (i == x.length || x[i] > y[j]) {
+          result[size++] = y[j++];
+        } else {
+          result[size++] = x[i];
+          i++;
+          j++;
+        }
+      }
+      return size <= ARRAY_MAX ? Arrays.copyOf(result, size) : toBits(Arrays.copyOf(result, size));
+    }
+    //one side is a bitmap, so the union is denser than any array group
+    long[] result = bits(a).clone();
+    if (b instanceof long[]) {
+      long[] y = (long[]) b;
+      for (int i = 0; i < BITMAP_WORDS; i++) {
+        result[i] |= y[i];
+      }
+    } else {
+      for (char low : (char[]) b) {
+        result[low >>> 6] |= 1L << low;
+      }
+    }
+    return result;
+  }
+
+  private static Object andNot(Object a, Object b) {
+    if (a instanceof char[]) {
+      char[] x = (char[]) a;
+      if (b instanceof long[]) {
+        return filter(x, (long[]) b, false);
+      }
+      char[] y = (char[]) b;
+      char[] result = new char[x.length];
+      int size = 0;
+      int j = 0;
+      for (char value : x) {
+        while (j < y.length && y[j] < value) {
+          j++;
+        }
+        if (j == y.length || y[j] != value) {
+          result[size++] = value;
+        }
+      }
+      return size == 0 ? null : Arrays.copyOf(result, size);
+    }
+    long[] result = ((long[]) a).clone();
+    if (b instanceof long[]) {
+      long[] y = (long[]) b;
+      for (int i = 0; i < BITMAP_WORDS; i++) {
+        result[i] &= ~y[i];
+      }
+    } else {
+      for (char low : (char[]) b) {
+        result[low >>> 6] &= ~(1L << low);
+      }
+    }
+    return compact(result);
+  }
+
+  /** Keeps the array entries whose bit is set (keep true) or clear (keep false). */
+  private static char[] filter(char[] array, long[] bits, boolean keep) {
+    char[] result = new char[array.length];
+    int size = 0;
+    for (char low : array) {
+      if (((bits[low >>> 6] & (1L << low)) != 0) == keep) {
+        result[size++] = low;
+      }
+    }
+    return size == 0 ? null : Arrays.copyOf(result, size);
+  }
+
+  private static long[] bits(Object container) {
+    return container instanceof long[] ? (long[]) container : toBits((char[]) container);
+  }
+
+  private static long[] toBits(char[] lows) {
+    long[] bits = new long[BITMAP_WORDS];
+    for (char low : lows) {
+      bits[low >>> 6] |= 1L << low;
+    }
+    return bits;
+  }
+
+  /** Returns null for an empty group, an array for a sparse one and the bits otherwise. */
+  private static Object compact(long[] bits) {
+    int cardinality = cardinality(bits);
+    if (cardinality == 0) {
+      return null;
+    }
+    if (cardinality > ARRAY_MAX) {
+      return bits;
+    }
+    char[] lows = new char[cardinality];
+    int size = 0;
+    for (int word = 0; word < BITMAP_WORDS; word++) {
+      long value = bits[word];
+      while (value != 0) {
+        lows[size++] = (char) ((word << 6) | Long.numberOfTrailingZeros(value));
+        value &= value - 1;
+      }
+    }
+    return lows;
+  }
+
+  /** Accumulates groups in ascending key order, dropping empty ones. */
+  private static final class Builder {
+    private char[] keys = new char[4];
+    private Object[] containers = new Object[4];
+    private int size;
+
+    void add(int key, Object container) {
+      if (container == null) {
+        return;
+      }
+      if (size == keys.length) {
+        keys = Arrays.copyOf(keys, size * 2);
+        containers = Arrays.copyOf(containers, size * 2);
+      }
+      keys[size] = (char) key;
+      containers[size] = container;
+      size++;
+    }
+
+    OrdinalBitmap build() {
+      return size == 0 ? EMPTY
+          : new OrdinalBitmap(Arrays.copyOf(keys, size), Arrays.copyOf(containers, size));
+    }
+  }
+}
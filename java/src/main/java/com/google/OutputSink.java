@@ -0,0 +1,21 @@
+package com.google;
+
+/**
+ * Destination of everything the player prints. Implementations decide whether text goes
+ * straight to the console, is buffered and written per batch of commands, is captured for
+ * tests or is discarded.
+ */
+interface OutputSink {
+
+  /** Writes the text as is. */
+  void print(String text);
+
+  /** Writes the text followed by the platform line separator, like PrintStream.println. */
+  default void println(String line) {
+    print(line + System.lineSeparator());
+  }
+
+  /** Writes out anything buffered so far. */
+  default void flush() {
+  }
+}
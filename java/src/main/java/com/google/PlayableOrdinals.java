@@ -0,0 +1,178 @@
+package com.google;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.IntPredicate;
+
+/**
+ * The ordinals of the videos that can be played (are in the catalog and not flagged), split
+ * into stripes by the low bits of the ordinal. Each stripe packs its ordinals densely at the
+ * front of an array with the position of every ordinal alongside: adding appends, removing
+ * moves the last entry into the hole, so both and picking a random entry take constant time
+ * and never allocate. Every stripe has its own {@link StampedLock}, so flags of different
+ * videos rarely wait for each other, and a pick runs under an optimistic read of one stripe
+ * only, which a flag elsewhere never invalidates. The arrays grow by doubling as the catalog
+ * gains videos.
+ */
+final class PlayableOrdinals {
+
+  /** A power of two, so an ordinal's stripe is its low bits. */
+  static final int STRIPES = 16;
+  private static final int SHIFT = Integer.numberOfTrailingZeros(STRIPES);
+
+  private static final class Stripe {
+    final StampedLock lock = new StampedLock();
+    int[] ordinals;
+    /** Index of each ordinal (shifted right by SHIFT) in ordinals, or -1 if not playable. */
+    int[] positions;
+    volatile int count;
+
+    Stripe(int capacity) {
+      ordinals = new int[capacity];
+      positions = new int[capacity];
+      Arrays.fill(positions, -1);
+    }
+  }
+
+  private final Stripe[] stripes = new Stripe[STRIPES];
+
+  /** Creates the set with every ordinal below size for which playable is true. */
+  PlayableOrdinals(int size, IntPredicate playable) {
+    for (int s = 0; s < STRIPES; s++) {
+      stripes[s] = new Stripe(capacity(size));
+    }
+    for (int ordinal = 0; ordinal < size; ordinal++) {
+      if (playable.test(ordinal)) {
+        Stripe stripe = stripes[ordinal & (STRIPES - 1)];
+        stripe.positions[ordinal >>> SHIFT] = stripe.count;
+        stripe.ordinals[stripe.count++] = ordinal;
+      }
+    }
+  }
+
+  /** Returns the room each stripe needs for the ordinals below size. */
+  private static int capacity(int size) {
+    return (size + STRIPES - 1) >>> SHIFT;
+  }
+
+  /** Returns the number of playable videos. */
+  int size() {
+    int size = 0;
+    for (Stripe stripe : stripes) {
+      size += stripe.count;
+    }
+    return size;
+  }
+
+  /** Returns the index-th playable ordinal (in no particular order), or -1 if out of range. */
+  int get(int index) {
+    if (index < 0) {
+      return -1;
+    }
+    for (Stripe stripe : stripes) {
+      long stamp = stripe.lock.readLock();
+      try {
+        if (index < stripe.count) {
+          return stripe.ordinals[index];
+        }
+        index -= stripe.count;
+      } finally {
+        stripe.lock.unlockRead(stamp);
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Returns a uniformly chosen playable ordinal, or -1 if there is none. The stripe is chosen
+   * by the counts read at the start, so a pick racing flags is uniform up to those flags.
+   */
+  int random() {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    while (true) {
+      int total = size();
+      if (total == 0) {
+        return -1;
+      }
+      int index = random.nextInt(total);
+      Stripe stripe = null;
+      for (Stripe candidate : stripes) {
+        int count = candidate.count;
+        if (index < count) {
+          stripe = candidate;
+          break;
+        }
+        index -= count;
+      }
+      if (stripe == null) {
+        continue; //a stripe shrank while the counts were summed
+      }
+      long stamp = stripe.lock.tryOptimisticRead();
+      int[] array = stripe.ordinals;
+      //a racing write can pair a count with an older array; validate rejects the pick then
+      int ordinal = index < stripe.count && index < array.length ? array[index] : -1;
+      if (ordinal >= 0 && stripe.lock.validate(stamp)) {
+        return ordinal;
+      }
+      stamp = stripe.lock.readLock();
+      try {
+        if (stripe.count > 0) {
+          return stripe.ordinals[random.nextInt(stripe.count)];
+        }
+      } finally {
+        stripe.lock.unlockRead(stamp);
+      }
+    }
+  }
+
+  /** Makes room for ordinals below size, which start out not playable. */
+  void ensureCapacity(int size) {
+    int needed = capacity(size);
+    for (Stripe stripe : stripes) {
+      long stamp = stripe.lock.writeLock();
+      try {
+        if (needed <= stripe.positions.length) {
+          continue;
+        }
+        int capacity = Math.max(needed, stripe.positions.length * 2);
+        int grownFrom = stripe.positions.length;
+        stripe.ordinals = Arrays.copyOf(stripe.ordinals, capacity);
+        stripe.positions = Arrays.copyOf(stripe.positions, capacity);
+        Arrays.fill(stripe.positions, grownFrom, capacity, -1);
+      } finally {
+        stripe.lock.unlockWrite(stamp);
+      }
+    }
+  }
+
+  /**
+   * Makes the ordinal's membership match playable, which is read under its stripe's write
+   * lock; calls racing on the same ordinal therefore leave it matching whatever playable
+   * reports last.
+   */
+  void update(int ordinal, IntPredicate playable) {
+    Stripe stripe = stripes[ordinal & (STRIPES - 1)];
+    int slot = ordinal >>> SHIFT;
+    long stamp = stripe.lock.writeLock();
+    try {
+      int position = stripe.positions[slot];
+      if (playable.test(ordinal) == position >= 0) {
+        return;
+      }
+      int count = stripe.count;
+      if (position >= 0) {
+        int last = stripe.ordinals[--count];
+        stripe.ordinals[position] = last;
+        stripe.positions[last >>> SHIFT] = position;
+        stripe.positions[slot] = -1;
+      } else {
+        stripe.positions[slot] = count;
+        stripe.ordinals[count++] = ordinal;
+      }
+      stripe.count = count;
+    } finally {
+      stripe.lock.unlockWrite(stamp);
+    }
+  }
+}
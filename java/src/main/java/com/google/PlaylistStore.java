@@ -0,0 +1,585 @@
+package com.google;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32C;
+
+/**
+ * Keeps the playlists of a player across restarts in a directory holding a snapshot and a
+ * write-ahead log:
+ *
+ * <pre>
+ *   playlists.snapshot   header: magic, version, first log generation not covered,
+ *                                playlist count, body length, CRC32C of the body
+ *                        body:   per playlist: name, video count, video ids in order
+ *   playlists-N.log      records: payload length, CRC32C of the payload, payload
+ *                        payload: operation byte, playlist name, video id (add/remove only)
+ * </pre>
+ *
+ * Strings are an int byte length followed by UTF-8 bytes. Every change is queued and a
+ * background writer appends whatever has queued since its last write in one write and one
+ * fsync (group commit). With {@link Durability#DEFERRED} a change returns as soon as it is
+ * queued; with {@link Durability#STRICT} it returns once its record is on disk. When the log
+ * grows past a threshold the writer starts a new log generation and a compactor thread
+ * writes a snapshot of the state up to that point, then deletes the logs it covers, so
+ * recovery reads one snapshot plus a short log tail. A torn record at the end of a log (a
+ * crash mid-write) ends the replay of that log.
+ */
+final class PlaylistStore implements Closeable {
+
+  /** When a change counts as saved. */
+  enum Durability {
+    /** Once it is queued; a crash can lose the changes of the last group commit. */
+    DEFERRED,
+    /** Once its record has been forced to disk. */
+    STRICT
+  }
+
+  static final int MAGIC = 0x5954504C; //"YTPL"
+  static final int VERSION = 1;
+  static final int HEADER_BYTES = 4 + 4 + 8 + 4 + 8 + 8;
+  /** Log size after which a snapshot is compacted in the background. */
+  static final long DEFAULT_COMPACT_BYTES = 4L << 20;
+
+  static final String SNAPSHOT_FILE = "playlists.snapshot";
+  private static final String LOG_PREFIX = "playlists-";
+  private static final String LOG_SUFFIX = ".log";
+
+  private static final byte CREATE = 1;
+  private static final byte ADD = 2;
+  private static final byte REMOVE = 3;
+  private static final byte CLEAR = 4;
+  private static final byte DELETE = 5;
+
+  /** One playlist: its name as created and the ids of its videos in insertion order. */
+  static final class Playlist {
+    private final String name;
+    private final Set<String> videoIds;
+
+    Playlist(String name, Set<String> videoIds) {
+      this.name = name;
+      this.videoIds = videoIds;
+    }
+
+    String getName() {
+      return name;
+    }
+
+    /** Returns the video ids in the order they were added. */
+    Set<String> getVideoIds() {
+      return Collections.unmodifiableSet(videoIds);
+    }
+
+    private Playlist copy() {
+      return new Playlist(name, new LinkedHashSet<>(videoIds));
+    }
+  }
+
+  /** A queued change. */
+  private static final class Change {
+    final byte operation;
+    final String playlist;
+    final String videoId;
+
+    Change(byte operation, String playlist, String videoId) {
+      this.operation = operation;
+      this.playlist = playlist;
+      this.videoId = videoId;
+    }
+  }
+
+  private final Path directory;
+  private final Durability durability;
+  private final long compactBytes;
+  private final List<Playlist> recovered;
+
+  //guarded by lock: the queue and the sequence numbers of queued and synced changes
+  private final Object lock = new Object();
+  private ArrayDeque<Change> queue = new ArrayDeque<>();
+  private long queued;
+  private long synced;
+  private boolean closed;
+  private IOException failure;
+
+  //confined to the writer thread once it starts
+  private final Map<String, Playlist> state;
+  private FileChannel log;
+  private long generation;
+  private long logBytes;
+  private ByteBuffer scratch = ByteBuffer.allocate(1 << 12);
+
+  private final Thread writer;
+  private final ExecutorService compactor = Executors.newSingleThreadExecutor(task -> {
+    Thread thread = new Thread(task, "playlist-compactor");
+    thread.setDaemon(true);
+    return thread;
+  });
+  private final AtomicBoolean compacting = new AtomicBoolean();
+
+  /** Opens the store in the directory, recovering its playlists, with the default threshold. */
+  PlaylistStore(Path directory, Durability durability) throws IOException {
+    this(directory, durability, DEFAULT_COMPACT_BYTES);
+  }
+
+  /**
+   * Opens the store in the directory, creating it if needed, and recovers its playlists from
+   * the snapshot and the logs after it. A snapshot is compacted once a log reaches
+   * compactBytes.
+   */
+  PlaylistStore(Path directory, Durability durability, long compactBytes) throws IOException {
+    this.directory = directory;
+    this.durability = durability;
+    this.compactBytes = compactBytes;
+    Files.createDirectories(directory);
+    this.state = new LinkedHashMap<>();
+    long first = readSnapshot();
+    boolean replayed = false;
+    for (Map.Entry<Long, Path> entry : logs().entrySet()) {
+      if (entry.getKey() >= first) {
+        replay(entry.getValue());
+        replayed = true;
+      }
+      generation = Math.max(generation, entry.getKey());
+    }
+    this.recovered = copyState();
+    //never append after a possibly torn record: new changes go to a fresh generation
+    generation = Math.max(generation, first - 1) + 1;
+    log = openLog(generation);
+    if (replayed) {
+      compact(recovered, generation);
+    }
+    writer = new Thread(this::writeChanges, "playlist-log");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  /** Returns the playlists as they were when the store was opened, in creation order. */
+  List<Playlist> getPlaylists() {
+    return recovered;
+  }
+
+  Durability getDurability() {
+    return durability;
+  }
+
+  void create(String playlist) {
+    append(new Change(CREATE, playlist, null));
+  }
+
+  void add(String playlist, String videoId) {
+    append(new Change(ADD, playlist, videoId));
+  }
+
+  void remove(String playlist, String videoId) {
+    append(new Change(REMOVE, playlist, videoId));
+  }
+
+  void clear(String playlist) {
+    append(new Change(CLEAR, playlist, null));
+  }
+
+  void delete(String playlist) {
+    append(new Change(DELETE, playlist, null));
+  }
+
+  /** Queues a change and, with strict durability, waits until it is on disk. */
+  private void append(Change change) {
+    long sequence;
+    synchronized (lock) {
+      checkOpen();
+      queue.add(change);
+      sequence = ++queued;
+      lock.notifyAll();
+    }
+    if (durability == Durability.STRICT) {
+      awaitSynced(sequence);
+    }
+  }
+
+  /** Waits until every change queued so far is on disk. */
+  void sync() {
+    long sequence;
+    synchronized (lock) {
+      checkOpen();
+      sequence = queued;
+    }
+    awaitSynced(sequence);
+  }
+
+  private void awaitSynced(long sequence) {
+    synchronized (lock) {
+      boolean interrupted = false;
+      while (synced < sequence && failure == null) {
+        try {
+          lock.wait();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+      if (failure != null) {
+        throw new UncheckedIOException("playlist log failed", failure);
+      }
+    }
+  }
+
+  private void checkOpen() {
+    if (closed) {
+      throw new IllegalStateException("playlist store is closed");
+    }
+    if (failure != null) {
+      throw new UncheckedIOException("playlist log failed", failure);
+    }
+  }
+
+  /** The writer thread: drains the queue, one write and one fsync per batch. */
+  private void writeChanges() {
+    while (true) {
+      ArrayDeque<Change> batch;
+      long upTo;
+      synchronized (lock) {
+        while (queue.isEmpty() && !closed) {
+          try {
+            lock.wait();
+          } catch (InterruptedException e) {
+            //only close() stops the writer, after the queue is drained
+          }
+        }
+        if (queue.isEmpty()) {
+          return;
+        }
+        batch = queue;
+        queue = new ArrayDeque<>();
+        upTo = queued;
+      }
+      IOException error = null;
+      try {
+        write(batch);
+        log.force(false);
+      } catch (IOException e) {
+        error = e;
+      }
+      synchronized (lock) {
+        if (error != null) {
+          failure = error;
+        } else {
+          synced = upTo;
+        }
+        lock.notifyAll();
+      }
+      if (error != null) {
+        return;
+      }
+      for (Change change : batch) {
+        apply(change);
+      }
+      if (logBytes >= compactBytes && compacting.compareAndSet(false, true)) {
+        try {
+          log.close();
+          log = openLog(++generation);
+          compact(copyState(), generation);
+        } catch (IOException e) {
+          compacting.set(false);
+          synchronized (lock) {
+            failure = e;
+            lock.notifyAll();
+          }
+          return;
+        }
+      }
+    }
+  }
+
+  private void write(ArrayDeque<Change> batch) throws IOException {
+    ByteBuffer buffer = scratch;
+    buffer.clear();
+    for (Change change : batch) {
+      byte[] name = change.playlist.getBytes(StandardCharsets.UTF_8);
+      byte[] videoId = change.videoId == null ? null
+          : change.videoId.getBytes(StandardCharsets.UTF_8);
+      int payload = 1 + 4 + name.length + (videoId == null ? 0 : 4 + videoId.length);
+      if (buffer.remaining() < 8 + payload) {
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2,
+            buffer.position() + 8 + payload));
+        buffer.flip();
+        buffer = larger.put(buffer);
+      }
+      int start = buffer.position();
+      buffer.putInt(payload).putInt(0).put(change.operation);
+      buffer.putInt(name.length).put(name);
+      if (videoId != null) {
+        buffer.putInt(videoId.length).put(videoId);
+      }
+      CRC32C checksum = new CRC32C();
+      checksum.update(buffer.array(), start + 8, payload);
+      buffer.putInt(start + 4, (int) checksum.getValue());
+    }
+    scratch = buffer;
+    buffer.flip();
+    logBytes += buffer.remaining();
+    while (buffer.hasRemaining()) {
+      log.write(buffer);
+    }
+  }
+
+  private void apply(Change change) {
+    String key = change.playlist.toLowerCase();
+    if (change.operation == CREATE) {
+      state.putIfAbsent(key, new Playlist(change.playlist, new LinkedHashSet<>()));
+      return;
+    }
+    Playlist playlist = state.get(key);
+    if (playlist == null) {
+      return;
+    }
+    switch (change.operation) {
+      case ADD:
+        playlist.videoIds.add(change.videoId);
+        break;
+      case REMOVE:
+        playlist.videoIds.remove(change.videoId);
+        break;
+      case CLEAR:
+        playlist.videoIds.clear();
+        break;
+      case DELETE:
+        state.remove(key);
+        break;
+      default:
+        throw new IllegalStateException("unknown playlist operation " + change.operation);
+    }
+  }
+
+  private List<Playlist> copyState() {
+    List<Playlist> copy = new ArrayList<>(state.size());
+    for (Playlist playlist : state.values()) {
+      copy.add(playlist.copy());
+    }
+    return Collections.unmodifiableList(copy);
+  }
+
+  /**
+   * Writes a snapshot of the playlists on the compactor thread; the snapshot covers every log
+   * before generation first, which are deleted once it is in place.
+   */
+  private void compact(List<Playlist> playlists, long first) {
+    compacting.set(true);
+    compactor.execute(() -> {
+      try {
+        writeSnapshot(playlists, first);
+        for (Map.Entry<Long, Path> entry : logs().entrySet()) {
+          if (entry.getKey() < first) {
+            Files.deleteIfExists(entry.getValue());
+          }
+        }
+      } catch (IOException e) {
+        //the logs are kept, so the next compaction or recovery still sees every change
+        System.err.println("Couldn't compact playlists: " + e.getMessage());
+      } finally {
+        compacting.set(false);
+      }
+    });
+  }
+
+  private void writeSnapshot(List<Playlist> playlists, long first) throws IOException {
+    Path snapshot = directory.resolve(SNAPSHOT_FILE);
+    Path temp = Files.createTempFile(directory, SNAPSHOT_FILE, ".tmp");
+    try {
+      List<byte[]> strings = new ArrayList<>();
+      long bodyLength = 0;
+      for (Playlist playlist : playlists) {
+        byte[] name = playlist.name.getBytes(StandardCharsets.UTF_8);
+        strings.add(name);
+        bodyLength += 4 + name.length + 4;
+        for (String videoId : playlist.videoIds) {
+          byte[] id = videoId.getBytes(StandardCharsets.UTF_8);
+          strings.add(id);
+          bodyLength += 4 + id.length;
+        }
+      }
+      if (HEADER_BYTES + bodyLength > Integer.MAX_VALUE) {
+        throw new IOException("playlists too large for a snapshot");
+      }
+      ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + (int) bodyLength);
+      buffer.position(HEADER_BYTES);
+      int next = 0;
+      for (Playlist playlist : playlists) {
+        byte[] name = strings.get(next++);
+        buffer.putInt(name.length).put(name).putInt(playlist.videoIds.size());
+        for (int i = 0; i < playlist.videoIds.size(); i++) {
+          byte[] id = strings.get(next++);
+          buffer.putInt(id.length).put(id);
+        }
+      }
+      CRC32C checksum = new CRC32C();
+      checksum.update(buffer.array(), HEADER_BYTES, (int) bodyLength);
+      buffer.putInt(0, MAGIC).putInt(4, VERSION).putLong(8, first)
+          .putInt(16, playlists.size()).putLong(20, bodyLength)
+          .putLong(28, checksum.getValue())
+          .flip();
+      try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+        while (buffer.hasRemaining()) {
+          channel.write(buffer);
+        }
+        channel.force(true);
+      }
+      Files.move(temp, snapshot, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  /**
+   * Loads the snapshot into the state and returns the first log generation it does not
+   * cover, or 0 if there is no snapshot. A damaged snapshot is an error rather than a reason
+   * to start empty, since the logs it covered are gone.
+   */
+  private long readSnapshot() throws IOException {
+    ByteBuffer buffer;
+    try {
+      buffer = ByteBuffer.wrap(Files.readAllBytes(directory.resolve(SNAPSHOT_FILE)));
+    } catch (NoSuchFileException e) {
+      return 0;
+    }
+    if (buffer.remaining() < HEADER_BYTES || buffer.getInt() != MAGIC
+        || buffer.getInt() != VERSION) {
+      throw new IOException("not a playlist snapshot: " + directory.resolve(SNAPSHOT_FILE));
+    }
+    long first = buffer.getLong();
+    int count = buffer.getInt();
+    long bodyLength = buffer.getLong();
+    long expectedChecksum = buffer.getLong();
+    CRC32C checksum = new CRC32C();
+    checksum.update(buffer.duplicate());
+    if (bodyLength != buffer.remaining() || checksum.getValue() != expectedChecksum) {
+      throw new IOException("damaged playlist snapshot: " + directory.resolve(SNAPSHOT_FILE));
+    }
+    for (int i = 0; i < count; i++) {
+      String name = readString(buffer);
+      Set<String> videoIds = new LinkedHashSet<>();
+      for (int videos = buffer.getInt(); videos > 0; videos--) {
+        videoIds.add(readString(buffer));
+      }
+      state.put(name.toLowerCase(), new Playlist(name, videoIds));
+    }
+    return first;
+  }
+
+  /** Applies the intact records of a log, stopping at the first torn or damaged one. */
+  private void replay(Path file) throws IOException {
+    ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+    while (buffer.remaining() >= 8) {
+      int payload = buffer.getInt();
+      int expectedChecksum = buffer.getInt();
+      if (payload < 5 || payload > buffer.remaining()) {
+        return;
+      }
+      CRC32C checksum = new CRC32C();
+      checksum.update(buffer.array(), buffer.position(), payload);
+      if ((int) checksum.getValue() != expectedChecksum) {
+        return;
+      }
+      int end = buffer.position() + payload;
+      byte operation = buffer.get();
+      String playlist = readString(buffer);
+      String videoId = buffer.position() < end ? readString(buffer) : null;
+      apply(new Change(operation, playlist, videoId));
+    }
+  }
+
+  private static String readString(ByteBuffer buffer) {
+    int length = buffer.getInt();
+    String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+    buffer.position(buffer.position() + length);
+    return value;
+  }
+
+  /** Returns the log files in the directory by generation. */
+  private TreeMap<Long, Path> logs() throws IOException {
+    TreeMap<Long, Path> logs = new TreeMap<>();
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+        LOG_PREFIX + "*" + LOG_SUFFIX)) {
+      for (Path file : files) {
+        String name = file.getFileName().toString();
+        try {
+          logs.put(Long.parseLong(name.substring(LOG_PREFIX.length(),
+              name.length() - LOG_SUFFIX.length())), file);
+        } catch (NumberFormatException e) {
+          //not one of ours
+        }
+      }
+    }
+    return logs;
+  }
+
+  private FileChannel openLog(long generation) throws IOException {
+    logBytes = 0;
+    return FileChannel.open(directory.resolve(LOG_PREFIX + generation + LOG_SUFFIX),
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING);
+  }
+
+  /**
+   * Writes and syncs every queued change, waits for a running compaction and closes the log.
+   * The store cannot be used afterwards.
+   */
+  @Override
+  public void close() throws IOException {
+    synchronized (lock) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      lock.notifyAll();
+    }
+    boolean interrupted = false;
+    while (writer.isAlive()) {
+      try {
+        writer.join();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    compactor.shutdown();
+    try {
+      compactor.awaitTermination(1, TimeUnit.MINUTES);
+    } catch (InterruptedException e) {
+      interrupted = true;
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    log.close();
+    synchronized (lock) {
+      if (failure != null) {
+        throw failure;
+      }
+    }
+  }
+}
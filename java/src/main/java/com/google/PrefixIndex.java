@@ -0,0 +1,98 @@
+package com.google;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * The ordinals of a segment sorted by video id and by title, ignoring case, so that the keys
+ * starting with a prefix are one run found by binary search. Keys are read back from the
+ * catalog columns rather than copied, and compared char by char without building strings.
+ */
+final class PrefixIndex {
+
+  static final int IDS = 0;
+  static final int TITLES = 1;
+
+  private final CatalogStore store;
+  private final int[][] sorted = new int[2][];
+
+  /** Sorts the videos of the store by id and by title. */
+  PrefixIndex(CatalogStore store) {
+    this.store = store;
+    for (int by = IDS; by <= TITLES; by++) {
+      String[] keys = new String[store.size()];
+      Integer[] boxed = new Integer[keys.length];
+      for (int i = 0; i < keys.length; i++) {
+        keys[i] = key(store, by, i);
+        boxed[i] = i;
+      }
+      Arrays.sort(boxed, Comparator.comparing((Integer ordinal) -> keys[ordinal],
+          PrefixIndex::compareIgnoreCase).thenComparing(ordinal -> ordinal));
+      int[] order = new int[boxed.length];
+      for (int i = 0; i < order.length; i++) {
+        order[i] = boxed[i];
+      }
+      sorted[by] = order;
+    }
+  }
+
+  private static String key(CatalogStore store, int by, int ordinal) {
+    return by == IDS ? store.videoId(ordinal) : store.title(ordinal);
+  }
+
+  /** Returns the number of videos indexed. */
+  int size() {
+    return sorted[IDS].length;
+  }
+
+  /** Returns the ordinal at the given position in the order by ids or by titles. */
+  int ordinalAt(int by, int position) {
+    return sorted[by][position];
+  }
+
+  /** Returns the id or title of the video at the given position in that order. */
+  String keyAt(int by, int position) {
+    return key(store, by, sorted[by][position]);
+  }
+
+  /** Returns the first position in the order whose key is not below the prefix. */
+  int first(int by, String prefix) {
+    int low = 0;
+    int high = sorted[by].length;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (compareIgnoreCase(keyAt(by, middle), prefix) < 0) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  /** Compares two strings char by char in lower case. */
+  static int compareIgnoreCase(String a, String b) {
+    int length = Math.min(a.length(), b.length());
+    for (int i = 0; i < length; i++) {
+      char x = Character.toLowerCase(a.charAt(i));
+      char y = Character.toLowerCase(b.charAt(i));
+      if (x != y) {
+        return x - y;
+      }
+    }
+    return a.length() - b.length();
+  }
+
+  /** Returns whether the key starts with the prefix, ignoring case. */
+  static boolean startsWithIgnoreCase(String key, String prefix) {
+    if (key.length() < prefix.length()) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length(); i++) {
+      if (Character.toLowerCase(key.charAt(i)) != Character.toLowerCase(prefix.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
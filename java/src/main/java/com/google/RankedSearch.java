@@ -0,0 +1,236 @@
+package com.google;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.IntPredicate;
+
+/**
+ * One ranked title search: scores the videos whose title contains a term and keeps the best k
+ * in a bounded heap. A title scores by its best occurrence of the term: a whole word beats the
+ * start of a word, which beats the middle of one, and within each tier an earlier position
+ * scores higher. A tag equal to the term adds a bonus. Ties go to the lower ordinal.
+ *
+ * <p>The few videos tagged with the term are scored first. The other occurrences at the start
+ * of a word are then read from {@link TitleWords} in order of position and ordinal, so the
+ * score they can reach only falls, and a segment is left as soon as it cannot beat the worst
+ * match kept. Occurrences inside words are only scanned, through the trigram index, when fewer
+ * than k better matches were found. So a broad term costs about as much as a narrow one.
+ */
+final class RankedSearch {
+
+  static final int WHOLE_WORD = 1000;
+  static final int WORD_PREFIX = 500;
+  static final int TAG = 150;
+  /** Largest position score, of a match at the start of the title; it falls by one per char. */
+  static final int POSITION = 100;
+
+  private final String term;
+  private final int k;
+  private final OrdinalBitmap tagged;
+  private final int[] taggedOrdinals;
+  private final IntPredicate accept;
+  private final boolean word;
+  private final Set<Integer> seen = new HashSet<>();
+  /** Min-heap of the kept matches, the worst at the root. */
+  private int[] ordinals;
+  private int[] scores;
+  private int size;
+
+  /**
+   * @param tagged the videos tagged with the term
+   * @param accept which ordinals may be returned, such as unflagged ones
+   */
+  RankedSearch(String searchTerm, int k, OrdinalBitmap tagged, IntPredicate accept) {
+    this.term = searchTerm.toLowerCase();
+    this.k = k;
+    this.tagged = tagged;
+    this.taggedOrdinals = tagged.toArray();
+    this.accept = accept;
+    boolean word = !term.isEmpty();
+    for (int i = 0; i < term.length(); i++) {
+      word &= TitleWords.isWordChar(term.charAt(i));
+    }
+    this.word = word;
+    this.ordinals = new int[Math.min(k, 64)];
+    this.scores = new int[ordinals.length];
+  }
+
+  /** Adds the matches of a segment whose rows have the given ordinals. */
+  void searchSegment(SegmentOrdinals segment, TitleIndex titles, TitleWords words) {
+    int from = Arrays.binarySearch(taggedOrdinals, segment.start());
+    for (int i = from >= 0 ? from : -from - 1; i < taggedOrdinals.length; i++) {
+      int ordinal = taggedOrdinals[i];
+      if (ordinal >= segment.end()) {
+        break;
+      }
+      int local = segment.local(ordinal);
+      if (local >= 0 && seen.add(ordinal) && accept.test(ordinal)) {
+        int score = score(titles.lowerTitle(local), ordinal);
+        if (score >= 0) {
+          offer(ordinal, score);
+        }
+      }
+    }
+    if (word) {
+      int exact = words.indexOf(term);
+      if (exact >= 0 && !visit(words.postings(exact), WHOLE_WORD, segment, titles)) {
+        return;
+      }
+      if (!visitPrefixes(words, segment, titles)) {
+        return;
+      }
+    }
+    //what is left of a word's matches are untagged ones inside words, after position 0
+    if (word && size == k && scores[0] >= POSITION) {
+      return;
+    }
+    for (int local : titles.search(term)) {
+      int ordinal = segment.ordinal(local);
+      if (word && size == k && scores[0] >= POSITION - 1) {
+        return; //matches come in ordinal order, so from here on they can only tie and lose
+      }
+      if (!tagged.contains(ordinal) && accept.test(ordinal)) {
+        int score = score(titles.lowerTitle(local), ordinal);
+        if (!word || score < WORD_PREFIX) { //word start matches were all visited above
+          offer(ordinal, score);
+        }
+      }
+    }
+  }
+
+  /** Visits one word's occurrences; returns false if it stopped because none could enter. */
+  private boolean visit(long[] postings, int tier, SegmentOrdinals segment, TitleIndex titles) {
+    for (long posting : postings) {
+      if (!visit(posting, tier, segment, titles)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Visits the occurrences of the words the term is a proper prefix of, merged by position. */
+  private boolean visitPrefixes(TitleWords words, SegmentOrdinals segment, TitleIndex titles) {
+    //each cursor is {word index, next occurrence}, ordered by that occurrence
+    PriorityQueue<int[]> cursors = new PriorityQueue<>((a, b) ->
+        Long.compare(words.postings(a[0])[a[1]], words.postings(b[0])[b[1]]));
+    for (int w = words.ceiling(term); w < words.size() && words.word(w).startsWith(term); w++) {
+      if (words.word(w).length() > term.length()) {
+        cursors.add(new int[] {w, 0});
+      }
+    }
+    int[] cursor;
+    while ((cursor = cursors.poll()) != null) {
+      long[] postings = words.postings(cursor[0]);
+      if (!visit(postings[cursor[1]], WORD_PREFIX, segment, titles)) {
+        return false;
+      }
+      if (++cursor[1] < postings.length) {
+        cursors.add(cursor);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Visits an occurrence; returns false if it cannot enter the heap. Occurrences come in order
+   * of capped position and then ordinal, so no later one of the tier can enter either.
+   */
+  private boolean visit(long posting, int tier, SegmentOrdinals segment, TitleIndex titles) {
+    int bound = tier + POSITION - TitleWords.positionOf(posting);
+    int local = TitleWords.ordinalOf(posting);
+    int ordinal = segment.ordinal(local);
+    if (size == k && !worse(scores[0], ordinals[0], bound, ordinal)) {
+      return false;
+    }
+    if (seen.add(ordinal) && accept.test(ordinal)) {
+      offer(ordinal, score(titles.lowerTitle(local), ordinal));
+    }
+    return true;
+  }
+
+  /**
+   * Returns the score of the title's best occurrence of the term plus the tag bonus, or -1 if
+   * the title does not contain the term.
+   */
+  private int score(String title, int ordinal) {
+    return score(title, term, tagged.contains(ordinal));
+  }
+
+  /**
+   * Returns the score of a lowercase title for a lowercase term, as above, given whether the
+   * video is tagged with the term; used to merge the ranked results of several shards.
+   */
+  static int score(String title, String term, boolean tagged) {
+    int best = -1;
+    //the empty term occurs at every index, and scores best at the first
+    for (int i = title.indexOf(term); i >= 0;
+        i = term.isEmpty() ? -1 : title.indexOf(term, i + 1)) {
+      int end = i + term.length();
+      boolean atStart = i == 0 || !TitleWords.isWordChar(title.charAt(i - 1));
+      boolean atEnd = end == title.length() || !TitleWords.isWordChar(title.charAt(end));
+      int tier = !atStart ? 0 : atEnd ? WHOLE_WORD : WORD_PREFIX;
+      best = Math.max(best, tier + Math.max(0, POSITION - i));
+    }
+    return best >= 0 && tagged ? best + TAG : best;
+  }
+
+  /** Returns whether match a ranks below match b. */
+  private static boolean worse(int scoreA, int ordinalA, int scoreB, int ordinalB) {
+    return scoreA < scoreB || (scoreA == scoreB && ordinalA > ordinalB);
+  }
+
+  private void offer(int ordinal, int score) {
+    if (size < k) {
+      if (size == ordinals.length) {
+        int capacity = (int) Math.min(k, ordinals.length * 2L);
+        ordinals = Arrays.copyOf(ordinals, capacity);
+        scores = Arrays.copyOf(scores, capacity);
+      }
+      int i = size++;
+      while (i > 0 && worse(score, ordinal, scores[(i - 1) / 2], ordinals[(i - 1) / 2])) {
+        ordinals[i] = ordinals[(i - 1) / 2];
+        scores[i] = scores[(i - 1) / 2];
+        i = (i - 1) / 2;
+      }
+      ordinals[i] = ordinal;
+      scores[i] = score;
+    } else if (worse(scores[0], ordinals[0], score, ordinal)) {
+      int i = 0;
+      while (true) {
+        int child = 2 * i + 1;
+        if (child >= size) {
+          break;
+        }
+        if (child + 1 < size
+            && worse(scores[child + 1], ordinals[child + 1], scores[child], ordinals[child])) {
+          child++;
+        }
+        if (!worse(scores[child], ordinals[child], score, ordinal)) {
+          break;
+        }
+        ordinals[i] = ordinals[child];
+        scores[i] = scores[child];
+        i = child;
+      }
+      ordinals[i] = ordinal;
+      scores[i] = score;
+    }
+  }
+
+  /** Returns the ordinals kept, best first. */
+  int[] result() {
+    Integer[] order = new Integer[size];
+    for (int i = 0; i < size; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, (a, b) -> worse(scores[a], ordinals[a], scores[b], ordinals[b]) ? 1
+        : worse(scores[b], ordinals[b], scores[a], ordinals[a]) ? -1 : 0);
+    int[] best = new int[size];
+    for (int i = 0; i < size; i++) {
+      best[i] = ordinals[order[i]];
+    }
+    return best;
+  }
+}
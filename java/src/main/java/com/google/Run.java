@@ -1,24 +1,281 @@
 package com.google;
 
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Scanner;
+import java.util.function.Supplier;
 
 public class Run {
-  public static void main(String[] args){
+  /** First line a shard process prints, followed by its port, once it is serving. */
+  static final String SHARD_SERVING = "Serving shard";
+
+  public static void main(String[] args) throws IOException {
+    Path snapshot = null;
+    Path playlists = null;
+    var storage = CatalogStore.Storage.HEAP;
+    var durability = PlaylistStore.Durability.DEFERRED;
+    boolean watch = false;
+    int shards = CatalogShards.DEFAULT_SHARDS;
+    int shardTimeout = ClusterLibrary.DEFAULT_TIMEOUT_MILLIS;
+    while (args.length > 0 && (args[0].equals("--snapshot") || args[0].equals("--off-heap")
+        || args[0].equals("--playlists") || args[0].equals("--strict-durability")
+        || args[0].equals("--watch") || args[0].equals("--shards")
+        || args[0].equals("--shard-timeout"))) {
+      if (args[0].equals("--off-heap")) {
+        storage = CatalogStore.Storage.OFF_HEAP;
+        args = Arrays.copyOfRange(args, 1, args.length);
+      } else if (args[0].equals("--watch")) {
+        watch = true;
+        args = Arrays.copyOfRange(args, 1, args.length);
+      } else if (args[0].equals("--strict-durability")) {
+        durability = PlaylistStore.Durability.STRICT;
+        args = Arrays.copyOfRange(args, 1, args.length);
+      } else if (args.length > 1 && args[0].equals("--shard-timeout")) {
+        try {
+          shardTimeout = Integer.parseInt(args[1]);
+        } catch (NumberFormatException e) {
+          shardTimeout = 0;
+        }
+        if (shardTimeout <= 0) {
+          System.err.println("Usage: --shard-timeout <milliseconds>");
+          return;
+        }
+        args = Arrays.copyOfRange(args, 2, args.length);
+      } else if (args.length > 1 && args[0].equals("--shards")) {
+        try {
+          shards = Integer.parseInt(args[1]);
+        } catch (NumberFormatException e) {
+          shards = 0;
+        }
+        if (shards < 1 || shards > CatalogShards.MAX_SHARDS) {
+          System.err.println("Usage: --shards <1-" + CatalogShards.MAX_SHARDS + ">");
+          return;
+        }
+        args = Arrays.copyOfRange(args, 2, args.length);
+      } else if (args.length > 1) {
+        if (args[0].equals("--snapshot")) {
+          snapshot = Paths.get(args[1]);
+        } else {
+          playlists = Paths.get(args[1]);
+        }
+        args = Arrays.copyOfRange(args, 2, args.length);
+      } else {
+        System.err.println("Usage: " + args[0] + (args[0].equals("--snapshot") ? " <file>"
+            : args[0].equals("--shards") ? " <count>"
+            : args[0].equals("--shard-timeout") ? " <milliseconds>" : " <directory>"));
+        return;
+      }
+    }
+    Path snapshotPath = snapshot;
+    var storageKind = storage;
+    int shardCount = shards;
+    Supplier<VideoLibrary> libraries = () -> loadLibrary(snapshotPath, storageKind, shardCount);
+    if (args.length > 0 && args[0].equals("--batch")) {
+      try (var playlistStore = openPlaylists(playlists, durability)) {
+        runBatch(args, libraries, playlistStore);
+      }
+      return;
+    }
+    if (args.length > 0 && args[0].equals("--serve")) {
+      runServer(args, libraries, watch);
+      return;
+    }
+    if (args.length > 0 && args[0].equals("--shard")) {
+      runShard(args, storage, shards);
+      return;
+    }
+    if (args.length > 0 && args[0].equals("--cluster")) {
+      runCluster(args, shardTimeout);
+      return;
+    }
     System.out.println("Hello and welcome to YouTube, what would you like to do? "
         + "Enter HELP for list of available commands or EXIT to terminate.");
-    var videoPlayer = new VideoPlayer();
-    var parser = new CommandParser(videoPlayer);
+    var library = libraries.get();
+    if (library.getLoadStats() != null) { //on stderr, so the transcript on stdout is unchanged
+      System.err.println(library.getLoadStats());
+    }
+    if (watch) {
+      watchCatalog(library);
+    }
+    var playlistStore = openPlaylists(playlists, durability);
+    var videoPlayer = new VideoPlayer(library, new ConsoleSink(), playlistStore);
+    var metrics = new CommandMetrics();
+    metrics.exportToPlatform();
+    var parser = new CommandParser(videoPlayer, metrics);
     var scanner = new Scanner(System.in);
+    //follow-up prompts read from the same scanner so piped input is not lost
+    videoPlayer.setAnswerReader(() -> scanner.hasNextLine() ? scanner.nextLine() : null);
     while (true) {
       System.out.print("YT> ");
+      if (!scanner.hasNextLine()) {
+        closePlaylists(playlistStore);
+        return;
+      }
       var input = scanner.nextLine();
       if (input.equalsIgnoreCase("exit")) {
         System.out.println("YouTube has now terminated its execution. " +
             "Thank you and goodbye!");
+        if (snapshot != null && library.getLoadStats() != null) { //keep flags for next start
+          library.writeSnapshot(snapshot, VideoLibrary.defaultCatalog());
+        }
+        closePlaylists(playlistStore);
+        return;
+      }
+      parser.executeCommandLine(input);
+    }
+  }
+
+  /**
+   * Loads the bundled catalog into the given storage and number of shards, through the binary
+   * snapshot at the given path when it is not null; the snapshot is (re)written whenever the
+   * catalog text had to be parsed.
+   */
+  private static VideoLibrary loadLibrary(Path snapshot, CatalogStore.Storage storage,
+      int shards) {
+    return new VideoLibrary(VideoLibrary.defaultCatalog(), snapshot, new CatalogLoader(),
+        storage, shards);
+  }
+
+  /** Reloads the library whenever the catalog file changes, until the process exits. */
+  private static void watchCatalog(VideoLibrary library) throws IOException {
+    if (library.getLoadStats() != null) {
+      new CatalogWatcher(library, VideoLibrary.defaultCatalog());
+    }
+  }
+
+  /** Opens the playlist store in the directory, or returns null when it is null. */
+  private static PlaylistStore openPlaylists(Path directory,
+      PlaylistStore.Durability durability) throws IOException {
+    return directory == null ? null : new PlaylistStore(directory, durability);
+  }
+
+  private static void closePlaylists(PlaylistStore playlistStore) throws IOException {
+    if (playlistStore != null) {
+      playlistStore.close();
+    }
+  }
+
+  /** Runs "--batch <command_file> [--no-prompts]" and prints the totals to stderr. */
+  private static void runBatch(String[] args, Supplier<VideoLibrary> libraries,
+      PlaylistStore playlistStore) throws IOException {
+    if (args.length < 2) {
+      System.err.println("Usage: --batch <command_file> [--no-prompts]");
+      return;
+    }
+    boolean answerPrompts = !(args.length > 2 && args[2].equals("--no-prompts"));
+    var library = libraries.get();
+    System.err.println(library.getLoadStats());
+    var output = new BufferedSink(new OutputStreamWriter(System.out));
+    var runner = new BatchRunner(new VideoPlayer(library, output, playlistStore),
+        answerPrompts);
+    System.err.println(runner.run(Paths.get(args[1])));
+  }
+
+  /** Runs "--serve <port>", serving every connection its own session until interrupted. */
+  private static void runServer(String[] args, Supplier<VideoLibrary> libraries,
+      boolean watch) throws IOException {
+    if (args.length < 2) {
+      System.err.println("Usage: --serve <port>");
+      return;
+    }
+    var library = libraries.get();
+    System.err.println(library.getLoadStats());
+    if (watch) {
+      watchCatalog(library);
+    }
+    serve(library, Integer.parseInt(args[1]));
+  }
+
+  /**
+   * Runs "--shard <index> <count> <port> [<catalog>]": serves the videos of the catalog, the
+   * bundled one by default, whose id hashes to that shard, to a cluster coordinator. Port 0
+   * picks a free port; the port is printed once the shard is serving.
+   */
+  private static void runShard(String[] args, CatalogStore.Storage storage, int shards)
+      throws IOException {
+    if (args.length < 4) {
+      System.err.println("Usage: --shard <index> <count> <port> [<catalog>]");
+      return;
+    }
+    int index = Integer.parseInt(args[1]);
+    int count = Integer.parseInt(args[2]);
+    if (count < 1 || count > CatalogShards.MAX_SHARDS || index < 0 || index >= count) {
+      System.err.println("Usage: --shard <index> <count> <port> [<catalog>], "
+          + "0 <= index < count <= " + CatalogShards.MAX_SHARDS);
+      return;
+    }
+    Path catalog = args.length > 4 ? Paths.get(args[4]) : VideoLibrary.defaultCatalog();
+    Path slice = Files.createTempFile("videos-shard-" + index + "-of-" + count + "-", ".txt");
+    slice.toFile().deleteOnExit();
+    ShardServer.slice(catalog, index, count, slice);
+    var library = new VideoLibrary(slice, null, new CatalogLoader(), storage, shards);
+    System.err.println(library.getLoadStats());
+    var server = new ShardServer(library, new InetSocketAddress(Integer.parseInt(args[3])));
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      try {
+        server.close();
+      } catch (IOException e) {
+        System.err.println("Couldn't close the shard: " + e.getMessage());
+      }
+    }));
+    server.start();
+    System.out.println(SHARD_SERVING + " " + index + " of " + count + " on port "
+        + server.getPort());
+    System.out.flush();
+    try {
+      Thread.currentThread().join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Runs "--cluster <port> <host:port>...": serves commands like "--serve" over the catalog of
+   * the given shard processes, listed in shard order.
+   */
+  private static void runCluster(String[] args, int shardTimeout) throws IOException {
+    if (args.length < 3) {
+      System.err.println("Usage: --cluster <port> <host:port>...");
+      return;
+    }
+    List<InetSocketAddress> shards = new ArrayList<>();
+    for (String address : Arrays.asList(args).subList(2, args.length)) {
+      int colon = address.lastIndexOf(':');
+      if (colon < 0) {
+        System.err.println("Usage: --cluster <port> <host:port>...");
         return;
       }
-      parser.executeCommand(Arrays.asList(input.split("\\s+")));
+      shards.add(new InetSocketAddress(address.substring(0, colon),
+          Integer.parseInt(address.substring(colon + 1))));
+    }
+    serve(new ClusterLibrary(shards, shardTimeout), Integer.parseInt(args[1]));
+  }
+
+  /** Serves every connection to the port its own session over the library until interrupted. */
+  private static void serve(Library library, int port) throws IOException {
+    var sessions = new SessionManager(library);
+    sessions.getMetrics().exportToPlatform();
+    var server = new CommandServer(sessions, new InetSocketAddress(port));
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      try {
+        server.close();
+      } catch (IOException e) {
+        System.err.println("Couldn't close the server: " + e.getMessage());
+      }
+    }));
+    server.start();
+    System.err.println("Serving commands on port " + server.getPort());
+    try {
+      Thread.currentThread().join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
     }
   }
 }
@@ -0,0 +1,232 @@
+package com.google;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * A bounded least recently used cache of search results: ordinals in title order, keyed by a
+ * normalized query and stamped with the number of the {@link CatalogVersion} they were
+ * computed from. A result of an older version is recomputed rather than served. Results hold
+ * flagged videos too; the library applies the flags on every read, so flagging never
+ * invalidates an entry and never serves a stale flag.
+ *
+ * <p>Entries are evicted, least recently used first, once there are more than maxEntries of
+ * them or they hold more than maxWeight ordinals in total; a result heavier than that on its
+ * own is returned but not cached. Threads missing on the same key
+ * at the same time share one computation: the first inserts a future and computes outside
+ * the lock, the others wait for it. A failed computation is not cached.
+ */
+final class SearchCache {
+
+  static final int DEFAULT_MAX_ENTRIES = 1024;
+  static final long DEFAULT_MAX_WEIGHT = 1 << 22;
+  /** Weight charged per entry on top of its ordinals, for the key and bookkeeping. */
+  static final int ENTRY_WEIGHT = 32;
+
+  private static final class Entry {
+    final long version;
+    final CompletableFuture<int[]> result = new CompletableFuture<>();
+    /** Weight counted against the bound, 0 until the result is in. */
+    long weight;
+
+    Entry(long version) {
+      this.version = version;
+    }
+  }
+
+  /** Counters of a cache, read as one snapshot. */
+  static final class Stats {
+    private final long hits;
+    private final long coalesced;
+    private final long misses;
+    private final long evictions;
+    private final int entries;
+    private final long weight;
+
+    Stats(long hits, long coalesced, long misses, long evictions, int entries, long weight) {
+      this.hits = hits;
+      this.coalesced = coalesced;
+      this.misses = misses;
+      this.evictions = evictions;
+      this.entries = entries;
+      this.weight = weight;
+    }
+
+    /** Returns the number of lookups answered without computing, coalesced ones included. */
+    long getHits() {
+      return hits;
+    }
+
+    /** Returns the number of lookups that waited for another thread's computation. */
+    long getCoalesced() {
+      return coalesced;
+    }
+
+    /** Returns the number of lookups that computed their result. */
+    long getMisses() {
+      return misses;
+    }
+
+    long getEvictions() {
+      return evictions;
+    }
+
+    int getEntries() {
+      return entries;
+    }
+
+    long getWeight() {
+      return weight;
+    }
+
+    @Override
+    public String toString() {
+      long lookups = hits + misses;
+      return String.format("Search cache: %d hits (%d coalesced), %d misses, %.1f%% hit rate, "
+              + "%d evictions, %d entries, weight %d", hits, coalesced, misses,
+          lookups == 0 ? 0 : hits * 100d / lookups, evictions, entries, weight);
+    }
+  }
+
+  private final int maxEntries;
+  private final long maxWeight;
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private long weight;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder coalesced = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  SearchCache() {
+    this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_WEIGHT);
+  }
+
+  /** Creates a cache bounded as given; a bound of 0 keeps nothing but still coalesces. */
+  SearchCache(int maxEntries, long maxWeight) {
+    this.maxEntries = maxEntries;
+    this.maxWeight = maxWeight;
+  }
+
+  /**
+   * Returns the result cached for the key and catalog version, computing it when there is
+   * none. The returned array is shared and must not be modified.
+   */
+  int[] get(String key, long version, Supplier<int[]> compute) {
+    Entry entry;
+    boolean computing = false;
+    synchronized (this) {
+      entry = entries.get(key);
+      if (entry != null && entry.version > version) {
+        //a lookup on a version that was replaced while it ran; don't push the newer one out
+        entry = null;
+      } else if (entry == null || entry.version < version) {
+        entry = new Entry(version);
+        put(key, entry);
+        computing = true;
+      }
+    }
+    if (entry == null) {
+      misses.increment();
+      return compute.get();
+    }
+    if (!computing) {
+      hits.increment();
+      if (!entry.result.isDone()) {
+        coalesced.increment();
+      }
+      try {
+        return entry.result.join();
+      } catch (CompletionException e) {
+        throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+      }
+    }
+    misses.increment();
+    int[] result;
+    try {
+      result = compute.get();
+    } catch (RuntimeException | Error e) {
+      synchronized (this) {
+        remove(key, entry);
+      }
+      entry.result.completeExceptionally(e);
+      throw e;
+    }
+    synchronized (this) {
+      if (entries.get(key) == entry) {
+        if (result.length + ENTRY_WEIGHT > maxWeight) {
+          //caching it would flush every other result and still not fit
+          entries.remove(key);
+        } else {
+          entry.weight = result.length + ENTRY_WEIGHT;
+          weight += entry.weight;
+          trim();
+        }
+      }
+    }
+    entry.result.complete(result);
+    return result;
+  }
+
+  /**
+   * Returns the result cached for the key and catalog version if it has been computed, or
+   * null; unlike {@link #get} it never computes one, nor waits for one being computed. A null
+   * counts as a miss, since the caller then searches without the cache.
+   */
+  int[] peek(String key, long version) {
+    Entry entry;
+    synchronized (this) {
+      entry = entries.get(key);
+    }
+    if (entry == null || entry.version != version || !entry.result.isDone()
+        || entry.result.isCompletedExceptionally()) {
+      misses.increment();
+      return null;
+    }
+    hits.increment();
+    return entry.result.join();
+  }
+
+  /** Drops every entry. */
+  synchronized void clear() {
+    entries.clear();
+    weight = 0;
+  }
+
+  synchronized Stats getStats() {
+    return new Stats(hits.sum(), coalesced.sum(), misses.sum(), evictions.sum(),
+        entries.size(), weight);
+  }
+
+  private void put(String key, Entry entry) {
+    Entry old = entries.put(key, entry);
+    if (old != null) {
+      weight -= old.weight;
+    }
+    trim();
+  }
+
+  private void remove(String key, Entry entry) {
+    if (entries.remove(key, entry)) {
+      weight -= entry.weight;
+    }
+  }
+
+  /** Evicts least recently used results until the cache is within its bounds. */
+  private void trim() {
+    Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+    while ((entries.size() > maxEntries || weight > maxWeight) && eldest.hasNext()) {
+      Entry entry = eldest.next().getValue();
+      //a result still being computed stays, so that identical misses keep coalescing
+      if (entry.weight > 0) {
+        eldest.remove();
+        weight -= entry.weight;
+        evictions.increment();
+      }
+    }
+  }
+}
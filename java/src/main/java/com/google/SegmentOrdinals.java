@@ -0,0 +1,87 @@
+package com.google;
+
+import java.util.Arrays;
+
+/**
+ * The catalog ordinals of the rows of one catalog segment, which its indexes number 0 and up
+ * (local ordinals). A segment covers the ordinals [start, end): as appended they are all its
+ * rows, in order; once segments are merged the rows of removed videos are left out, and the
+ * ascending ordinals of the rows kept are listed. Both mappings keep the order, so a segment
+ * sorted by local ordinal is sorted by catalog ordinal.
+ */
+final class SegmentOrdinals {
+
+  private final int start;
+  private final int end;
+  /** The ordinal of every local ordinal, or null if they are start, start + 1 and so on. */
+  private final int[] ordinals;
+
+  /** Covers size consecutive ordinals from start, all of them rows. */
+  SegmentOrdinals(int start, int size) {
+    this(start, start + size, null);
+  }
+
+  /**
+   * Covers the ordinals [start, end), of which the ascending ordinals are rows, or all of them
+   * if ordinals is null.
+   */
+  SegmentOrdinals(int start, int end, int[] ordinals) {
+    this.start = start;
+    this.end = end;
+    this.ordinals = ordinals != null && ordinals.length == end - start ? null : ordinals;
+  }
+
+  /** Returns the first ordinal covered. */
+  int start() {
+    return start;
+  }
+
+  /** Returns one past the last ordinal covered. */
+  int end() {
+    return end;
+  }
+
+  /** Returns the number of rows. */
+  int size() {
+    return ordinals == null ? end - start : ordinals.length;
+  }
+
+  /** Returns whether every ordinal covered is a row. */
+  boolean isDense() {
+    return ordinals == null;
+  }
+
+  /** Returns the catalog ordinal of the row with the given local ordinal. */
+  int ordinal(int local) {
+    return ordinals == null ? start + local : ordinals[local];
+  }
+
+  /** Returns the local ordinal of the row with the given ordinal, or -1 if it has none. */
+  int local(int ordinal) {
+    if (ordinal < start || ordinal >= end) {
+      return -1;
+    }
+    if (ordinals == null) {
+      return ordinal - start;
+    }
+    int local = Arrays.binarySearch(ordinals, ordinal);
+    return local >= 0 ? local : -1;
+  }
+
+  /**
+   * Returns the highest local ordinal whose ordinal is at most the given one, or -1 if there
+   * is none; comparing local ordinals with it compares their ordinals with the given one.
+   */
+  int floor(int ordinal) {
+    if (ordinals == null) {
+      return Math.max(-1, Math.min(ordinal, end - 1) - start);
+    }
+    int local = Arrays.binarySearch(ordinals, ordinal);
+    return local >= 0 ? local : -local - 2;
+  }
+
+  /** Returns the ordinals of the rows as a bitmap. */
+  OrdinalBitmap toBitmap() {
+    return ordinals == null ? OrdinalBitmap.range(start, end) : OrdinalBitmap.of(ordinals);
+  }
+}
@@ -0,0 +1,61 @@
+package com.google;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Hands out per-user {@link VideoPlayer} sessions over one shared {@link Library}. Each
+ * session has its own playback state, playlists and output sink; the library and its flag
+ * state are shared. Sessions are looked up in a concurrent map, so opening and closing them
+ * never takes a global lock. Commands of every session are recorded in one
+ * {@link CommandMetrics}.
+ */
+final class SessionManager {
+
+  private final Library videoLibrary;
+  private final ConcurrentMap<String, VideoPlayer> sessions = new ConcurrentHashMap<>();
+  private final CommandMetrics metrics = new CommandMetrics();
+
+  SessionManager(Library videoLibrary) {
+    this.videoLibrary = videoLibrary;
+  }
+
+  /** Returns the shared library. */
+  Library getVideoLibrary() {
+    return videoLibrary;
+  }
+
+  /** Returns the metrics shared by the parsers of all sessions. */
+  CommandMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Returns the session with the given id, creating it with a sink from the supplier if it
+   * does not exist yet.
+   */
+  VideoPlayer open(String sessionId, Supplier<OutputSink> output) {
+    return sessions.computeIfAbsent(sessionId, id -> new VideoPlayer(videoLibrary, output.get()));
+  }
+
+  /** Returns the session with the given id, or null if it is not open. */
+  VideoPlayer get(String sessionId) {
+    return sessions.get(sessionId);
+  }
+
+  /** Closes the session, flushing its output; returns false if it was not open. */
+  boolean close(String sessionId) {
+    VideoPlayer player = sessions.remove(sessionId);
+    if (player == null) {
+      return false;
+    }
+    player.getOutput().flush();
+    return true;
+  }
+
+  /** Returns the number of open sessions. */
+  int size() {
+    return sessions.size();
+  }
+}
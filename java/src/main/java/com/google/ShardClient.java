@@ -0,0 +1,223 @@
+package com.google;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The connections of a coordinator to one {@link ShardServer}. A request takes an idle
+ * connection, or opens one, so concurrent sessions never wait for each other's requests. Both
+ * connecting and every read give up after the timeout; a connection that failed or timed out
+ * is closed rather than reused, as an answer may still be on its way. A caller that stops
+ * waiting can {@link Call#abort} its request, which closes the connection under the thread
+ * blocked reading it.
+ */
+final class ShardClient implements Closeable {
+
+  /** The answer to a request: the videos listed, each split into its fields, and a value. */
+  static final class Reply {
+    private final List<String[]> videos;
+    private final String value;
+
+    Reply(List<String[]> videos, String value) {
+      this.videos = videos;
+      this.value = value;
+    }
+
+    /** Returns the fields of every video after the {@link ShardServer#VIDEO} marker. */
+    List<String[]> getVideos() {
+      return videos;
+    }
+
+    /** Returns the value of the status line, or null if it had none. */
+    String getValue() {
+      return value;
+    }
+  }
+
+  private static final class Connection {
+    final Socket socket;
+    final BufferedReader in;
+    final BufferedWriter out;
+
+    Connection(Socket socket) throws IOException {
+      this.socket = socket;
+      this.in = new BufferedReader(
+          new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+      this.out = new BufferedWriter(
+          new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+    }
+  }
+
+  private final InetSocketAddress address;
+  private final int timeoutMillis;
+  private final ConcurrentLinkedQueue<Connection> idle = new ConcurrentLinkedQueue<>();
+  private volatile boolean closed;
+
+  ShardClient(InetSocketAddress address, int timeoutMillis) {
+    this.address = address;
+    this.timeoutMillis = timeoutMillis;
+  }
+
+  InetSocketAddress getAddress() {
+    return address;
+  }
+
+  /**
+   * Sends a request made of the given words and returns the answer. Tabs and line breaks in
+   * the words are sent as spaces.
+   *
+   * @throws IllegalArgumentException if the shard rejected the request, e.g. a malformed tag
+   *     expression
+   * @throws IOException if the shard could not be reached or did not answer in time
+   */
+  Reply call(String... words) throws IOException {
+    return prepare(words).call();
+  }
+
+  /** Returns a request made of the given words, sent when it is called, as {@link #call}. */
+  Call prepare(String... words) {
+    return new Call(words);
+  }
+
+  /** A request that another thread can abort while it waits for the answer. */
+  final class Call implements Callable<Reply> {
+    private final String[] words;
+    private Connection connection;
+    private boolean aborted;
+
+    private Call(String[] words) {
+      this.words = words;
+    }
+
+    @Override
+    public Reply call() throws IOException {
+      return ShardClient.this.call(this, words);
+    }
+
+    /**
+     * Gives up on the request: closes its connection if it is being sent or answered, or keeps
+     * it from being sent. The thread running it then fails with an IOException.
+     */
+    synchronized void abort() {
+      aborted = true;
+      if (connection != null) {
+        closeQuietly(connection);
+      }
+    }
+
+    /** Starts using the connection; false if the request was aborted already. */
+    private synchronized boolean begin(Connection connection) {
+      this.connection = aborted ? null : connection;
+      return !aborted;
+    }
+
+    /** Stops using the connection; false if the request was aborted meanwhile. */
+    private synchronized boolean end() {
+      connection = null;
+      return !aborted;
+    }
+  }
+
+  private Reply call(Call call, String[] words) throws IOException {
+    StringBuilder request = new StringBuilder();
+    for (String word : words) {
+      if (request.length() > 0) {
+        request.append(ShardServer.SEPARATOR);
+      }
+      request.append(word.replace('\t', ' ').replace('\n', ' ').replace('\r', ' '));
+    }
+    Connection connection = idle.poll();
+    if (connection == null) {
+      connection = open();
+    }
+    if (!call.begin(connection)) {
+      release(connection);
+      throw new IOException("request aborted");
+    }
+    try {
+      connection.out.write(request.append('\n').toString());
+      connection.out.flush();
+      List<String[]> videos = new ArrayList<>();
+      String line;
+      while ((line = connection.in.readLine()) != null) {
+        String[] fields = line.split(String.valueOf(ShardServer.SEPARATOR), -1);
+        if (fields[0].equals(ShardServer.VIDEO)) {
+          String[] video = new String[fields.length - 1];
+          System.arraycopy(fields, 1, video, 0, video.length);
+          videos.add(video);
+        } else if (fields[0].equals(ShardServer.OK)) {
+          finish(call, connection);
+          return new Reply(videos, fields.length > 1 ? fields[1] : null);
+        } else if (fields[0].equals(ShardServer.ERROR)) {
+          finish(call, connection);
+          throw new IllegalArgumentException(fields.length > 1 ? fields[1] : line);
+        } else {
+          throw new IOException("Unexpected answer from shard: " + line);
+        }
+      }
+      throw new IOException("Shard closed the connection");
+    } catch (IOException e) {
+      call.end();
+      connection.socket.close();
+      throw e;
+    }
+  }
+
+  /** Keeps the connection of an answered call for the next, unless the call was aborted. */
+  private void finish(Call call, Connection connection) throws IOException {
+    if (call.end()) {
+      release(connection);
+    } else {
+      connection.socket.close();
+    }
+  }
+
+  private static void closeQuietly(Connection connection) {
+    try {
+      connection.socket.close();
+    } catch (IOException e) {
+      //the reading thread fails either way
+    }
+  }
+
+  private Connection open() throws IOException {
+    Socket socket = new Socket();
+    try {
+      socket.setTcpNoDelay(true);
+      socket.connect(address, timeoutMillis);
+      socket.setSoTimeout(timeoutMillis);
+      return new Connection(socket);
+    } catch (IOException e) {
+      socket.close();
+      throw e;
+    }
+  }
+
+  private void release(Connection connection) throws IOException {
+    idle.add(connection);
+    if (closed && idle.remove(connection)) {
+      connection.socket.close();
+    }
+  }
+
+  /** Closes the idle connections; those in use are closed when their request ends. */
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    Connection connection;
+    while ((connection = idle.poll()) != null) {
+      connection.socket.close();
+    }
+  }
+}
@@ -0,0 +1,217 @@
+package com.google;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves one shard of a cluster's catalog, the videos whose id {@link CatalogShards#shardOf
+ * hashes} to it, to a {@link ClusterLibrary} coordinator. The protocol is one request per
+ * line, its words separated by tabs, answered by a line per video ({@link #VIDEO}, id, title,
+ * 1 if flagged, the flag reason, then the tags) and a status line: {@link #OK} with an
+ * optional value, or {@link #ERROR} and a message.
+ *
+ * <p>Requests: FIND id, SEARCH term, TOP k term, SUGGEST n prefix, TAGS expression and ALL
+ * list videos; COUNT and PLAYABLE count all and unflagged videos; PLAYABLE_AT i lists the
+ * i-th unflagged one; FLAG id reason and ALLOW id answer 1 if they changed the flag, 0 if not.
+ */
+final class ShardServer implements Closeable {
+
+  static final String VIDEO = "V";
+  static final String OK = "OK";
+  static final String ERROR = "ERR";
+  static final char SEPARATOR = '\t';
+
+  private final VideoLibrary library;
+  private final ServerSocketChannel serverChannel;
+  private final ExecutorService connections;
+  private final Thread acceptor;
+
+  /** Binds the server; call {@link #start()} to begin accepting coordinators. */
+  ShardServer(VideoLibrary library, InetSocketAddress address) throws IOException {
+    this.library = library;
+    this.serverChannel = ServerSocketChannel.open();
+    this.serverChannel.bind(address, 1024);
+    this.connections = CommandServer.newConnectionExecutor();
+    this.acceptor = new Thread(this::acceptLoop, "shard-server-acceptor");
+    this.acceptor.setDaemon(true);
+  }
+
+  /**
+   * Copies the lines of the catalog whose video id belongs to the given shard of count to
+   * slice, one line at a time, so a shard never holds more than its own videos. Lines without
+   * an id are left out, as the loader would skip them.
+   */
+  static void slice(Path catalog, int shard, int count, Path slice) throws IOException {
+    try (BufferedReader in = Files.newBufferedReader(catalog, StandardCharsets.UTF_8);
+        BufferedWriter out = Files.newBufferedWriter(slice, StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = in.readLine()) != null) {
+        int firstBar = line.indexOf('|');
+        if (firstBar < 0) {
+          continue;
+        }
+        int secondBar = line.indexOf('|', firstBar + 1);
+        String id = line.substring(firstBar + 1, secondBar < 0 ? line.length() : secondBar)
+            .strip();
+        if (!id.isEmpty() && CatalogShards.shardOf(id, count) == shard) {
+          out.write(line);
+          out.write('\n');
+        }
+      }
+    }
+  }
+
+  /** Starts accepting connections in the background. */
+  void start() {
+    acceptor.start();
+  }
+
+  /** Returns the port the server is bound to. */
+  int getPort() {
+    try {
+      return ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private void acceptLoop() {
+    while (serverChannel.isOpen()) {
+      try {
+        SocketChannel channel = serverChannel.accept();
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        connections.execute(() -> serve(channel));
+      } catch (ClosedChannelException e) {
+        return;
+      } catch (IOException e) {
+        //a failed accept only affects that coordinator connection
+      }
+    }
+  }
+
+  /** Answers one connection's requests until end of stream or an I/O error. */
+  private void serve(SocketChannel channel) {
+    CommandServer.ChannelSink out = new CommandServer.ChannelSink(channel);
+    CommandServer.ChannelLineReader in = new CommandServer.ChannelLineReader(channel);
+    try (channel) {
+      String line;
+      while ((line = in.readLine()) != null) {
+        try {
+          answer(line.split(String.valueOf(SEPARATOR), -1), out);
+        } catch (IllegalArgumentException e) { //malformed request or tag expression
+          out.print(ERROR + SEPARATOR + e.getMessage() + "\n");
+        }
+        out.flush();
+      }
+    } catch (IOException | UncheckedIOException e) {
+      //the coordinator went away or gave up on this request
+    }
+  }
+
+  private void answer(String[] request, OutputSink out) {
+    switch (request[0]) {
+      case "FIND":
+        print(library.getVideo(argument(request, 1)), out);
+        break;
+      case "SEARCH":
+        print(library.searchVideosByTitle(argument(request, 1)), out);
+        break;
+      case "TOP":
+        print(library.searchVideosByTitle(argument(request, 2), number(request, 1)), out);
+        break;
+      case "SUGGEST":
+        print(library.suggest(argument(request, 2), number(request, 1)), out);
+        break;
+      case "TAGS":
+        print(library.searchVideosByTags(argument(request, 1)), out);
+        break;
+      case "ALL":
+        print(library.getVideosByTitle(), out);
+        break;
+      case "COUNT":
+        out.print(OK + SEPARATOR + library.size() + "\n");
+        return;
+      case "PLAYABLE":
+        out.print(OK + SEPARATOR + library.unflaggedCount() + "\n");
+        return;
+      case "PLAYABLE_AT":
+        print(library.unflaggedVideo(number(request, 1)), out);
+        break;
+      case "FLAG":
+      case "ALLOW":
+        Video video = library.getVideo(argument(request, 1));
+        if (video == null) {
+          throw new IllegalArgumentException("Video does not exist");
+        }
+        boolean changed = request[0].equals("FLAG")
+            ? library.flagVideo(video, argument(request, 2)) : library.allowVideo(video);
+        out.print(OK + SEPARATOR + (changed ? 1 : 0) + "\n");
+        return;
+      default:
+        throw new IllegalArgumentException("Unknown request " + request[0]);
+    }
+    out.print(OK + "\n");
+  }
+
+  private static String argument(String[] request, int index) {
+    if (index >= request.length) {
+      throw new IllegalArgumentException("Missing argument " + index + " of " + request[0]);
+    }
+    return request[index];
+  }
+
+  private static int number(String[] request, int index) {
+    try {
+      return Integer.parseInt(argument(request, index));
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Not a number: " + request[index]);
+    }
+  }
+
+  private static void print(List<Video> videos, OutputSink out) {
+    for (Video video : videos) {
+      print(video, out);
+    }
+  }
+
+  /** Prints the video's line, or nothing if it is null. */
+  private static void print(Video video, OutputSink out) {
+    if (video == null) {
+      return;
+    }
+    StringBuilder line = new StringBuilder(96).append(VIDEO).append(SEPARATOR)
+        .append(video.getVideoId()).append(SEPARATOR).append(video.getTitle())
+        .append(SEPARATOR).append(video.getFlagStatus() ? 1 : 0).append(SEPARATOR)
+        .append(video.getFlagReason());
+    for (String tag : video.getTags()) {
+      line.append(SEPARATOR).append(tag);
+    }
+    out.print(line.append('\n').toString());
+  }
+
+  /** Stops accepting, closes all connections and releases the port. */
+  @Override
+  public void close() throws IOException {
+    serverChannel.close();
+    connections.shutdownNow();
+    try {
+      connections.awaitTermination(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
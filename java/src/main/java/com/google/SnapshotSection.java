@@ -0,0 +1,103 @@
+package com.google;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32C;
+
+/**
+ * One section of a {@link CatalogSnapshot}: a slice of the mapped file and the CRC32C it was
+ * written with. The indexes read from a section are views of the mapping, and the checksum is
+ * only computed when one of them is first used, so a load maps the file without reading most
+ * of it. A section found corrupt then fails every use with an {@link IllegalStateException}.
+ *
+ * <p>Numbers are big-endian and strings are an int byte length followed by UTF-8 bytes.
+ */
+final class SnapshotSection {
+
+  /** The section of indexes built in memory, which never needs checking. */
+  static final SnapshotSection NONE = new SnapshotSection("none", ByteBuffer.allocate(0), 0);
+
+  private static final int UNCHECKED = 0;
+  private static final int INTACT = 1;
+  private static final int CORRUPT = 2;
+
+  private final String name;
+  private final ByteBuffer buffer;
+  private final long checksum;
+  private volatile int state;
+
+  SnapshotSection(String name, ByteBuffer buffer, long checksum) {
+    this.name = name;
+    this.buffer = buffer;
+    this.checksum = checksum;
+    this.state = buffer.capacity() == 0 && checksum == 0 ? INTACT : UNCHECKED;
+  }
+
+  /** Returns the bytes of the section from its start, without checking them. */
+  ByteBuffer buffer() {
+    return buffer.duplicate();
+  }
+
+  /** Returns the bytes of the section from its start, checking them first. */
+  ByteBuffer checked() {
+    check();
+    return buffer();
+  }
+
+  /**
+   * Checks the section the first time it is called.
+   *
+   * @throws IllegalStateException if the section does not match its checksum
+   */
+  void check() {
+    if (state != INTACT) {
+      verify();
+    }
+  }
+
+  private synchronized void verify() {
+    if (state == UNCHECKED) {
+      CRC32C crc = new CRC32C();
+      crc.update(buffer.duplicate());
+      state = crc.getValue() == checksum ? INTACT : CORRUPT;
+    }
+    if (state == CORRUPT) {
+      throw new IllegalStateException("The " + name + " section of the catalog snapshot is "
+          + "corrupt.");
+    }
+  }
+
+  /** Returns the next length bytes of the buffer and moves past them. */
+  static ByteBuffer take(ByteBuffer buffer, int length) {
+    ByteBuffer slice = buffer.slice();
+    slice.limit(length);
+    buffer.position(buffer.position() + length);
+    return slice;
+  }
+
+  /** Returns the next count ints of the buffer and moves past them. */
+  static IntBuffer takeInts(ByteBuffer buffer, int count) {
+    return take(buffer, Math.multiplyExact(count, 4)).asIntBuffer();
+  }
+
+  /** Returns the next count longs of the buffer and moves past them. */
+  static LongBuffer takeLongs(ByteBuffer buffer, int count) {
+    return take(buffer, Math.multiplyExact(count, 8)).asLongBuffer();
+  }
+
+  static void writeString(DataOutputStream out, String value) throws IOException {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  static String readString(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.getInt()];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,11 @@
+package com.google;
+
+/** A read-only column of strings indexed by ordinal, on or off the Java heap. */
+interface StringColumn {
+
+  /** Returns the number of values. */
+  int size();
+
+  /** Returns the value at the given index. */
+  String get(int index);
+}
@@ -0,0 +1,53 @@
+package com.google;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The distinct tags of a catalog, each stored once and numbered densely in the order first
+ * seen. Videos keep the ids of their tags, so a tag shared by millions of videos costs one
+ * string and matching a tag is an int comparison. Ids can be assigned concurrently while a
+ * catalog loads in parallel.
+ */
+final class TagDictionary {
+
+  private final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<>();
+  private volatile String[] names = new String[16];
+  private int size;
+
+  /** Returns the id of the tag, assigning the next id if it is new. */
+  int idOf(String tag) {
+    Integer id = ids.get(tag);
+    if (id != null) {
+      return id;
+    }
+    return ids.computeIfAbsent(tag, this::append);
+  }
+
+  private synchronized Integer append(String tag) {
+    String[] current = names;
+    if (size == current.length) {
+      current = Arrays.copyOf(current, size * 2);
+    }
+    current[size] = tag;
+    names = current; //publishes the new name with the volatile write
+    return size++;
+  }
+
+  /** Returns the id of the tag, or -1 if it is not in the dictionary. */
+  int find(String tag) {
+    Integer id = ids.get(tag);
+    return id == null ? -1 : id;
+  }
+
+  /** Returns the tag with the given id. */
+  String nameOf(int id) {
+    return names[id];
+  }
+
+  /** Returns the number of distinct tags. */
+  int size() {
+    return ids.size();
+  }
+}
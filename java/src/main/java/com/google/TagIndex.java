@@ -0,0 +1,148 @@
+package com.google;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A map from each lowercase tag to the bitmap of ordinals of videos carrying it. Postings are
+ * collected per dictionary id, so building the index compares ints rather than strings. An
+ * index can also be the {@link #union} of the indexes of consecutive segments of a catalog,
+ * or {@link #read} from a snapshot, whose postings are then decoded on first use.
+ */
+final class TagIndex {
+
+  private final SnapshotSection section;
+  /** The postings, or null until those of a snapshot are decoded. */
+  private volatile Map<String, OrdinalBitmap> postings;
+  private final List<TagIndex> parts;
+  private final OrdinalBitmap all;
+
+  /** Builds the index over the catalog, whose tag ids refer to the given dictionary. */
+  TagIndex(CatalogStore store, TagDictionary dictionary) {
+    this(store, new SegmentOrdinals(0, store.size()), dictionary);
+  }
+
+  /**
+   * Builds the index over a segment of a catalog whose rows have the given ordinals; postings
+   * hold catalog ordinals.
+   */
+  TagIndex(CatalogStore store, SegmentOrdinals ordinals, TagDictionary dictionary) {
+    this.section = SnapshotSection.NONE;
+    IntList[] byId = new IntList[dictionary.size()];
+    for (int ordinal = 0; ordinal < store.size(); ordinal++) {
+      int member = ordinals.ordinal(ordinal);
+      for (int i = 0, tags = store.tagCount(ordinal); i < tags; i++) {
+        int tagId = store.tagId(ordinal, i);
+        IntList list = byId[tagId];
+        if (list == null) {
+          list = byId[tagId] = new IntList();
+        }
+        if (list.size() == 0 || list.last() != member) { //skip a tag repeated on one video
+          list.add(member);
+        }
+      }
+    }
+    Map<String, OrdinalBitmap> postings = new HashMap<>((int) (byId.length / 0.75f) + 1);
+    for (int tagId = 0; tagId < byId.length; tagId++) {
+      IntList list = byId[tagId];
+      if (list != null) { //tags spelled in different case share one lowercase entry
+        postings.merge(dictionary.nameOf(tagId).toLowerCase(),
+            OrdinalBitmap.of(list.values(), list.size()), OrdinalBitmap::or);
+      }
+    }
+    this.postings = postings;
+    this.parts = List.of();
+    this.all = ordinals.toBitmap();
+  }
+
+  private TagIndex(SnapshotSection section, Map<String, OrdinalBitmap> postings,
+      List<TagIndex> parts, OrdinalBitmap all) {
+    this.section = section;
+    this.postings = postings;
+    this.parts = parts;
+    this.all = all;
+  }
+
+  /**
+   * Writes the postings of an index that is not a union to a snapshot: their number, then
+   * each tag and its {@link OrdinalBitmap#write bitmap}.
+   */
+  void write(DataOutputStream out) throws IOException {
+    Map<String, OrdinalBitmap> postings = postings();
+    out.writeInt(postings.size());
+    for (Map.Entry<String, OrdinalBitmap> entry : postings.entrySet()) {
+      SnapshotSection.writeString(out, entry.getKey());
+      entry.getValue().write(out);
+    }
+  }
+
+  /**
+   * Returns an index of the postings written by {@link #write} in the section, over the given
+   * videos. The section is checked and decoded on first use.
+   */
+  static TagIndex read(SnapshotSection section, OrdinalBitmap all) {
+    return new TagIndex(section, null, List.of(), all);
+  }
+
+  private Map<String, OrdinalBitmap> postings() {
+    Map<String, OrdinalBitmap> result = postings;
+    if (result == null) {
+      synchronized (this) {
+        result = postings;
+        if (result == null) {
+          ByteBuffer buffer = section.checked();
+          int count = buffer.getInt();
+          result = new HashMap<>((int) (count / 0.75f) + 1);
+          for (int i = 0; i < count; i++) {
+            result.put(SnapshotSection.readString(buffer), OrdinalBitmap.read(buffer));
+          }
+          postings = result;
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns an index answering from the indexes of consecutive segments of one catalog, whose
+   * videos are the given all. Postings are combined per query rather than copied.
+   */
+  static TagIndex union(List<TagIndex> parts, OrdinalBitmap all) {
+    return new TagIndex(SnapshotSection.NONE, Map.of(), List.copyOf(parts), all);
+  }
+
+  /** Returns the ordinals of videos carrying the tag, ignoring case. */
+  OrdinalBitmap videosWithTag(String tag) {
+    if (parts.isEmpty()) {
+      return postings().getOrDefault(tag.toLowerCase(), OrdinalBitmap.EMPTY);
+    }
+    OrdinalBitmap result = OrdinalBitmap.EMPTY;
+    for (TagIndex part : parts) {
+      result = result.or(part.videosWithTag(tag));
+    }
+    return result;
+  }
+
+  /** Returns the ordinals of every video in the library. */
+  OrdinalBitmap allVideos() {
+    return all;
+  }
+
+  /** Returns the number of distinct tags. */
+  int tagCount() {
+    if (parts.isEmpty()) {
+      return postings().size();
+    }
+    Set<String> tags = new HashSet<>();
+    for (TagIndex part : parts) {
+      tags.addAll(part.postings().keySet());
+    }
+    return tags.size();
+  }
+}
@@ -0,0 +1,124 @@
+package com.google;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A boolean tag expression such as {@code #cat AND NOT #animal}, evaluated as bitmap
+ * operations over a {@link TagIndex}.
+ *
+ * <p>Grammar (keywords are case insensitive; terms must be joined with AND or OR, so a
+ * mistyped "#a #b" is rejected rather than read as either tag or as both):
+ * <pre>
+ *   expression := and ( OR and )*
+ *   and        := not ( AND not )*
+ *   not        := NOT not | '(' expression ')' | tag
+ * </pre>
+ */
+final class TagQuery {
+
+  private final List<String> tokens;
+  private final TagIndex index;
+  private int position;
+
+  private TagQuery(List<String> tokens, TagIndex index) {
+    this.tokens = tokens;
+    this.index = index;
+  }
+
+  /**
+   * Evaluates the expression and returns the matching ordinals.
+   *
+   * @throws IllegalArgumentException if the expression is malformed
+   */
+  static OrdinalBitmap evaluate(String expression, TagIndex index) {
+    TagQuery query = new TagQuery(tokenize(expression), index);
+    if (query.tokens.isEmpty()) {
+      throw new IllegalArgumentException("empty tag expression");
+    }
+    OrdinalBitmap result = query.expression();
+    if (query.position < query.tokens.size()) {
+      String token = query.tokens.get(query.position);
+      //only an unmatched ) or the start of another term can be left
+      throw new IllegalArgumentException(token.equals(")")
+          ? "unexpected )" : "missing AND or OR before " + token);
+    }
+    return result;
+  }
+
+  private OrdinalBitmap expression() {
+    OrdinalBitmap result = and();
+    while (accept("OR")) {
+      result = result.or(and());
+    }
+    return result;
+  }
+
+  private OrdinalBitmap and() {
+    OrdinalBitmap result = not();
+    while (accept("AND")) {
+      result = result.and(not());
+    }
+    return result;
+  }
+
+  private OrdinalBitmap not() {
+    if (position == tokens.size()) {
+      throw new IllegalArgumentException("incomplete tag expression");
+    }
+    if (accept("NOT")) {
+      return index.allVideos().andNot(not());
+    }
+    if (accept("(")) {
+      OrdinalBitmap result = expression();
+      if (!accept(")")) {
+        throw new IllegalArgumentException("missing )");
+      }
+      return result;
+    }
+    String token = tokens.get(position);
+    if (isKeyword(token)) {
+      throw new IllegalArgumentException("unexpected " + token);
+    }
+    position++;
+    return index.videosWithTag(token);
+  }
+
+  private boolean peekIs(String keyword) {
+    return tokens.get(position).equalsIgnoreCase(keyword);
+  }
+
+  private boolean accept(String keyword) {
+    if (position < tokens.size() && peekIs(keyword)) {
+      position++;
+      return true;
+    }
+    return false;
+  }
+
+  private static boolean isKeyword(String token) {
+    return token.equalsIgnoreCase("AND") || token.equalsIgnoreCase("OR")
+        || token.equalsIgnoreCase("NOT") || token.equals(")");
+  }
+
+  /** Splits the expression on whitespace, keeping parentheses as separate tokens. */
+  private static List<String> tokenize(String expression) {
+    List<String> tokens = new ArrayList<>();
+    int start = -1;
+    for (int i = 0; i <= expression.length(); i++) {
+      char c = i < expression.length() ? expression.charAt(i) : ' ';
+      if (Character.isWhitespace(c) || c == '(' || c == ')') {
+        if (start >= 0) {
+          tokens.add(expression.substring(start, i));
+          start = -1;
+        }
+        if (c == '(' || c == ')') {
+          tokens.add(String.valueOf(c));
+        }
+      } else if (start < 0) {
+        start = i;
+      }
+    }
+    return tokens;
+  }
+}
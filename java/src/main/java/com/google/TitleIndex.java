@@ -0,0 +1,341 @@
+package com.google;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An inverted index from lowercase character trigrams of video titles to sorted posting lists
+ * of video ordinals. Substring queries intersect the posting lists of the query's trigrams and
+ * only verify the surviving candidates, so their cost follows the selectivity of the query
+ * rather than the size of the catalog.
+ *
+ * <p>A sharded segment keeps postings per {@link CatalogShards shard}, each holding the
+ * ordinals of that shard only, so the shards can be searched at the same time. The postings
+ * of a shard are flat: its trigrams in ascending order, where the list of each starts in one
+ * array of all their ordinals. They are written to a snapshot as they are and read in place.
+ */
+final class TitleIndex {
+
+  private static final int[] NO_ORDINALS = new int[0];
+
+  private final SnapshotSection section;
+  private final StringColumn lowerTitles;
+  private final CatalogShards shards;
+  /** The trigrams of every shard, ascending. */
+  private final LongBuffer[] trigrams;
+  /** The start of each trigram's list in the shard's ordinals, then their end. */
+  private final IntBuffer[] starts;
+  /** The posting lists of every shard, back to back. */
+  private final IntBuffer[] ordinals;
+
+  /**
+   * Builds the index over the titles of the catalog. The lowercase titles kept for verifying
+   * matches use the same storage as the catalog.
+   */
+  TitleIndex(CatalogStore store) {
+    this(store, null);
+  }
+
+  /** Builds the index as above with postings per shard, or for all titles if shards is null. */
+  TitleIndex(CatalogStore store, CatalogShards shards) {
+    String[] lowerTitles = new String[store.size()];
+    int count = shards == null ? 1 : shards.count();
+    List<Map<Long, IntList>> building = new ArrayList<>(count);
+    for (int shard = 0; shard < count; shard++) {
+      building.add(new HashMap<>());
+    }
+    for (int ordinal = 0; ordinal < lowerTitles.length; ordinal++) {
+      String lower = store.title(ordinal).toLowerCase();
+      lowerTitles[ordinal] = lower;
+      Map<Long, IntList> shard = building.get(count == 1 ? 0 : shards.shardOf(ordinal));
+      for (int i = 0; i + 3 <= lower.length(); i++) {
+        IntList list = shard.computeIfAbsent(trigram(lower, i), key -> new IntList());
+        //ordinals arrive in increasing order, so a repeated trigram is always the last entry
+        if (list.size() == 0 || list.last() != ordinal) {
+          list.add(ordinal);
+        }
+      }
+    }
+    this.section = SnapshotSection.NONE;
+    this.lowerTitles = store.getStorage().strings(lowerTitles);
+    this.shards = shards;
+    this.trigrams = new LongBuffer[count];
+    this.starts = new IntBuffer[count];
+    this.ordinals = new IntBuffer[count];
+    for (int shard = 0; shard < count; shard++) {
+      Map<Long, IntList> lists = building.get(shard);
+      long[] keys = new long[lists.size()];
+      int i = 0;
+      int total = 0;
+      for (Map.Entry<Long, IntList> entry : lists.entrySet()) {
+        keys[i++] = entry.getKey();
+        total += entry.getValue().size();
+      }
+      Arrays.sort(keys);
+      int[] listStarts = new int[keys.length + 1];
+      int[] all = new int[total];
+      for (i = 0; i < keys.length; i++) {
+        IntList list = lists.get(keys[i]);
+        System.arraycopy(list.values(), 0, all, listStarts[i], list.size());
+        listStarts[i + 1] = listStarts[i] + list.size();
+      }
+      trigrams[shard] = LongBuffer.wrap(keys);
+      starts[shard] = IntBuffer.wrap(listStarts);
+      ordinals[shard] = IntBuffer.wrap(all);
+    }
+  }
+
+  private TitleIndex(SnapshotSection section, StringColumn lowerTitles, CatalogShards shards,
+      LongBuffer[] trigrams, IntBuffer[] starts, IntBuffer[] ordinals) {
+    this.section = section;
+    this.lowerTitles = lowerTitles;
+    this.shards = shards;
+    this.trigrams = trigrams;
+    this.starts = starts;
+    this.ordinals = ordinals;
+  }
+
+  /**
+   * Writes the index to a snapshot: the lowercase titles, see
+   * {@link CatalogStore#writeStrings}, the number of shards, then for each the number of its
+   * trigrams and of its ordinals, the trigrams, the starts and the ordinals.
+   */
+  void write(DataOutputStream out) throws IOException {
+    CatalogStore.writeStrings(out, lowerTitles.size(), lowerTitles::get);
+    out.writeInt(trigrams.length);
+    for (int shard = 0; shard < trigrams.length; shard++) {
+      out.writeInt(trigrams[shard].capacity());
+      out.writeInt(ordinals[shard].capacity());
+      for (int i = 0; i < trigrams[shard].capacity(); i++) {
+        out.writeLong(trigrams[shard].get(i));
+      }
+      for (int i = 0; i < starts[shard].capacity(); i++) {
+        out.writeInt(starts[shard].get(i));
+      }
+      for (int i = 0; i < ordinals[shard].capacity(); i++) {
+        out.writeInt(ordinals[shard].get(i));
+      }
+    }
+  }
+
+  /**
+   * Returns an index over one written by {@link #write} in the section, split into the given
+   * shards, which reads its postings in place and checks the section on first use.
+   */
+  static TitleIndex read(SnapshotSection section, CatalogShards shards) {
+    ByteBuffer buffer = section.buffer();
+    StringColumn lowerTitles = CatalogStore.readStrings(section, buffer);
+    int count = buffer.getInt();
+    if (count != shards.count()) {
+      throw new IllegalStateException("title index of " + count + " shards");
+    }
+    LongBuffer[] trigrams = new LongBuffer[count];
+    IntBuffer[] starts = new IntBuffer[count];
+    IntBuffer[] ordinals = new IntBuffer[count];
+    for (int shard = 0; shard < count; shard++) {
+      int keys = buffer.getInt();
+      int total = buffer.getInt();
+      trigrams[shard] = SnapshotSection.takeLongs(buffer, keys);
+      starts[shard] = SnapshotSection.takeInts(buffer, keys + 1);
+      ordinals[shard] = SnapshotSection.takeInts(buffer, total);
+    }
+    return new TitleIndex(section, lowerTitles, shards, trigrams, starts, ordinals);
+  }
+
+  /** Returns the position of the trigram among those of the shard, or -1 if none has it. */
+  private int find(int shard, long trigram) {
+    LongBuffer keys = trigrams[shard];
+    int low = 0;
+    int high = keys.capacity() - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      long key = keys.get(middle);
+      if (key < trigram) {
+        low = middle + 1;
+      } else if (key > trigram) {
+        high = middle - 1;
+      } else {
+        return middle;
+      }
+    }
+    return -1;
+  }
+
+  /** Returns the length of the posting list at the position among those of the shard. */
+  private int length(int shard, int position) {
+    return starts[shard].get(position + 1) - starts[shard].get(position);
+  }
+
+  /** Returns a copy of the posting list at the position among those of the shard. */
+  private int[] postings(int shard, int position) {
+    int[] list = new int[length(shard, position)];
+    IntBuffer all = ordinals[shard].duplicate();
+    all.position(starts[shard].get(position));
+    all.get(list);
+    return list;
+  }
+
+  /** Returns the number of titles indexed. */
+  int size() {
+    return lowerTitles.size();
+  }
+
+  /** Returns the lowercase title of the video with the given ordinal. */
+  String lowerTitle(int ordinal) {
+    return lowerTitles.get(ordinal);
+  }
+
+  /**
+   * Returns an upper bound on the number of titles containing the lowercase term, without
+   * verifying any: the length of its shortest posting list, summed over the shards, or every
+   * title if the term is too short to have a trigram.
+   */
+  int estimate(String term) {
+    if (term.length() < 3) {
+      return lowerTitles.size();
+    }
+    section.check();
+    int total = 0;
+    for (int shard = 0; shard < trigrams.length; shard++) {
+      int shortest = Integer.MAX_VALUE;
+      for (int i = 0; i + 3 <= term.length(); i++) {
+        int position = find(shard, trigram(term, i));
+        shortest = Math.min(shortest, position < 0 ? 0 : length(shard, position));
+      }
+      total += shortest;
+    }
+    return total;
+  }
+
+  /**
+   * Returns the ordinals, in ascending order, of all videos whose lowercase title contains the
+   * lowercase search term. The shards are searched one after the other.
+   */
+  int[] search(String searchTerm) {
+    if (trigrams.length == 1) {
+      return search(searchTerm, 0);
+    }
+    int[][] found = new int[trigrams.length][];
+    int total = 0;
+    for (int shard = 0; shard < found.length; shard++) {
+      found[shard] = search(searchTerm, shard);
+      total += found[shard].length;
+    }
+    int[] matches = new int[total];
+    int count = 0;
+    for (int[] shard : found) {
+      System.arraycopy(shard, 0, matches, count, shard.length);
+      count += shard.length;
+    }
+    Arrays.sort(matches);
+    return matches;
+  }
+
+  /**
+   * Returns the ordinals, in ascending order, of the videos of one shard whose lowercase title
+   * contains the lowercase search term.
+   */
+  int[] search(String searchTerm, int shard) {
+    String term = searchTerm.toLowerCase();
+    if (term.length() < 3) { //too short to have a trigram, verify every title
+      return verify(shards == null ? null : shards.members(shard), term);
+    }
+    section.check();
+    //repeated trigrams share one posting list, so each is looked up once
+    int[] positions = new int[term.length() - 2];
+    for (int i = 0; i < positions.length; i++) {
+      positions[i] = find(shard, trigram(term, i));
+      if (positions[i] < 0) { //a trigram no title contains
+        return NO_ORDINALS;
+      }
+    }
+    //intersect the shortest lists first so the candidate set shrinks as fast as possible
+    long[] byLength = new long[positions.length];
+    for (int i = 0; i < positions.length; i++) {
+      byLength[i] = (long) length(shard, positions[i]) << 32 | positions[i];
+    }
+    Arrays.sort(byLength);
+    int[] candidates = postings(shard, (int) byLength[0]);
+    for (int i = 1; i < byLength.length && candidates.length > 0; i++) {
+      if (byLength[i] != byLength[i - 1]) {
+        int position = (int) byLength[i];
+        candidates = intersect(candidates, ordinals[shard], starts[shard].get(position),
+            starts[shard].get(position + 1));
+      }
+    }
+    return verify(candidates, term);
+  }
+
+  /** Keeps the candidates (or all ordinals if null) whose title really contains the term. */
+  private int[] verify(int[] candidates, String term) {
+    int size = candidates == null ? lowerTitles.size() : candidates.length;
+    int[] matches = new int[size];
+    int found = 0;
+    for (int i = 0; i < size; i++) {
+      int ordinal = candidates == null ? i : candidates[i];
+      if (lowerTitles.get(ordinal).contains(term)) {
+        matches[found++] = ordinal;
+      }
+    }
+    return found == size ? matches : Arrays.copyOf(matches, found);
+  }
+
+  /**
+   * Intersects an ascending list with the ascending list at [from, end) of large, galloping
+   * through the longer one.
+   */
+  private static int[] intersect(int[] small, IntBuffer large, int from, int end) {
+    int[] result = new int[small.length];
+    int found = 0;
+    for (int value : small) {
+      int bound = 1;
+      while (from + bound < end && large.get(from + bound) < value) {
+        bound <<= 1;
+      }
+      int index = binarySearch(large, from, Math.min(from + bound + 1, end), value);
+      if (index >= 0) {
+        result[found++] = value;
+        from = index + 1;
+      } else {
+        from = -index - 1;
+      }
+      if (from >= end) {
+        break;
+      }
+    }
+    return Arrays.copyOf(result, found);
+  }
+
+  /** Searches [from, to) of the ascending values, as {@link Arrays#binarySearch} does. */
+  private static int binarySearch(IntBuffer values, int from, int to, int key) {
+    int low = from;
+    int high = to - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      int value = values.get(middle);
+      if (value < key) {
+        low = middle + 1;
+      } else if (value > key) {
+        high = middle - 1;
+      } else {
+        return middle;
+      }
+    }
+    return -(low + 1);
+  }
+
+  /** Packs the three chars starting at index into a single key. */
+  static long trigram(String text, int index) {
+    return ((long) text.charAt(index) << 32)
+        | ((long) text.charAt(index + 1) << 16)
+        | text.charAt(index + 2);
+  }
+}
@@ -0,0 +1,259 @@
+package com.google;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
+
+/**
+ * A persistent title ordering of a library: the ordinals of its videos sorted by title (ties
+ * broken by ordinal) together with the inverse rank of every ordinal. It is built once per
+ * catalog, so listings walk it directly and match sets are put in title order by sorting
+ * their integer ranks instead of comparing titles.
+ */
+final class TitleOrder {
+
+  /** Above this fraction of the catalog a match set is ordered by walking the whole order. */
+  static final int DENSE_DIVISOR = 16;
+
+  private final int[] order;
+  private final int[] rank;
+
+  /** Sorts the videos of the catalog by title. */
+  TitleOrder(CatalogStore store) {
+    //read each title once, since an off-heap store decodes a new string on every read
+    String[] titles = new String[store.size()];
+    Integer[] boxed = new Integer[titles.length];
+    for (int i = 0; i < boxed.length; i++) {
+      titles[i] = store.title(i);
+      boxed[i] = i;
+    }
+    Arrays.sort(boxed, Comparator.comparing((Integer ordinal) -> titles[ordinal])
+        .thenComparing(ordinal -> ordinal));
+    this.order = new int[boxed.length];
+    this.rank = new int[boxed.length];
+    for (int i = 0; i < boxed.length; i++) {
+      order[i] = boxed[i];
+      rank[boxed[i]] = i;
+    }
+  }
+
+  /** Restores an order previously read with {@link #ordinalAt}, such as from a snapshot. */
+  TitleOrder(int[] order) {
+    this.order = order;
+    this.rank = new int[order.length];
+    for (int i = 0; i < order.length; i++) {
+      rank[order[i]] = i;
+    }
+  }
+
+  private TitleOrder(int[] order, int[] rank) {
+    this.order = order;
+    this.rank = rank;
+  }
+
+  /** Writes the order to a snapshot: the number of videos, the order, then the ranks. */
+  void write(DataOutputStream out) throws IOException {
+    out.writeInt(order.length);
+    for (int ordinal : order) {
+      out.writeInt(ordinal);
+    }
+    for (int position : rank) {
+      out.writeInt(position);
+    }
+  }
+
+  /** Reads an order written by {@link #write} and moves past it. */
+  static TitleOrder read(ByteBuffer buffer) {
+    int size = buffer.getInt();
+    int[] order = new int[size];
+    int[] rank = new int[size];
+    SnapshotSection.takeInts(buffer, size).get(order);
+    SnapshotSection.takeInts(buffer, size).get(rank);
+    return new TitleOrder(order, rank);
+  }
+
+  /** Returns the number of videos in the order. */
+  int size() {
+    return order.length;
+  }
+
+  /** Returns the ordinal of the video at the given position in title order. */
+  int ordinalAt(int position) {
+    return order[position];
+  }
+
+  /** Returns the position of the ordinal in title order. */
+  int rankOf(int ordinal) {
+    return rank[ordinal];
+  }
+
+  /** Returns the given distinct ordinals in title order. */
+  int[] sort(int[] ordinals) {
+    if (ordinals.length > order.length / DENSE_DIVISOR) {
+      long[] members = new long[(order.length + 63) >>> 6];
+      for (int ordinal : ordinals) {
+        members[ordinal >>> 6] |= 1L << ordinal;
+      }
+      return walk(members, ordinals.length);
+    }
+    int[] sorted = new int[ordinals.length];
+    for (int i = 0; i < ordinals.length; i++) {
+      sorted[i] = rank[ordinals[i]];
+    }
+    Arrays.sort(sorted);
+    for (int i = 0; i < sorted.length; i++) {
+      sorted[i] = order[sorted[i]];
+    }
+    return sorted;
+  }
+
+  /**
+   * Returns the positions in title order of the given distinct ordinals, in ascending order.
+   * They all belong to part, the ascending positions of some of the videos, such as those of
+   * one shard, so a dense set is found by walking part rather than the whole order.
+   */
+  int[] positions(int[] ordinals, int[] part) {
+    if (ordinals.length > part.length / DENSE_DIVISOR) {
+      long[] members = new long[(order.length + 63) >>> 6];
+      for (int ordinal : ordinals) {
+        members[ordinal >>> 6] |= 1L << ordinal;
+      }
+      int[] positions = new int[ordinals.length];
+      int found = 0;
+      for (int i = 0; i < part.length && found < positions.length; i++) {
+        int ordinal = order[part[i]];
+        if ((members[ordinal >>> 6] & (1L << ordinal)) != 0) {
+          positions[found++] = part[i];
+        }
+      }
+      return positions;
+    }
+    int[] positions = new int[ordinals.length];
+    for (int i = 0; i < ordinals.length; i++) {
+      positions[i] = rank[ordinals[i]];
+    }
+    Arrays.sort(positions);
+    return positions;
+  }
+
+  /**
+   * Returns the first position whose video comes after the given title and ordinal in title
+   * order; titleOf reads the title of an ordinal. The ordinal need not be in the order.
+   */
+  int positionAfter(IntFunction<String> titleOf, String title, int ordinal) {
+    int low = 0;
+    int high = order.length;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      int compared = titleOf.apply(order[middle]).compareTo(title);
+      if (compared < 0 || (compared == 0 && order[middle] <= ordinal)) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Returns, in title order, the first limit ordinals from position from on that keep accepts.
+   * A page of a dense match set is found this way after a few times limit positions.
+   */
+  int[] walk(int from, int limit, IntPredicate keep) {
+    IntList found = new IntList();
+    for (int i = from; i < order.length && found.size() < limit; i++) {
+      if (keep.test(order[i])) {
+        found.add(order[i]);
+      }
+    }
+    return found.toArray();
+  }
+
+  /**
+   * Returns, in title order, the first limit of the distinct ordinals passed to the consumer
+   * by ordinals that are at position from or later. A page of a sparse match set is found
+   * this way: a bounded heap keeps the lowest positions, at a cost of log limit per ordinal
+   * rather than sorting them all.
+   */
+  int[] first(int from, int limit, Consumer<IntConsumer> ordinals) {
+    Lowest lowest = new Lowest(limit);
+    ordinals.accept(ordinal -> {
+      if (rank[ordinal] >= from) {
+        lowest.offer(rank[ordinal]);
+      }
+    });
+    int[] positions = Arrays.copyOf(lowest.heap, lowest.size);
+    Arrays.sort(positions);
+    for (int i = 0; i < positions.length; i++) {
+      positions[i] = order[positions[i]];
+    }
+    return positions;
+  }
+
+  /** The lowest of the positions offered, at most limit of them, in a max-heap. */
+  private static final class Lowest {
+    final int limit;
+    int[] heap;
+    int size;
+
+    Lowest(int limit) {
+      this.limit = limit;
+      this.heap = new int[Math.min(limit, 16)];
+    }
+
+    void offer(int position) {
+      if (size < limit) {
+        if (size == heap.length) {
+          heap = Arrays.copyOf(heap, (int) Math.min(limit, 2L * size));
+        }
+        int i = size++;
+        while (i > 0 && heap[(i - 1) >>> 1] < position) {
+          heap[i] = heap[(i - 1) >>> 1];
+          i = (i - 1) >>> 1;
+        }
+        heap[i] = position;
+      } else if (size > 0 && position < heap[0]) {
+        int i = 0;
+        while (true) {
+          int child = 2 * i + 1;
+          if (child >= size) {
+            break;
+          }
+          if (child + 1 < size && heap[child + 1] > heap[child]) {
+            child++;
+          }
+          if (heap[child] <= position) {
+            break;
+          }
+          heap[i] = heap[child];
+          i = child;
+        }
+        heap[i] = position;
+      }
+    }
+  }
+
+  /** Returns the ordinals of the bitmap in title order. */
+  int[] sort(OrdinalBitmap ordinals) {
+    return sort(ordinals.toArray());
+  }
+
+  /** Walks the whole order, keeping the count ordinals whose bit is set in members. */
+  private int[] walk(long[] members, int count) {
+    int[] sorted = new int[count];
+    int found = 0;
+    for (int i = 0; i < order.length && found < count; i++) {
+      int ordinal = order[i];
+      if ((members[ordinal >>> 6] & (1L << ordinal)) != 0) {
+        sorted[found++] = ordinal;
+      }
+    }
+    return sorted;
+  }
+}
@@ -0,0 +1,140 @@
+package com.google;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The words of a segment's lowercase titles, sorted, each with the places it occurs as
+ * (position in the title, ordinal) pairs packed into longs in ascending order, so the
+ * occurrences nearest the start of their titles come first. Positions are capped at
+ * {@link RankedSearch#POSITION}, past which they no longer change a score, so that equally
+ * placed occurrences stay in ordinal order. A word is a maximal run of letters and digits.
+ * Ranked searches walk these lists instead of every match of a term, and fuzzy searches find
+ * the words near a misspelled one through their trigrams.
+ */
+final class TitleWords {
+
+  private static final int[] NO_WORDS = new int[0];
+
+  private final String[] words;
+  private final long[][] postings;
+  /** Word indexes by trigram of the padded word, for fuzzy searches; built on first use. */
+  private volatile Map<Long, int[]> grams;
+
+  /** Indexes the words of every title of the index. */
+  TitleWords(TitleIndex titles) {
+    Map<String, IntList> building = new HashMap<>();
+    for (int ordinal = 0; ordinal < titles.size(); ordinal++) {
+      String title = titles.lowerTitle(ordinal);
+      int i = 0;
+      while (i < title.length()) {
+        if (!isWordChar(title.charAt(i))) {
+          i++;
+          continue;
+        }
+        int end = i + 1;
+        while (end < title.length() && isWordChar(title.charAt(end))) {
+          end++;
+        }
+        IntList list = building.computeIfAbsent(title.substring(i, end), word -> new IntList());
+        list.add(Math.min(i, RankedSearch.POSITION));
+        list.add(ordinal);
+        i = end;
+      }
+    }
+    this.words = building.keySet().toArray(new String[0]);
+    Arrays.sort(words);
+    this.postings = new long[words.length][];
+    for (int w = 0; w < words.length; w++) {
+      IntList pairs = building.get(words[w]);
+      long[] list = new long[pairs.size() / 2];
+      for (int i = 0; i < list.length; i++) {
+        list[i] = (long) pairs.get(2 * i) << 32 | pairs.get(2 * i + 1);
+      }
+      Arrays.sort(list);
+      postings[w] = list;
+    }
+  }
+
+  /** Returns whether the char belongs to a word. */
+  static boolean isWordChar(char c) {
+    return Character.isLetterOrDigit(c);
+  }
+
+  /** Returns the capped position in the title of a packed occurrence. */
+  static int positionOf(long posting) {
+    return (int) (posting >>> 32);
+  }
+
+  /** Returns the ordinal of a packed occurrence. */
+  static int ordinalOf(long posting) {
+    return (int) posting;
+  }
+
+  /** Returns the index of the word in the sorted words, or a negative number if absent. */
+  int indexOf(String word) {
+    return Arrays.binarySearch(words, word);
+  }
+
+  /** Returns the index of the first word that is at least the given text. */
+  int ceiling(String text) {
+    int index = Arrays.binarySearch(words, text);
+    return index >= 0 ? index : -index - 1;
+  }
+
+  /** Returns the number of distinct words. */
+  int size() {
+    return words.length;
+  }
+
+  String word(int index) {
+    return words[index];
+  }
+
+  /** Returns the occurrences of the index-th word, nearest the start of their titles first. */
+  long[] postings(int index) {
+    return postings[index];
+  }
+
+  /**
+   * Returns the word padded for trigrams: two '$' before and one after, so that every char
+   * starts a trigram and the first and last chars weigh as much as the others.
+   */
+  static String padded(String word) {
+    return "$$" + word + "$";
+  }
+
+  /** Returns the indexes, in ascending order, of the words whose padded form has the trigram. */
+  int[] wordsWithTrigram(long trigram) {
+    Map<Long, int[]> result = grams;
+    if (result == null) {
+      synchronized (this) {
+        result = grams;
+        if (result == null) {
+          grams = result = indexTrigrams();
+        }
+      }
+    }
+    return result.getOrDefault(trigram, NO_WORDS);
+  }
+
+  private Map<Long, int[]> indexTrigrams() {
+    Map<Long, IntList> building = new HashMap<>();
+    for (int w = 0; w < words.length; w++) {
+      String padded = padded(words[w]);
+      for (int i = 0; i + 3 <= padded.length(); i++) {
+        IntList list = building.computeIfAbsent(TitleIndex.trigram(padded, i),
+            key -> new IntList());
+        if (list.size() == 0 || list.last() != w) {
+          list.add(w);
+        }
+      }
+    }
+    Map<Long, int[]> result = new HashMap<>((int) (building.size() / 0.75f) + 1);
+    for (Map.Entry<Long, IntList> entry : building.entrySet()) {
+      result.put(entry.getKey(), entry.getValue().toArray());
+    }
+    return result;
+  }
+}
@@ -1,57 +1,94 @@
 package com.google;
 
-import java.util.Collections;
+import java.util.AbstractList;
 import java.util.List;
 
-/** A class used to represent a video. */
+/**
+ * A class used to represent a video.
+ *
+ * <p>A video is a lightweight view of one ordinal of its library's catalog columns, as of
+ * the catalog version it was taken from; every getter reads the columns, so views are cheap
+ * to create and two views of the same video are equal. A view keeps reading its row after a
+ * reload removed the video and a merge left the row out of later versions.
+ */
 class Video {
 
-  private final String title;
-  private final String videoId;
-  private final List<String> tags;
-  private boolean flagStatus;
-  private String flagReason;
+  private final VideoLibrary library;
+  private final CatalogStore store;
+  private final int ordinal;
 
-  Video(String title, String videoId, List<String> tags) {
-    this.title = title;
-    this.videoId = videoId;
-    this.tags = Collections.unmodifiableList(tags);
-    this.flagStatus = false;
-    this.flagReason = "";
+  /** Creates a view of the ordinal in the library's current catalog, which must have its row. */
+  Video(VideoLibrary library, int ordinal) {
+    this(library, library.getStore(), ordinal);
+  }
+
+  /** Creates a video that is no row of a library here, whose subclass overrides every getter. */
+  Video() {
+    this(null, null, -1);
+  }
+
+  /** Creates a view of the ordinal reading the given rows of the library's catalog. */
+  Video(VideoLibrary library, CatalogStore store, int ordinal) {
+    this.library = library;
+    this.store = store;
+    this.ordinal = ordinal;
   }
 
   /** Returns the title of the video. */
   String getTitle() {
-    return title;
+    return store.title(ordinal);
   }
 
   /** Returns the video id of the video. */
   String getVideoId() {
-    return videoId;
+    return store.videoId(ordinal);
+  }
+
+  /** Returns the dense position of the video in its library. */
+  int getOrdinal() {
+    return ordinal;
   }
 
   /** Returns boolean flag status of video  */
   boolean getFlagStatus() {
-    return this.flagStatus;
+    return library.isFlagged(ordinal);
   }
 
   /**  Returns flag reasons of video */
   String getFlagReason(){
-    return this.flagReason;
+    String reason = library.flagReason(ordinal);
+    return reason == null ? "" : reason;
   }
 
-  /** Returns a readonly collection of the tags of the video. */
+  /** Returns a readonly view of the tags of the video, resolved from the dictionary. */
   List<String> getTags() {
-    return tags;
+    TagDictionary dictionary = library.getTagDictionary();
+    return new AbstractList<>() {
+      @Override
+      public String get(int index) {
+        return dictionary.nameOf(store.tagId(ordinal, index));
+      }
+
+      @Override
+      public int size() {
+        return store.tagCount(ordinal);
+      }
+    };
+  }
+
+  /** Returns whether the video carries the tag with the given dictionary id. */
+  boolean hasTag(int tagId) {
+    return store.hasTag(ordinal, tagId);
   }
 
-  /** Sets value of flagStatus */
-  void setFlagStatus(boolean flagStatus){
-    this.flagStatus = flagStatus;
+  @Override
+  public boolean equals(Object other) {
+    return other instanceof Video
+        && ((Video) other).library == library && ((Video) other).ordinal == ordinal;
   }
 
-  /** Sets value of flagReason */
-  void setFlagReason(String flagReason){
-      this.flagReason = flagReason;
+  @Override
+  public int hashCode() {
+    return ordinal;
   }
 }
@@ -1,54 +1,702 @@
 package com.google;
 
-import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Scanner;
-import java.util.stream.Collectors;
+import java.util.function.IntFunction;
 
 /**
  * A class used to represent a Video Library.
+ *
+ * <p>The catalog and its indexes form an immutable {@link CatalogVersion}. Flag state is
+ * updated with atomic operations, so one library can be shared by any number of concurrent
+ * {@link VideoPlayer} sessions. {@link #reload} publishes a new version with a single
+ * reference swap; a command that already read the old version keeps reading it. Flags belong
+ * to ordinals, which a video keeps across versions as long as it is unchanged.
+ *
+ * <p>The catalog is split into {@link CatalogShards} by a hash of the video ids, one per
+ * processor unless configured otherwise: lookups by id read one shard, and title and tag
+ * searches fan out across the shards and merge their results in title order.
  */
-class VideoLibrary {
+class VideoLibrary implements Library {
 
-  private final HashMap<String, Video> videos;
+  private volatile CatalogVersion current;
+  private final CatalogLoader loader;
+  private final FlagColumn flags;
+  private final PlayableOrdinals playable;
+  private final CatalogLoader.Stats loadStats;
+  private volatile SearchCache searchCache = new SearchCache();
 
   VideoLibrary() {
-    this.videos = new HashMap<>();
-    try {
-      File file = new File(this.getClass().getResource("/videos.txt").getFile());
-
-      Scanner scanner = new Scanner(file);
-      while (scanner.hasNextLine()) {
-        String line = scanner.nextLine();
-        String[] split = line.split("\\|");
-        String title = split[0].strip();
-        String id = split[1].strip();
-        List<String> tags;
-        if (split.length > 2) { //if tags exist
-          tags = Arrays.stream(split[2].split(",")).map(String::strip).collect(
-              Collectors.toList());
+    this(defaultCatalog());
+  }
+
+  /** Loads the library from the catalog file at the given path. */
+  VideoLibrary(Path catalog) {
+    this(catalog, new CatalogLoader());
+  }
+
+  VideoLibrary(Path catalog, CatalogLoader loader) {
+    this(catalog, null, loader);
+  }
+
+  /**
+   * Loads the library from a binary snapshot of the catalog when one exists and matches the
+   * catalog file, and from the catalog text otherwise, writing a fresh snapshot afterwards.
+   */
+  VideoLibrary(Path catalog, Path snapshot) {
+    this(catalog, snapshot, new CatalogLoader());
+  }
+
+  VideoLibrary(Path catalog, Path snapshot, CatalogLoader loader) {
+    this(catalog, snapshot, loader, CatalogStore.Storage.HEAP);
+  }
+
+  /**
+   * Loads the library as above, keeping the catalog columns in the given storage. Snapshot may
+   * be null to always parse the catalog text.
+   */
+  VideoLibrary(Path catalog, Path snapshot, CatalogLoader loader,
+      CatalogStore.Storage storage) {
+    this(catalog, snapshot, loader, storage, CatalogShards.DEFAULT_SHARDS);
+  }
+
+  /**
+   * Loads the library as above, splitting the catalog into the given number of shards.
+   *
+   * @throws IllegalArgumentException if shards is not between 1 and
+   *     {@link CatalogShards#MAX_SHARDS}
+   */
+  VideoLibrary(Path catalog, Path snapshot, CatalogLoader loader,
+      CatalogStore.Storage storage, int shards) {
+    CatalogStore store = CatalogStore.EMPTY;
+    IdIndex idIndex = new IdIndex(0);
+    TagDictionary tagDictionary = new TagDictionary();
+    FlagColumn flags = null;
+    CatalogLoader.Stats loadStats = null;
+    CatalogSnapshot restored = null;
+    if (catalog == null) {
+      System.out.println("Couldn't find videos.txt");
+    } else {
+      try {
+        if (snapshot != null) {
+          restored = CatalogSnapshot.readIfFresh(snapshot, catalog, storage, shards);
+        }
+        if (restored != null) {
+          store = restored.getStore();
+          tagDictionary = restored.getTagDictionary();
+          flags = restored.getFlags();
+          loadStats = restored.getStats();
         } else {
-          tags = new ArrayList<>();
+          CatalogLoader.Result result = loader.load(catalog);
+          CatalogStore records = result.getRecords();
+          idIndex = new IdIndex(records.size());
+          store = deduplicate(records, idIndex, storage);
+          tagDictionary = result.getTagDictionary();
+          loadStats = result.getStats();
         }
-        this.videos.put(id, new Video(title, id, tags));
+      } catch (IOException e) {
+        System.out.println("Couldn't find videos.txt");
+        e.printStackTrace();
       }
-    } catch (FileNotFoundException e) {
-      System.out.println("Couldn't find videos.txt");
-      e.printStackTrace();
+    }
+    this.loader = loader;
+    this.flags = flags == null ? new FlagColumn(store.size()) : flags;
+    this.loadStats = loadStats;
+    this.current = restored != null ? new CatalogVersion(restored, shards)
+        : new CatalogVersion(store, idIndex, tagDictionary, new TitleOrder(store), shards);
+    this.playable = new PlayableOrdinals(store.size(), this::isPlayable);
+    if (restored == null && snapshot != null && loadStats != null) {
+      try {
+        writeSnapshot(snapshot, catalog);
+      } catch (IOException e) {
+        System.err.println("Couldn't write catalog snapshot: " + e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Assigns ordinals to the records in file order, indexing their ids. A later record with
+   * the same id replaces the earlier one and keeps its ordinal.
+   */
+  private static CatalogStore deduplicate(CatalogStore records, IdIndex idIndex,
+      CatalogStore.Storage storage) {
+    int[] source = new int[records.size()];
+    IntFunction<String> idOf = ordinal -> records.videoId(source[ordinal]);
+    int count = 0;
+    for (int record = 0; record < records.size(); record++) {
+      String videoId = records.videoId(record);
+      int ordinal = idIndex.find(videoId, idOf);
+      if (ordinal < 0) {
+        idIndex.add(videoId, count);
+        source[count++] = record;
+      } else {
+        source[ordinal] = record;
+      }
+    }
+    return records.select(source, count, storage);
+  }
+
+  /** What a {@link #reload} changed. */
+  static final class Reload {
+    private final int added;
+    private final int changed;
+    private final int removed;
+    private final long version;
+    private final long nanos;
+
+    Reload(int added, int changed, int removed, long version, long nanos) {
+      this.added = added;
+      this.changed = changed;
+      this.removed = removed;
+      this.version = version;
+      this.nanos = nanos;
+    }
+
+    /** Returns the number of videos whose id is new. */
+    int getAdded() {
+      return added;
+    }
+
+    /** Returns the number of videos whose title or tags changed. */
+    int getChanged() {
+      return changed;
+    }
+
+    /** Returns the number of videos no longer in the catalog. */
+    int getRemoved() {
+      return removed;
+    }
+
+    /** Returns the number of the catalog version after the reload. */
+    long getVersion() {
+      return version;
+    }
+
+    /** Returns the wall clock time of the reload in nanoseconds. */
+    long getNanos() {
+      return nanos;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("Reloaded catalog version %d: %d added, %d changed, %d removed"
+          + " in %.1f ms", version, added, changed, removed, nanos / 1_000_000d);
+    }
+  }
+
+  /**
+   * Reads the catalog file again and applies what changed to a new version of the catalog:
+   * new ids are appended, videos whose title or tags changed get a new ordinal (their flag
+   * moves with them) and videos no longer in the file are removed along with their flags.
+   * Unchanged videos keep their ordinals, flags and place in playlists. Reading the file and
+   * finding the diff is linear in the catalog; building and publishing the new version is
+   * proportional to the diff. Reloads are serialized, but never block flags: the new version
+   * is published first and the flags of changed videos are carried over after, see
+   * {@link #setFlag}.
+   */
+  synchronized Reload reload(Path catalog) throws IOException {
+    long start = System.nanoTime();
+    CatalogVersion old = current;
+    CatalogStore oldStore = old.getStore();
+    CatalogLoader.Result result = loader.load(catalog, old.getTagDictionary());
+    CatalogStore latest = deduplicate(result.getRecords(),
+        new IdIndex(result.getRecords().size()), CatalogStore.Storage.HEAP);
+
+    long[] kept = new long[(oldStore.size() + 63) >>> 6];
+    CatalogStore.Builder added = new CatalogStore.Builder();
+    IntList replaced = new IntList(); //old ordinal of each added row, or -1 for a new id
+    for (int record = 0; record < latest.size(); record++) {
+      int ordinal = old.find(latest.videoId(record));
+      if (ordinal >= 0 && sameVideo(oldStore, ordinal, latest, record)) {
+        kept[ordinal >>> 6] |= 1L << ordinal;
+        continue;
+      }
+      added.add(latest.title(record), latest.videoId(record));
+      for (int i = 0, tags = latest.tagCount(record); i < tags; i++) {
+        added.addTag(latest.tagId(record, i));
+      }
+      replaced.add(ordinal);
+    }
+    int changed = 0;
+    for (int i = 0; i < replaced.size(); i++) {
+      changed += replaced.get(i) >= 0 ? 1 : 0;
+    }
+    int keptCount = 0;
+    for (long word : kept) {
+      keptCount += Long.bitCount(word);
+    }
+    IntList dropped = new IntList();
+    if (old.size() == keptCount + changed) {
+      //no id went away: the videos dropped are the changed ones
+      for (int i = 0; i < replaced.size(); i++) {
+        if (replaced.get(i) >= 0) {
+          dropped.add(replaced.get(i));
+        }
+      }
+      Arrays.sort(dropped.values(), 0, dropped.size());
+    } else {
+      for (int word = 0; word < kept.length; word++) {
+        for (long free = ~kept[word]; free != 0; free &= free - 1) {
+          int ordinal = word << 6 | Long.numberOfTrailingZeros(free);
+          if (ordinal < oldStore.size() && old.isLive(ordinal)) {
+            dropped.add(ordinal);
+          }
+        }
+      }
+    }
+    if (added.size() == 0 && dropped.size() == 0) {
+      return new Reload(0, 0, 0, old.getNumber(), System.nanoTime() - start);
+    }
+
+    CatalogVersion next = old.apply(added.build(CatalogStore.Storage.HEAP), dropped.values(),
+        dropped.size());
+    int first = oldStore.size();
+    flags.ensureCapacity(next.getStore().size());
+    playable.ensureCapacity(next.getStore().size());
+    current = next;
+    //pairs with the fence in setFlag: a flag either sees this version or is carried over below
+    VarHandle.fullFence();
+    for (int i = 0; i < replaced.size(); i++) {
+      String reason = replaced.get(i) < 0 ? null : flags.reason(replaced.get(i));
+      if (reason != null) {
+        flags.flag(first + i, reason);
+      }
+    }
+    for (int i = 0; i < dropped.size(); i++) {
+      playable.update(dropped.get(i), this::isPlayable);
+    }
+    for (int ordinal = first; ordinal < next.getStore().size(); ordinal++) {
+      playable.update(ordinal, this::isPlayable);
+    }
+    return new Reload(replaced.size() - changed, changed, dropped.size() - changed,
+        next.getNumber(), System.nanoTime() - start);
+  }
+
+  /** Returns whether two rows have the same title and tags. */
+  private static boolean sameVideo(CatalogStore a, int ordinalA, CatalogStore b, int ordinalB) {
+    int tags = a.tagCount(ordinalA);
+    if (tags != b.tagCount(ordinalB) || !a.title(ordinalA).equals(b.title(ordinalB))) {
+      return false;
+    }
+    for (int i = 0; i < tags; i++) {
+      if (a.tagId(ordinalA, i) != b.tagId(ordinalB, i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Returns the path of the bundled videos.txt resource, or null if it is missing. */
+  static Path defaultCatalog() {
+    URL resource = VideoLibrary.class.getResource("/videos.txt");
+    if (resource == null) {
+      return null;
+    }
+    try {
+      return Paths.get(resource.toURI());
+    } catch (URISyntaxException e) {
+      return Paths.get(resource.getFile());
     }
   }
 
   List<Video> getVideos() {
-    return new ArrayList<>(this.videos.values());
+    CatalogVersion version = current;
+    return videosOf(version, version.liveOrdinals());
   }
   /**
    * Get a video by id. Returns null if the video is not found.
    */
-  Video getVideo(String videoId) {
-    return this.videos.get(videoId);
+  @Override
+  public Video getVideo(String videoId) {
+    CatalogVersion version = current;
+    int ordinal = version.find(videoId);
+    return ordinal < 0 ? null : new Video(this, version.getStore(), ordinal);
+  }
+
+  /** Returns the number of videos in the library. */
+  @Override
+  public int size() {
+    return current.size();
+  }
+
+  /** Returns the current version of the catalog. */
+  CatalogVersion getCatalog() {
+    return current;
+  }
+
+  /**
+   * Returns the catalog columns. They hold the rows of the videos in the library, and of
+   * videos removed by a reload until their segment of the catalog is merged.
+   */
+  CatalogStore getStore() {
+    return current.getStore();
+  }
+
+  /** Returns the dictionary of the distinct tags in the library. */
+  TagDictionary getTagDictionary() {
+    return current.getTagDictionary();
+  }
+
+  /** Returns the video with the given ordinal. */
+  Video getVideo(int ordinal) {
+    return new Video(this, ordinal);
+  }
+
+  /** Returns whether the video with the given ordinal is flagged. */
+  boolean isFlagged(int ordinal) {
+    return flags.isFlagged(ordinal);
+  }
+
+  /** Returns the flag reason of the video with the given ordinal, or null if not flagged. */
+  String flagReason(int ordinal) {
+    return flags.reason(ordinal);
+  }
+
+  /** Returns the number of videos that are not flagged. */
+  int unflaggedCount() {
+    return playable.size();
+  }
+
+  /**
+   * Returns the index-th unflagged video, in no particular order (flagging moves videos
+   * around), or null if there are not that many.
+   */
+  Video unflaggedVideo(int index) {
+    int ordinal = playable.get(index);
+    CatalogVersion version = current;
+    //a reload may have removed it since; its row may then be gone
+    return ordinal < 0 || !version.isLive(ordinal) ? null
+        : new Video(this, version.getStore(), ordinal);
+  }
+
+  /**
+   * Returns an unflagged video chosen uniformly at random, or null if every video is flagged.
+   * Takes constant time and uses the calling thread's random generator.
+   */
+  @Override
+  public Video randomUnflaggedVideo() {
+    while (true) {
+      int ordinal = playable.random();
+      CatalogVersion version = current;
+      if (ordinal < 0) {
+        return null;
+      }
+      //a video a reload just removed leaves the playable set once the reload updates it
+      if (version.isLive(ordinal)) {
+        return new Video(this, version.getStore(), ordinal);
+      }
+    }
+  }
+
+  /**
+   * A video is playable while it is in the catalog and unflagged. The flag reasons decide
+   * races, so they are read rather than the bits.
+   */
+  private boolean isPlayable(int ordinal) {
+    return flags.reason(ordinal) == null && current.isLive(ordinal);
+  }
+
+  /**
+   * Returns a read-only view of all videos in title order. The order is maintained with the
+   * catalog, so walking the view never sorts.
+   */
+  @Override
+  public List<Video> getVideosByTitle() {
+    CatalogVersion version = current;
+    return new AbstractList<>() {
+      @Override
+      public Video get(int index) {
+        return new Video(VideoLibrary.this, version.getStore(),
+            version.ordinalAtTitle(index));
+      }
+
+      @Override
+      public int size() {
+        return version.size();
+      }
+    };
+  }
+
+  /** Returns the videos with the given distinct ordinals in title order. */
+  List<Video> inTitleOrder(int[] ordinals) {
+    CatalogVersion version = current;
+    int[] sorted = version.sort(ordinals);
+    List<Video> result = new ArrayList<>(sorted.length);
+    for (int ordinal : sorted) {
+      result.add(new Video(this, version.getStore(), ordinal));
+    }
+    return result;
+  }
+
+  /**
+   * Returns the unflagged videos whose title contains the search term, ignoring case, in
+   * title order. Results are cached per catalog version and flags are applied on every call.
+   */
+  @Override
+  public List<Video> searchVideosByTitle(String searchTerm) {
+    CatalogVersion version = current;
+    return unflagged(version, titleMatches(version, searchTerm));
+  }
+
+  /**
+   * Returns at most limit unflagged videos whose title contains the search term, in title
+   * order, starting after the video with the given title and ordinal, or from the first if the
+   * title is null. Cached matches are paged with a binary search; otherwise the search resumes
+   * there and stops once the page is full, and caches nothing.
+   *
+   * @throws IllegalArgumentException if no video ever had that ordinal
+   */
+  @Override
+  public List<Video> searchVideosByTitle(String searchTerm, String afterTitle, int after,
+      int limit) {
+    CatalogVersion version = current;
+    checkAfter(version, afterTitle, after);
+    int[] cached = searchCache.peek(titleKey(searchTerm), version.getNumber());
+    return cached != null ? page(version, cached, afterTitle, after, limit)
+        : videosOf(version, version.pageTitles(searchTerm, afterTitle, after, limit,
+            ordinal -> !flags.isFlagged(ordinal)));
+  }
+
+  private int[] titleMatches(CatalogVersion version, String searchTerm) {
+    return searchCache.get(titleKey(searchTerm), version.getNumber(),
+        () -> version.searchTitlesInTitleOrder(searchTerm));
+  }
+
+  private static String titleKey(String searchTerm) {
+    return "title:" + searchTerm.toLowerCase();
+  }
+
+  /**
+   * Returns the at most k unflagged videos whose title best matches the search term, best
+   * first, as ranked by {@link RankedSearch}. Ranked results are not cached: the search stops
+   * once the best k are known, so it costs little however many titles match.
+   */
+  @Override
+  public List<Video> searchVideosByTitle(String searchTerm, int k) {
+    CatalogVersion version = current;
+    return videosOf(version,
+        version.rankTitles(searchTerm, k, ordinal -> !flags.isFlagged(ordinal)));
+  }
+
+  /**
+   * Returns the at most k unflagged videos with a title word within a few edits of the search
+   * word, nearest first, as ranked by {@link FuzzySearch}. Not cached, like ranked searches.
+   *
+   * @throws IllegalArgumentException if the search term is not a single word
+   */
+  @Override
+  public List<Video> searchVideosFuzzy(String searchTerm, int k) {
+    CatalogVersion version = current;
+    return videosOf(version,
+        version.fuzzyTitles(searchTerm, k, ordinal -> !flags.isFlagged(ordinal)));
+  }
+
+  /**
+   * Returns at most n unflagged videos whose id or title starts with the prefix, ignoring
+   * case: matches by id first, in id order, then matches by title, in title order.
+   */
+  @Override
+  public List<Video> suggest(String prefix, int n) {
+    CatalogVersion version = current;
+    return videosOf(version,
+        version.suggest(prefix, n, ordinal -> !flags.isFlagged(ordinal)));
+  }
+
+  private List<Video> videosOf(CatalogVersion version, int[] ordinals) {
+    List<Video> videos = new ArrayList<>(ordinals.length);
+    for (int ordinal : ordinals) {
+      videos.add(new Video(this, version.getStore(), ordinal));
+    }
+    return videos;
+  }
+
+  /**
+   * Returns the unflagged videos matching a tag expression, in title order. Results are
+   * cached per catalog version under the expression in lower case with single spaces, since
+   * tags and keywords ignore case; flags are applied on every call.
+   *
+   * @throws IllegalArgumentException if the expression is malformed
+   */
+  @Override
+  public List<Video> searchVideosByTags(String tagExpression) {
+    CatalogVersion version = current;
+    return unflagged(version, tagMatches(version, tagExpression));
+  }
+
+  /**
+   * Returns at most limit unflagged videos matching a tag expression, in title order,
+   * starting after the video with the given title and ordinal, or from the first if the title
+   * is null, paged like a title search.
+   *
+   * @throws IllegalArgumentException if the expression is malformed or no video ever had that
+   *     ordinal
+   */
+  @Override
+  public List<Video> searchVideosByTags(String tagExpression, String afterTitle, int after,
+      int limit) {
+    CatalogVersion version = current;
+    checkAfter(version, afterTitle, after);
+    int[] cached = searchCache.peek(tagKey(tagExpression), version.getNumber());
+    return cached != null ? page(version, cached, afterTitle, after, limit)
+        : videosOf(version, version.pageTags(tagExpression, afterTitle, after, limit,
+            ordinal -> !flags.isFlagged(ordinal)));
+  }
+
+  private int[] tagMatches(CatalogVersion version, String tagExpression) {
+    return searchCache.get(tagKey(tagExpression), version.getNumber(),
+        () -> version.sort(version.searchTags(tagExpression).toArray()));
+  }
+
+  private static String tagKey(String tagExpression) {
+    return "tags:" + String.join(" ", tagExpression.strip().toLowerCase().split("\\s+"));
+  }
+
+  private static void checkAfter(CatalogVersion version, String afterTitle, int after) {
+    if (afterTitle != null && (after < 0 || after >= version.getStore().size())) {
+      throw new IllegalArgumentException("Invalid continuation token.");
+    }
+  }
+
+  /** Returns at most limit unflagged videos of the ordinals, in title order, after one. */
+  private List<Video> page(CatalogVersion version, int[] inTitleOrder, String afterTitle,
+      int after, int limit) {
+    List<Video> videos = new ArrayList<>(Math.min(limit, inTitleOrder.length));
+    int i = afterTitle == null ? 0 : version.positionAfter(inTitleOrder, afterTitle, after);
+    for (; i < inTitleOrder.length && videos.size() < limit; i++) {
+      if (!flags.isFlagged(inTitleOrder[i])) {
+        videos.add(new Video(this, version.getStore(), inTitleOrder[i]));
+      }
+    }
+    return videos;
+  }
+
+  private List<Video> unflagged(CatalogVersion version, int[] ordinals) {
+    List<Video> videos = new ArrayList<>(ordinals.length);
+    for (int ordinal : ordinals) {
+      if (!flags.isFlagged(ordinal)) {
+        videos.add(new Video(this, version.getStore(), ordinal));
+      }
+    }
+    return videos;
+  }
+
+  /** A library in this process never has a warning. */
+  @Override
+  public String takeWarning() {
+    return null;
+  }
+
+  @Override
+  public SearchCache.Stats getSearchCacheStats() {
+    return searchCache.getStats();
+  }
+
+  /** Returns the cache of search results. */
+  SearchCache getSearchCache() {
+    return searchCache;
+  }
+
+  /** Replaces the cache of search results, e.g. with one that keeps nothing. */
+  void setSearchCache(SearchCache searchCache) {
+    this.searchCache = searchCache;
+  }
+
+  /**
+   * Returns the ordinals, in ascending order, of all videos (flagged or not) whose title
+   * contains the search term, ignoring case.
+   */
+  int[] searchTitles(String searchTerm) {
+    return current.searchTitles(searchTerm);
+  }
+
+  /**
+   * Returns the ordinals of all unflagged videos matching a tag expression such as
+   * {@code #cat} or {@code #cat AND NOT #animal}. Tags match whole tags, ignoring case.
+   *
+   * @throws IllegalArgumentException if the expression is malformed
+   */
+  OrdinalBitmap searchTags(String tagExpression) {
+    return flags.unflagged(current.searchTags(tagExpression));
+  }
+
+  /**
+   * Flags the video with the given reason and excludes it from tag searches. Safe to call
+   * from any session; returns false if the video was already flagged.
+   */
+  @Override
+  public boolean flagVideo(Video video, String reason) {
+    return setFlag(video, reason);
+  }
+
+  /** Removes the flag from the video; returns false if it was not flagged. */
+  @Override
+  public boolean allowVideo(Video video) {
+    return setFlag(video, null);
+  }
+
+  /**
+   * Flags the video with the reason, or allows it if the reason is null, without locking:
+   * the flag column decides races between sessions. A reload that published a new ordinal for
+   * the video meanwhile may have carried over the old flag before this change, so the change
+   * is then made to the new ordinal too.
+   */
+  private boolean setFlag(Video video, String reason) {
+    int ordinal = video.getOrdinal();
+    if (!(reason != null ? flags.flag(ordinal, reason) : flags.allow(ordinal))) {
+      return false;
+    }
+    playable.update(ordinal, this::isPlayable);
+    VarHandle.fullFence();
+    CatalogVersion version = current;
+    if (!version.isLive(ordinal)) {
+      int moved = version.find(video.getVideoId());
+      if (moved >= 0) {
+        if (reason != null) {
+          flags.flag(moved, reason);
+        } else {
+          flags.allow(moved);
+        }
+        playable.update(moved, this::isPlayable);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Writes a binary snapshot of the catalog, its indexes and the current flags, keyed to the
+   * catalog file it was loaded from. A catalog reloaded since is renumbered densely first,
+   * leaving out the rows of removed videos.
+   */
+  void writeSnapshot(Path snapshot, Path catalog) throws IOException {
+    CatalogVersion version = current;
+    if (version.isCompact()) {
+      version.writeSnapshot(snapshot, catalog, flags);
+      return;
+    }
+    int[] live = version.liveOrdinals();
+    FlagColumn liveFlags = new FlagColumn(live.length);
+    for (int i = 0; i < live.length; i++) {
+      String reason = flags.reason(live[i]);
+      if (reason != null) {
+        liveFlags.flag(i, reason);
+      }
+    }
+    version.compact().writeSnapshot(snapshot, catalog, liveFlags);
+  }
+
+  /**
+   * Returns the statistics (line counts, lines/sec) of the catalog load, or null if the
+   * catalog could not be read.
+   */
+  CatalogLoader.Stats getLoadStats() {
+    return loadStats;
   }
 }
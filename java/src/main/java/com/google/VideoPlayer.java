@@ -1,79 +1,187 @@
 package com.google;
 
 import java.util.*;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 
+/**
+ * One user's session: playback state, playlists and output. A player is used by one thread
+ * at a time, while the {@link Library} it reads (including flag state) can be shared by
+ * any number of players running concurrently.
+ */
 public class VideoPlayer {
   private String currentlyPlayingID;
+  private Video currentlyPlaying;
   private String pausedID;
   private HashMap<String, VideoPlaylist> playlistManager;
-  private final VideoLibrary videoLibrary;
+  private final Library videoLibrary;
+  private final CountingSink out;
+  private final PlaylistStore playlistStore;
+  private Supplier<String> answerReader = VideoPlayer::readAnswerFromStdin;
 
   public VideoPlayer() {
-    this.videoLibrary = new VideoLibrary();
+    this(new VideoLibrary());
+  }
+
+  /** Creates a player over an already loaded library. */
+  VideoPlayer(Library videoLibrary) {
+    this(videoLibrary, new ConsoleSink());
+  }
+
+  /** Creates a player over an already loaded library that writes all output to the sink. */
+  VideoPlayer(Library videoLibrary, OutputSink out) {
+    this(videoLibrary, out, null);
+  }
+
+  /**
+   * Creates a player whose playlists are restored from the store and saved to it on every
+   * change; a null store keeps playlists in memory only. Saved videos that are no longer in
+   * the library are left out.
+   */
+  VideoPlayer(Library videoLibrary, OutputSink out, PlaylistStore playlistStore) {
+    this.videoLibrary = videoLibrary;
+    this.out = new CountingSink(out);
+    this.playlistStore = playlistStore;
     this.pausedID = "";
     this.currentlyPlayingID = "";
     this.playlistManager = new HashMap<>();
+    if (playlistStore != null) {
+      for (PlaylistStore.Playlist saved : playlistStore.getPlaylists()) {
+        VideoPlaylist playlist = new VideoPlaylist(saved.getName());
+        for (String videoId : saved.getVideoIds()) {
+          Video video = videoLibrary.getVideo(videoId);
+          if (video != null) {
+            playlist.addVideo(video);
+          }
+        }
+        playlistManager.put(saved.getName().toLowerCase(), playlist);
+      }
+    }
+  }
+
+  /**
+   * Sets where answers to follow-up prompts (which search result to play) come from.
+   * The reader returns the answer line, or null when there is no answer.
+   */
+  void setAnswerReader(Supplier<String> answerReader) {
+    this.answerReader = answerReader;
+  }
+
+  /** Default answer reader: one line from the current System.in. */
+  private static String readAnswerFromStdin() {
+    Scanner scanner = new Scanner(System.in);
+    return scanner.hasNextLine() ? scanner.nextLine() : null;
+  }
+
+  /** Returns the library this player reads. */
+  Library getVideoLibrary() {
+    return videoLibrary;
+  }
+
+  /** Returns the sink all output of this player is written to. */
+  OutputSink getOutput() {
+    return out;
+  }
+
+  /** Returns the number of lines this player has printed, for measuring command output. */
+  long getOutputLines() {
+    return out.getLines();
+  }
+
+  /**
+   * Formats a video as "title (id) [#tag #tag]" without going through String.format
+   * @param video video to describe
+   * @return description used by listings, searches and SHOW_PLAYING
+   */
+  private static String describe(Video video) {
+    StringBuilder text = new StringBuilder(64).append(video.getTitle()).append(" (")
+            .append(video.getVideoId()).append(") [");
+    List<String> tags = video.getTags();
+    for(int i = 0; i < tags.size(); i++){
+        if(i > 0)
+            text.append(' ');
+        text.append(tags.get(i));
+    }
+    return text.append(']').toString();
   }
 
   /**
    * Get Video obj of currently playing video by field Id
    * @return Video object
    */
-  public Video currentlyPlayingVideo(){ return videoLibrary.getVideo(currentlyPlayingID); }
+  public Video currentlyPlayingVideo(){
+      Video video = videoLibrary.getVideo(currentlyPlayingID);
+      //a reload may have removed it since; the view taken when it started still reads its row
+      return video != null ? video : currentlyPlaying;
+  }
 
   /**
-   * sort videos by method reference getTitle
-   * @return sorted list of videos
+   * videos ordered by title, read from the library's title index
+   * @return read-only list of videos sorted by title
    */
   public List<Video> sortedVideos(){
-    //sort by title without modifying original List use method reference title as sort comparator
-     List<Video> sortedVideos = videoLibrary.getVideos().stream()
-            .sorted(Comparator.comparing(Video::getTitle)).collect(Collectors.toList());
-     return sortedVideos;
+     return videoLibrary.getVideosByTitle();
   }
 
   public void numberOfVideos() {
-    System.out.printf("%s videos in the library%n", videoLibrary.getVideos().size());
+    out.println(videoLibrary.size() + " videos in the library");
   }
 
   /** Shows all videos in video library */
   public void showAllVideos() {
     //sort by title
-    System.out.println("Here's a list of all available videos:");
+    out.println("Here's a list of all available videos:");
     //print all videos
     for(Video video : sortedVideos()){
       if(video.getFlagStatus())  //if video is flagged
-          System.out.printf("%s (%s) %s - FLAGGED (reason: %s)\n", video.getTitle(),
-                  video.getVideoId(), Arrays.toString(video.getTags().toArray())
-                  .replaceAll(",",""), video.getFlagReason());
+          out.print(describe(video) + " - FLAGGED (reason: " + video.getFlagReason() + ")\n");
       else //video was not flagged
-          System.out.printf("%s (%s) %s\n", video.getTitle(),
-                  video.getVideoId(), Arrays.toString(video.getTags().toArray())
-                  .replaceAll(",",""));
+          out.print(describe(video) + "\n");
     }
 
   }
+  /**
+   * Shows one page of all videos in title order. The title order is kept with the catalog, so
+   * a page costs its size however many videos there are.
+   */
+  public void showAllVideos(int page, int size) {
+    List<Video> videos = sortedVideos();
+    int pages = Math.max(1, (int) ((videos.size() + (long) size - 1) / size));
+    if(page > pages){
+        out.print("Cannot show page " + page + ": there are only " + pages + " pages of videos\n");
+        return;
+    }
+    out.print("Here's page " + page + " of " + pages + " of all available videos:\n");
+    int from = (int) Math.min(videos.size(), (page - 1L) * size);
+    for(Video video : videos.subList(from, (int) Math.min(videos.size(), (long) from + size))){
+      if(video.getFlagStatus())
+          out.print(describe(video) + " - FLAGGED (reason: " + video.getFlagReason() + ")\n");
+      else
+          out.print(describe(video) + "\n");
+    }
+  }
+
   /** Plays video and may reset pausedId*/
   public void playVideo(String videoId) {
     Video currentVideo = videoLibrary.getVideo(videoId);
     Video previousVideo = currentlyPlayingVideo();
 
     if(currentVideo == null){//if video doesn't exist
-        System.out.println("Cannot play video: Video does not exist");
+        out.println("Cannot play video: Video does not exist");
     }
     else if(currentVideo.getFlagStatus()){//if video is flagged
-        System.out.printf("Cannot play video: Video is currently flagged (reason: %s)",currentVideo.getFlagReason());
+        out.print("Cannot play video: Video is currently flagged (reason: " + currentVideo.getFlagReason() + ")");
     }
     //if video exists
     else{
         //if a video is currently playing, stop
         // else no video was playing
         if(currentlyPlayingID !="")
-            System.out.printf("Stopping video: %s\n",previousVideo.getTitle());
+            out.print("Stopping video: " + previousVideo.getTitle() + "\n");
         currentlyPlayingID = videoId;//remember id of video currently playing
-        System.out.printf("Playing video: %s\n", currentVideo.getTitle());
+        currentlyPlaying = currentVideo;
+        out.print("Playing video: " + currentVideo.getTitle() + "\n");
         pausedID = "";//reset paused status
 
     }
@@ -86,31 +194,23 @@ public class VideoPlayer {
   public void stopVideo() {
     Video previousVideo = currentlyPlayingVideo();
     if(currentlyPlayingID!=""){//if video playing
-      System.out.printf("Stopping video: %s\n",previousVideo.getTitle());
+      out.print("Stopping video: " + previousVideo.getTitle() + "\n");
       currentlyPlayingID = "";//reset current playing video (it's been paused)
     }
     else//if no video is playing
-      System.out.println("Cannot stop video: No video is currently playing");
+      out.println("Cannot stop video: No video is currently playing");
   }
 
   /** Plays random video */
   public void playRandomVideo() {
-    List<Video> currentList = new ArrayList<>();
-    for(Video video : videoLibrary.getVideos()){//remove all flagged videos
-        if(!video.getFlagStatus())//if video isn't flagged add video to list
-            currentList.add(video);
-    }
+    //picks among the unflagged videos only, since flagged videos are never played
+    Video video = videoLibrary.randomUnflaggedVideo();
 
     //if no available video in available
-    if(currentList.size()<=0)
-        System.out.println("No videos available");
-    else {//play video if available
-        Random rng = new Random();
-        //generate a random index in range of currentList size
-        int randomVideoIndex = rng.nextInt(currentList.size());
-        Video video = currentList.get(randomVideoIndex);
+    if(video == null)
+        out.println("No videos available");
+    else//play video if available
         playVideo(video.getVideoId());
-    }
 
   }
 
@@ -121,15 +221,15 @@ public class VideoPlayer {
 
       if(pausedID.compareTo(currentlyPlayingID)!=0){//if video id was NOT already paused
             pausedID = currentlyPlayingID;//update paused video id
-            System.out.printf("Pausing video: %s\n",previousVideo.getTitle());
+            out.print("Pausing video: " + previousVideo.getTitle() + "\n");
         }
         else if(pausedID.compareTo(currentlyPlayingID)==0){//if same video paused
-            System.out.printf("Video already paused: %s\n",previousVideo.getTitle());
+            out.print("Video already paused: " + previousVideo.getTitle() + "\n");
         }
     }
     else {
         //no video currently playing
-        System.out.println("Cannot pause video: No video is currently playing");
+        out.println("Cannot pause video: No video is currently playing");
     }
 
   }
@@ -139,15 +239,15 @@ public class VideoPlayer {
     if(currentlyPlayingID!=""){//if video is playing
         //if current video is not paused and video
         if(pausedID.compareTo(currentlyPlayingID)!=0){
-          System.out.println("Cannot continue video: Video is not paused");
+          out.println("Cannot continue video: Video is not paused");
         }
         else if(pausedID.compareTo(currentlyPlayingID)==0){//if current video paused
-          System.out.printf("Continuing video: %s", currentVideo.getTitle());
+          out.print("Continuing video: " + currentVideo.getTitle());
           pausedID = "";//reset paused status
         }
     }
     else//no video was playing
-        System.out.println("Cannot continue video: No video is currently playing");
+        out.println("Cannot continue video: No video is currently playing");
 
   }
 
@@ -155,62 +255,59 @@ public class VideoPlayer {
       Video currentVideo = currentlyPlayingVideo();
       if(currentlyPlayingID!=""){//if video is playing
           if(pausedID.compareTo(currentlyPlayingID)!=0){//if current video not paused
-              System.out.printf("Currently playing: %s (%s) %s\n", currentVideo.getTitle(), currentVideo.getVideoId(), Arrays.toString(currentVideo.getTags().toArray())
-                      .replaceAll(",",""));
+              out.print("Currently playing: " + describe(currentVideo) + "\n");
           }
           else if(pausedID.compareTo(currentlyPlayingID)==0){
-              System.out.printf("Currently playing: %s (%s) %s - PAUSED (reason: %s)\n", currentVideo.getTitle(), currentVideo.getVideoId(),
-                      Arrays.toString(currentVideo.getTags().toArray())
-                      .replaceAll(",",""),currentVideo.getFlagReason());
+              out.print("Currently playing: " + describe(currentVideo)
+                      + " - PAUSED (reason: " + currentVideo.getFlagReason() + ")\n");
           }
       }
       else//nothing playing
-          System.out.println("No video is currently playing");
+          out.println("No video is currently playing");
 
   }
 
   public void createPlaylist(String playlistName) {
 
       if(playlistManager.containsKey(playlistName.toLowerCase())){//if playlist already exists
-            System.out.println("Cannot create playlist: A playlist with the same name already exists");
+            out.println("Cannot create playlist: A playlist with the same name already exists");
       }
       else{
             //keep key lower case to avoid clone playlist names
             playlistManager.put(playlistName.toLowerCase(), new VideoPlaylist(playlistName));
-            System.out.printf("Successfully created new playlist: %s\n", playlistName);
+            if(playlistStore != null)
+                playlistStore.create(playlistName);
+            out.print("Successfully created new playlist: " + playlistName + "\n");
       }
   }
 
   public void addVideoToPlaylist(String playlistName, String videoId) {
+      //one lookup, which on a cluster is a round trip to a shard
+      Video video = videoLibrary.getVideo(videoId);
       if(!playlistManager.containsKey(playlistName.toLowerCase()) &&
-      videoLibrary.getVideo(videoId)==null)//if both playlist and video don't exist
-          System.out.printf("Cannot add video to %s: Playlist does not exist",playlistName);
+      video==null)//if both playlist and video don't exist
+          out.print("Cannot add video to " + playlistName + ": Playlist does not exist");
 
       else if(!playlistManager.containsKey(playlistName.toLowerCase()) ||
-      videoLibrary.getVideo(videoId)==null){//if either playlist or video don't exist
+      video==null){//if either playlist or video don't exist
           if(!playlistManager.containsKey(playlistName.toLowerCase()))
-            System.out.printf("Cannot add video to %s: Playlist does not exist\n",playlistName);
+            out.print("Cannot add video to " + playlistName + ": Playlist does not exist\n");
           else
-              System.out.printf("Cannot add video to %s: Video does not exist\n",playlistName);
+              out.print("Cannot add video to " + playlistName + ": Video does not exist\n");
       }
-      else if(videoLibrary.getVideo(videoId).getFlagStatus()){//if video is flagged
-          System.out.printf("Cannot add video to my_playlist: " +
-                  "Video is currently flagged (reason: %s)\n",videoLibrary.getVideo(videoId).getFlagReason());
+      else if(video.getFlagStatus()){//if video is flagged
+          out.print("Cannot add video to my_playlist: " +
+                  "Video is currently flagged (reason: " + video.getFlagReason() + ")\n");
       }
       else{
-
-          boolean videoAlreadyExists = playlistManager.get(playlistName.toLowerCase())
-                  .getVideosTitles().contains(videoLibrary.getVideo(videoId).getTitle());
-          String videoName = videoLibrary.getVideo(videoId).getTitle();
-
-          if(videoAlreadyExists){
-              System.out.printf("Cannot add video to %s: Video already added\n",playlistName);
+          //the playlist is keyed by video id, so a duplicate is detected in constant time
+          if(!playlistManager.get(playlistName.toLowerCase()).addVideo(video)){
+              out.print("Cannot add video to " + playlistName + ": Video already added\n");
           }
           else{
-              playlistManager.get(playlistName.toLowerCase()).getVideosTitles().add(videoLibrary.getVideo(videoId).getTitle());
-              //add video to playlist
-              playlistManager.get(playlistName.toLowerCase()).addVideos(videoLibrary.getVideo(videoId));
-              System.out.printf("Added video to %s: %s\n",playlistName, videoName);
+              if(playlistStore != null)
+                  playlistStore.add(playlistName, videoId);
+              out.print("Added video to " + playlistName + ": " + video.getTitle() + "\n");
           }
       }
   }
@@ -219,62 +316,102 @@ public class VideoPlayer {
       if(playlistManager.keySet().size()>0){
           //sort list of key in ascending order
           List<String> keys = playlistManager.keySet().stream().sorted().collect(Collectors.toList());
-          System.out.println("Showing all playlists:");
+          out.println("Showing all playlists:");
           for(Map.Entry<String, VideoPlaylist> value : playlistManager.entrySet())
-              System.out.println(value.getValue().getPlaylistName());
+              out.println(value.getValue().getPlaylistName());
       }
       else
-          System.out.println("No playlists exist yet");
+          out.println("No playlists exist yet");
 
   }
 
   public void showPlaylist(String playlistName) {
         if(playlistManager.containsKey(playlistName.toLowerCase())){//if playlist exists
-            List<Video> listOfVideos = playlistManager.get(playlistName.toLowerCase()).getVideos();
+            Collection<Video> listOfVideos = playlistManager.get(playlistName.toLowerCase()).getVideos();
             if(listOfVideos.size()>0){//if playlist contains videos
-                System.out.printf("Showing playlist: %s\n",playlistName);
-                for(Video video : listOfVideos){
+                out.print("Showing playlist: " + playlistName + "\n");
+                for(Video entry : listOfVideos){
+                    //look the id up again, since a reload may have changed or removed the video
+                    Video video = videoLibrary.getVideo(entry.getVideoId());
+                    if(video == null)
+                        continue;
                     if(video.getFlagStatus())//if video flagged
-                        System.out.printf("%s (%s) %s - FLAGGED (reason: %s)\n", video.getTitle(), video.getVideoId(),
-                                video.getTags().toString().replaceAll(",", ""),video.getFlagReason());
+                        out.print(describe(video) + " - FLAGGED (reason: " + video.getFlagReason() + ")\n");
                     else
-                        System.out.printf("%s (%s) %s\n",video.getTitle(), video.getVideoId(),
-                                video.getTags().toString().replaceAll(",",""));
+                        out.print(describe(video) + "\n");
                 }
             }
             else {//no video in playlist
-                System.out.printf("Showing playlist: %s\n",playlistName);
-                System.out.print("No videos here yet\n");
+                out.print("Showing playlist: " + playlistName + "\n");
+                out.print("No videos here yet\n");
             }
         }
         else
-            System.out.printf("Cannot show playlist %s: Playlist does not exist\n",playlistName);
+            out.print("Cannot show playlist " + playlistName + ": Playlist does not exist\n");
+  }
+
+  /**
+   * Shows one page of a playlist. Entries whose video a reload removed are left out before
+   * the playlist is split into pages, so every page but the last is full; that takes looking
+   * up every entry, not just those of the page.
+   */
+  public void showPlaylist(String playlistName, int page, int size) {
+        if(!playlistManager.containsKey(playlistName.toLowerCase())){
+            out.print("Cannot show playlist " + playlistName + ": Playlist does not exist\n");
+            return;
+        }
+        List<Video> videos = new ArrayList<>();
+        for(Video entry : playlistManager.get(playlistName.toLowerCase()).getVideos()){
+            //look the id up again, since a reload may have changed or removed the video
+            Video video = videoLibrary.getVideo(entry.getVideoId());
+            if(video != null)
+                videos.add(video);
+        }
+        int pages = Math.max(1, (int) ((videos.size() + (long) size - 1) / size));
+        if(page > pages){
+            out.print("Cannot show page " + page + " of playlist " + playlistName
+                    + ": there are only " + pages + " pages\n");
+            return;
+        }
+        out.print("Showing playlist: " + playlistName + " (page " + page + " of " + pages + ")\n");
+        if(videos.isEmpty()){
+            out.print("No videos here yet\n");
+            return;
+        }
+        int from = (page - 1) * size;
+        for(Video video : videos.subList(from, Math.min(videos.size(), from + size))){
+            if(video.getFlagStatus())
+                out.print(describe(video) + " - FLAGGED (reason: " + video.getFlagReason() + ")\n");
+            else
+                out.print(describe(video) + "\n");
+        }
   }
 
   public void removeFromPlaylist(String playlistName, String videoId) {
 
+      boolean exists = videoLibrary.getVideo(videoId) != null;
       if(!playlistManager.containsKey(playlistName.toLowerCase())
-      && videoLibrary.getVideo(videoId)==null)//if playlist doesn't exist
-          System.out.printf("Cannot remove video from %s: Playlist does not exist\n", playlistName);
+      && !exists)//if playlist doesn't exist
+          out.print("Cannot remove video from " + playlistName + ": Playlist does not exist\n");
 
       else if(!playlistManager.containsKey(playlistName.toLowerCase())
-      || videoLibrary.getVideo(videoId)==null){//if playlist or video don't exist
+      || !exists){//if playlist or video don't exist
           if(!playlistManager.containsKey(playlistName.toLowerCase()))
-                System.out.printf("Cannot remove video from %s: Playlist does not exist\n", playlistName);
-          else if(videoLibrary.getVideo(videoId)==null)
-               System.out.printf("Cannot remove video from %s: Video does not exist\n", playlistName);
+                out.print("Cannot remove video from " + playlistName + ": Playlist does not exist\n");
+          else if(!exists)
+               out.print("Cannot remove video from " + playlistName + ": Video does not exist\n");
       }
 
       else{
-          Video video = videoLibrary.getVideo(videoId);
           //remove video from playlist if video in playlist
-          if(playlistManager.get(playlistName.toLowerCase()).getVideosTitles().contains(video.getTitle())){
-              playlistManager.get(playlistName.toLowerCase()).getVideos().remove(video);//remove video from playlist
-              playlistManager.get(playlistName.toLowerCase()).getVideosTitles().remove(video.getTitle());
-              System.out.printf("Removed video from %s: %s\n", playlistName, video.getTitle());
+          Video video = playlistManager.get(playlistName.toLowerCase()).removeVideo(videoId);
+          if(video != null){
+              if(playlistStore != null)
+                  playlistStore.remove(playlistName, videoId);
+              out.print("Removed video from " + playlistName + ": " + video.getTitle() + "\n");
           }
           else{
-              System.out.printf("Cannot remove video from %s: Video is not in playlist\n", playlistName);
+              out.print("Cannot remove video from " + playlistName + ": Video is not in playlist\n");
           }
 
       }
@@ -283,69 +420,176 @@ public class VideoPlayer {
   public void clearPlaylist(String playlistName) {
 
       if(!playlistManager.containsKey(playlistName.toLowerCase())){//playlist doesn't exist
-          System.out.printf("Cannot clear playlist %s: Playlist does not exist\n", playlistName);
+          out.print("Cannot clear playlist " + playlistName + ": Playlist does not exist\n");
       }
       else{//playlist does exist
-          playlistManager.get(playlistName.toLowerCase()).getVideos().clear();
-          playlistManager.get(playlistName.toLowerCase()).getVideosTitles().clear();
-          System.out.printf("Successfully removed all videos from %s\n",playlistName);
+          playlistManager.get(playlistName.toLowerCase()).clear();
+          if(playlistStore != null)
+              playlistStore.clear(playlistName);
+          out.print("Successfully removed all videos from " + playlistName + "\n");
 
       }
   }
 
   public void deletePlaylist(String playlistName) {
       if(!playlistManager.containsKey(playlistName.toLowerCase())){//if playlist doesn't exist
-          System.out.printf("Cannot delete playlist %s: Playlist does not exist\n",playlistName);
+          out.print("Cannot delete playlist " + playlistName + ": Playlist does not exist\n");
       }
       else{
           playlistManager.remove(playlistName.toLowerCase());//delete entry if playlist exists
-          System.out.printf("Deleted playlist: %s\n",playlistName);
+          if(playlistStore != null)
+              playlistStore.delete(playlistName);
+          out.print("Deleted playlist: " + playlistName + "\n");
       }
   }
 
   public void searchVideos(String searchTerm) {
-      List<Video> matchingVideos = new ArrayList<>();
-      //find matching substring for each video title in videoLibrary
-      for(Video video : videoLibrary.getVideos()){
-          if(video.getTitle().toLowerCase()
-                  .contains(searchTerm.toLowerCase())){
-              if(!video.getFlagStatus())//if video is not flagged add to list
-                  matchingVideos.add(video);
-          }
-      }
+      //cached per catalog version, flagged videos already dropped
+      List<Video> matchingVideos = videoLibrary.searchVideosByTitle(searchTerm);
       //helper function handles user script interaction
       helperMetd_SearchVideoWithAndWithoutTag(matchingVideos, searchTerm);
 
   }
 
+  public void searchVideos(String searchTerm, int top) {
+      //best matches first, flagged videos already dropped
+      List<Video> matchingVideos = videoLibrary.searchVideosByTitle(searchTerm, top);
+      helperMetd_SearchVideoWithAndWithoutTag(matchingVideos, searchTerm);
+  }
+
+  /**
+   * Shows one page of the videos whose title contains the search term, in title order,
+   * starting after the video with the given title and ordinal (a null title for the first
+   * page), with a NEXT token for the page after it.
+   */
+  public void searchVideos(String searchTerm, String afterTitle, int after, int size) {
+      List<Video> matchingVideos;
+      try{
+          //one more than the page, to tell whether there is a next one
+          matchingVideos = videoLibrary.searchVideosByTitle(searchTerm, afterTitle, after,
+                  size + 1);
+      }
+      catch (IllegalArgumentException e){//continuation of another catalog
+          out.print("Cannot continue search for " + searchTerm + ": " + e.getMessage() + "\n");
+          return;
+      }
+      showPage(matchingVideos, searchTerm, Continuation.TITLE, afterTitle, size);
+  }
+
+  /** Like {@link #searchVideos(String, String, int, int)} for a tag expression. */
+  public void searchVideosWithTag(String videoTag, String afterTitle, int after, int size) {
+      List<Video> matchingVideos;
+      try{
+          matchingVideos = videoLibrary.searchVideosByTags(videoTag, afterTitle, after, size + 1);
+      }
+      catch (IllegalArgumentException e){//malformed tag expression or continuation
+          out.print("Cannot search videos with tag " + videoTag + ": " + e.getMessage() + "\n");
+          return;
+      }
+      showPage(matchingVideos, videoTag, Continuation.TAGS, afterTitle, size);
+  }
+
+  /** Shows the page of a search that a token from {@link #searchVideos} left off at. */
+  public void next(String token) {
+      Continuation continuation;
+      try{
+          continuation = Continuation.decode(token);
+      }
+      catch (IllegalArgumentException e){
+          out.print("Cannot show more results: " + e.getMessage() + "\n");
+          return;
+      }
+      if(continuation.getKind() == Continuation.TITLE)
+          searchVideos(continuation.getQuery(), continuation.getAfterTitle(),
+                  continuation.getAfter(), continuation.getSize());
+      else
+          searchVideosWithTag(continuation.getQuery(), continuation.getAfterTitle(),
+                  continuation.getAfter(), continuation.getSize());
+  }
+
+  /** Shows the first size of the videos, with a NEXT token if there are more. */
+  private void showPage(List<Video> matchingVideos, String searchTerm, int kind,
+          String afterTitle, int size) {
+      if(afterTitle != null && matchingVideos.isEmpty()){
+          out.print("No more results for " + searchTerm + "\n");
+          return;
+      }
+      String more = null;
+      if(matchingVideos.size() > size){
+          matchingVideos = matchingVideos.subList(0, size);
+          Video last = matchingVideos.get(size - 1);
+          more = "For more results, enter: NEXT " + new Continuation(kind, searchTerm,
+                  last.getTitle(), last.getOrdinal(), size).encode();
+      }
+      helperMetd_SearchVideoWithAndWithoutTag(matchingVideos, searchTerm, more);
+  }
+
+  public void searchVideosFuzzy(String searchTerm, int top) {
+      List<Video> matchingVideos;
+      try{
+          //nearest matches first, flagged videos already dropped
+          matchingVideos = videoLibrary.searchVideosFuzzy(searchTerm, top);
+      }
+      catch (IllegalArgumentException e){//not a single word
+          out.print("Cannot search videos similar to " + searchTerm + ": " + e.getMessage() + "\n");
+          return;
+      }
+      helperMetd_SearchVideoWithAndWithoutTag(matchingVideos, searchTerm);
+  }
+
+  public void suggest(String prefix, int top) {
+      //ids first, so a partly typed id completes to itself
+      List<Video> suggestions = videoLibrary.suggest(prefix, top);
+      if(suggestions.isEmpty()){
+          out.print("No suggestions for " + prefix + "\n");
+          return;
+      }
+      out.print("Here are the suggestions for " + prefix + ":\n");
+      int i = 1;
+      for(Video vid : suggestions){
+          out.print(i + ") " + describe(vid) + "\n");
+          i++;
+      }
+  }
+
     /**
      * helper method for user script interraction for both
      * searchVideos and searchVideosWithTag methods
-     * @param matchingVideos list of videos matching search term
+     * @param matchingVideos list of videos matching search term, already in display order
      * @param searchTerm String search term or search term with tag
      */
   public void helperMetd_SearchVideoWithAndWithoutTag (List<Video> matchingVideos, String searchTerm){
-      matchingVideos.sort(Comparator.comparing(Video::getTitle));//sort original list (ascending order)
+      helperMetd_SearchVideoWithAndWithoutTag(matchingVideos, searchTerm, null);
+  }
+
+    /**
+     * as above, printing the line telling how to see more results, if any, after the list
+     */
+  private void helperMetd_SearchVideoWithAndWithoutTag (List<Video> matchingVideos, String searchTerm,
+          String more){
       if(matchingVideos.size()<=0)//search term not found
-          System.out.printf("No search results for %s\n",searchTerm);
+          out.print("No search results for " + searchTerm + "\n");
 
       else{//search term found
-          System.out.printf("Here are the results for %s:\n",searchTerm);
+          out.print("Here are the results for " + searchTerm + ":\n");
           int i = 1;
           for(Video vid : matchingVideos){
-              System.out.printf("%d) %s (%s) %s\n",i,vid.getTitle(),vid.getVideoId(), vid.getTags().toString().replaceAll(",",""));
+              out.print(i + ") " + describe(vid) + "\n");
               i++;
           }
+          if(more != null)
+              out.println(more);
 
-          System.out.println("Would you like to play any of the above? If yes, specify the number of the video.");
-          Scanner scanner = new Scanner(System.in);
-          System.out.println("If your answer is not a valid number, we will assume it's a no.");
+          out.println("Would you like to play any of the above? If yes, specify the number of the video.");
+          out.println("If your answer is not a valid number, we will assume it's a no.");
+          String answer = answerReader.get();
           try{
-              int index = scanner.nextInt();//get index of video user wants to watch
-              if(index < matchingVideos.size())//if user input is in range of list of videos
+              //get index of video user wants to watch, no answer counts as a no
+              int index = answer == null ? 0 : Integer.parseInt(answer.trim());
+              if(index >= 1 && index <= matchingVideos.size())//if user input is in range of list of videos
                   playVideo(matchingVideos.get((index-1)).getVideoId());//play desired video
           }
-          catch (Exception e){//user did not enter integer
+          catch (NumberFormatException e){//user did not enter integer
           }
 
       }
@@ -353,71 +597,84 @@ public class VideoPlayer {
 
 
   public void searchVideosWithTag(String videoTag) {
-      List<Video> matchingVideos = new ArrayList<>();
-
-      //find matching substring for each video title in videoLibrary
-      for(Video video : videoLibrary.getVideos()){
-          if(video.getTags().toString().toLowerCase()
-                  .contains(videoTag.toLowerCase())){
-              if(!video.getFlagStatus())//if video is not flagged add to list
-                  matchingVideos.add(video);
-          }
+      List<Video> matchingVideos;
+      try{
+          //cached per catalog version, flagged videos already dropped
+          matchingVideos = videoLibrary.searchVideosByTags(videoTag);
+      }
+      catch (IllegalArgumentException e){//malformed tag expression
+          out.print("Cannot search videos with tag " + videoTag + ": " + e.getMessage() + "\n");
+          return;
       }
       //helper function handles user script interaction
       helperMetd_SearchVideoWithAndWithoutTag(matchingVideos, videoTag);
   }
 
+
   public void flagVideo(String videoId) {
       String flagReason = "Not supplied";//default flag reason
-      if(videoLibrary.getVideo(videoId)==null)//if video does not exist
-          System.out.println("Cannot flag video: Video does not exist");
-
-      else if(videoLibrary.getVideo(videoId).getFlagStatus())//if already flagged
-          System.out.println("Cannot flag video: Video is already flagged");
+      Video video = videoLibrary.getVideo(videoId);
+      if(video==null)//if video does not exist
+          out.println("Cannot flag video: Video does not exist");
 
       else{
-          //flag video
-          Video video = videoLibrary.getVideo(videoId);
-          video.setFlagReason(flagReason);
-          video.setFlagStatus(true);
-          System.out.printf("Successfully flagged video: %s (reason: %s)\n", video.getTitle(),flagReason);
+          try{
+              //flag atomically, another session may flag the same video concurrently
+              if(!videoLibrary.flagVideo(video, flagReason))//if already flagged
+                  out.println("Cannot flag video: Video is already flagged");
+              else
+                  out.print("Successfully flagged video: " + video.getTitle() + " (reason: " + flagReason + ")\n");
+          }
+          catch (IllegalStateException e){//e.g. the video's shard did not answer
+              out.println("Cannot flag video: " + e.getMessage());
+          }
       }
   }
 
   public void flagVideo(String videoId, String reason) {
-      if(videoLibrary.getVideo(videoId)==null)//if video does not exist
-          System.out.println("Cannot flag video: Video does not exist");
-
-      else if(videoLibrary.getVideo(videoId).getFlagStatus())//if already flagged
-          System.out.println("Cannot flag video: Video is already flagged");
+      Video video = videoLibrary.getVideo(videoId);
+      if(video==null)//if video does not exist
+          out.println("Cannot flag video: Video does not exist");
 
-      else{//if video isn't flagged and exits
-          //flag video
-          Video video = videoLibrary.getVideo(videoId);
-          video.setFlagReason(reason);
-          video.setFlagStatus(true);
-          if(videoId.compareTo(currentlyPlayingID)==0){//if flagged video is same as currently playing
-              currentlyPlayingID = "";
-              System.out.printf("Stopping video: %s\n",video.getTitle());
+      else{
+          boolean flagged;
+          try{
+              //flag atomically, another session may flag the same video concurrently
+              flagged = videoLibrary.flagVideo(video, reason);
+          }
+          catch (IllegalStateException e){//e.g. the video's shard did not answer
+              out.println("Cannot flag video: " + e.getMessage());
+              return;
+          }
+          if(!flagged)//if already flagged
+              out.println("Cannot flag video: Video is already flagged");
+
+          else{//if video wasn't flagged and exists
+              if(videoId.compareTo(currentlyPlayingID)==0){//if flagged video is same as currently playing
+                  currentlyPlayingID = "";
+                  out.print("Stopping video: " + video.getTitle() + "\n");
+              }
+              out.print("Successfully flagged video: " + video.getTitle() + " (reason: " + reason + ")\n");
           }
-          System.out.printf("Successfully flagged video: %s (reason: %s)\n", video.getTitle(),reason);
-
       }
   }
 
   public void allowVideo(String videoId) {
       Video video = videoLibrary.getVideo(videoId);
       if(video==null)//if video does not exist
-          System.out.println("Cannot remove flag from video: Video does not exist");
+          out.println("Cannot remove flag from video: Video does not exist");
 
-      else if(!video.getFlagStatus())
-          System.out.printf("Cannot remove flag from video: Video is not flagged");
       else{
-          //remove video flag
-          video.setFlagReason("");
-          video.setFlagStatus(false);
-          System.out.printf("Successfully removed flag from video: %s\n",video.getTitle());
+          try{
+              if(!videoLibrary.allowVideo(video))//remove video flag if it is flagged
+                  out.print("Cannot remove flag from video: Video is not flagged");
+              else
+                  out.print("Successfully removed flag from video: " + video.getTitle() + "\n");
+          }
+          catch (IllegalStateException e){//e.g. the video's shard did not answer
+              out.println("Cannot remove flag from video: " + e.getMessage());
+          }
       }
 
   }
-}
\ No newline at end of file
+}
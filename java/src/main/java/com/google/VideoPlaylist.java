@@ -1,38 +1,60 @@
 package com.google;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
-/** A class used to represent a Playlist */
+/**
+ * A class used to represent a Playlist.
+ *
+ * <p>Videos are kept in an insertion-ordered map keyed by video id, so membership checks,
+ * adds and removes take constant time and the playlist still shows in the order videos were
+ * added.
+ */
 class VideoPlaylist {
-    private String playlistName;
-    private List<Video> videoContentList;
-    private List<String> videoTitle;
+    private final String playlistName;
+    private final Map<String, Video> videos = new LinkedHashMap<>();
 
 
     public VideoPlaylist(String playlistName) {
         this.playlistName = playlistName;
-        this.videoContentList = new ArrayList<>();
-        this.videoTitle = new ArrayList<>();
     }
 
     /**
-     * Adds video to playlist
-     * @param video
+     * Adds video to the end of the playlist
+     * @param video video to add
+     * @return false if a video with the same id is already in the playlist
      */
-    public void addVideos(Video video) {
-        this.videoContentList.add(video);
+    public boolean addVideo(Video video) {
+        return this.videos.putIfAbsent(video.getVideoId(), video) == null;
     }
-    /** Gets list of video objects */
-    public List<Video> getVideos(){
-        return this.videoContentList;
+
+    /**
+     * Removes video from playlist
+     * @param videoId id of the video to remove
+     * @return the removed video, or null if it was not in the playlist
+     */
+    public Video removeVideo(String videoId) {
+        return this.videos.remove(videoId);
+    }
+
+    /** Returns whether a video with the given id is in the playlist */
+    public boolean containsVideo(String videoId) {
+        return this.videos.containsKey(videoId);
+    }
+
+    /** Removes all videos from the playlist */
+    public void clear() {
+        this.videos.clear();
+    }
+
+    /** Gets a read-only view of the videos in the order they were added */
+    public Collection<Video> getVideos(){
+        return Collections.unmodifiableCollection(this.videos.values());
     }
     /** Gets playlist name  */
     public String getPlaylistName() {
         return playlistName;
     }
-    /** Gets list of video title names */
-    public List<String> getVideosTitles() {
-        return videoTitle;
-    }
 }
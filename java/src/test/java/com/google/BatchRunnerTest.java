@@ -0,0 +1,51 @@
+package com.google;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.not;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import org.junit.jupiter.api.Test;
+
+public class BatchRunnerTest extends TestBase {
+
+  private static BufferedReader script(String... lines) {
+    return new BufferedReader(new StringReader(String.join("\n", lines)));
+  }
+
+  @Test
+  public void testBatchAnswersPromptsFromScript() throws IOException {
+    var summary = new BatchRunner(videoPlayer, true).run(script(
+        "SEARCH_VIDEOS cat",
+        "2",
+        "",
+        "SHOW_PLAYING",
+        "EXIT",
+        "PLAY funny_dogs_video_id"));
+
+    var lines = getOutputLines();
+    assertEquals(7, lines.length, outputStream.toString());
+    assertThat(lines[5], containsString("Playing video: Another Cat Video"));
+    assertThat(lines[6], containsString("Currently playing: Another Cat Video"));
+    assertThat(outputStream.toString(), not(containsString("Funny Dogs")));
+    assertEquals(2, summary.getCommands());
+    assertEquals(1, summary.getAnswers());
+  }
+
+  @Test
+  public void testBatchSkipsPromptsWhenNotAnswering() throws IOException {
+    var summary = new BatchRunner(videoPlayer, false).run(script(
+        "SEARCH_VIDEOS_WITH_TAG #cat",
+        "PLAY funny_dogs_video_id"));
+
+    var lines = getOutputLines();
+    assertEquals(6, lines.length, outputStream.toString());
+    assertThat(lines[5], containsString("Playing video: Funny Dogs"));
+    assertEquals(2, summary.getCommands());
+    assertEquals(0, summary.getAnswers());
+    assertThat(summary.toString(), containsString("Executed 2 commands"));
+  }
+}
@@ -0,0 +1,41 @@
+package com.google;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class CatalogWatcherTest {
+
+  @Test
+  public void testReloadsWhenCatalogIsReplaced(@TempDir Path dir) throws Exception {
+    Path catalog = dir.resolve("videos.txt");
+    Files.writeString(catalog, "Funny Dogs | funny_dogs_video_id |  #dog , #animal\n");
+    var library = new VideoLibrary(catalog);
+
+    try (var watcher = new CatalogWatcher(library, catalog)) {
+      Path next = dir.resolve("videos.txt.new");
+      Files.writeString(next, "Funny Dogs | funny_dogs_video_id |  #dog , #animal\n"
+          + "Amazing Cats | amazing_cats_video_id |  #cat , #animal\n");
+      Files.move(next, catalog, StandardCopyOption.ATOMIC_MOVE,
+          StandardCopyOption.REPLACE_EXISTING);
+      awaitVersion(library, 2);
+    }
+    assertEquals(2, library.size());
+    assertNotNull(library.getVideo("amazing_cats_video_id"));
+  }
+
+  private static void awaitVersion(VideoLibrary library, long version)
+      throws InterruptedException, IOException {
+    long deadline = System.nanoTime() + 30_000_000_000L;
+    while (library.getCatalog().getNumber() < version && System.nanoTime() < deadline) {
+      Thread.sleep(20);
+    }
+    assertEquals(version, library.getCatalog().getNumber());
+  }
+}
@@ -0,0 +1,208 @@
+package com.google;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ClusterTest {
+
+  private static final String[] WORDS = {"Funny", "Cats", "Dogs", "Cooking", "Google", "Life"};
+
+  @TempDir
+  Path directory;
+
+  private Path catalog;
+  private LocalCluster cluster;
+  private ClusterLibrary coordinator;
+
+  @BeforeEach
+  public void setUp() throws IOException {
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 3000; i++) {
+      text.append(WORDS[i % WORDS.length]).append(' ').append(WORDS[i * 7 % 11 % WORDS.length])
+          .append(' ').append(i).append(" | video_").append(i).append(" | #tag").append(i % 3)
+          .append(i % 5 == 0 ? ", #cats" : "").append('\n');
+    }
+    catalog = directory.resolve("videos.txt");
+    Files.writeString(catalog, text);
+    cluster = LocalCluster.start(catalog, 3, directory);
+    coordinator = cluster.connect(2000);
+  }
+
+  @AfterEach
+  public void tearDown() throws IOException {
+    coordinator.close();
+    cluster.close();
+  }
+
+  private static List<String> idsOf(List<Video> videos) {
+    return videos.stream().map(Video::getVideoId).collect(Collectors.toList());
+  }
+
+  private static List<Integer> scoresOf(List<Video> videos, String term) {
+    return videos.stream().map(video -> RankedSearch.score(video.getTitle().toLowerCase(), term,
+        video.getTags().contains("#" + term))).collect(Collectors.toList());
+  }
+
+  @Test
+  public void testCoordinatorAnswersLikeOneLibrary() {
+    VideoLibrary whole = new VideoLibrary(catalog);
+    assertEquals(whole.size(), coordinator.size());
+    assertEquals(idsOf(whole.getVideosByTitle()), idsOf(coordinator.getVideosByTitle()));
+    for (String term : new String[] {"cats", "g 1", "12", "zebra"}) {
+      assertEquals(idsOf(whole.searchVideosByTitle(term)),
+          idsOf(coordinator.searchVideosByTitle(term)), term);
+      assertEquals(scoresOf(whole.searchVideosByTitle(term, 7), term),
+          scoresOf(coordinator.searchVideosByTitle(term, 7), term), term);
+      assertEquals(idsOf(whole.suggest(term, 5)), idsOf(coordinator.suggest(term, 5)), term);
+    }
+    assertEquals(idsOf(whole.suggest("video_12", 10)),
+        idsOf(coordinator.suggest("video_12", 10)));
+    assertEquals(idsOf(whole.searchVideosByTags("#cats AND NOT #tag1")),
+        idsOf(coordinator.searchVideosByTags("#cats AND NOT #tag1")));
+    assertThrows(IllegalArgumentException.class, () -> coordinator.searchVideosByTags("#a AND"));
+    assertEquals("Cats Cats 1", coordinator.getVideo("video_1").getTitle());
+    assertEquals(List.of("#tag2", "#cats"), coordinator.getVideo("video_5").getTags());
+    assertNull(coordinator.getVideo("video_3000"));
+    assertNull(coordinator.takeWarning());
+  }
+
+  @Test
+  public void testRemoteVideosAnswerTagsAndUnflaggedPositions() {
+    Video cats = coordinator.getVideo("video_5");
+    TagDictionary tags = coordinator.getTagDictionary();
+    assertTrue(cats.hasTag(tags.find("#cats")));
+    coordinator.getVideo("video_0");
+    assertFalse(cats.hasTag(tags.find("#tag0")));
+    assertFalse(cats.hasTag(-1));
+
+    int count = coordinator.unflaggedCount();
+    assertEquals(3000, count);
+    assertNotEquals(coordinator.unflaggedVideo(0), coordinator.unflaggedVideo(count - 1));
+    assertNull(coordinator.unflaggedVideo(count));
+    coordinator.flagVideo(coordinator.unflaggedVideo(0), "spam");
+    assertEquals(count - 1, coordinator.unflaggedCount());
+    assertNull(coordinator.unflaggedVideo(count - 1));
+  }
+
+  private static List<String> run(Library library, String... commands) {
+    CaptureSink output = new CaptureSink();
+    VideoPlayer player = new VideoPlayer(library, output);
+    player.setAnswerReader(() -> null);
+    CommandParser parser = new CommandParser(player, null);
+    for (String command : commands) {
+      parser.executeCommandLine(command);
+    }
+    return List.of(output.getLines());
+  }
+
+  @Test
+  public void testCommandsRunAgainstTheCluster() {
+    String[] commands = {"NUMBER_OF_VIDEOS", "FLAG_VIDEO video_10 spam", "FLAG_VIDEO video_10",
+        "FLAG_VIDEO video_3000", "SEARCH_VIDEOS 180", "SEARCH_VIDEOS_WITH_TAG #cats AND #tag2",
+        "SEARCH_VIDEOS 2999 TOP 3", "SUGGEST video_29", "PLAY video_7", "PLAY video_10",
+        "SHOW_PLAYING", "ALLOW_VIDEO video_10", "ALLOW_VIDEO video_10", "PLAY video_10"};
+    assertEquals(run(new VideoLibrary(catalog), commands), run(coordinator, commands));
+    assertEquals("Successfully flagged video: Google Google 10 (reason: spam)",
+        run(coordinator, "FLAG_VIDEO video_10 spam").get(0));
+    assertEquals(List.of("Cannot search videos similar to cats: "
+        + "Not supported by a cluster of shards."), run(coordinator, "SEARCH_VIDEOS_FUZZY cats"));
+    assertFalse(String.join("\n", run(coordinator, "METRICS")).contains("Search cache"));
+  }
+
+  @Test
+  public void testShardsThatDoNotAnswerAreReported() throws IOException {
+    //accepts connections but never answers them
+    try (ServerSocket silent = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        ServerSocket closed = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+      InetSocketAddress down = new InetSocketAddress(InetAddress.getLoopbackAddress(),
+          closed.getLocalPort());
+      closed.close();
+      List<InetSocketAddress> shards = new ArrayList<>(cluster.getAddresses());
+      shards.set(2, new InetSocketAddress(InetAddress.getLoopbackAddress(),
+          silent.getLocalPort()));
+      try (ClusterLibrary partial = new ClusterLibrary(shards, 200)) {
+        CaptureSink output = new CaptureSink();
+        VideoPlayer player = new VideoPlayer(partial, output);
+        player.setAnswerReader(() -> null);
+        long start = System.nanoTime();
+        new CommandParser(player, null).executeCommandLine("SEARCH_VIDEOS 1");
+        assertTrue(System.nanoTime() - start < 2_000_000_000L);
+        List<String> lines = List.of(output.getLines());
+        assertEquals("Here are the results for 1:", lines.get(0));
+        assertEquals("Results are partial, shards did not answer:", lines.get(lines.size() - 2));
+        assertTrue(lines.get(lines.size() - 1).startsWith("  shard 2 "), lines.toString());
+        //every match on the other shards is listed, and the warning is shown once
+        VideoLibrary whole = new VideoLibrary(catalog);
+        assertEquals(whole.searchVideosByTitle("1").size(),
+            lines.size() - 5 + countOnShard(whole.searchVideosByTitle("1"), 2));
+        assertNull(partial.takeWarning());
+      }
+      shards.set(2, down);
+      try (ClusterLibrary partial = new ClusterLibrary(shards, 200)) {
+        assertEquals(3000 - countOnShard(new VideoLibrary(catalog).getVideos(), 2),
+            partial.size());
+        assertTrue(partial.takeWarning().contains("shard 2"));
+        String onShard = "video_0";
+        for (int i = 1; CatalogShards.shardOf(onShard, 3) != 2; i++) {
+          onShard = "video_" + i;
+        }
+        String id = onShard;
+        Video video = new VideoLibrary(catalog).getVideo(id);
+        IllegalStateException failure = assertThrows(IllegalStateException.class,
+            () -> partial.flagVideo(video, "spam"));
+        assertTrue(failure.getMessage().contains("shard 2"), failure.getMessage());
+      }
+    }
+  }
+
+  @Test
+  public void testAbortedCallStopsWaitingForTheShard() throws Exception {
+    //accepts connections but never answers them
+    try (ServerSocket silent = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        ShardClient client = new ShardClient(new InetSocketAddress(
+            InetAddress.getLoopbackAddress(), silent.getLocalPort()), 60_000)) {
+      ShardClient.Call call = client.prepare("COUNT");
+      ExecutorService pool = Executors.newSingleThreadExecutor();
+      try {
+        Future<ShardClient.Reply> answer = pool.submit(call);
+        Thread.sleep(100);
+        long start = System.nanoTime();
+        call.abort();
+        ExecutionException failure = assertThrows(ExecutionException.class,
+            () -> answer.get(10, TimeUnit.SECONDS));
+        assertTrue(failure.getCause() instanceof IOException, failure.toString());
+        assertTrue(System.nanoTime() - start < 5_000_000_000L);
+      } finally {
+        pool.shutdownNow();
+      }
+    }
+  }
+
+  private static int countOnShard(List<Video> videos, int shard) {
+    return (int) videos.stream()
+        .filter(video -> CatalogShards.shardOf(video.getVideoId(), 3) == shard).count();
+  }
+}
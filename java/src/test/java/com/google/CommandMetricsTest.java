@@ -0,0 +1,106 @@
+package com.google;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import org.junit.jupiter.api.Test;
+
+public class CommandMetricsTest {
+
+  private final CaptureSink output = new CaptureSink();
+  private final CommandMetrics metrics = new CommandMetrics();
+  private final CommandParser parser;
+
+  public CommandMetricsTest() {
+    VideoPlayer player = new VideoPlayer(new VideoLibrary(), output);
+    player.setAnswerReader(() -> null);
+    parser = new CommandParser(player, metrics);
+  }
+
+  @Test
+  public void testHistogramPercentilesWithinBucketPrecision() {
+    Histogram histogram = new Histogram();
+    for (long value = 1; value <= 100_000; value++) {
+      histogram.record(value * 1_000);
+    }
+    assertEquals(100_000, histogram.count());
+    assertEquals(100_000_000, histogram.max(), 100_000_000 / 32);
+    assertEquals(50_000_500, histogram.mean(), 50_000_500 / 32);
+    for (double percentile : new double[] {50, 90, 99, 99.9}) {
+      double exact = percentile * 1_000_000;
+      double reported = histogram.percentile(percentile);
+      assertEquals(exact, reported, exact / 32, "p" + percentile);
+    }
+    assertEquals(histogram.max(), histogram.percentile(100));
+    assertEquals(0, new Histogram().percentile(99));
+  }
+
+  @Test
+  public void testHistogramBucketsCoverEveryValue() {
+    for (long value : new long[] {0, 1, 31, 32, 33, 63, 64, 1_000_003, Long.MAX_VALUE}) {
+      int bucket = Histogram.bucketOf(value);
+      assertThat(value, lessThanOrEqualTo(Histogram.highestValueOf(bucket)));
+      if (bucket > 0) {
+        assertThat(value, greaterThan(Histogram.highestValueOf(bucket - 1)));
+      }
+    }
+  }
+
+  @Test
+  public void testParserRecordsCallsErrorsAndOutputLines() {
+    parser.executeCommandLine("SEARCH_VIDEOS cat");
+    parser.executeCommandLine("search_videos dog");
+    parser.executeCommandLine("SEARCH_VIDEOS");
+    parser.executeCommandLine("NOT_A_COMMAND");
+    parser.executeCommandLine("PLAY amazing_cats_video_id");
+
+    CommandMetrics.Stats search = metrics.get("SEARCH_VIDEOS");
+    assertEquals(3, search.getInvocations());
+    assertEquals(1, search.getErrors());
+    //"cat" lists a header, two videos and two prompt lines
+    assertEquals(5, search.getOutputLinesMax());
+    assertThat(search.getLatencyMaxNanos(), greaterThan(0L));
+    assertEquals(1, metrics.get(CommandParser.UNKNOWN_COMMAND).getErrors());
+    assertEquals(0, metrics.get("PLAY").getErrors());
+    assertNull(metrics.get("NOT_A_COMMAND"));
+  }
+
+  @Test
+  public void testMetricsCommandPrintsTable() {
+    parser.executeCommandLine("METRICS");
+    assertEquals("No commands have been run yet.", output.getLines()[0]);
+
+    parser.executeCommandLine("PLAY amazing_cats_video_id");
+    output.clear();
+    parser.executeCommandLine("METRICS");
+    String[] lines = output.getLines();
+    assertThat(lines[0], containsString("Command metrics"));
+    assertThat(lines[1], containsString("P99.9"));
+    assertThat(lines[2], containsString("METRICS"));
+    assertThat(lines[3], containsString("PLAY"));
+    assertThat(lines[4], containsString("Search cache: 0 hits"));
+    assertEquals(5, lines.length);
+  }
+
+  @Test
+  public void testExportRegistersMXBeanPerCommand() throws Exception {
+    MBeanServer server = MBeanServerFactory.newMBeanServer();
+    parser.executeCommandLine("PLAY amazing_cats_video_id");
+    metrics.export(server);
+    parser.executeCommandLine("STOP");
+    parser.executeCommandLine("STOP");
+
+    assertEquals(1L, server.getAttribute(
+        new ObjectName(CommandMetrics.OBJECT_NAME_PREFIX + "PLAY"), "Invocations"));
+    ObjectName stop = new ObjectName(CommandMetrics.OBJECT_NAME_PREFIX + "STOP");
+    assertEquals(2L, server.getAttribute(stop, "Invocations"));
+    assertEquals(1L, server.getAttribute(stop, "OutputLinesMax"));
+  }
+}
@@ -0,0 +1,104 @@
+package com.google;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class CommandParserTest {
+
+  private final CaptureSink output = new CaptureSink();
+  private final CommandMetrics metrics = new CommandMetrics();
+  private final CommandParser parser;
+
+  public CommandParserTest() {
+    VideoPlayer player = new VideoPlayer(new VideoLibrary(), output);
+    player.setAnswerReader(() -> null);
+    parser = new CommandParser(player, metrics);
+  }
+
+  private static String[] tokensOf(CommandTokenizer tokenizer, String line) {
+    tokenizer.tokenize(line);
+    String[] tokens = new String[tokenizer.count()];
+    for (int i = 0; i < tokens.length; i++) {
+      tokens[i] = tokenizer.token(i);
+    }
+    return tokens;
+  }
+
+  @Test
+  public void testTokenizerSplitsOnAnyWhitespaceAndReusesBuffers() {
+    CommandTokenizer tokenizer = new CommandTokenizer();
+    assertArrayEquals(new String[] {"ADD_TO_PLAYLIST", "my", "id"},
+        tokensOf(tokenizer, "  ADD_TO_PLAYLIST\tmy \u000b id \r"));
+    assertArrayEquals(new String[0], tokensOf(tokenizer, " \t "));
+    String many = "x ".repeat(300) + "y".repeat(1000);
+    assertEquals(301, tokensOf(tokenizer, many).length);
+    assertEquals(1000, tokenizer.token(300).length());
+    tokenizer.tokenize("SEARCH_VIDEOS_WITH_TAG  #cat   AND NOT #dog");
+    assertEquals("#cat AND NOT #dog", tokenizer.rest(1));
+  }
+
+  @Test
+  public void testTokenizerMatchesNamesIgnoringCase() {
+    CommandTokenizer tokenizer = new CommandTokenizer();
+    tokenizer.tokenize("sHoW_PlAyInG");
+    assertTrue(tokenizer.equalsIgnoreCase(0, "SHOW_PLAYING"));
+    assertEquals(CommandTokenizer.hashIgnoreCase("SHOW_PLAYING"), tokenizer.hashIgnoreCase(0));
+    assertFalse(tokenizer.equalsIgnoreCase(0, "SHOW_PLAYLIST"));
+    assertFalse(tokenizer.equalsIgnoreCase(0, "SHOW"));
+  }
+
+  @Test
+  public void testCommandsAreFoundInAnyCase() {
+    parser.executeCommandLine("play amazing_cats_video_id");
+    parser.executeCommandLine("Show_Playing");
+    assertThat(output.getLines()[0], containsString("Playing video: Amazing Cats"));
+    assertThat(output.getLines()[1], containsString("Currently playing: Amazing Cats"));
+    assertEquals(1, metrics.get("PLAY").getInvocations());
+  }
+
+  @Test
+  public void testMissingArgumentsPrintUsage() {
+    parser.executeCommandLine("ADD_TO_PLAYLIST my_playlist");
+    parser.executeCommandLine("FLAG_VIDEO");
+    parser.executeCommandLine("");
+    parser.executeCommandLine("PLAYY amazing_cats_video_id");
+    assertArrayEquals(new String[] {
+        "Please enter ADD_TO_PLAYLIST command followed by a playlist name and video_id to add.",
+        "Please enter FLAG_VIDEO command followed by avideo_id and an optional flag reason.",
+        "Please enter a valid command, type HELP for a list of available commands.",
+        "Please enter a valid command, type HELP for a list of available commands."},
+        output.getLines());
+    assertEquals(1, metrics.get("ADD_TO_PLAYLIST").getErrors());
+    assertEquals(2, metrics.get(CommandParser.UNKNOWN_COMMAND).getErrors());
+  }
+
+  @Test
+  public void testTagsWithoutOperatorsPrintUsage() {
+    parser.executeCommandLine("SEARCH_VIDEOS_WITH_TAG #cat #animal");
+    parser.executeCommandLine("SEARCH_VIDEOS_WITH_TAG #cat #animal SIZE 2");
+    parser.executeCommandLine("SEARCH_VIDEOS_WITH_TAG #cat OR #dog #animal");
+    assertArrayEquals(new String[] {
+        "Please enter SEARCH_VIDEOS_WITH_TAG command followed by a video tag.",
+        "Please enter SEARCH_VIDEOS_WITH_TAG command followed by a video tag.",
+        "Cannot search videos with tag #cat OR #dog #animal: missing AND or OR before #animal"},
+        output.getLines());
+  }
+
+  @Test
+  public void testOptionalAndExtraArguments() {
+    parser.executeCommandLine("FLAG_VIDEO amazing_cats_video_id");
+    parser.executeCommandLine("ALLOW_VIDEO amazing_cats_video_id ignored");
+    parser.executeCommandLine("FLAG_VIDEO amazing_cats_video_id dont_like_cats");
+    assertArrayEquals(new String[] {
+        "Successfully flagged video: Amazing Cats (reason: Not supplied)",
+        "Successfully removed flag from video: Amazing Cats",
+        "Successfully flagged video: Amazing Cats (reason: dont_like_cats)"},
+        output.getLines());
+  }
+}
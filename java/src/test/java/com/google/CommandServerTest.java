@@ -0,0 +1,195 @@
+package com.google;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.not;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class CommandServerTest {
+
+  private SessionManager sessions;
+  private CommandServer server;
+
+  @BeforeEach
+  public void setUp() throws IOException {
+    sessions = new SessionManager(new VideoLibrary());
+    server = new CommandServer(sessions,
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    server.start();
+  }
+
+  @AfterEach
+  public void tearDown() throws IOException {
+    server.close();
+  }
+
+  /** A loopback client that reads whole responses, up to and including the next prompt. */
+  private final class Client implements AutoCloseable {
+    private final Socket socket;
+    private final BufferedReader in;
+    private final Writer out;
+
+    Client() throws IOException {
+      socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+      socket.setSoTimeout(10_000);
+      in = new BufferedReader(
+          new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+      out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+      assertThat(readResponse(), containsString("Hello and welcome to YouTube"));
+    }
+
+    String send(String line) throws IOException {
+      out.write(line + "\n");
+      out.flush();
+      return readResponse();
+    }
+
+    /** Reads until the prompt, or to the end of the stream. */
+    String readResponse() throws IOException {
+      var response = new StringBuilder();
+      int c;
+      while ((c = in.read()) >= 0) {
+        response.append((char) c);
+        if (response.toString().endsWith(CommandServer.PROMPT)) {
+          break;
+        }
+      }
+      return response.toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+      socket.close();
+    }
+  }
+
+  @Test
+  public void testCommandsAreAnsweredOverLoopback() throws IOException {
+    try (var client = new Client()) {
+      assertEquals("5 videos in the library\nYT> ",
+          client.send("NUMBER_OF_VIDEOS").replace(System.lineSeparator(), "\n"));
+      assertThat(client.send("PLAY amazing_cats_video_id"),
+          containsString("Playing video: Amazing Cats"));
+      assertThat(client.send("SHOW_PLAYING"),
+          containsString("Currently playing: Amazing Cats (amazing_cats_video_id) [#cat #animal]"));
+    }
+  }
+
+  @Test
+  public void testPromptIsAnsweredByNextLine() throws IOException {
+    try (var client = new Client()) {
+      var question = new StringBuilder();
+      client.out.write("SEARCH_VIDEOS cat\n");
+      client.out.flush();
+      String line;
+      while ((line = client.in.readLine()) != null) {
+        question.append(line).append('\n');
+        if (line.contains("we will assume it's a no")) {
+          break;
+        }
+      }
+      assertThat(question.toString(), containsString("2) Another Cat Video"));
+      assertThat(client.send("2"), containsString("Playing video: Another Cat Video"));
+    }
+  }
+
+  @Test
+  public void testConnectionsHaveSeparateSessions() throws IOException {
+    try (var first = new Client(); var second = new Client()) {
+      first.send("PLAY amazing_cats_video_id");
+      first.send("CREATE_PLAYLIST mine");
+      assertThat(second.send("SHOW_PLAYING"), containsString("No video is currently playing"));
+      assertThat(second.send("CREATE_PLAYLIST mine"),
+          containsString("Successfully created new playlist: mine"));
+      first.send("FLAG_VIDEO funny_dogs_video_id spam");
+      assertThat(second.send("PLAY funny_dogs_video_id"),
+          containsString("Video is currently flagged (reason: spam)"));
+    }
+  }
+
+  @Test
+  public void testExitClosesConnectionAndSession() throws Exception {
+    try (var client = new Client()) {
+      String goodbye = client.send("EXIT");
+      assertThat(goodbye, containsString("Thank you and goodbye!"));
+      assertThat(goodbye, not(containsString(CommandServer.PROMPT)));
+      assertNull(client.in.readLine());
+    }
+    for (int i = 0; i < 100 && server.getOpenConnections() > 0; i++) {
+      Thread.sleep(20);
+    }
+    assertEquals(0, server.getOpenConnections());
+  }
+
+  @Test
+  public void testFailedCommandKeepsConnectionServed() throws IOException {
+    server.close();
+    sessions = new SessionManager(new VideoLibrary() {
+      @Override
+      public int size() {
+        throw new IllegalStateException("broken");
+      }
+    });
+    server = new CommandServer(sessions,
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1);
+    server.start();
+    try (var client = new Client()) {
+      assertThat(client.send("NUMBER_OF_VIDEOS"),
+          containsString("Cannot run the command: broken"));
+      assertThat(client.send("PLAY amazing_cats_video_id"),
+          containsString("Playing video: Amazing Cats"));
+    }
+  }
+
+  @Test
+  public void testDisconnectedClientIsNotCounted() throws Exception {
+    try (var client = new Client()) {
+      client.send("PLAY amazing_cats_video_id");
+      assertEquals(1, server.getOpenConnections());
+    }
+    for (int i = 0; i < 100 && server.getOpenConnections() > 0; i++) {
+      Thread.sleep(20);
+    }
+    assertEquals(0, server.getOpenConnections());
+    assertEquals(0, sessions.size());
+  }
+
+  @Test
+  public void testManyIdleConnections() throws IOException {
+    List<Client> clients = new ArrayList<>();
+    try {
+      for (int i = 0; i < 200; i++) {
+        clients.add(new Client());
+      }
+      assertEquals(200, server.getOpenConnections());
+      long connectionThreads = Thread.getAllStackTraces().keySet().stream()
+          .filter(thread -> thread.getName().equals("command-server-worker"))
+          .count();
+      assertTrue(connectionThreads < 50, connectionThreads + " threads for idle connections");
+      for (Client client : clients) {
+        assertTrue(client.send("NUMBER_OF_VIDEOS").contains("5 videos in the library"));
+      }
+    } finally {
+      for (Client client : clients) {
+        client.close();
+      }
+    }
+  }
+}
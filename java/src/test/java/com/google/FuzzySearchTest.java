@@ -0,0 +1,124 @@
+package com.google;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class FuzzySearchTest {
+
+  @TempDir
+  Path directory;
+
+  private static List<String> idsOf(List<Video> videos) {
+    return videos.stream().map(Video::getVideoId).collect(Collectors.toList());
+  }
+
+  @Test
+  public void testEditDistanceIsBounded() {
+    assertEquals(0, FuzzySearch.editDistance("kitten", "kitten", 2));
+    assertEquals(2, FuzzySearch.editDistance("kitten", "sittin", 2));
+    assertEquals(3, FuzzySearch.editDistance("kitten", "sitting", 2));
+    assertEquals(1, FuzzySearch.editDistance("cat", "cats", 1));
+    assertEquals(2, FuzzySearch.editDistance("cat", "dogs", 1));
+  }
+
+  @Test
+  public void testFindsMisspelledWordsNearestFirst() throws Exception {
+    Path file = directory.resolve("videos.txt");
+    Files.writeString(file, ""
+        + "Amazing Cats | amazing | #cat\n"
+        + "Cooking Pasta | cooking |\n"
+        + "Best Cooking Tips | cooking_late |\n"
+        + "Cookie Recipes | cookie |\n"
+        + "Booking Flights | booking |\n");
+    VideoLibrary library = new VideoLibrary(file);
+
+    assertEquals(List.of("amazing"), idsOf(library.searchVideosFuzzy("amazng", 10)));
+    //one edit ranks first, then two; each earlier in the title first
+    assertEquals(List.of("cooking", "cooking_late", "cookie", "booking"),
+        idsOf(library.searchVideosFuzzy("cookng", 10)));
+    assertEquals(List.of("cooking", "cooking_late"),
+        idsOf(library.searchVideosFuzzy("COOKNG", 2)));
+    library.flagVideo(library.getVideo("cooking"), "spam");
+    assertEquals(List.of("cooking_late"), idsOf(library.searchVideosFuzzy("cookng", 1)));
+  }
+
+  @Test
+  public void testParserRejectsPhrasesAndBadCounts() {
+    CaptureSink output = new CaptureSink();
+    VideoPlayer player = new VideoPlayer(new VideoLibrary(), output);
+    player.setAnswerReader(() -> null);
+    CommandParser parser = new CommandParser(player, null);
+
+    parser.executeCommandLine("SEARCH_VIDEOS_FUZZY amazng top 1");
+    assertEquals("Here are the results for amazng:", output.getLines()[0]);
+    assertEquals("1) Amazing Cats (amazing_cats_video_id) [#cat #animal]", output.getLines()[1]);
+    output.clear();
+    parser.executeCommandLine("SEARCH_VIDEOS_FUZZY cat's");
+    assertEquals("Cannot search videos similar to cat's: Please enter a single word of letters "
+        + "and digits.", output.getLines()[0]);
+    output.clear();
+    parser.executeCommandLine("SEARCH_VIDEOS_FUZZY cat TOP 0");
+    assertEquals("Please enter a positive number of results after TOP.", output.getLines()[0]);
+  }
+
+  /** Returns the best (distance, capped position) key of a title the slow way, or -1. */
+  private static long key(String title, String word) {
+    long best = -1;
+    String[] titleWords = title.toLowerCase().split(" ");
+    int position = 0;
+    for (String titleWord : titleWords) {
+      int distance = FuzzySearch.editDistance(word, titleWord, 100);
+      if (distance <= FuzzySearch.maxDistance(word.length())) {
+        long key = (long) distance << 32 | Math.min(position, RankedSearch.POSITION);
+        best = best < 0 ? key : Math.min(best, key);
+      }
+      position += titleWord.length() + 1;
+    }
+    return best;
+  }
+
+  @Test
+  public void testAgreesWithComparingEveryTitle() throws Exception {
+    String[] words = {"cat", "cats", "cut", "coat", "act", "kitten", "kitchen", "sitting",
+        "mitten", "dog", "dig", "do", "go", "the", "at", "a"};
+    Random random = new Random(21);
+    StringBuilder catalog = new StringBuilder();
+    List<String> titles = new ArrayList<>();
+    for (int v = 0; v < 2_000; v++) {
+      StringBuilder title = new StringBuilder();
+      for (int w = random.nextInt(40); w >= 0; w--) {
+        title.append(words[random.nextInt(words.length)]).append(w == 0 ? "" : " ");
+      }
+      titles.add(title.toString());
+      catalog.append(title).append(" | v").append(v).append(" |\n");
+    }
+    Path file = directory.resolve("videos.txt");
+    Files.writeString(file, catalog.toString());
+    VideoLibrary library = new VideoLibrary(file);
+
+    for (String word : new String[] {"cat", "kiten", "sittin", "dog", "do", "mittens", "zzz"}) {
+      List<Integer> expected = new ArrayList<>();
+      for (int v = 0; v < titles.size(); v++) {
+        if (key(titles.get(v), word) >= 0) {
+          expected.add(v);
+        }
+      }
+      //stable, so equal keys stay in catalog order
+      expected.sort(Comparator.comparingLong(v -> key(titles.get(v), word)));
+      for (int k : new int[] {1, 10, 5_000}) {
+        List<String> ids = expected.stream().limit(k).map(v -> "v" + v)
+            .collect(Collectors.toList());
+        assertEquals(ids, idsOf(library.searchVideosFuzzy(word, k)), word + " TOP " + k);
+      }
+    }
+  }
+}
@@ -0,0 +1,75 @@
+package com.google;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.BitSet;
+import java.util.Random;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+public class OrdinalBitmapTest {
+
+  @Test
+  public void testSetOperationsMatchBitSet() {
+    Random random = new Random(42);
+    for (int round = 0; round < 20; round++) {
+      //mix sparse (array) and dense (bitmap) groups across several high keys
+      BitSet a = randomBits(random, 300_000, round % 2 == 0 ? 0.5 : 0.01);
+      BitSet b = randomBits(random, 300_000, round % 3 == 0 ? 0.3 : 0.005);
+      OrdinalBitmap x = OrdinalBitmap.of(a.stream().toArray());
+      OrdinalBitmap y = OrdinalBitmap.of(b.stream().toArray());
+
+      BitSet and = (BitSet) a.clone();
+      and.and(b);
+      BitSet or = (BitSet) a.clone();
+      or.or(b);
+      BitSet andNot = (BitSet) a.clone();
+      andNot.andNot(b);
+
+      assertArrayEquals(and.stream().toArray(), x.and(y).toArray());
+      assertArrayEquals(or.stream().toArray(), x.or(y).toArray());
+      assertArrayEquals(andNot.stream().toArray(), x.andNot(y).toArray());
+      assertEquals(a.cardinality(), x.cardinality());
+    }
+  }
+
+  @Test
+  public void testUnflaggedReadsTheFlagBitsInPlace() {
+    Random random = new Random(7);
+    for (int round = 0; round < 4; round++) {
+      BitSet a = randomBits(random, 200_000, round % 2 == 0 ? 0.5 : 0.01);
+      BitSet b = randomBits(random, 150_000, round < 2 ? 0.3 : 0.005);
+      FlagColumn flags = new FlagColumn(150_000);
+      b.stream().forEach(ordinal -> flags.flag(ordinal, "spam"));
+      BitSet andNot = (BitSet) a.clone();
+      andNot.andNot(b);
+      assertArrayEquals(andNot.stream().toArray(),
+          flags.unflagged(OrdinalBitmap.of(a.stream().toArray())).toArray());
+    }
+  }
+
+  @Test
+  public void testRangeWithAndWithout() {
+    OrdinalBitmap all = OrdinalBitmap.range(70_000);
+    assertArrayEquals(IntStream.range(0, 70_000).toArray(), all.toArray());
+
+    OrdinalBitmap flagged = OrdinalBitmap.EMPTY.with(5).with(65_536);
+    assertTrue(flagged.contains(65_536));
+    assertEquals(69_998, all.andNot(flagged).cardinality());
+    assertFalse(flagged.without(5).contains(5));
+    assertTrue(flagged.without(5).without(65_536).isEmpty());
+  }
+
+  private static BitSet randomBits(Random random, int size, double density) {
+    BitSet bits = new BitSet(size);
+    for (int i = 0; i < size; i++) {
+      if (random.nextDouble() < density) {
+        bits.set(i);
+      }
+    }
+    return bits;
+  }
+}
@@ -0,0 +1,59 @@
+package com.google;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.StringWriter;
+import org.junit.jupiter.api.Test;
+
+public class OutputSinkTest extends TestBase {
+
+  private static void runCommands(VideoPlayer player) {
+    var parser = new CommandParser(player);
+    player.setAnswerReader(() -> "1");
+    parser.executeCommandLine("NUMBER_OF_VIDEOS");
+    parser.executeCommandLine("FLAG_VIDEO funny_dogs_video_id too_loud");
+    parser.executeCommandLine("SHOW_ALL_VIDEOS");
+    parser.executeCommandLine("SEARCH_VIDEOS_WITH_TAG #cat");
+    parser.executeCommandLine("PAUSE");
+    parser.executeCommandLine("SHOW_PLAYING");
+    parser.executeCommandLine("CREATE_PLAYLIST my_list");
+    parser.executeCommandLine("ADD_TO_PLAYLIST my_list amazing_cats_video_id");
+    parser.executeCommandLine("SHOW_PLAYLIST my_list");
+    parser.executeCommandLine("CONTINUE");
+    parser.executeCommandLine("ALLOW_VIDEO nothing_video_id");
+  }
+
+  @Test
+  public void testSinksProduceSameTextAsConsole() {
+    runCommands(videoPlayer);
+    String console = outputStream.toString();
+
+    var capture = new CaptureSink();
+    runCommands(new VideoPlayer(new VideoLibrary(), capture));
+    assertEquals(console, capture.getOutput());
+
+    var writer = new StringWriter();
+    var buffered = new BufferedSink(writer);
+    runCommands(new VideoPlayer(new VideoLibrary(), buffered));
+    assertEquals("", writer.toString());
+    buffered.flush();
+    assertEquals(console, writer.toString());
+  }
+
+  @Test
+  public void testBufferedSinkFlushesWhenFull() {
+    var writer = new StringWriter();
+    var sink = new BufferedSink(writer, 8);
+    sink.print("1234");
+    assertEquals("", writer.toString());
+    sink.print("5678");
+    assertEquals("12345678", writer.toString());
+  }
+
+  @Test
+  public void testNullSinkDiscardsOutput() {
+    new CommandParser(new VideoPlayer(new VideoLibrary(), new NullSink()))
+        .executeCommandLine("SHOW_ALL_VIDEOS");
+    assertEquals("", outputStream.toString());
+  }
+}
@@ -0,0 +1,210 @@
+package com.google;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class PaginationTest {
+
+  @TempDir
+  Path directory;
+
+  private final CaptureSink output = new CaptureSink();
+  private final VideoPlayer player = new VideoPlayer(new VideoLibrary(), output);
+  private final CommandParser parser = new CommandParser(player, null);
+
+  public PaginationTest() {
+    player.setAnswerReader(() -> null);
+  }
+
+  private List<String> run(String line) {
+    output.clear();
+    parser.executeCommandLine(line);
+    return List.of(output.getLines());
+  }
+
+  /** Returns the token of the NEXT line of the output, or null if there is none. */
+  private static String tokenOf(List<String> lines) {
+    String prefix = "For more results, enter: NEXT ";
+    return lines.stream().filter(line -> line.startsWith(prefix))
+        .map(line -> line.substring(prefix.length())).findFirst().orElse(null);
+  }
+
+  @Test
+  public void testShowsPagesOfAllVideosAndPlaylists() {
+    assertEquals(List.of("Here's page 2 of 3 of all available videos:",
+        "Funny Dogs (funny_dogs_video_id) [#dog #animal]",
+        "Life at Google (life_at_google_video_id) [#google #career]"),
+        run("SHOW_ALL_VIDEOS page 2 size 2"));
+    assertEquals(List.of("Here's page 3 of 3 of all available videos:",
+        "Video about nothing (nothing_video_id) []"), run("SHOW_ALL_VIDEOS SIZE 2 PAGE 3"));
+    assertEquals(List.of("Cannot show page 4: there are only 3 pages of videos"),
+        run("SHOW_ALL_VIDEOS PAGE 4 SIZE 2"));
+    assertEquals(List.of("Please enter a positive page number after PAGE."),
+        run("SHOW_ALL_VIDEOS PAGE 0"));
+    assertEquals(6, run("SHOW_ALL_VIDEOS PAGE 1").size());
+
+    run("CREATE_PLAYLIST mix");
+    for (String id : new String[] {"nothing_video_id", "amazing_cats_video_id",
+        "funny_dogs_video_id"}) {
+      run("ADD_TO_PLAYLIST mix " + id);
+    }
+    assertEquals(List.of("Showing playlist: mix (page 2 of 2)",
+        "Funny Dogs (funny_dogs_video_id) [#dog #animal]"), run("SHOW_PLAYLIST mix PAGE 2 SIZE 2"));
+    assertEquals(List.of("Cannot show page 3 of playlist mix: there are only 2 pages"),
+        run("SHOW_PLAYLIST mix PAGE 3 SIZE 2"));
+  }
+
+  @Test
+  public void testSearchesContinueWithTokens() {
+    List<String> first = run("SEARCH_VIDEOS a SIZE 2");
+    assertEquals(List.of("Here are the results for a:",
+        "1) Amazing Cats (amazing_cats_video_id) [#cat #animal]",
+        "2) Another Cat Video (another_cat_video_id) [#cat #animal]"), first.subList(0, 3));
+    List<String> second = run("NEXT " + tokenOf(first));
+    assertEquals(List.of("Here are the results for a:",
+        "1) Life at Google (life_at_google_video_id) [#google #career]",
+        "2) Video about nothing (nothing_video_id) []"), second.subList(0, 3));
+    assertEquals(null, tokenOf(second));
+
+    List<String> tags = run("SEARCH_VIDEOS_WITH_TAG #animal AND NOT #dog size 1");
+    assertEquals("1) Amazing Cats (amazing_cats_video_id) [#cat #animal]", tags.get(1));
+    List<String> more = run("NEXT " + tokenOf(tags));
+    assertEquals("1) Another Cat Video (another_cat_video_id) [#cat #animal]", more.get(1));
+    assertEquals(null, tokenOf(more));
+    Video last = player.getVideoLibrary().getVideo("another_cat_video_id");
+    assertEquals(List.of("No more results for #animal AND NOT #dog"), run("NEXT "
+        + new Continuation(Continuation.TAGS, "#animal AND NOT #dog", last.getTitle(),
+            last.getOrdinal(), 1).encode()));
+
+    assertEquals(List.of("Cannot show more results: Invalid continuation token."),
+        run("NEXT not_a_token!"));
+    assertEquals(List.of("Please enter a positive number of results after SIZE."),
+        run("SEARCH_VIDEOS cat SIZE none"));
+  }
+
+  private static List<String> idsOf(List<Video> videos) {
+    return videos.stream().map(Video::getVideoId).collect(Collectors.toList());
+  }
+
+  @Test
+  public void testPagesResumeAfterTheLastVideoAcrossReloads() throws Exception {
+    Path file = directory.resolve("videos.txt");
+    Files.writeString(file, "B | b |\nD | d |\nA | a |\nC | c |\n");
+    VideoLibrary library = new VideoLibrary(file);
+    List<Video> page = library.searchVideosByTitle("", null, -1, 2);
+    assertEquals(List.of("a", "b"), idsOf(page));
+    Video after = page.get(1);
+
+    //a video sorting before the last one shown does not shift the next page
+    Files.writeString(file, "B | b |\nD | d |\nA | a |\nC | c |\nAa | aa |\nBb | bb |\n");
+    library.reload(file);
+    library.flagVideo(library.getVideo("c"), "spam");
+    assertEquals(List.of("bb", "d"), idsOf(library.searchVideosByTitle("", after.getTitle(),
+        after.getOrdinal(), 2)));
+
+    List<String> all = new ArrayList<>();
+    for (Video last = null; ; ) {
+      page = last == null ? library.searchVideosByTitle("", null, -1, 1)
+          : library.searchVideosByTitle("", last.getTitle(), last.getOrdinal(), 1);
+      if (page.isEmpty()) {
+        break;
+      }
+      all.add(page.get(0).getVideoId());
+      last = page.get(0);
+    }
+    assertEquals(List.of("a", "aa", "b", "bb", "d"), all);
+    assertThrows(IllegalArgumentException.class,
+        () -> library.searchVideosByTitle("a", "A", 1_000, 2));
+  }
+
+  @Test
+  public void testPlaylistPagesLeaveOutRemovedVideos() throws Exception {
+    Path file = directory.resolve("videos.txt");
+    Files.writeString(file, "A | a |\nB | b |\nC | c |\nD | d |\n");
+    VideoLibrary library = new VideoLibrary(file);
+    CaptureSink sink = new CaptureSink();
+    VideoPlayer listener = new VideoPlayer(library, sink);
+    listener.createPlaylist("mix");
+    for (String id : new String[] {"a", "b", "c", "d"}) {
+      listener.addVideoToPlaylist("mix", id);
+    }
+    Files.writeString(file, "B | b |\nC | c |\nD | d |\n");
+    library.reload(file);
+    sink.clear();
+    listener.showPlaylist("mix", 1, 2);
+    assertEquals(List.of("Showing playlist: mix (page 1 of 2)", "B (b) []", "C (c) []"),
+        List.of(sink.getLines()));
+    sink.clear();
+    listener.showPlaylist("mix", 2, 2);
+    assertEquals(List.of("Showing playlist: mix (page 2 of 2)", "D (d) []"),
+        List.of(sink.getLines()));
+  }
+
+  /** Returns the ids of every page of the search, resumed after the last video of each. */
+  private static List<String> pageThrough(VideoLibrary library, boolean tags, String query) {
+    List<String> ids = new ArrayList<>();
+    Video last = null;
+    while (true) {
+      String title = last == null ? null : last.getTitle();
+      int after = last == null ? -1 : last.getOrdinal();
+      List<Video> page = tags ? library.searchVideosByTags(query, title, after, 7)
+          : library.searchVideosByTitle(query, title, after, 7);
+      if (page.isEmpty()) {
+        return ids;
+      }
+      ids.addAll(idsOf(page));
+      last = page.get(page.size() - 1);
+    }
+  }
+
+  @Test
+  public void testUncachedPagesMatchTheWholeResult() throws Exception {
+    Path file = directory.resolve("videos.txt");
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 3000; i++) {
+      text.append(i % 3 == 0 ? "Cat " : "Dog ").append(i % 97).append(" | v").append(i)
+          .append(" | #t").append(i % 50).append(i % 2 == 0 ? ", #even" : "").append('\n');
+    }
+    Files.writeString(file, text);
+    VideoLibrary library = new VideoLibrary(file);
+    //a second segment with changed and new videos, and some removed
+    Files.writeString(file, text.toString().replace("Dog 1 |", "Cat 1 |")
+        .replace("v7 | #t7\n", "v7 | #t1\n") + "Cat 0 | w0 | #t1\nDog 1 | w1 | #even\n");
+    library.reload(file);
+    for (int i = 0; i < 3000; i += 11) {
+      library.flagVideo(library.getVideo("v" + i), "spam");
+    }
+    String[][] queries = {{"cat"}, {"g 1"}, {"cat 12"}, {"zebra"}, {"#even"},
+        {"#t1 OR #t7"}, {"#t1 AND NOT #even"}};
+    for (String[] query : queries) {
+      boolean tags = query[0].startsWith("#");
+      List<String> uncached = pageThrough(library, tags, query[0]);
+      List<Video> whole = tags ? library.searchVideosByTags(query[0])
+          : library.searchVideosByTitle(query[0]);
+      assertEquals(idsOf(whole), uncached, query[0]);
+      assertEquals(uncached, pageThrough(library, tags, query[0]), query[0]);
+    }
+  }
+
+  @Test
+  public void testTokensRoundTrip() {
+    Continuation continuation = new Continuation(Continuation.TAGS, "#cat OR #d\u00f6g",
+        "Caf\u00e9 Cats", 42, 7);
+    Continuation read = Continuation.decode(continuation.encode());
+    assertEquals(Continuation.TAGS, read.getKind());
+    assertEquals("#cat OR #d\u00f6g", read.getQuery());
+    assertEquals("Caf\u00e9 Cats", read.getAfterTitle());
+    assertEquals(42, read.getAfter());
+    assertEquals(7, read.getSize());
+    assertThrows(IllegalArgumentException.class,
+        () -> Continuation.decode(continuation.encode() + "AA"));
+  }
+}
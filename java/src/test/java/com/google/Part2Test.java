@@ -218,6 +218,24 @@ public class Part2Test extends TestBase {
     assertThat(lines[6], containsString("No videos here yet"));
   }
 
+  @Test
+  public void testShowPlaylistKeepsOrderAfterRemove() {
+    videoPlayer.createPlaylist("my_playlist");
+    videoPlayer.addVideoToPlaylist("my_playlist", "life_at_google_video_id");
+    videoPlayer.addVideoToPlaylist("my_playlist", "amazing_cats_video_id");
+    videoPlayer.addVideoToPlaylist("my_playlist", "funny_dogs_video_id");
+    videoPlayer.removeFromPlaylist("my_playlist", "amazing_cats_video_id");
+    videoPlayer.addVideoToPlaylist("my_playlist", "amazing_cats_video_id");
+    videoPlayer.showPlaylist("my_playlist");
+
+    var lines = getOutputLines();
+    assertEquals(10, lines.length, outputStream.toString());
+    assertThat(lines[6], containsString("Showing playlist: my_playlist"));
+    assertThat(lines[7], containsString("Life at Google (life_at_google_video_id) [#google #career]"));
+    assertThat(lines[8], containsString("Funny Dogs (funny_dogs_video_id) [#dog #animal]"));
+    assertThat(lines[9], containsString("Amazing Cats (amazing_cats_video_id) [#cat #animal]"));
+  }
+
   @Test
   public void testClearPlaylistNonexistent() {
     videoPlayer.clearPlaylist("my_PLAYlist");
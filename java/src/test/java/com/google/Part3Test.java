@@ -155,4 +155,25 @@ public class Part3Test extends TestBase {
     assertEquals(1, getOutputLines().length);
     assertThat(outputStream.toString(), containsString("No search results for #blah"));
   }
+
+  @Test
+  public void testSearchVideosWithTagExpressionExcludesFlagged() {
+    setInput("no");
+
+    videoPlayer.flagVideo("amazing_cats_video_id");
+    videoPlayer.searchVideosWithTag("#animal AND NOT #dog");
+
+    var lines = getOutputLines();
+    assertEquals(5, lines.length, outputStream.toString());
+    assertThat(lines[1], containsString("Here are the results for #animal AND NOT #dog:"));
+    assertThat(lines[2],
+        containsString("1) Another Cat Video (another_cat_video_id) [#cat #animal]"));
+  }
+
+  @Test
+  public void testSearchVideosWithPartialTagNoResults() {
+    videoPlayer.searchVideosWithTag("#ca");
+    assertEquals(1, getOutputLines().length);
+    assertThat(outputStream.toString(), containsString("No search results for #ca"));
+  }
 }
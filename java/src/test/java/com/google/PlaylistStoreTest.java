@@ -0,0 +1,134 @@
+package com.google;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class PlaylistStoreTest {
+
+  private static List<String> videoIds(PlaylistStore store, int playlist) {
+    return List.copyOf(store.getPlaylists().get(playlist).getVideoIds());
+  }
+
+  private static List<String> logs(Path dir) throws IOException {
+    try (Stream<Path> files = Files.list(dir)) {
+      return files.map(file -> file.getFileName().toString())
+          .filter(name -> name.endsWith(".log")).sorted().collect(Collectors.toList());
+    }
+  }
+
+  @Test
+  public void testRecoversChangesFromLog(@TempDir Path dir) throws IOException {
+    try (var store = new PlaylistStore(dir, PlaylistStore.Durability.DEFERRED)) {
+      store.create("My_Playlist");
+      store.add("my_playlist", "funny_dogs_video_id");
+      store.add("my_playlist", "amazing_cats_video_id");
+      store.add("my_playlist", "life_at_google_video_id");
+      store.remove("MY_PLAYLIST", "amazing_cats_video_id");
+      store.create("gone");
+      store.delete("gone");
+    }
+
+    try (var store = new PlaylistStore(dir, PlaylistStore.Durability.DEFERRED)) {
+      assertEquals(1, store.getPlaylists().size());
+      assertEquals("My_Playlist", store.getPlaylists().get(0).getName());
+      assertEquals(List.of("funny_dogs_video_id", "life_at_google_video_id"),
+          videoIds(store, 0));
+    }
+  }
+
+  @Test
+  public void testStrictChangeIsOnDiskWhenItReturns(@TempDir Path dir) throws IOException {
+    try (var store = new PlaylistStore(dir, PlaylistStore.Durability.STRICT)) {
+      store.create("list");
+      store.add("list", "funny_dogs_video_id");
+      //read the directory while the store is still open, as recovery after a crash would
+      var copy = Files.createDirectory(dir.resolve("copy"));
+      for (String log : logs(dir)) {
+        Files.copy(dir.resolve(log), copy.resolve(log));
+      }
+      try (var recovered = new PlaylistStore(copy, PlaylistStore.Durability.STRICT)) {
+        assertEquals(List.of("funny_dogs_video_id"), videoIds(recovered, 0));
+      }
+    }
+  }
+
+  @Test
+  public void testTornTailIsIgnored(@TempDir Path dir) throws IOException {
+    try (var store = new PlaylistStore(dir, PlaylistStore.Durability.DEFERRED)) {
+      store.create("list");
+      store.add("list", "funny_dogs_video_id");
+    }
+    Path log = dir.resolve(logs(dir).get(logs(dir).size() - 1));
+    Files.write(log, new byte[] {0, 0, 0, 40, 1, 2, 3}, StandardOpenOption.APPEND);
+
+    try (var store = new PlaylistStore(dir, PlaylistStore.Durability.DEFERRED)) {
+      assertEquals(List.of("funny_dogs_video_id"), videoIds(store, 0));
+      store.add("list", "amazing_cats_video_id");
+    }
+    try (var store = new PlaylistStore(dir, PlaylistStore.Durability.DEFERRED)) {
+      assertEquals(List.of("funny_dogs_video_id", "amazing_cats_video_id"), videoIds(store, 0));
+    }
+  }
+
+  @Test
+  public void testCompactionReplacesOldLogs(@TempDir Path dir) throws IOException {
+    try (var store = new PlaylistStore(dir, PlaylistStore.Durability.DEFERRED, 256)) {
+      store.create("list");
+      for (int i = 0; i < 500; i++) {
+        store.add("list", "video_" + i);
+        if (i % 2 == 0) {
+          store.remove("list", "video_" + i);
+        }
+      }
+      store.sync();
+    }
+    assertTrue(Files.exists(dir.resolve(PlaylistStore.SNAPSHOT_FILE)));
+    assertTrue(logs(dir).size() <= 3, logs(dir).toString());
+
+    try (var store = new PlaylistStore(dir, PlaylistStore.Durability.DEFERRED, 256)) {
+      List<String> videoIds = videoIds(store, 0);
+      assertEquals(250, videoIds.size());
+      assertEquals("video_1", videoIds.get(0));
+      assertEquals("video_499", videoIds.get(249));
+      assertFalse(videoIds.contains("video_0"));
+    }
+  }
+
+  @Test
+  public void testPlayerRestoresSavedPlaylists(@TempDir Path dir) throws IOException {
+    var library = new VideoLibrary();
+    try (var store = new PlaylistStore(dir, PlaylistStore.Durability.DEFERRED)) {
+      var player = new VideoPlayer(library, new CaptureSink(), store);
+      player.createPlaylist("my_PLAYlist");
+      player.addVideoToPlaylist("my_playlist", "amazing_cats_video_id");
+      player.addVideoToPlaylist("my_playlist", "funny_dogs_video_id");
+      player.addVideoToPlaylist("my_playlist", "some_other_video_id");
+      player.createPlaylist("cleared");
+      player.addVideoToPlaylist("cleared", "funny_dogs_video_id");
+      player.clearPlaylist("cleared");
+    }
+
+    try (var store = new PlaylistStore(dir, PlaylistStore.Durability.DEFERRED)) {
+      var output = new CaptureSink();
+      var player = new VideoPlayer(library, output, store);
+      player.showPlaylist("my_playlist");
+      player.showPlaylist("cleared");
+      assertEquals("Showing playlist: my_playlist\n"
+          + "Amazing Cats (amazing_cats_video_id) [#cat #animal]\n"
+          + "Funny Dogs (funny_dogs_video_id) [#dog #animal]\n"
+          + "Showing playlist: cleared\n"
+          + "No videos here yet\n", output.getOutput());
+    }
+  }
+}
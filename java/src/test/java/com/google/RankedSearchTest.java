@@ -0,0 +1,135 @@
+package com.google;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class RankedSearchTest {
+
+  @TempDir
+  Path directory;
+
+  private static List<String> idsOf(List<Video> videos) {
+    return videos.stream().map(Video::getVideoId).collect(Collectors.toList());
+  }
+
+  private VideoLibrary libraryOf(String catalog) throws Exception {
+    Path file = directory.resolve("videos.txt");
+    Files.writeString(file, catalog);
+    return new VideoLibrary(file);
+  }
+
+  @Test
+  public void testRanksWholeWordsThenWordStartsThenEarlierPositionsThenTags() throws Exception {
+    VideoLibrary library = libraryOf(""
+        + "Bobcats | middle | #wild\n"
+        + "Funny Cats | prefix_late | #pet\n"
+        + "Cats Compilation | prefix_early | #pet\n"
+        + "My Favourite Cat | word_late | #pet\n"
+        + "Cat Facts | word_early | #pet\n"
+        + "Another Cat Video | word_tagged | #cat\n");
+
+    assertEquals(List.of("word_tagged", "word_early", "word_late", "prefix_early", "prefix_late",
+        "middle"), idsOf(library.searchVideosByTitle("CAT", 10)));
+    assertEquals(List.of("word_tagged", "word_early"),
+        idsOf(library.searchVideosByTitle("cat", 2)));
+    //a term with a space is only matched as a substring
+    assertEquals(List.of("word_early"), idsOf(library.searchVideosByTitle("cat f", 3)));
+  }
+
+  @Test
+  public void testSkipsFlaggedAndRemovedVideosAndSearchesNewSegments() throws Exception {
+    VideoLibrary library = libraryOf("Cat One | cat1 | #cat\nCat Two | cat2 | #cat\n");
+    library.flagVideo(library.getVideo("cat1"), "spam");
+    assertEquals(List.of("cat2"), idsOf(library.searchVideosByTitle("cat", 1)));
+
+    Path file = directory.resolve("videos.txt");
+    Files.writeString(file, "Cat One | cat1 | #cat\nA Cat | cat3 |\n");
+    library.reload(file);
+    assertEquals(List.of("cat3"), idsOf(library.searchVideosByTitle("cat", 5)));
+  }
+
+  @Test
+  public void testParserReadsTopAndRejectsBadCounts() {
+    CaptureSink output = new CaptureSink();
+    VideoPlayer player = new VideoPlayer(new VideoLibrary(), output);
+    player.setAnswerReader(() -> null);
+    CommandParser parser = new CommandParser(player, null);
+
+    parser.executeCommandLine("SEARCH_VIDEOS cat top 1");
+    assertEquals("Here are the results for cat:", output.getLines()[0]);
+    //a whole word "Cat" ranks above "Cats"
+    assertEquals("1) Another Cat Video (another_cat_video_id) [#cat #animal]",
+        output.getLines()[1]);
+    assertEquals("Would you like to play any of the above? If yes, specify the number of the "
+        + "video.", output.getLines()[2]);
+    for (String bad : new String[] {"TOP", "TOP 0", "TOP -1", "TOP ten", "TOP 99999999999"}) {
+      output.clear();
+      parser.executeCommandLine("SEARCH_VIDEOS cat " + bad);
+      assertEquals("Please enter a positive number of results after TOP.", output.getLines()[0]);
+    }
+  }
+
+  /** Scores a title the slow way, from the definition. */
+  private static int score(String title, String tags, String term) {
+    title = title.toLowerCase();
+    int best = -1;
+    for (int i = 0; i + term.length() <= title.length(); i++) {
+      if (title.startsWith(term, i)) {
+        int end = i + term.length();
+        boolean atStart = i == 0 || !Character.isLetterOrDigit(title.charAt(i - 1));
+        boolean atEnd = end == title.length() || !Character.isLetterOrDigit(title.charAt(end));
+        int tier = !atStart ? 0 : atEnd ? RankedSearch.WHOLE_WORD : RankedSearch.WORD_PREFIX;
+        best = Math.max(best, tier + Math.max(0, RankedSearch.POSITION - i));
+      }
+    }
+    for (String tag : tags.split(" , ")) {
+      if (best >= 0 && tag.equalsIgnoreCase("#" + term)) {
+        return best + RankedSearch.TAG;
+      }
+    }
+    return best;
+  }
+
+  @Test
+  public void testAgreesWithScoringEveryTitle() throws Exception {
+    String[] words = {"cat", "cats", "catalog", "bobcat", "dog", "dogcat", "the", "a", "cat's"};
+    Random random = new Random(20);
+    StringBuilder catalog = new StringBuilder();
+    String[][] videos = new String[2_000][];
+    for (int v = 0; v < videos.length; v++) {
+      StringBuilder title = new StringBuilder();
+      for (int w = random.nextInt(12); w >= 0; w--) {
+        title.append(words[random.nextInt(words.length)]).append(w == 0 ? "" : " ");
+      }
+      String tags = random.nextBoolean() ? "#cat" : "#dog";
+      videos[v] = new String[] {title.toString(), "v" + v, tags};
+      catalog.append(title).append(" | v").append(v).append(" | ").append(tags).append('\n');
+    }
+    VideoLibrary library = libraryOf(catalog.toString());
+
+    for (String term : new String[] {"cat", "ca", "dog", "at", "cat's", "g c"}) {
+      List<String[]> expected = new ArrayList<>();
+      for (String[] video : videos) {
+        if (score(video[0], video[2], term) >= 0) {
+          expected.add(video);
+        }
+      }
+      //stable, so equal scores stay in catalog order
+      expected.sort(Comparator.comparingInt(video -> -score(video[0], video[2], term)));
+      for (int k : new int[] {1, 7, 100, 5_000}) {
+        List<String> ids = expected.stream().limit(k).map(video -> video[1])
+            .collect(Collectors.toList());
+        assertEquals(ids, idsOf(library.searchVideosByTitle(term, k)), term + " TOP " + k);
+      }
+    }
+  }
+}
@@ -0,0 +1,132 @@
+package com.google;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class SearchCacheTest {
+
+  @TempDir
+  Path directory;
+
+  @Test
+  public void testEvictsLeastRecentlyUsedByCountAndWeight() {
+    SearchCache cache = new SearchCache(2, 1_000);
+    int[] a = cache.get("a", 1, () -> new int[] {1});
+    cache.get("b", 1, () -> new int[] {2});
+    assertSame(a, cache.get("a", 1, () -> new int[] {9}));
+    cache.get("c", 1, () -> new int[] {3});
+    //b was used least recently
+    assertArrayEquals(new int[] {2, 2}, cache.get("b", 1, () -> new int[] {2, 2}));
+    assertEquals(2, cache.getStats().getEntries());
+
+    cache.get("big", 1, () -> new int[1_000 - SearchCache.ENTRY_WEIGHT]);
+    SearchCache.Stats stats = cache.getStats();
+    assertEquals(1, stats.getEntries());
+    assertEquals(1_000, stats.getWeight());
+    assertEquals(1, stats.getHits());
+    assertEquals(5, stats.getMisses());
+    assertEquals(4, stats.getEvictions());
+
+    //a result too heavy to fit is not cached and evicts nothing
+    cache.get("huge", 1, () -> new int[1_000]);
+    assertNull(cache.peek("huge", 1));
+    assertNotNull(cache.peek("big", 1));
+    stats = cache.getStats();
+    assertEquals(1, stats.getEntries());
+    assertEquals(4, stats.getEvictions());
+    assertEquals(2, stats.getHits());
+    assertEquals(7, stats.getMisses());
+  }
+
+  @Test
+  public void testNewerVersionRecomputesAndFailuresAreNotCached() {
+    SearchCache cache = new SearchCache();
+    cache.get("a", 1, () -> new int[] {1});
+    assertArrayEquals(new int[] {2}, cache.get("a", 2, () -> new int[] {2}));
+    //an older version neither gets nor replaces the newer result
+    assertArrayEquals(new int[] {1}, cache.get("a", 1, () -> new int[] {1}));
+    assertArrayEquals(new int[] {2}, cache.get("a", 2, () -> new int[] {3}));
+
+    assertThrows(IllegalArgumentException.class, () -> cache.get("bad", 2, () -> {
+      throw new IllegalArgumentException("malformed");
+    }));
+    assertArrayEquals(new int[] {4}, cache.get("bad", 2, () -> new int[] {4}));
+  }
+
+  @Test
+  public void testConcurrentMissesShareOneComputation() throws Exception {
+    SearchCache cache = new SearchCache();
+    AtomicInteger computations = new AtomicInteger();
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    Future<int[]> first = pool.submit(() -> cache.get("q", 1, () -> {
+      computations.incrementAndGet();
+      started.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        throw new IllegalStateException(e);
+      }
+      return new int[] {7};
+    }));
+    started.await();
+    Future<int[]> second = pool.submit(() -> cache.get("q", 1, () -> {
+      computations.incrementAndGet();
+      return new int[] {8};
+    }));
+    while (cache.getStats().getCoalesced() == 0) {
+      Thread.sleep(1);
+    }
+    release.countDown();
+
+    assertSame(first.get(), second.get());
+    assertEquals(1, computations.get());
+    assertEquals(1, cache.getStats().getMisses());
+    pool.shutdown();
+    pool.awaitTermination(5, TimeUnit.SECONDS);
+  }
+
+  private static List<String> idsOf(List<Video> videos) {
+    return videos.stream().map(Video::getVideoId).collect(Collectors.toList());
+  }
+
+  @Test
+  public void testLibraryAppliesFlagsToCachedResultsAndReloadInvalidates() throws Exception {
+    Path catalog = directory.resolve("videos.txt");
+    Files.writeString(catalog, "Cat One | cat1 | #cat\nCat Two | cat2 | #cat , #pet\n");
+    VideoLibrary library = new VideoLibrary(catalog);
+    Video one = library.getVideo("cat1");
+
+    assertEquals(List.of("cat1", "cat2"), idsOf(library.searchVideosByTitle("CAT")));
+    library.flagVideo(one, "spam");
+    assertEquals(List.of("cat2"), idsOf(library.searchVideosByTitle("cat")));
+    assertEquals(List.of("cat2"), idsOf(library.searchVideosByTags("#CAT")));
+    library.allowVideo(one);
+    assertEquals(List.of("cat1", "cat2"), idsOf(library.searchVideosByTags("  #cat ")));
+    assertEquals(2, library.getSearchCache().getStats().getHits());
+
+    Files.writeString(catalog, "Cat Two | cat2 | #cat , #pet\nCat Three | cat3 | #cat\n");
+    library.reload(catalog);
+    assertEquals(List.of("cat3", "cat2"), idsOf(library.searchVideosByTitle("cat")));
+    assertEquals(List.of("cat3", "cat2"), idsOf(library.searchVideosByTags("#cat")));
+    assertEquals(2, library.getSearchCache().getStats().getHits());
+  }
+}
@@ -0,0 +1,79 @@
+package com.google;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+public class SessionManagerTest {
+
+  private final VideoLibrary library = new VideoLibrary();
+  private final SessionManager sessions = new SessionManager(library);
+
+  @Test
+  public void testSessionsHaveOwnPlaybackAndPlaylistsButShareFlags() {
+    var alice = new CaptureSink();
+    var bob = new CaptureSink();
+    var alicePlayer = sessions.open("alice", () -> alice);
+    var bobPlayer = sessions.open("bob", () -> bob);
+    assertSame(alicePlayer, sessions.open("alice", CaptureSink::new));
+
+    alicePlayer.playVideo("amazing_cats_video_id");
+    alicePlayer.createPlaylist("mine");
+    bobPlayer.showPlaying();
+    bobPlayer.createPlaylist("mine");
+    alicePlayer.flagVideo("funny_dogs_video_id", "spam");
+    bobPlayer.playVideo("funny_dogs_video_id");
+
+    assertThat(bob.getLines()[0], containsString("No video is currently playing"));
+    assertThat(bob.getLines()[1], containsString("Successfully created new playlist: mine"));
+    assertThat(bob.getLines()[2],
+        containsString("Cannot play video: Video is currently flagged (reason: spam)"));
+    assertEquals(2, sessions.size());
+    sessions.close("alice");
+    assertEquals(1, sessions.size());
+  }
+
+  @Test
+  public void testConcurrentFlagAndAllowKeepFlagMaskConsistent() throws Exception {
+    String[] ids = {"funny_dogs_video_id", "amazing_cats_video_id", "another_cat_video_id"};
+    AtomicInteger flags = new AtomicInteger();
+    AtomicInteger allows = new AtomicInteger();
+    ExecutorService pool = Executors.newFixedThreadPool(8);
+    List<Future<?>> futures = new ArrayList<>();
+    for (int t = 0; t < 8; t++) {
+      VideoPlayer player = sessions.open("session" + t, NullSink::new);
+      player.setAnswerReader(() -> null);
+      futures.add(pool.submit(() -> {
+        for (int i = 0; i < 2_000; i++) {
+          Video video = library.getVideo(ids[i % ids.length]);
+          if (library.flagVideo(video, "reason")) {
+            flags.incrementAndGet();
+          }
+          player.searchVideosWithTag("#animal");
+          if (library.allowVideo(video)) {
+            allows.incrementAndGet();
+          }
+        }
+      }));
+    }
+    for (Future<?> future : futures) {
+      future.get();
+    }
+    pool.shutdown();
+    pool.awaitTermination(10, TimeUnit.SECONDS);
+
+    assertEquals(flags.get(), allows.get());
+    //every video ends unflagged, so the mask must no longer hide any of them
+    assertEquals(3, library.searchTags("#animal").cardinality());
+  }
+}
@@ -0,0 +1,107 @@
+package com.google;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ShardTest {
+
+  private static final String[] WORDS = {"Funny", "Cats", "Dogs", "Cooking", "Google", "Life"};
+
+  @TempDir
+  Path directory;
+
+  /** Writes a catalog of count videos, with titles repeating so that some sort by id. */
+  private Path catalog(int count, String suffix) throws IOException {
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < count; i++) {
+      text.append(WORDS[i % WORDS.length]).append(' ').append(WORDS[i * 7 % WORDS.length])
+          .append(' ').append(i % 500).append(suffix).append(" | video_").append(i)
+          .append(" | #tag").append(i % 3).append(i % 5 == 0 ? " #five" : "").append('\n');
+    }
+    Path file = directory.resolve("videos.txt");
+    Files.writeString(file, text);
+    return file;
+  }
+
+  private static VideoLibrary library(Path catalog, int shards) {
+    return new VideoLibrary(catalog, null, new CatalogLoader(), CatalogStore.Storage.HEAP,
+        shards);
+  }
+
+  private static List<String> idsOf(List<Video> videos) {
+    return videos.stream().map(Video::getVideoId).collect(Collectors.toList());
+  }
+
+  /** Checks that every search of the sharded library returns what the unsharded one does. */
+  private static void assertSameResults(VideoLibrary sharded, VideoLibrary single) {
+    for (String term : new String[] {"cat", "s", "dogs 4", "ing g", "12", "", "zebra"}) {
+      assertEquals(idsOf(single.searchVideosByTitle(term)),
+          idsOf(sharded.searchVideosByTitle(term)), term);
+      assertEquals(idsOf(single.searchVideosByTitle(term, 5)),
+          idsOf(sharded.searchVideosByTitle(term, 5)), term);
+    }
+    for (String tags : new String[] {"#tag1", "#five AND NOT #tag0", "#tag2 OR #five"}) {
+      assertEquals(idsOf(single.searchVideosByTags(tags)),
+          idsOf(sharded.searchVideosByTags(tags)), tags);
+    }
+    assertEquals(idsOf(single.getVideosByTitle()), idsOf(sharded.getVideosByTitle()));
+    for (int i = 0; i < 7000; i += 97) {
+      Video video = sharded.getVideo("video_" + i);
+      Video expected = single.getVideo("video_" + i);
+      assertEquals(expected == null ? null : expected.getTitle(),
+          video == null ? null : video.getTitle());
+    }
+  }
+
+  @Test
+  public void testShardedSearchesMatchASingleShard() throws IOException {
+    Path file = catalog(6000, "");
+    VideoLibrary sharded = library(file, 4);
+    VideoLibrary single = library(file, 1);
+    assertEquals(4, sharded.getCatalog().shardCount());
+    assertEquals(1, single.getCatalog().shardCount());
+    assertSameResults(sharded, single);
+    assertNull(sharded.getVideo("video_6000"));
+
+    //a reload appends a segment that is sharded too, and merges it once it grows
+    file = catalog(6500, "");
+    Files.writeString(file, "Changed Cats | video_3 | #tag0\n", StandardOpenOption.APPEND);
+    sharded.reload(file);
+    single.reload(file);
+    assertSameResults(sharded, single);
+    file = catalog(7000, " again");
+    sharded.reload(file);
+    single.reload(file);
+    assertSameResults(sharded, single);
+  }
+
+  @Test
+  public void testSmallCatalogsAreNotSplit() throws IOException {
+    Path file = catalog(CatalogShards.MIN_SHARD_SIZE * 2 + 1, "");
+    assertEquals(2, library(file, 8).getCatalog().shardCount());
+    assertEquals(1, new VideoLibrary().getCatalog().shardCount());
+    assertThrows(IllegalArgumentException.class,
+        () -> library(file, CatalogShards.MAX_SHARDS + 1));
+  }
+
+  @Test
+  public void testIdsSpreadOverEveryShard() {
+    int[] counts = new int[8];
+    for (int i = 0; i < 8000; i++) {
+      counts[CatalogShards.shardOf("video_" + i, counts.length)]++;
+    }
+    for (int count : counts) {
+      assertEquals(1000, count, 200);
+    }
+  }
+}
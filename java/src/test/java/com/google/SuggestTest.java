@@ -0,0 +1,110 @@
+package com.google;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class SuggestTest {
+
+  @TempDir
+  Path directory;
+
+  private static List<String> idsOf(List<Video> videos) {
+    return videos.stream().map(Video::getVideoId).collect(Collectors.toList());
+  }
+
+  @Test
+  public void testListsIdMatchesThenTitleMatchesAndFollowsReloads() throws Exception {
+    Path file = directory.resolve("videos.txt");
+    Files.writeString(file, ""
+        + "Funny Dogs | funny_dogs_id |\n"
+        + "Cats Being Funny | cats_id |\n"
+        + "Funny Cats | cat_funny_id |\n"
+        + "Ca Va | ca_id |\n");
+    VideoLibrary library = new VideoLibrary(file);
+
+    assertEquals(List.of("ca_id", "cat_funny_id", "cats_id"), idsOf(library.suggest("CA", 10)));
+    //matched by id first, then by title without repeating cats_id
+    assertEquals(List.of("cat_funny_id", "cats_id"), idsOf(library.suggest("cat", 10)));
+    assertEquals(List.of("funny_dogs_id", "cat_funny_id"), idsOf(library.suggest("funny", 2)));
+    library.flagVideo(library.getVideo("ca_id"), "spam");
+    assertEquals(List.of("cat_funny_id"), idsOf(library.suggest("ca", 1)));
+
+    Files.writeString(file, ""
+        + "Funny Dogs | funny_dogs_id |\n"
+        + "Funny Cats | cat_funny_id |\n"
+        + "Ca Va | ca_id |\n"
+        + "Catalog Tour | catalog_id |\n");
+    library.reload(file);
+    assertEquals(List.of("cat_funny_id", "catalog_id"), idsOf(library.suggest("ca", 10)));
+  }
+
+  @Test
+  public void testParserListsTenUnlessTopIsGiven() {
+    CaptureSink output = new CaptureSink();
+    VideoPlayer player = new VideoPlayer(new VideoLibrary(), output);
+    CommandParser parser = new CommandParser(player, null);
+
+    parser.executeCommandLine("SUGGEST amaz");
+    assertEquals(List.of("Here are the suggestions for amaz:",
+        "1) Amazing Cats (amazing_cats_video_id) [#cat #animal]"), List.of(output.getLines()));
+    output.clear();
+    parser.executeCommandLine("SUGGEST zzz");
+    assertEquals(List.of("No suggestions for zzz"), List.of(output.getLines()));
+    output.clear();
+    parser.executeCommandLine("SUGGEST a top 1");
+    assertEquals(2, output.getLines().length);
+  }
+
+  @Test
+  public void testMergesSegmentsLikeSortingEveryVideo() throws Exception {
+    Random random = new Random(22);
+    Path file = directory.resolve("videos.txt");
+    List<String[]> videos = new ArrayList<>();
+    VideoLibrary library = null;
+    for (int round = 0; round < 4; round++) {
+      for (int i = 0; i < 300; i++) {
+        String id = Integer.toString(random.nextInt(2_000), 7);
+        String title = (random.nextBoolean() ? "Cat " : "cA") + random.nextInt(1_000);
+        if (videos.stream().noneMatch(video -> video[1].equals(id))) {
+          videos.add(new String[] {title, id});
+        }
+      }
+      StringBuilder catalog = new StringBuilder();
+      for (String[] video : videos) {
+        catalog.append(video[0]).append(" | ").append(video[1]).append(" |\n");
+      }
+      Files.writeString(file, catalog.toString());
+      if (library == null) {
+        library = new VideoLibrary(file);
+      } else {
+        library.reload(file);
+      }
+    }
+
+    VideoLibrary loaded = library;
+    for (String prefix : new String[] {"1", "12", "ca", "cat 1", "Ca5", "x"}) {
+      Comparator<String[]> byId = Comparator.comparing(video -> video[1].toLowerCase());
+      List<String> expected = videos.stream()
+          .filter(video -> video[1].toLowerCase().startsWith(prefix.toLowerCase()))
+          .sorted(byId).map(video -> video[1]).collect(Collectors.toList());
+      videos.stream()
+          .filter(video -> !video[1].toLowerCase().startsWith(prefix.toLowerCase()))
+          .filter(video -> video[0].toLowerCase().startsWith(prefix.toLowerCase()))
+          .sorted(Comparator.comparing((String[] video) -> video[0].toLowerCase())
+              .thenComparing(video -> loaded.getVideo(video[1]).getOrdinal()))
+          .forEach(video -> expected.add(video[1]));
+      assertEquals(expected, idsOf(loaded.suggest(prefix, 5_000)), prefix);
+      assertEquals(expected.subList(0, Math.min(7, expected.size())),
+          idsOf(loaded.suggest(prefix, 7)), prefix);
+    }
+  }
+}
@@ -1,13 +1,28 @@
 package com.google;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 public class VideoLibraryTest {
 
@@ -42,4 +57,441 @@ public class VideoLibraryTest {
     assertEquals("nothing_video_id", video.getVideoId());
     assertTrue(video.getTags().isEmpty());
   }
+
+  @Test
+  public void testLibrarySkipsMalformedLines(@TempDir Path dir) throws IOException {
+    Path catalog = dir.resolve("videos.txt");
+    Files.writeString(catalog, "Funny Dogs | funny_dogs_video_id |  #dog , #animal\n"
+        + "no separators here\n"
+        + "\n"
+        + " | missing_title_id | #tag\n"
+        + "Life at Google | life_at_google_video_id |  #google , #career\r\n");
+
+    var library = new VideoLibrary(catalog);
+
+    assertEquals(2, library.getVideos().size());
+    assertEquals(4, library.getLoadStats().getLines());
+    assertEquals(2, library.getLoadStats().getMalformedLines());
+    assertEquals(List.of("#google", "#career"),
+        library.getVideo("life_at_google_video_id").getTags());
+  }
+
+  @Test
+  public void testLibraryParsesAcrossChunkBoundaries(@TempDir Path dir) throws IOException {
+    Path catalog = dir.resolve("videos.txt");
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      text.append("Vid\u00e9o ").append(i).append(" | id_").append(i).append(" | #t").append(i % 7)
+          .append('\n');
+    }
+    Files.writeString(catalog, text, StandardCharsets.UTF_8);
+
+    var library = new VideoLibrary(catalog, new CatalogLoader(ForkJoinPool.commonPool(), 64));
+
+    assertEquals(1000, library.getVideos().size());
+    assertEquals(0, library.getLoadStats().getMalformedLines());
+    assertEquals("Vid\u00e9o 999", library.getVideo("id_999").getTitle());
+    assertEquals(List.of("#t3"), library.getVideo("id_500").getTags());
+  }
+
+  @Test
+  public void testSearchTitlesUsesTrigramIndex() {
+    assertEquals(List.of("amazing_cats_video_id", "another_cat_video_id"),
+        idsOf(videoLibrary.searchTitles("CaT")));
+    assertEquals(List.of("nothing_video_id"), idsOf(videoLibrary.searchTitles("about noth")));
+    assertEquals(5, videoLibrary.searchTitles("").length);
+    assertEquals(List.of("funny_dogs_video_id"), idsOf(videoLibrary.searchTitles("y d")));
+    assertEquals(0, videoLibrary.searchTitles("cats video").length);
+    assertEquals(0, videoLibrary.searchTitles("zzz").length);
+  }
+
+  @Test
+  public void testSearchTagsMatchesWholeTagsAndExpressions() {
+    assertEquals(List.of("amazing_cats_video_id", "another_cat_video_id"),
+        idsOf(videoLibrary.searchTags("#CAT").toArray()));
+    assertEquals(0, videoLibrary.searchTags("#ca").cardinality());
+    assertEquals(List.of("funny_dogs_video_id"),
+        idsOf(videoLibrary.searchTags("#animal AND NOT #cat").toArray()));
+    assertEquals(List.of("funny_dogs_video_id", "life_at_google_video_id"),
+        idsOf(videoLibrary.searchTags("#dog OR (#google AND #career)").toArray()));
+    assertEquals(List.of("nothing_video_id"),
+        idsOf(videoLibrary.searchTags("not #animal and not #google").toArray()));
+
+    videoLibrary.flagVideo(videoLibrary.getVideo("amazing_cats_video_id"), "reason");
+    assertEquals(List.of("another_cat_video_id"), idsOf(videoLibrary.searchTags("#cat").toArray()));
+    videoLibrary.allowVideo(videoLibrary.getVideo("amazing_cats_video_id"));
+    assertEquals(2, videoLibrary.searchTags("#cat").cardinality());
+  }
+
+  @Test
+  public void testSearchTagsRejectsMalformedExpressions() {
+    assertThrows(IllegalArgumentException.class, () -> videoLibrary.searchTags("#cat AND"));
+    assertThrows(IllegalArgumentException.class, () -> videoLibrary.searchTags("(#cat"));
+    assertThrows(IllegalArgumentException.class, () -> videoLibrary.searchTags("#cat )"));
+    assertEquals("missing AND or OR before #animal", assertThrows(IllegalArgumentException.class,
+        () -> videoLibrary.searchTags("#cat #animal")).getMessage());
+    assertThrows(IllegalArgumentException.class,
+        () -> videoLibrary.searchTags("#dog OR (#google #career)"));
+  }
+
+  @Test
+  public void testVideosByTitleFollowTitleIndex() {
+    List<String> titles = new ArrayList<>();
+    for (Video video : videoLibrary.getVideosByTitle()) {
+      titles.add(video.getTitle());
+    }
+    assertEquals(List.of("Amazing Cats", "Another Cat Video", "Funny Dogs", "Life at Google",
+        "Video about nothing"), titles);
+
+    int[] ordinals = {videoLibrary.getVideo("nothing_video_id").getOrdinal(),
+        videoLibrary.getVideo("amazing_cats_video_id").getOrdinal()};
+    List<Video> sorted = videoLibrary.inTitleOrder(ordinals);
+    assertEquals("Amazing Cats", sorted.get(0).getTitle());
+    assertEquals("Video about nothing", sorted.get(1).getTitle());
+  }
+
+  @Test
+  public void testTagsAreDictionaryEncoded() {
+    var dictionary = videoLibrary.getTagDictionary();
+    var cats = videoLibrary.getVideo("amazing_cats_video_id");
+    var otherCats = videoLibrary.getVideo("another_cat_video_id");
+
+    int animal = dictionary.find("#animal");
+    assertEquals(animal, videoLibrary.getStore().tagId(cats.getOrdinal(), 1));
+    assertEquals(animal, videoLibrary.getStore().tagId(otherCats.getOrdinal(), 1));
+    assertSame(cats.getTags().get(1), otherCats.getTags().get(1));
+    assertTrue(cats.hasTag(animal));
+    assertFalse(videoLibrary.getVideo("nothing_video_id").hasTag(animal));
+    assertEquals(-1, dictionary.find("#ANIMAL"));
+  }
+
+  @Test
+  public void testOffHeapStoreMatchesHeapStore() {
+    var offHeap = new VideoLibrary(VideoLibrary.defaultCatalog(), null, new CatalogLoader(),
+        CatalogStore.Storage.OFF_HEAP);
+    assertEquals(CatalogStore.Storage.OFF_HEAP, offHeap.getStore().getStorage());
+    assertEquals(videoLibrary.size(), offHeap.size());
+    for (int ordinal = 0; ordinal < offHeap.size(); ordinal++) {
+      var expected = videoLibrary.getVideo(ordinal);
+      var actual = offHeap.getVideo(ordinal);
+      assertEquals(expected.getTitle(), actual.getTitle());
+      assertEquals(expected.getVideoId(), actual.getVideoId());
+      assertEquals(expected.getTags(), actual.getTags());
+      assertEquals(actual, offHeap.getVideo(actual.getVideoId()));
+    }
+    assertEquals(List.of("amazing_cats_video_id", "another_cat_video_id"),
+        idsOf(offHeap.searchTitles("cat")));
+    assertEquals(videoLibrary.getVideosByTitle().get(2).getTitle(),
+        offHeap.getVideosByTitle().get(2).getTitle());
+
+    offHeap.flagVideo(offHeap.getVideo("amazing_cats_video_id"), "dont_like_cats");
+    assertEquals(1, offHeap.searchTags("#cat").cardinality());
+    assertEquals(4, offHeap.unflaggedCount());
+    for (int i = 0; i < 4; i++) {
+      assertNotEquals("amazing_cats_video_id", offHeap.unflaggedVideo(i).getVideoId());
+    }
+    assertNull(offHeap.unflaggedVideo(4));
+  }
+
+  @Test
+  public void testRandomUnflaggedVideoFollowsFlags() {
+    for (var video : videoLibrary.getVideos()) {
+      if (!video.getVideoId().equals("funny_dogs_video_id")) {
+        videoLibrary.flagVideo(video, "not_dogs");
+      }
+    }
+    assertEquals(1, videoLibrary.unflaggedCount());
+    for (int i = 0; i < 20; i++) {
+      assertEquals("funny_dogs_video_id", videoLibrary.randomUnflaggedVideo().getVideoId());
+    }
+
+    videoLibrary.flagVideo(videoLibrary.getVideo("funny_dogs_video_id"), "no_dogs_either");
+    assertEquals(0, videoLibrary.unflaggedCount());
+    assertNull(videoLibrary.randomUnflaggedVideo());
+
+    videoLibrary.allowVideo(videoLibrary.getVideo("nothing_video_id"));
+    videoLibrary.allowVideo(videoLibrary.getVideo("funny_dogs_video_id"));
+    assertEquals(2, videoLibrary.unflaggedCount());
+    var seen = new HashSet<String>();
+    for (int i = 0; i < 200; i++) {
+      seen.add(videoLibrary.randomUnflaggedVideo().getVideoId());
+    }
+    assertEquals(Set.of("nothing_video_id", "funny_dogs_video_id"), seen);
+  }
+
+  @Test
+  public void testConcurrentFlagsKeepPlayableVideosConsistent(@TempDir Path dir)
+      throws Exception {
+    Path catalog = dir.resolve("videos.txt");
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      text.append("Video ").append(i).append(" | id_").append(i).append(" | #tag\n");
+    }
+    Files.writeString(catalog, text);
+    var library = new VideoLibrary(catalog);
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < 4; t++) {
+      int first = t;
+      threads.add(new Thread(() -> {
+        for (int round = 0; round < 20; round++) {
+          for (int i = first; i < 1000; i += 4) {
+            library.flagVideo(library.getVideo("id_" + i), "spam");
+            if (round < 19 || i % 2 == 0) {
+              library.allowVideo(library.getVideo("id_" + i));
+            }
+            assertNotNull(library.randomUnflaggedVideo());
+          }
+        }
+      }));
+    }
+    threads.forEach(Thread::start);
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(500, library.unflaggedCount());
+    assertEquals(500, library.searchTags("#tag").cardinality());
+    for (int i = 0; i < 200; i++) {
+      int id = Integer.parseInt(library.randomUnflaggedVideo().getVideoId().substring(3));
+      assertEquals(0, id % 2);
+    }
+  }
+
+  @Test
+  public void testSnapshotRestoresCatalogOrderAndFlags(@TempDir Path dir) throws IOException {
+    Path catalog = dir.resolve("videos.txt");
+    Files.writeString(catalog, "Funny Dogs | funny_dogs_video_id |  #dog , #animal\n"
+        + "Amazing Cats | amazing_cats_video_id |  #cat , #animal\n"
+        + "Video about nothing | nothing_video_id |\n");
+    Path snapshot = dir.resolve("videos.snapshot");
+
+    var loaded = new VideoLibrary(catalog, snapshot);
+    assertEquals(Files.size(catalog), loaded.getLoadStats().getBytes());
+    assertTrue(Files.exists(snapshot));
+    loaded.flagVideo(loaded.getVideo("funny_dogs_video_id"), "spam");
+    loaded.writeSnapshot(snapshot, catalog);
+
+    var restored = new VideoLibrary(catalog, snapshot);
+    assertEquals(Files.size(snapshot), restored.getLoadStats().getBytes());
+    assertEquals(3, restored.size());
+    assertEquals(List.of("#cat", "#animal"), restored.getVideo("amazing_cats_video_id").getTags());
+    assertEquals("Amazing Cats", restored.getVideosByTitle().get(0).getTitle());
+    assertEquals("spam", restored.getVideo("funny_dogs_video_id").getFlagReason());
+    assertEquals(1, restored.searchTags("#animal").cardinality());
+  }
+
+  @Test
+  public void testReloadAppliesDiffAndCarriesFlags(@TempDir Path dir) throws IOException {
+    Path catalog = dir.resolve("videos.txt");
+    Files.writeString(catalog, "Funny Dogs | funny_dogs_video_id |  #dog , #animal\n"
+        + "Amazing Cats | amazing_cats_video_id |  #cat , #animal\n"
+        + "Video about nothing | nothing_video_id |\n");
+    var library = new VideoLibrary(catalog);
+    var dogs = library.getVideo("funny_dogs_video_id");
+    var oldCats = library.getVideo("amazing_cats_video_id");
+    library.flagVideo(oldCats, "dont_like_cats");
+    library.flagVideo(library.getVideo("nothing_video_id"), "boring");
+
+    Files.writeString(catalog, "Funny Dogs | funny_dogs_video_id |  #dog , #animal\n"
+        + "Amazing Cats Returns | amazing_cats_video_id |  #cat , #animal\n"
+        + "Life at Google | life_at_google_video_id |  #google , #career\n");
+    var reload = library.reload(catalog);
+
+    assertEquals(1, reload.getAdded());
+    assertEquals(1, reload.getChanged());
+    assertEquals(1, reload.getRemoved());
+    assertEquals(2, reload.getVersion());
+    assertEquals(3, library.size());
+    assertEquals(dogs, library.getVideo("funny_dogs_video_id"));
+    assertNull(library.getVideo("nothing_video_id"));
+    var cats = library.getVideo("amazing_cats_video_id");
+    assertEquals("Amazing Cats Returns", cats.getTitle());
+    assertEquals("dont_like_cats", cats.getFlagReason());
+    assertEquals("Amazing Cats", oldCats.getTitle()); //views of the old version still read it
+    int[] cat = library.searchTitles("cat");
+    assertEquals(1, cat.length);
+    assertEquals(cats, library.getVideo(cat[0]));
+    assertEquals(2, library.searchTags("#animal OR #google").cardinality());
+    assertEquals(List.of("Amazing Cats Returns", "Funny Dogs", "Life at Google"),
+        titlesOf(library.getVideosByTitle()));
+    assertEquals(2, library.unflaggedCount());
+    for (int i = 0; i < 20; i++) {
+      assertNotEquals("amazing_cats_video_id", library.randomUnflaggedVideo().getVideoId());
+    }
+
+    assertEquals(0, library.reload(catalog).getChanged()); //an unchanged file is a no-op
+    assertEquals(2, library.getCatalog().getNumber());
+
+    Path snapshot = dir.resolve("videos.snapshot");
+    library.writeSnapshot(snapshot, catalog);
+    var restored = new VideoLibrary(catalog, snapshot);
+    assertEquals(Files.size(snapshot), restored.getLoadStats().getBytes());
+    assertEquals(titlesOf(library.getVideosByTitle()), titlesOf(restored.getVideosByTitle()));
+    assertEquals("dont_like_cats",
+        restored.getVideo("amazing_cats_video_id").getFlagReason());
+  }
+
+  @Test
+  public void testRepeatedReloadsKeepFewSegments(@TempDir Path dir) throws IOException {
+    Path catalog = dir.resolve("videos.txt");
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 64; i++) {
+      text.append("Video ").append(99 - i).append(" | id_").append(i).append(" | #tag\n");
+    }
+    Files.writeString(catalog, text);
+    var library = new VideoLibrary(catalog);
+    for (int i = 64; i < 128; i++) {
+      text.append("Video ").append(99 - i).append(" | id_").append(i).append(" | #tag\n");
+      Files.writeString(catalog, text);
+      assertEquals(1, library.reload(catalog).getAdded());
+      assertTrue(library.getCatalog().segmentCount() <= 8);
+    }
+    assertEquals(128, library.size());
+    assertEquals(128, library.searchTags("#tag").cardinality());
+    assertEquals(library.getVideos().size(), library.getVideosByTitle().size());
+    List<String> titles = titlesOf(library.getVideosByTitle());
+    List<String> sorted = new ArrayList<>(titles);
+    sorted.sort(null);
+    assertEquals(sorted, titles);
+    for (int i = 0; i < 128; i++) {
+      assertEquals("id_" + i, library.getVideo("id_" + i).getVideoId());
+    }
+  }
+
+  @Test
+  public void testMergedSegmentsLeaveOutRemovedRows(@TempDir Path dir) throws IOException {
+    Path catalog = dir.resolve("videos.txt");
+    Files.writeString(catalog, "Alpha | a | #x\nBravo | b | #x\nCharlie | c |\nDelta | d | #x\n");
+    var library = new VideoLibrary(catalog);
+    var bravo = library.getVideo("b");
+    library.flagVideo(library.getVideo("d"), "spam");
+
+    //as many new videos as the first segment has rows, so the two merge
+    Files.writeString(catalog, "Alpha | a | #x\nDelta | d | #x\nEcho | e | #x\nFoxtrot | f |\n"
+        + "Golf | g | #x\nHotel | h |\n");
+    assertEquals(2, library.reload(catalog).getRemoved());
+    assertEquals(1, library.getCatalog().segmentCount());
+    assertEquals(6, library.size());
+    assertEquals(8, library.getStore().size());
+    assertThrows(IllegalArgumentException.class,
+        () -> library.getStore().title(bravo.getOrdinal()));
+    assertEquals("Bravo", bravo.getTitle()); //views of the old version still read it
+    assertEquals(List.of("Alpha", "Delta", "Echo", "Foxtrot", "Golf", "Hotel"),
+        titlesOf(library.getVideosByTitle()));
+    assertEquals(List.of("Alpha", "Echo", "Golf"), titlesOf(library.searchVideosByTags("#x")));
+    assertEquals(List.of("Echo", "Foxtrot"),
+        titlesOf(library.searchVideosByTitle("o", "Delta", library.getVideo("d").getOrdinal(),
+            2)));
+    assertEquals("spam", library.getVideo("d").getFlagReason());
+    assertNull(library.getVideo("b"));
+    assertEquals(5, library.unflaggedCount());
+  }
+
+  @Test
+  public void testPlayerFollowsReload(@TempDir Path dir) throws IOException {
+    Path catalog = dir.resolve("videos.txt");
+    Files.writeString(catalog, "Funny Dogs | funny_dogs_video_id |  #dog , #animal\n"
+        + "Amazing Cats | amazing_cats_video_id |  #cat , #animal\n");
+    var library = new VideoLibrary(catalog);
+    var output = new CaptureSink();
+    var player = new VideoPlayer(library, output);
+    player.createPlaylist("mine");
+    player.addVideoToPlaylist("mine", "funny_dogs_video_id");
+    player.addVideoToPlaylist("mine", "amazing_cats_video_id");
+    player.playVideo("amazing_cats_video_id");
+
+    Files.writeString(catalog, "Funny Dogs Again | funny_dogs_video_id |  #dog\n");
+    library.reload(catalog);
+    output.clear();
+    player.showPlaylist("mine");
+    player.stopVideo();
+    assertEquals("Showing playlist: mine\n"
+        + "Funny Dogs Again (funny_dogs_video_id) [#dog]\n"
+        + "Stopping video: Amazing Cats\n", output.getOutput());
+  }
+
+  @Test
+  public void testStaleOrCorruptSnapshotFallsBackToText(@TempDir Path dir) throws IOException {
+    Path catalog = dir.resolve("videos.txt");
+    Files.writeString(catalog, "Funny Dogs | funny_dogs_video_id |  #dog , #animal\n");
+    Path snapshot = dir.resolve("videos.snapshot");
+    new VideoLibrary(catalog, snapshot);
+
+    Files.writeString(catalog, "Amazing Cats | amazing_cats_video_id |  #cat\n",
+        StandardOpenOption.APPEND);
+    var reloaded = new VideoLibrary(catalog, snapshot);
+    assertEquals(Files.size(catalog), reloaded.getLoadStats().getBytes());
+    assertNotNull(reloaded.getVideo("amazing_cats_video_id"));
+    var regenerated = new VideoLibrary(catalog, snapshot);
+    assertEquals(Files.size(snapshot), regenerated.getLoadStats().getBytes());
+
+    byte[] bytes = Files.readAllBytes(snapshot);
+    bytes[bytes.length - 1] ^= 1;
+    Files.write(snapshot, bytes);
+    var recovered = new VideoLibrary(catalog, snapshot);
+    assertEquals(Files.size(catalog), recovered.getLoadStats().getBytes());
+    assertEquals(2, recovered.size());
+  }
+
+  @Test
+  public void testSnapshotIndexesAreReadInPlaceAndCheckedOnFirstUse(@TempDir Path dir)
+      throws IOException {
+    Path catalog = dir.resolve("videos.txt");
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 5000; i++) {
+      text.append(i % 2 == 0 ? "Cat " : "Dog ").append(i).append(" | id_").append(i)
+          .append(" | #t").append(i % 7).append('\n');
+    }
+    Files.writeString(catalog, text);
+    Path snapshot = dir.resolve("videos.snapshot");
+    var loaded = new VideoLibrary(catalog, snapshot, new CatalogLoader(),
+        CatalogStore.Storage.HEAP, 4);
+    loaded.flagVideo(loaded.getVideo("id_12"), "spam");
+    loaded.writeSnapshot(snapshot, catalog);
+
+    var restored = new VideoLibrary(catalog, snapshot, new CatalogLoader(),
+        CatalogStore.Storage.HEAP, 4);
+    assertEquals(Files.size(snapshot), restored.getLoadStats().getBytes());
+    assertEquals(4, restored.getCatalog().shardCount());
+    for (String term : new String[] {"cat 12", "g 49", "99", "zebra"}) {
+      assertEquals(titlesOf(loaded.searchVideosByTitle(term)),
+          titlesOf(restored.searchVideosByTitle(term)), term);
+    }
+    assertEquals(titlesOf(loaded.searchVideosByTags("#t3 AND NOT #t4")),
+        titlesOf(restored.searchVideosByTags("#t3 AND NOT #t4")));
+    assertEquals("Dog 4321", restored.getVideo("id_4321").getTitle());
+    assertEquals("spam", restored.getVideo("id_12").getFlagReason());
+
+    //a snapshot split into other shards is stale, and is written again
+    var resharded = new VideoLibrary(catalog, snapshot, new CatalogLoader(),
+        CatalogStore.Storage.HEAP, 2);
+    assertEquals(Files.size(catalog), resharded.getLoadStats().getBytes());
+
+    //a corrupt section loads, and fails when first used
+    byte[] bytes = Files.readAllBytes(snapshot);
+    int rows = (int) ByteBuffer.wrap(bytes).getLong(
+        CatalogSnapshot.TABLE_OFFSET + CatalogSnapshot.ROWS * 24);
+    bytes[rows + 100] ^= 1;
+    Files.write(snapshot, bytes);
+    var corrupt = new VideoLibrary(catalog, snapshot, new CatalogLoader(),
+        CatalogStore.Storage.HEAP, 2);
+    assertEquals(Files.size(snapshot), corrupt.getLoadStats().getBytes());
+    assertThrows(IllegalStateException.class, () -> corrupt.getVideo("id_1"));
+    assertThrows(IllegalStateException.class, () -> corrupt.getVideo("id_2"));
+  }
+
+  private List<String> idsOf(int[] ordinals) {
+    List<String> ids = new ArrayList<>();
+    for (int ordinal : ordinals) {
+      ids.add(videoLibrary.getVideo(ordinal).getVideoId());
+    }
+    return ids;
+  }
+
+  private static List<String> titlesOf(List<Video> videos) {
+    List<String> titles = new ArrayList<>();
+    for (Video video : videos) {
+      titles.add(video.getTitle());
+    }
+    return titles;
+  }
 }